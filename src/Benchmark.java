@@ -0,0 +1,535 @@
+import AST.TranNode;
+import Interpreter.Interpreter;
+import Interpreter.MethodProfile;
+import Optimizer.BranchLayoutPass;
+import Optimizer.InliningPass;
+import Optimizer.ScalarReplacementPass;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.function.Consumer;
+
+/**
+ * Small benchmarks for the interpreter. Each one runs the same Tran program with and without an optimization
+ * and prints the time it took. Run with: java Benchmark
+ */
+public class Benchmark {
+    private static final int RUNS = 8;
+
+    public static void main(String[] args) throws Exception {
+        hotLoop();
+        coldStart();
+        inlining();
+        scalarReplacement();
+        conditions();
+        deepRecursion();
+        calls();
+        objects();
+        expressions();
+        strings();
+        iterators();
+        countedLoops();
+    }
+
+    /**
+     * A start() that spends its whole life in one loop. Promoting start() on its next call never helps here;
+     * only on-stack replacement can get the loop into the optimized tier.
+     */
+    private static void hotLoop() throws Exception {
+        String program = """
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 300000
+                        total = total + Program.square(i)
+                        i = i + 1
+            """;
+        compare("hot loop", program,
+                i -> { i.getTiering().setOsrThreshold(Integer.MAX_VALUE); i.getTiering().setInvocationThreshold(Integer.MAX_VALUE); },
+                i -> i.getTiering().setBackgroundCompilation(false));
+    }
+
+    /**
+     * A run that calls a dozen methods just often enough to get hot, each with a loop whose condition the branch
+     * layout pass can reorder once it has seen which way it goes. Without a profile every method spends its first
+     * few hundred calls (until its back-edges reach the threshold) in the interpreter; with the profile from an earlier
+     * run the methods are compiled, with the earlier run's branch counts, before start() is called. That the profile
+     * really did that is checked, not timed: every hot method was warmed up and never ran interpreted.
+     */
+    private static void coldStart() throws Exception {
+        int methods = 12;
+        StringBuilder program = new StringBuilder("""
+            class Program
+                shared weight(number x) : number w
+                    w = x * x * 3 + x * 7 - 11
+            """);
+        for (int k = 0; k < methods; k++)
+            program.append("""
+                    shared f%s(number x) : number hits
+                        number j
+                        j = 0
+                        loop j < 20
+                            if 0 < Program.weight(x + j) && j %% %d == 0
+                                hits = hits + 1
+                            j = j + 1
+                """.formatted((char) ('a' + k), k + 5));
+        program.append("""
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 1200
+            """);
+        for (int k = 0; k < methods; k++)
+            program.append("            total = total + Program.f%s(i)\n".formatted((char) ('a' + k)));
+        program.append("            i = i + 1\n");
+
+        StringWriter profile = new StringWriter();
+        Interpreter training = interpreter(program.toString());
+        training.getTiering().setBackgroundCompilation(false);
+        training.start();
+        training.writeProfile(profile);
+
+        Interpreter check = interpreter(program.toString());
+        check.getTiering().setBackgroundCompilation(false);
+        int warmedUp = check.loadProfile(new StringReader(profile.toString()));
+        check.start();
+        // the dozen methods and weight()
+        if (warmedUp != methods + 1)
+            throw new IllegalStateException("expected " + (methods + 1) + " methods warmed up from the profile, got " + warmedUp);
+        for (MethodProfile p : check.getTiering().getProfiles())
+            if (!p.method.name.equals("start") && p.getInvocations() != 0)
+                throw new IllegalStateException(p.method.name + " ran " + p.getInvocations() + " times before it was compiled");
+
+        compare("cold start (profile)", program.toString(),
+                i -> i.getTiering().setBackgroundCompilation(false),
+                i -> {
+                    i.getTiering().setBackgroundCompilation(false);
+                    try {
+                        i.loadProfile(new StringReader(profile.toString()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        System.out.printf("%-20s %d methods compiled from the profile before their first call%n", "", warmedUp);
+    }
+
+    /**
+     * Getters and tiny helpers called from a hot loop. Both runs are optimized; only one of them inlines.
+     */
+    private static void inlining() throws Exception {
+        String program = """
+            class Account
+                number balance
+                construct()
+                    balance = 0
+                deposit(number amount)
+                    balance = balance + amount
+                getBalance() : number b
+                    b = balance
+            class Program
+                shared start()
+                    Account a
+                    number i
+                    number total
+                    a = new Account()
+                    i = 0
+                    loop i < 200000
+                        a.deposit(1)
+                        total = a.getBalance()
+                        i = i + 1
+            """;
+        compare("inlining", program,
+                i -> {
+                    i.getTiering().setBackgroundCompilation(false);
+                    i.getTiering().getCompiler().getPass(InliningPass.class).orElseThrow().setSizeBudget(0);
+                },
+                i -> i.getTiering().setBackgroundCompilation(false));
+    }
+
+    /**
+     * A small object made on every trip round a loop and thrown away. Both runs are optimized; only one of them
+     * replaces the objects with locals.
+     */
+    private static void scalarReplacement() throws Exception {
+        String program = """
+            class Vector
+                number x
+                number y
+                construct(number a, number b)
+                    x = a
+                    y = b
+                scale(number f)
+                    x = x * f
+                    y = y * f
+                dot(number a, number b) : number d
+                    d = x * a + y * b
+            class Program
+                shared start()
+                    Vector v
+                    number i
+                    number total
+                    i = 0
+                    loop i < 200000
+                        v = new Vector(i, 2)
+                        v.scale(3)
+                        total = total + v.dot(1, i)
+                        i = i + 1
+            """;
+        compare("scalar replacement", program,
+                i -> {
+                    i.getTiering().setBackgroundCompilation(false);
+                    i.getTiering().getCompiler().getPasses().removeIf(p -> p instanceof ScalarReplacementPass);
+                },
+                i -> i.getTiering().setBackgroundCompilation(false));
+    }
+
+    /**
+     * A loop whose if tests an expensive condition that is nearly always true before a cheap one that is nearly
+     * always false. Both runs are optimized and short-circuit; only one of them puts the cheap side first.
+     */
+    private static void conditions() throws Exception {
+        String program = """
+            class Program
+                shared weight(number x) : number w
+                    w = x * x * 3 + x * 7 - 11
+                shared start()
+                    number i
+                    number hits
+                    i = 0
+                    loop i < 300000
+                        if 0 < Program.weight(i) && i % 10 == 0
+                            hits = hits + 1
+                        i = i + 1
+            """;
+        compare("conditions", program,
+                i -> {
+                    i.getTiering().setBackgroundCompilation(false);
+                    i.getTiering().getCompiler().getPasses().removeIf(p -> p instanceof BranchLayoutPass);
+                },
+                i -> i.getTiering().setBackgroundCompilation(false));
+    }
+
+    /**
+     * A loop written as tail recursion. At a depth the Java stack can take (a few hundred calls), the two runs show
+     * what running a tail call in its caller's place costs or saves; much deeper, only the run with tail call
+     * elimination finishes at all.
+     */
+    private static void deepRecursion() throws Exception {
+        String program = """
+            class Program
+                shared count(number n, number acc) : number total
+                    if n == 0
+                        total = acc
+                    else
+                        total = Program.count(n - 1, acc + 1)
+                shared start()
+                    number total
+                    number i
+                    i = 0
+                    loop i < TIMES
+                        total = Program.count(DEPTH, 0)
+                        i = i + 1
+            """;
+        compare("tail calls", program.replace("DEPTH", "200").replace("TIMES", "500"),
+                i -> {
+                    i.getTiering().setBackgroundCompilation(false);
+                    i.setTailCallElimination(false);
+                },
+                i -> i.getTiering().setBackgroundCompilation(false));
+        String deep = program.replace("DEPTH", "1000000").replace("TIMES", "1");
+        String without;
+        try {
+            without = time(deep, i -> i.setTailCallElimination(false)).nanos() / 1_000_000 + " ms";
+        } catch (RuntimeException e) {
+            without = "too deep";
+        }
+        System.out.printf("%-20s without %s   with %d ms%n", "depth 1000000", without, time(deep, i -> { }).nanos() / 1_000_000);
+    }
+
+    /**
+     * What a call costs: a recursive fib, which is nothing but calls. Every method's locals, arguments and return values
+     * live on the interpreter's frame stack, so the bytes allocated per call are what the values themselves take.
+     */
+    private static void calls() throws Exception {
+        String fib = """
+            class Program
+                shared fib(number n) : number f
+                    number a
+                    number b
+                    if n < 2
+                        f = n
+                    else
+                        a = Program.fib(n - 1)
+                        b = Program.fib(n - 2)
+                        f = a + b
+                shared start()
+                    number f
+                    f = Program.fib(24)
+            """;
+        long calls = 150049;
+        long best = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min(best, time(fib, i -> i.getTiering().setInvocationThreshold(Integer.MAX_VALUE)).nanos());
+            bytes = Math.min(bytes, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        System.out.printf("%-20s %6d ms   %.0f calls/s   %d bytes allocated per call%n", "fib(24)", best / 1_000_000, calls * 1e9 / best, bytes / calls);
+    }
+
+    /**
+     * What an object costs: a linked list of 100000 two-member nodes (memory allocated per "new", including the
+     * member values and the constructor's arguments), and a method that reads and writes its object's members in a loop.
+     */
+    private static void objects() throws Exception {
+        String list = """
+            class Node
+                number value
+                Node next
+                construct(number v, Node n)
+                    value = v
+                    next = n
+            class Program
+                shared start()
+                    number i
+                    Node head
+                    i = 0
+                    loop i < 100000
+                        head = new Node(i, head)
+                        i = i + 1
+            """;
+        long objects = 100000;
+        long bytes = Long.MAX_VALUE;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            time(list, i -> i.getTiering().setOsrThreshold(Integer.MAX_VALUE));
+            bytes = Math.min(bytes, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        System.out.printf("%-20s %d bytes allocated per object%n", "linked list", bytes / objects);
+        String tree = """
+            class Tree
+                Tree left
+                Tree right
+                number size
+                construct(number depth)
+                    number l
+                    number r
+                    size = 1
+                    if depth > 0
+                        left = new Tree(depth - 1)
+                        right = new Tree(depth - 1)
+                        l = left.getSize()
+                        r = right.getSize()
+                        size = size + l + r
+                getSize() : number s
+                    s = size
+            class Program
+                shared start()
+                    Tree t
+                    t = new Tree(16)
+            """;
+        long nodes = (1 << 17) - 1;
+        long best = Long.MAX_VALUE;
+        bytes = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min(best, time(tree, i -> i.getTiering().setOsrThreshold(Integer.MAX_VALUE)).nanos());
+            bytes = Math.min(bytes, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        System.out.printf("%-20s %6d ms   %.0f objects/s   %d bytes allocated per object%n", "binary tree", best / 1_000_000, nodes * 1e9 / best, bytes / nodes);
+        String fields = """
+            class Counter
+                number count
+                number step
+                construct()
+                    step = 2
+                run(number n)
+                    number i
+                    i = 0
+                    loop i < n
+                        count = count + step
+                        i = i + 1
+            class Program
+                shared start()
+                    Counter c
+                    c = new Counter()
+                    c.run(300000)
+            """;
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+            best = Math.min(best, time(fields, i -> i.getTiering().setOsrThreshold(Integer.MAX_VALUE)).nanos());
+        System.out.printf("%-20s %6d ms   %.0f member accesses/s%n", "member loop", best / 1_000_000, 3 * 300000 * 1e9 / best);
+    }
+
+    /**
+     * Plain arithmetic and comparisons in the interpreter, without the optimizer: how much garbage each trip around
+     * the loop makes.
+     */
+    private static void expressions() throws Exception {
+        String program = """
+            class Program
+                shared start()
+                    number i
+                    number evens
+                    i = 0
+                    loop i < 300000
+                        if i % 2 == 0
+                            evens = evens + 1
+                        i = i + 1
+            """;
+        long iterations = 300000;
+        long best = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min(best, time(program, i -> { i.getTiering().setOsrThreshold(Integer.MAX_VALUE); i.getTiering().setInvocationThreshold(Integer.MAX_VALUE); }).nanos());
+            bytes = Math.min(bytes, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        System.out.printf("%-20s %6d ms   %d bytes allocated per iteration%n", "expressions", best / 1_000_000, bytes / iterations);
+    }
+
+    /**
+     * Building a 10 MB string a hundred characters at a time, then looking at it once. Concatenation that copies both
+     * sides every time makes this quadratic.
+     */
+    private static void strings() throws Exception {
+        String program = """
+            class Program
+                shared start()
+                    string s
+                    string piece
+                    number n
+                    piece = "%s"
+                    n = 100000
+                    loop n.times()
+                        s = s + piece
+                    if s == piece
+                        console.write("never")
+            """.formatted("0123456789".repeat(10));
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+            best = Math.min(best, time(program, i -> i.getTiering().setOsrThreshold(Integer.MAX_VALUE)).nanos());
+        System.out.printf("%-20s %6d ms%n", "10 MB string", best / 1_000_000);
+    }
+
+    /**
+     * Loops over an object that implements iterator (a getNext() call per item) and over the characters of a string
+     * (no Tran code per item).
+     */
+    private static void iterators() throws Exception {
+        String program = """
+            class Counter implements iterator
+                number left
+                construct(number n)
+                    left = n
+                getNext() : boolean more, number value
+                    if left > 0
+                        more = true
+                    value = left
+                    left = left - 1
+            class Program
+                shared start()
+                    Counter c
+                    number v
+                    number total
+                    string s
+                    character ch
+                    number n
+                    c = new Counter(200000)
+                    v = loop c
+                        total = total + v
+                    s = "%s"
+                    n = 0
+                    loop n < 10
+                        ch = loop s
+                            total = total + 1
+                        n = n + 1
+            """.formatted("0123456789".repeat(2000));
+        long items = 200000 + 10 * 20000;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+            best = Math.min(best, time(program, i -> i.getTiering().setBackgroundCompilation(false)).nanos());
+        System.out.printf("%-20s %6d ms   %.0f items/s%n", "iterator loops", best / 1_000_000, items * 1e9 / best);
+    }
+
+    /**
+     * Tight counted loops: a times() on an expression and a range with a step, with almost nothing in the body, so the
+     * time is mostly the loop's own counting.
+     */
+    private static void countedLoops() throws Exception {
+        String program = """
+            class Program
+                shared start()
+                    number n
+                    number i
+                    number total
+                    n = 500000
+                    i = loop (n * 2).times()
+                        total = total + 1
+                    i = loop number.range(0, n * 2, 2)
+                        total = total + 1
+            """;
+        long trips = 1000000 + 500001;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+            best = Math.min(best, time(program, i -> i.getTiering().setBackgroundCompilation(false)).nanos());
+        System.out.printf("%-20s %6d ms   %.0f trips/s%n", "counted loops", best / 1_000_000, trips * 1e9 / best);
+    }
+
+    /**
+     * The two configurations take turns, so that neither one gets all of the JVM's warm-up.
+     */
+    private static void compare(String name, String program, Consumer<Interpreter> baseline, Consumer<Interpreter> optimized) throws Exception {
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        Run baselineRun = null, optimizedRun = null;
+        for (int i = 0; i < RUNS; i++) {
+            baselineRun = time(program, baseline);
+            optimizedRun = time(program, optimized);
+            before = Math.min(before, baselineRun.nanos());
+            after = Math.min(after, optimizedRun.nanos());
+        }
+        before /= 1_000_000;
+        after /= 1_000_000;
+        System.out.printf("%-20s baseline %6d ms   optimized %6d ms   speedup %.2fx   objects %d -> %d (%d allocations avoided)%n",
+                name, before, after, (double) before / after, baselineRun.objects(), optimizedRun.objects(), optimizedRun.avoided());
+    }
+
+    /**
+     * @param objects - how many objects "new" created
+     * @param avoided - how many "new"s ran without creating an object
+     */
+    private record Run(long nanos, long objects, long avoided) { }
+
+    /**
+     * Configuring the interpreter (including loading a profile) is part of the timed run.
+     * @return how long one run took, in nanoseconds, and what it allocated
+     */
+    private static Run time(String program, Consumer<Interpreter> configure) throws Exception {
+        Interpreter interpreter = interpreter(program);
+        long start = System.nanoTime();
+        configure.accept(interpreter);
+        interpreter.start();
+        long nanos = System.nanoTime() - start;
+        return new Run(nanos, interpreter.getObjectsCreated(), interpreter.getAllocationsAvoided());
+    }
+
+    private static Interpreter interpreter(String program) throws Exception {
+        LinkedList<Token> tokens = new Lexer(program).Lex();
+        TranNode root = new TranNode();
+        new Parser(root, tokens).Tran();
+        return new Interpreter(root);
+    }
+}
@@ -0,0 +1,48 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tran passes variables by reference: if a parameter is just a variable name, the called method gets that variable
+ * itself and any assignment it makes is seen by the caller. This is the value the parameter'th argument has after
+ * the call returns.
+ */
+public class ArgumentOutInst extends Instruction {
+    public final int parameter;
+    /** other parameters of the same call that name the same variable, so they are the same variable in the callee too */
+    public final List<Integer> sameVariable = new ArrayList<>();
+
+    /**
+     * @param call - a CallInst or NewInst (constructor parameters are passed by reference too)
+     */
+    public ArgumentOutInst(String type, Instruction call, int parameter) {
+        super(type, call);
+        this.parameter = parameter;
+    }
+
+    public Instruction call() {
+        return (Instruction) operands.getFirst();
+    }
+
+    /**
+     * Keeps the parameters in sameVariable tied together even if nobody reads the variable afterwards.
+     */
+    @Override
+    public boolean hasSideEffects() {
+        return !sameVariable.isEmpty();
+    }
+
+    @Override
+    public String opcode() {
+        return "argout";
+    }
+
+    @Override
+    protected String describeOperands() {
+        StringBuilder sb = new StringBuilder(operands.getFirst().reference()).append(", ").append(parameter);
+        for (int k : sameVariable)
+            sb.append(" = ").append(k);
+        return sb.toString();
+    }
+}
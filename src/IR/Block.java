@@ -0,0 +1,71 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A basic block: phis, then straight-line instructions, then one terminator.
+ */
+public class Block {
+    public final int id;
+    public final List<Phi> phis = new ArrayList<>();
+    public final List<Instruction> instructions = new ArrayList<>();
+    public Terminator terminator;
+    /** Kept up to date by IRFunction.computePredecessors(); phi operands line up with this list */
+    public final List<Block> predecessors = new ArrayList<>();
+
+    Block(int id) {
+        this.id = id;
+    }
+
+    public String name() {
+        return "b" + id;
+    }
+
+    public List<Block> successors() {
+        return terminator == null ? List.of() : terminator.successors();
+    }
+
+    public <T extends Instruction> T add(T instruction) {
+        instruction.block = this;
+        instructions.add(instruction);
+        return instruction;
+    }
+
+    public Phi addPhi(Phi phi) {
+        phi.block = this;
+        phis.add(phi);
+        return phi;
+    }
+
+    public void setTerminator(Terminator terminator) {
+        terminator.block = this;
+        this.terminator = terminator;
+    }
+
+    /**
+     * @return phis, instructions and the terminator, in order
+     */
+    public List<Instruction> all() {
+        List<Instruction> all = new ArrayList<>(phis.size() + instructions.size() + 1);
+        all.addAll(phis);
+        all.addAll(instructions);
+        if (terminator != null)
+            all.add(terminator);
+        return all;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name()).append(":");
+        if (!predecessors.isEmpty()) {
+            sb.append("    ; from");
+            for (Block p : predecessors)
+                sb.append(" ").append(p.name());
+        }
+        sb.append("\n");
+        for (Instruction i : all())
+            sb.append("    ").append(i).append("\n");
+        return sb.toString();
+    }
+}
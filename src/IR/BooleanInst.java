@@ -0,0 +1,28 @@
+package IR;
+
+import AST.BooleanOpNode;
+
+/**
+ * left and/or right. Both sides are always evaluated, like the interpreter does.
+ */
+public class BooleanInst extends Instruction {
+    public BooleanOpNode.BooleanOperations op;
+
+    public BooleanInst(BooleanOpNode.BooleanOperations op, Value left, Value right) {
+        super("boolean", left, right);
+        this.op = op;
+    }
+
+    public Value left() {
+        return operands.get(0);
+    }
+
+    public Value right() {
+        return operands.get(1);
+    }
+
+    @Override
+    public String opcode() {
+        return op.toString();
+    }
+}
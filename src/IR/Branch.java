@@ -0,0 +1,44 @@
+package IR;
+
+import java.util.List;
+
+/**
+ * Go to ifTrue if the condition is true, otherwise to ifFalse.
+ */
+public class Branch extends Terminator {
+    public Block ifTrue;
+    public Block ifFalse;
+
+    public Branch(Value condition, Block ifTrue, Block ifFalse) {
+        super(condition);
+        this.ifTrue = ifTrue;
+        this.ifFalse = ifFalse;
+    }
+
+    public Value condition() {
+        return operands.getFirst();
+    }
+
+    @Override
+    public List<Block> successors() {
+        return List.of(ifTrue, ifFalse);
+    }
+
+    @Override
+    public void replaceSuccessor(Block old, Block replacement) {
+        if (ifTrue == old)
+            ifTrue = replacement;
+        if (ifFalse == old)
+            ifFalse = replacement;
+    }
+
+    @Override
+    public String opcode() {
+        return "branch";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return condition().reference() + ", " + ifTrue.name() + ", " + ifFalse.name();
+    }
+}
@@ -0,0 +1,76 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A method call. The call itself has no Tran value; its return values are read with ResultInst, and the new values
+ * of variables that were passed by reference with ArgumentOutInst.
+ * For a VALUE call the receiver is operand 0 and the parameters follow it.
+ */
+public class CallInst extends Instruction {
+    public enum Kind {
+        SELF,   // someMethod() - a method of the object the function runs on
+        VALUE,  // x.someMethod() - x is a local, parameter or member
+        STATIC  // SomeClass.someMethod() - a shared method
+    }
+
+    public final Kind kind;
+    /** the class name for a STATIC call, otherwise null */
+    public final String className;
+    public final String methodName;
+    /** the types of the values the call returns, as far as the caller uses them */
+    public final List<String> resultTypes = new ArrayList<>();
+    /** true if the callee is a built-in method, which never assigns to its parameters */
+    public boolean builtIn;
+
+    public CallInst(Kind kind, String className, String methodName, Value receiver, List<Value> parameters) {
+        super("void");
+        this.kind = kind;
+        this.className = className;
+        this.methodName = methodName;
+        if (kind == Kind.VALUE)
+            operands.add(receiver);
+        operands.addAll(parameters);
+    }
+
+    public Value receiver() {
+        return kind == Kind.VALUE ? operands.getFirst() : null;
+    }
+
+    /**
+     * @return the index in operands of the first parameter
+     */
+    public int firstParameter() {
+        return kind == Kind.VALUE ? 1 : 0;
+    }
+
+    public List<Value> parameters() {
+        return operands.subList(firstParameter(), operands.size());
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public String opcode() {
+        return "call";
+    }
+
+    @Override
+    protected String describeOperands() {
+        StringBuilder sb = new StringBuilder();
+        switch (kind) {
+            case SELF -> sb.append("self.");
+            case VALUE -> sb.append(receiver().reference()).append(".");
+            case STATIC -> sb.append(className).append(".");
+        }
+        sb.append(methodName).append("(");
+        List<Value> parameters = parameters();
+        for (int i = 0; i < parameters.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append(parameters.get(i).reference());
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,28 @@
+package IR;
+
+import AST.CompareNode;
+
+/**
+ * left op right; always a boolean.
+ */
+public class CompareInst extends Instruction {
+    public CompareNode.CompareOperations op;
+
+    public CompareInst(CompareNode.CompareOperations op, Value left, Value right) {
+        super("boolean", left, right);
+        this.op = op;
+    }
+
+    public Value left() {
+        return operands.get(0);
+    }
+
+    public Value right() {
+        return operands.get(1);
+    }
+
+    @Override
+    public String opcode() {
+        return op.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package IR;
+
+/**
+ * A literal value. "value" is a Float, String, Boolean or Character; a constant of a class or interface type is the
+ * default value a variable of that type starts out with (value is null).
+ */
+public class Constant extends Value {
+    public final Object value;
+
+    public Constant(String type, Object value) {
+        super(type);
+        this.value = value;
+    }
+
+    public static Constant number(float value) {
+        return new Constant("number", value);
+    }
+
+    public static Constant string(String value) {
+        return new Constant("string", value);
+    }
+
+    public static Constant bool(boolean value) {
+        return new Constant("boolean", value);
+    }
+
+    public static Constant character(char value) {
+        return new Constant("character", value);
+    }
+
+    /**
+     * @return the value a variable of this type has before it is assigned
+     */
+    public static Constant defaultFor(String type) {
+        return switch (type) {
+            case "number" -> number(0);
+            case "string" -> string("");
+            case "boolean" -> bool(false);
+            case "character" -> character(' ');
+            default -> new Constant(type, null);
+        };
+    }
+
+    @Override
+    public String reference() {
+        return switch (value) {
+            case null -> "default " + type;
+            case String s -> "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+            case Character c -> "'" + c + "'";
+            default -> value.toString();
+        };
+    }
+}
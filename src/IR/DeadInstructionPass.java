@@ -0,0 +1,34 @@
+package IR;
+
+import java.util.*;
+
+/**
+ * Removes instructions (and phis) whose results are never used and that have no side effects. A value that is only
+ * used by other dead instructions is dead too, so this works backwards from the instructions that have to stay.
+ */
+public class DeadInstructionPass implements IRPass {
+    @Override
+    public String name() {
+        return "dead-instructions";
+    }
+
+    @Override
+    public boolean run(IRFunction f) {
+        Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Instruction> work = new ArrayDeque<>();
+        for (Block b : f.blocks)
+            for (Instruction i : b.all())
+                if (i.hasSideEffects() && live.add(i))
+                    work.push(i);
+        while (!work.isEmpty())
+            for (Value v : work.pop().operands)
+                if (v instanceof Instruction i && live.add(i))
+                    work.push(i);
+        boolean changed = false;
+        for (Block b : f.blocks) {
+            changed |= b.phis.removeIf(phi -> !live.contains(phi));
+            changed |= b.instructions.removeIf(i -> !live.contains(i));
+        }
+        return changed;
+    }
+}
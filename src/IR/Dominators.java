@@ -0,0 +1,108 @@
+package IR;
+
+import java.util.*;
+
+/**
+ * The dominator tree of a function (or, with post = true, the post-dominator tree: which blocks every path from a
+ * block to the Return goes through). Uses the iterative algorithm from Cooper, Harvey and Kennedy,
+ * "A Simple, Fast Dominance Algorithm".
+ */
+public class Dominators {
+    private final boolean post;
+    private final IdentityHashMap<Block, Block> idom = new IdentityHashMap<>();
+    private final IdentityHashMap<Block, Integer> order = new IdentityHashMap<>();
+
+    public Dominators(IRFunction f) {
+        this(f, false);
+    }
+
+    public Dominators(IRFunction f, boolean post) {
+        this.post = post;
+        Block root = post ? exit(f) : f.entry();
+        if (root == null)
+            return;
+        List<Block> rpo = new ArrayList<>();
+        postOrder(root, Collections.newSetFromMap(new IdentityHashMap<>()), rpo);
+        Collections.reverse(rpo);
+        for (int i = 0; i < rpo.size(); i++)
+            order.put(rpo.get(i), i);
+        idom.put(root, root);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block b : rpo) {
+                if (b == root)
+                    continue;
+                Block newIdom = null;
+                for (Block p : predecessors(b)) {
+                    if (!idom.containsKey(p))
+                        continue;
+                    newIdom = newIdom == null ? p : intersect(p, newIdom);
+                }
+                if (newIdom != null && idom.get(b) != newIdom) {
+                    idom.put(b, newIdom);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static Block exit(IRFunction f) {
+        for (Block b : f.blocks)
+            if (b.terminator instanceof Return)
+                return b;
+        return null;
+    }
+
+    private List<Block> successors(Block b) {
+        return post ? b.predecessors : b.successors();
+    }
+
+    private List<Block> predecessors(Block b) {
+        return post ? b.successors() : b.predecessors;
+    }
+
+    private void postOrder(Block b, Set<Block> visited, List<Block> out) {
+        if (!visited.add(b))
+            return;
+        for (Block s : successors(b))
+            postOrder(s, visited, out);
+        out.add(b);
+    }
+
+    private Block intersect(Block a, Block b) {
+        while (a != b) {
+            while (order.get(a) > order.get(b))
+                a = idom.get(a);
+            while (order.get(b) > order.get(a))
+                b = idom.get(b);
+        }
+        return a;
+    }
+
+    /**
+     * @return the immediate (post-)dominator of b, or null for the root and for blocks the root can't reach
+     */
+    public Block idom(Block b) {
+        Block d = idom.get(b);
+        return d == b ? null : d;
+    }
+
+    /**
+     * @return true if every path to b goes through a (a block dominates itself)
+     */
+    public boolean dominates(Block a, Block b) {
+        if (!idom.containsKey(b))
+            return false;
+        for (Block x = b; ; x = idom.get(x)) {
+            if (x == a)
+                return true;
+            if (idom.get(x) == x)
+                return false;
+        }
+    }
+
+    public boolean isReachable(Block b) {
+        return idom.containsKey(b);
+    }
+}
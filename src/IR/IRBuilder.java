@@ -0,0 +1,479 @@
+package IR;
+
+import AST.*;
+
+import java.util.*;
+
+/**
+ * Builds the SSA form of a method or constructor from its AST.
+ *
+ * Tran only has structured control flow (if/else and loops without break), so SSA construction is done in one walk:
+ * the current value of every local variable is kept in a map; an if merges the maps from its two arms with phis, and
+ * a loop puts a phi for every local in its header up front and fills in the back-edge once the body is built. Phis
+ * that turn out to merge a value with itself are removed at the end.
+ *
+ * Anything the builder can't express (a type it can't work out, members in a shared method, ...) throws a
+ * RuntimeException; callers keep using the AST for that method.
+ */
+public class IRBuilder {
+    private final TranNode top;
+
+    private IRFunction f;
+    private ClassNode owner;
+    private Block current;
+    private Map<String, Value> defs;
+    private final Map<String, String> localTypes = new LinkedHashMap<>();
+
+    public IRBuilder(TranNode top) {
+        this.top = top;
+    }
+
+    public IRFunction build(ClassNode owner, MethodDeclarationNode m) {
+        return build(owner, m, m.locals, m.statements);
+    }
+
+    /**
+     * Build from a body other than the method's own - an optimized copy, for instance.
+     */
+    public IRFunction build(ClassNode owner, MethodDeclarationNode m, List<VariableDeclarationNode> locals, List<StatementNode> statements) {
+        return build(new IRFunction(owner.name + "." + m.name, owner, m, m.isShared), owner, m.parameters, m.returns, locals, statements);
+    }
+
+    public IRFunction build(ClassNode owner, ConstructorNode c) {
+        return build(new IRFunction(owner.name + ".construct", owner, c, false), owner, c.parameters, List.of(), c.locals, c.statements);
+    }
+
+    private IRFunction build(IRFunction function, ClassNode cls, List<VariableDeclarationNode> parameters, List<VariableDeclarationNode> returns,
+                             List<VariableDeclarationNode> locals, List<StatementNode> statements) {
+        f = function;
+        owner = cls;
+        localTypes.clear();
+        defs = new LinkedHashMap<>();
+        current = f.newBlock();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableDeclarationNode vd = parameters.get(i);
+            Parameter p = f.number(new Parameter(vd.type, vd.name, i));
+            f.parameters.add(p);
+            declare(vd, p);
+        }
+        for (VariableDeclarationNode vd : returns) {
+            f.returns.add(vd);
+            declare(vd, Constant.defaultFor(vd.type));
+        }
+        for (VariableDeclarationNode vd : locals)
+            declare(vd, Constant.defaultFor(vd.type));
+
+        statements(statements);
+
+        Return ret = new Return();
+        for (VariableDeclarationNode vd : returns)
+            ret.add(vd.name, defs.get(vd.name));
+        for (VariableDeclarationNode vd : parameters)
+            ret.add(vd.name, defs.get(vd.name));
+        terminate(ret);
+        f.computePredecessors();
+        SimplifyPhisPass.simplify(f);
+        return f;
+    }
+
+    private void declare(VariableDeclarationNode vd, Value initial) {
+        if (localTypes.containsKey(vd.name))
+            throw new RuntimeException(String.format("Variable '%s' is already defined", vd.name));
+        localTypes.put(vd.name, vd.type);
+        defs.put(vd.name, initial);
+    }
+
+    //              Statements
+
+    private void statements(List<StatementNode> statements) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> assign(a.target.name, expression(a.expression));
+                case MethodCallStatementNode mc -> {
+                    List<String> resultTypes = new ArrayList<>();
+                    for (VariableReferenceNode target : mc.returnValues)
+                        resultTypes.add(variableType(target.name));
+                    CallInst call = call(mc.objectName, mc.methodName, mc.parameters, resultTypes, mc);
+                    for (int i = 0; i < mc.returnValues.size(); i++)
+                        assign(mc.returnValues.get(i).name, add(new ResultInst(resultTypes.get(i), call, i), mc));
+                }
+                case IfNode i -> ifStatement(i);
+                case LoopNode l -> loop(l);
+                default -> throw new RuntimeException("Unknown statement " + s.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private void ifStatement(IfNode i) {
+        Value condition = expectType(expression(i.condition), "boolean", i);
+        Block thenBlock = f.newBlock();
+        Block elseBlock = f.newBlock();
+        Block join = f.newBlock();
+        terminate(new Branch(condition, thenBlock, elseBlock), i);
+        Map<String, Value> before = new LinkedHashMap<>(defs);
+
+        current = thenBlock;
+        statements(i.statements);
+        Block thenEnd = current;
+        Map<String, Value> thenDefs = defs;
+        terminate(new Jump(join));
+
+        current = elseBlock;
+        defs = new LinkedHashMap<>(before);
+        if (i.elseStatement.isPresent())
+            statements(i.elseStatement.get().statements);
+        Block elseEnd = current;
+        Map<String, Value> elseDefs = defs;
+        terminate(new Jump(join));
+
+        current = join;
+        defs = new LinkedHashMap<>();
+        for (String name : thenDefs.keySet()) {
+            Value a = thenDefs.get(name), b = elseDefs.get(name);
+            if (a == b) {
+                defs.put(name, a);
+                continue;
+            }
+            Phi phi = join.addPhi(f.number(new Phi(localTypes.get(name))));
+            phi.addIncoming(thenEnd, a);
+            phi.addIncoming(elseEnd, b);
+            defs.put(name, phi);
+        }
+    }
+
+    /**
+     * loop x.times() counts from 0 while the counter is less than x (x is read again every time around) and sets the
+     * loop variable to the count before each pass, so it goes 0, 1, ... x - 1 like number.times(); any other loop checks its condition before every pass and sets the
+     * loop variable to the condition.
+     */
+    private void loop(LoopNode loop) {
+        Block preheader = current;
+        Block header = f.newBlock();
+        terminate(new Jump(header));
+        current = header;
+        Map<String, Phi> phis = new LinkedHashMap<>();
+        for (Map.Entry<String, Value> e : defs.entrySet()) {
+            Phi phi = header.addPhi(f.number(new Phi(localTypes.get(e.getKey()))));
+            phi.addIncoming(preheader, e.getValue());
+            phis.put(e.getKey(), phi);
+            e.setValue(phi);
+        }
+
+        String times = timesVariable(loop.expression);
+        Phi counter = null;
+        Value condition;
+        if (times != null) {
+            counter = header.addPhi(f.number(new Phi("number")));
+            counter.addIncoming(preheader, Constant.number(0));
+            condition = add(new CompareInst(CompareNode.CompareOperations.lt, counter, variable(times, loop.expression)), loop.expression);
+        } else {
+            condition = expectType(expression(loop.expression), "boolean", loop);
+            if (loop.assignment.isPresent())
+                assign(loop.assignment.get().name, condition);
+        }
+        Block body = f.newBlock();
+        Block exit = f.newBlock();
+        terminate(new Branch(condition, body, exit), loop);
+        Map<String, Value> afterHeader = new LinkedHashMap<>(defs);
+
+        current = body;
+        if (counter != null && loop.assignment.isPresent())
+            assign(loop.assignment.get().name, counter);
+        statements(loop.statements);
+        if (counter != null) {
+            Value next = add(new MathInst(MathOpNode.MathOperations.add, "number", counter, Constant.number(1)), loop);
+            counter.addIncoming(current, next);
+        }
+        for (Map.Entry<String, Phi> e : phis.entrySet())
+            e.getValue().addIncoming(current, defs.get(e.getKey()));
+        terminate(new Jump(header));
+
+        current = exit;
+        defs = afterHeader;
+    }
+
+    /**
+     * @return the name of x if this is a "x.times()" loop over a number variable, otherwise null
+     */
+    private String timesVariable(ExpressionNode expression) {
+        if (expression instanceof MethodCallExpressionNode mc && mc.methodName.equals("times") && mc.objectName.isPresent()
+                && mc.parameters.isEmpty() && "number".equals(findVariableType(mc.objectName.get())))
+            return mc.objectName.get();
+        return null;
+    }
+
+    //              Expressions
+
+    private Value expression(ExpressionNode e) {
+        switch (e) {
+            case NumericLiteralNode n -> {
+                return Constant.number(n.value);
+            }
+            case StringLiteralNode s -> {
+                return Constant.string(s.value);
+            }
+            case BooleanLiteralNode b -> {
+                return Constant.bool(b.value);
+            }
+            case CharLiteralNode c -> {
+                return Constant.character(c.value);
+            }
+            case VariableReferenceNode v -> {
+                return variable(v.name, v);
+            }
+            case MathOpNode m -> {
+                Value left = expression(m.left);
+                Value right = expression(m.right);
+                String type;
+                if (left.type.equals("number") && right.type.equals("number"))
+                    type = "number";
+                else if (left.type.equals("string") && right.type.equals("string") && m.op == MathOpNode.MathOperations.add)
+                    type = "string";
+                else
+                    throw new RuntimeException("Operation '" + m.op + "' not supported for " + left.type + " and " + right.type);
+                return add(new MathInst(m.op, type, left, right), m);
+            }
+            case CompareNode c -> {
+                Value left = expression(c.left);
+                Value right = expression(c.right);
+                if (!left.type.equals(right.type))
+                    throw new RuntimeException("Unable to compare " + left.type + " with " + right.type);
+                return add(new CompareInst(c.op, left, right), c);
+            }
+            case BooleanOpNode b -> {
+                // A BooleanInst has both sides already evaluated, which is only right if evaluating the right side
+                // when the left side decided the result can't do anything
+                if (callsOrCreates(b.right))
+                    throw new RuntimeException("Unable to short-circuit '" + b.op + "' around a call");
+                Value left = expectType(expression(b.left), "boolean", b);
+                Value right = expectType(expression(b.right), "boolean", b);
+                return add(new BooleanInst(b.op, left, right), b);
+            }
+            case NotOpNode n -> {
+                return add(new NotInst(expectType(expression(n.left), "boolean", n)), n);
+            }
+            case MethodCallExpressionNode mc -> {
+                MethodHeaderNode callee = resolve(mc.objectName, mc.methodName);
+                if (callee == null || callee.returns.isEmpty())
+                    throw new RuntimeException("Unable to find the return type of '" + mc.methodName + "'");
+                String type = callee.returns.getFirst().type;
+                CallInst call = call(mc.objectName, mc.methodName, mc.parameters, List.of(type), mc);
+                return add(new ResultInst(type, call, 0), mc);
+            }
+            case NewNode n -> {
+                if (findClass(n.className) == null)
+                    throw new RuntimeException("Class not found");
+                List<Value> parameters = parameters(n.parameters);
+                NewInst instance = add(new NewInst(n.className, parameters), n);
+                passByReference(instance, n.parameters);
+                return instance;
+            }
+            default -> throw new RuntimeException("Unknown expression " + e.getClass().getSimpleName());
+        }
+    }
+
+    private List<Value> parameters(List<ExpressionNode> parameters) {
+        List<Value> values = new ArrayList<>(parameters.size());
+        for (ExpressionNode p : parameters)
+            values.add(expression(p));
+        return values;
+    }
+
+    /**
+     * A call, resolved the same way the interpreter does: no object name is a method of this object; otherwise the
+     * name is a local, then a member, then a class with a shared method.
+     */
+    private CallInst call(Optional<String> objectName, String methodName, List<ExpressionNode> parameterNodes, List<String> resultTypes, Node source) {
+        CallInst call;
+        if (objectName.isEmpty()) {
+            if (f.isShared)
+                throw new RuntimeException("Expected object identifier in method call");
+            call = new CallInst(CallInst.Kind.SELF, null, methodName, null, parameters(parameterNodes));
+        } else if (findVariableType(objectName.get()) != null) {
+            Value receiver = variable(objectName.get(), source);
+            call = new CallInst(CallInst.Kind.VALUE, null, methodName, receiver, parameters(parameterNodes));
+        } else {
+            call = new CallInst(CallInst.Kind.STATIC, objectName.get(), methodName, null, parameters(parameterNodes));
+        }
+        call.resultTypes.addAll(resultTypes);
+        add(call, source);
+        // Built-in methods never assign to their parameters
+        call.builtIn = resolve(objectName, methodName) instanceof BuiltInHeader;
+        if (!call.builtIn)
+            passByReference(call, parameterNodes);
+        return call;
+    }
+
+    /**
+     * Every parameter that is just a variable name may be changed by the call; give that variable the value it has
+     * afterwards. A variable named twice is one variable in the callee as well.
+     */
+    private void passByReference(Instruction call, List<ExpressionNode> parameterNodes) {
+        Map<String, ArgumentOutInst> seen = new HashMap<>();
+        for (int i = 0; i < parameterNodes.size(); i++) {
+            if (!(parameterNodes.get(i) instanceof VariableReferenceNode v))
+                continue;
+            if (seen.containsKey(v.name)) {
+                seen.get(v.name).sameVariable.add(i);
+                continue;
+            }
+            ArgumentOutInst out = add(new ArgumentOutInst(variableType(v.name), call, i), call.source);
+            seen.put(v.name, out);
+        }
+        for (ArgumentOutInst out : seen.values())
+            assign(((VariableReferenceNode) parameterNodes.get(out.parameter)).name, out);
+    }
+
+    //              Variables
+
+    private Value variable(String name, Node source) {
+        Value v = defs.get(name);
+        if (v != null)
+            return v;
+        String type = memberType(name);
+        if (type == null)
+            throw new RuntimeException("Unable to find variable '" + name + "'. Was it declared?");
+        if (f.isShared)
+            throw new RuntimeException("Member '" + name + "' used in a shared method");
+        return add(new LoadMember(type, name), source);
+    }
+
+    private void assign(String name, Value value) {
+        String type = variableType(name);
+        if (!isAssignable(type, value.type))
+            throw new RuntimeException("Trying to assign a " + value.type + " to '" + name + "', which is a " + type);
+        if (defs.containsKey(name)) {
+            defs.put(name, value);
+            return;
+        }
+        if (f.isShared)
+            throw new RuntimeException("Member '" + name + "' used in a shared method");
+        add(new StoreMember(name, value), value instanceof Instruction i ? i.source : null);
+    }
+
+    private String variableType(String name) {
+        String type = findVariableType(name);
+        if (type == null)
+            throw new RuntimeException("Unable to find variable '" + name + "'. Was it declared?");
+        return type;
+    }
+
+    private String findVariableType(String name) {
+        String type = localTypes.get(name);
+        return type != null ? type : memberType(name);
+    }
+
+    private String memberType(String name) {
+        for (MemberNode m : owner.members)
+            if (m.declaration.name.equals(name))
+                return m.declaration.type;
+        return null;
+    }
+
+    /**
+     * @return true if a variable of type "target" can hold a value of type "value"
+     */
+    private boolean isAssignable(String target, String value) {
+        if (target.equals(value))
+            return true;
+        if (isPrimitive(target) || isPrimitive(value))
+            return false;
+        ClassNode c = findClass(value);
+        // A class is assignable to the interfaces it implements; interface to class needs a runtime check, allow it
+        return c == null || c.interfaces.contains(target) || findClass(target) == null;
+    }
+
+    public static boolean isPrimitive(String type) {
+        return switch (type) {
+            case "number", "string", "boolean", "character" -> true;
+            default -> false;
+        };
+    }
+
+    //              Lookup
+
+    /** A MethodHeaderNode stand-in for a built-in method, so callers can tell it apart */
+    private static class BuiltInHeader extends MethodHeaderNode {
+    }
+
+    /**
+     * @return the declaration of the method this call will most likely run (null if it can't be worked out)
+     */
+    private MethodHeaderNode resolve(Optional<String> objectName, String methodName) {
+        if (objectName.isEmpty())
+            return header(findMethod(owner, methodName, false));
+        String type = findVariableType(objectName.get());
+        if (type != null) {
+            ClassNode c = findClass(type);
+            if (c != null)
+                return header(findMethod(c, methodName, false));
+            for (InterfaceNode i : top.Interfaces)
+                if (i.name.equals(type))
+                    for (MethodHeaderNode h : i.methods)
+                        if (h.name.equals(methodName))
+                            return h;
+            return null;
+        }
+        ClassNode c = findClass(objectName.get());
+        return c == null ? null : header(findMethod(c, methodName, true));
+    }
+
+    private static MethodDeclarationNode findMethod(ClassNode c, String name, boolean shared) {
+        for (MethodDeclarationNode m : c.methods)
+            if (m.name.equals(name) && (!shared || m.isShared))
+                return m;
+        return null;
+    }
+
+    private static MethodHeaderNode header(MethodDeclarationNode m) {
+        if (m == null)
+            return null;
+        MethodHeaderNode h = m instanceof BuiltInMethodDeclarationNode ? new BuiltInHeader() : new MethodHeaderNode();
+        h.name = m.name;
+        h.parameters = m.parameters;
+        h.returns = m.returns;
+        return h;
+    }
+
+    private ClassNode findClass(String name) {
+        for (ClassNode c : top.Classes)
+            if (c.name.equals(name))
+                return c;
+        return null;
+    }
+
+    //              Blocks
+
+    private <T extends Instruction> T add(T instruction, Node source) {
+        instruction.source = source;
+        f.number(instruction);
+        return current.add(instruction);
+    }
+
+    private void terminate(Terminator t) {
+        terminate(t, null);
+    }
+
+    private void terminate(Terminator t, Node source) {
+        t.source = source;
+        current.setTerminator(t);
+    }
+
+    private static boolean callsOrCreates(ExpressionNode e) {
+        return switch (e) {
+            case MethodCallExpressionNode mc -> true;
+            case NewNode n -> true;
+            case BooleanOpNode b -> callsOrCreates(b.left) || callsOrCreates(b.right);
+            case CompareNode c -> callsOrCreates(c.left) || callsOrCreates(c.right);
+            case MathOpNode m -> callsOrCreates(m.left) || callsOrCreates(m.right);
+            case NotOpNode n -> callsOrCreates(n.left);
+            default -> false;
+        };
+    }
+
+    private static Value expectType(Value v, String type, Node source) {
+        if (!v.type.equals(type))
+            throw new RuntimeException("Expected a " + type + " in " + source + ", found a " + v.type);
+        return v;
+    }
+}
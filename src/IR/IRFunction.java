@@ -0,0 +1,159 @@
+package IR;
+
+import AST.ClassNode;
+import AST.Node;
+import AST.VariableDeclarationNode;
+
+import java.util.*;
+
+/**
+ * One method or constructor in SSA form. Local variables (including parameters and return variables) only exist as
+ * values; member variables are read and written with LoadMember/StoreMember. blocks.get(0) is the entry block, and
+ * there is exactly one block that ends in a Return.
+ */
+public class IRFunction {
+    public final String name;
+    public final ClassNode owner;
+    /** the MethodDeclarationNode or ConstructorNode this was built from */
+    public final Node source;
+    public final boolean isShared;
+    public final List<Parameter> parameters = new ArrayList<>();
+    public final List<VariableDeclarationNode> returns = new ArrayList<>();
+    public final List<Block> blocks = new ArrayList<>();
+    private int nextBlock;
+    private int nextValue;
+
+    public IRFunction(String name, ClassNode owner, Node source, boolean isShared) {
+        this.name = name;
+        this.owner = owner;
+        this.source = source;
+        this.isShared = isShared;
+    }
+
+    public Block entry() {
+        return blocks.getFirst();
+    }
+
+    public Block newBlock() {
+        Block b = new Block(nextBlock++);
+        blocks.add(b);
+        return b;
+    }
+
+    /**
+     * Give "v" the next value number. Instructions and parameters are numbered; constants are written as literals.
+     */
+    public <T extends Value> T number(T v) {
+        v.id = nextValue++;
+        return v;
+    }
+
+    /**
+     * Rebuild every block's predecessor list from the terminators. Phi operands are reordered to match.
+     */
+    public void computePredecessors() {
+        for (Block b : blocks)
+            b.predecessors.clear();
+        for (Block b : blocks)
+            for (Block s : b.successors())
+                if (!s.predecessors.contains(b))
+                    s.predecessors.add(b);
+        for (Block b : blocks)
+            for (Phi phi : b.phis) {
+                List<Value> values = new ArrayList<>();
+                for (Block p : b.predecessors)
+                    values.add(phi.incoming(p));
+                phi.blocks.clear();
+                phi.operands.clear();
+                for (int i = 0; i < values.size(); i++)
+                    phi.addIncoming(b.predecessors.get(i), values.get(i));
+            }
+    }
+
+    /**
+     * Remove blocks that can't be reached from the entry block (and their phi inputs).
+     * @return true if anything was removed
+     */
+    public boolean removeUnreachableBlocks() {
+        Set<Block> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Block> work = new ArrayDeque<>();
+        work.push(entry());
+        while (!work.isEmpty()) {
+            Block b = work.pop();
+            if (reachable.add(b))
+                for (Block s : b.successors())
+                    work.push(s);
+        }
+        if (reachable.size() == blocks.size())
+            return false;
+        for (Block b : blocks)
+            if (!reachable.contains(b))
+                for (Block s : b.successors())
+                    for (Phi phi : s.phis)
+                        phi.removeIncoming(b);
+        blocks.removeIf(b -> !reachable.contains(b));
+        computePredecessors();
+        return true;
+    }
+
+    /**
+     * @return the blocks in reverse post-order (every block comes before its successors, except along back-edges)
+     */
+    public List<Block> reversePostOrder() {
+        List<Block> order = new ArrayList<>();
+        Set<Block> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        postOrder(entry(), visited, order);
+        Collections.reverse(order);
+        return order;
+    }
+
+    private static void postOrder(Block b, Set<Block> visited, List<Block> order) {
+        if (!visited.add(b))
+            return;
+        for (Block s : b.successors())
+            postOrder(s, visited, order);
+        order.add(b);
+    }
+
+    /**
+     * @return for every value that is used, the instructions that use it
+     */
+    public IdentityHashMap<Value, List<Instruction>> uses() {
+        IdentityHashMap<Value, List<Instruction>> uses = new IdentityHashMap<>();
+        for (Block b : blocks)
+            for (Instruction i : b.all())
+                for (Value v : i.operands)
+                    uses.computeIfAbsent(v, k -> new ArrayList<>()).add(i);
+        return uses;
+    }
+
+    /**
+     * Make every use of "old" a use of "replacement" instead.
+     */
+    public void replaceAllUses(Value old, Value replacement) {
+        for (Block b : blocks)
+            for (Instruction i : b.all())
+                i.replaceOperand(old, replacement);
+    }
+
+    /**
+     * @return the text dump of this function
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder("function ").append(name).append("(");
+        for (int i = 0; i < parameters.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append(parameters.get(i).type).append(" ").append(parameters.get(i).reference());
+        sb.append(")");
+        for (int i = 0; i < returns.size(); i++)
+            sb.append(i == 0 ? " : " : ", ").append(returns.get(i).type).append(" ").append(returns.get(i).name);
+        sb.append("\n");
+        for (Block b : blocks)
+            sb.append(b);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
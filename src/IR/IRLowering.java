@@ -0,0 +1,455 @@
+package IR;
+
+import AST.*;
+
+import java.util.*;
+
+/**
+ * Turns an IRFunction back into AST statements the interpreter can run.
+ *
+ * Every SSA value that isn't a constant or a parameter gets a temporary local named $n (a name Tran code can't use).
+ * A pure instruction used only once, later in its own block, is written inline as an expression tree instead.
+ * Phis become copies on the edges into their block. The control flow graph is turned back into ifs and loops: a
+ * loop header becomes "header instructions; loop condition" with the header instructions repeated at the end of the
+ * body, and a branch becomes an if whose arms meet at the branch's immediate post-dominator. That covers every graph
+ * the builder produces and every graph the passes can make from one, since none of them add control flow.
+ */
+public class IRLowering {
+    private final IRFunction f;
+    private final LoweredFunction result = new LoweredFunction();
+    private final IdentityHashMap<Value, List<Instruction>> uses;
+    private final Dominators postDominators;
+    private final IdentityHashMap<Block, Set<Block>> loops = new IdentityHashMap<>();
+    private final Set<Instruction> inlined = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final IdentityHashMap<Instruction, List<ResultInst>> results = new IdentityHashMap<>();
+    private final IdentityHashMap<Instruction, Map<Integer, ArgumentOutInst>> argumentsOut = new IdentityHashMap<>();
+    private final Set<String> declared = new HashSet<>();
+
+    private IRLowering(IRFunction f) {
+        this.f = f;
+        uses = f.uses();
+        postDominators = new Dominators(f, true);
+        findLoops();
+        for (Block b : f.blocks)
+            for (Instruction i : b.instructions) {
+                if (i instanceof ResultInst r)
+                    results.computeIfAbsent(r.call(), k -> new ArrayList<>()).add(r);
+                if (i instanceof ArgumentOutInst a)
+                    argumentsOut.computeIfAbsent(a.call(), k -> new HashMap<>()).put(a.parameter, a);
+                if (isInlinable(i))
+                    inlined.add(i);
+            }
+    }
+
+    public static LoweredFunction lower(IRFunction f) {
+        IRLowering lowering = new IRLowering(f);
+        lowering.lowerFrom(f.entry(), null, lowering.result.statements);
+        return lowering.result;
+    }
+
+    //              Control flow
+
+    /**
+     * Lower the blocks from b on, until control reaches "stop" (a join point or the loop header we're inside of).
+     * @return where control went next (stop, or null after the return)
+     */
+    private Block lowerFrom(Block b, Block stop, List<StatementNode> out) {
+        while (b != null && b != stop) {
+            if (loops.containsKey(b)) {
+                b = lowerLoop(b, out);
+                continue;
+            }
+            emitInstructions(b, out);
+            switch (b.terminator) {
+                case Return r -> {
+                    emitReturn(r, out);
+                    return null;
+                }
+                case Jump j -> {
+                    emitCopies(b, j.target, out);
+                    b = j.target;
+                }
+                case Branch br -> b = lowerIf(b, br, stop, out);
+                default -> throw new IllegalStateException("Unknown terminator " + b.terminator);
+            }
+        }
+        return b;
+    }
+
+    private Block lowerIf(Block b, Branch br, Block stop, List<StatementNode> out) {
+        Block join = postDominators.idom(b);
+        Block armStop = join != null ? join : stop;
+        List<StatementNode> thenStatements = new ArrayList<>();
+        emitCopies(b, br.ifTrue, thenStatements);
+        lowerFrom(br.ifTrue, armStop, thenStatements);
+        List<StatementNode> elseStatements = new ArrayList<>();
+        emitCopies(b, br.ifFalse, elseStatements);
+        lowerFrom(br.ifFalse, armStop, elseStatements);
+
+        ExpressionNode condition = operand(br.condition());
+        if (thenStatements.isEmpty() && !elseStatements.isEmpty()) {
+            condition = negate(condition);
+            List<StatementNode> swap = thenStatements;
+            thenStatements = elseStatements;
+            elseStatements = swap;
+        }
+        if (!thenStatements.isEmpty()) {
+            IfNode i = new IfNode();
+            i.condition = condition;
+            i.statements = thenStatements;
+            if (elseStatements.isEmpty())
+                i.elseStatement = Optional.empty();
+            else {
+                ElseNode e = new ElseNode();
+                e.statements = elseStatements;
+                i.elseStatement = Optional.of(e);
+            }
+            source(i, br);
+            out.add(i);
+        }
+        return armStop;
+    }
+
+    /**
+     * The header's instructions run before every check of the condition, so they go before the loop and again at the
+     * end of its body.
+     * @return the block the loop exits to (null if it never exits)
+     */
+    private Block lowerLoop(Block header, List<StatementNode> out) {
+        Set<Block> body = loops.get(header);
+        emitInstructions(header, out);
+        Block bodyStart, exit;
+        ExpressionNode condition;
+        switch (header.terminator) {
+            case Branch br -> {
+                boolean trueStays = body.contains(br.ifTrue);
+                bodyStart = trueStays ? br.ifTrue : br.ifFalse;
+                exit = trueStays ? br.ifFalse : br.ifTrue;
+                condition = operand(br.condition());
+                if (!trueStays)
+                    condition = negate(condition);
+            }
+            case Jump j -> {
+                bodyStart = j.target;
+                exit = null;
+                condition = new BooleanLiteralNode(true);
+            }
+            default -> throw new IllegalStateException(header.name() + " can't be a loop header");
+        }
+        LoopNode loop = new LoopNode();
+        loop.assignment = Optional.empty();
+        loop.expression = condition;
+        emitCopies(header, bodyStart, loop.statements);
+        lowerFrom(bodyStart, header, loop.statements);
+        emitInstructions(header, loop.statements);
+        source(loop, header.terminator);
+        out.add(loop);
+        if (exit != null)
+            emitCopies(header, exit, out);
+        return exit;
+    }
+
+    /**
+     * A loop header is the target of a back-edge (an edge to a block that dominates its source). The loop is the
+     * header plus every block that reaches a back-edge without going through the header.
+     */
+    private void findLoops() {
+        Dominators dominators = new Dominators(f);
+        for (Block b : f.blocks)
+            for (Block h : b.successors()) {
+                if (!dominators.dominates(h, b))
+                    continue;
+                Set<Block> body = loops.computeIfAbsent(h, k -> {
+                    Set<Block> s = Collections.newSetFromMap(new IdentityHashMap<>());
+                    s.add(k);
+                    return s;
+                });
+                Deque<Block> work = new ArrayDeque<>();
+                work.push(b);
+                while (!work.isEmpty()) {
+                    Block x = work.pop();
+                    if (body.add(x))
+                        x.predecessors.forEach(work::push);
+                }
+            }
+    }
+
+    //              Instructions
+
+    private void emitInstructions(Block b, List<StatementNode> out) {
+        for (Instruction i : b.instructions) {
+            if (inlined.contains(i))
+                continue;
+            switch (i) {
+                case ResultInst r -> { }         // assigned by the call
+                case ArgumentOutInst a -> { }    // the variable the call got
+                case CallInst call -> emitCall(call, out);
+                case NewInst n -> {
+                    NewNode node = new NewNode();
+                    node.className = n.type;
+                    node.parameters = arguments(n, n.operands, out);
+                    out.add(assign(variable(n), source(node, n)));
+                }
+                case StoreMember s -> out.add(assign(s.name, operand(s.value())));
+                default -> out.add(assign(variable(i), expression(i)));
+            }
+        }
+    }
+
+    private void emitCall(CallInst call, List<StatementNode> out) {
+        MethodCallStatementNode mc = new MethodCallStatementNode();
+        mc.methodName = call.methodName;
+        mc.objectName = switch (call.kind) {
+            case SELF -> Optional.empty();
+            case STATIC -> Optional.of(call.className);
+            case VALUE -> Optional.of(((VariableReferenceNode) operand(call.receiver())).name);
+        };
+        mc.parameters = arguments(call, call.parameters(), out);
+        // Return values are assigned in order, so every one up to the last one used needs somewhere to go
+        List<ResultInst> used = results.getOrDefault(call, List.of());
+        int count = 0;
+        for (ResultInst r : used)
+            count = Math.max(count, r.index + 1);
+        for (int index = 0; index < count; index++) {
+            String target = "$" + call.id + "_r" + index;
+            for (ResultInst r : used)
+                if (r.index == index)
+                    target = variable(r);
+            declare(target, call.resultTypes.get(index));
+            mc.returnValues.add(reference(target));
+        }
+        out.add(source(mc, call));
+    }
+
+    /**
+     * Tran passes a variable by reference when the parameter is just its name. Each argument goes in its own
+     * variable first, so the callee can only change variables that are meant to see the change: the ones the
+     * ArgumentOutInst values live in.
+     */
+    private List<ExpressionNode> arguments(Instruction call, List<Value> values, List<StatementNode> out) {
+        Map<Integer, ArgumentOutInst> outs = new HashMap<>(argumentsOut.getOrDefault(call, Map.of()));
+        for (ArgumentOutInst a : List.copyOf(outs.values()))
+            for (int k : a.sameVariable)
+                outs.put(k, a);
+        boolean assigns = !(call instanceof CallInst c && c.builtIn);
+        List<ExpressionNode> arguments = new ArrayList<>(values.size());
+        for (int k = 0; k < values.size(); k++) {
+            Value v = values.get(k);
+            ExpressionNode e = operand(v);
+            String pass = null;
+            if (outs.containsKey(k) && outs.get(k).parameter != k) {
+                arguments.add(reference(variable(outs.get(k))));
+                continue;
+            }
+            if (outs.containsKey(k))
+                pass = variable(outs.get(k));
+            else if (assigns && e instanceof VariableReferenceNode && !(v instanceof Instruction i && uses.get(i).size() == 1))
+                pass = "$" + call.id + "_p" + k;
+            if (pass != null) {
+                declare(pass, v.type);
+                out.add(assign(pass, e));
+                e = reference(pass);
+            }
+            arguments.add(e);
+        }
+        return arguments;
+    }
+
+    /**
+     * Set the return variables, then copy the final values of the parameters back into them (the caller may be
+     * looking at them). Parameters can be swapped, so if more than one changes they go through temporaries.
+     */
+    private void emitReturn(Return r, List<StatementNode> out) {
+        List<String> parameters = new ArrayList<>();
+        List<ExpressionNode> values = new ArrayList<>();
+        for (int i = 0; i < r.names.size(); i++) {
+            Value v = r.operands.get(i);
+            if (i < f.returns.size()) {
+                out.add(assign(r.names.get(i), operand(v)));
+            } else if (!(v instanceof Parameter p && p.name.equals(r.names.get(i)))) {
+                parameters.add(r.names.get(i));
+                values.add(operand(v));
+            }
+        }
+        parallelAssign(parameters, values, out);
+    }
+
+    private void emitCopies(Block from, Block to, List<StatementNode> out) {
+        List<String> targets = new ArrayList<>();
+        List<ExpressionNode> values = new ArrayList<>();
+        for (Phi phi : to.phis) {
+            Value v = phi.incoming(from);
+            if (v != phi) {
+                targets.add(variable(phi));
+                values.add(operand(v));
+            }
+        }
+        parallelAssign(targets, values, out);
+    }
+
+    /**
+     * targets[i] = values[i] for every i at once: if a value reads one of the targets, copy everything to
+     * temporaries first.
+     */
+    private void parallelAssign(List<String> targets, List<ExpressionNode> values, List<StatementNode> out) {
+        boolean overlap = false;
+        for (ExpressionNode v : values)
+            for (String t : targets)
+                overlap |= mentions(v, t);
+        if (!overlap || targets.size() < 2) {
+            for (int i = 0; i < targets.size(); i++)
+                out.add(assign(targets.get(i), values.get(i)));
+            return;
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            String temp = targets.get(i) + "'";
+            declare(temp, typeOf(targets.get(i)));
+            out.add(assign(temp, values.get(i)));
+        }
+        for (int i = 0; i < targets.size(); i++)
+            out.add(assign(targets.get(i), reference(targets.get(i) + "'")));
+    }
+
+    //              Values
+
+    /**
+     * A pure instruction can be written inline if its only use is later in the same block and isn't a phi.
+     */
+    private boolean isInlinable(Instruction i) {
+        if (!(i instanceof MathInst || i instanceof CompareInst || i instanceof BooleanInst || i instanceof NotInst))
+            return false;
+        List<Instruction> users = uses.get(i);
+        return users != null && users.size() == 1 && users.getFirst().block == i.block && !(users.getFirst() instanceof Phi);
+    }
+
+    private ExpressionNode operand(Value v) {
+        return switch (v) {
+            case Constant c -> constant(c);
+            case Parameter p -> reference(p.name);
+            case Instruction i when inlined.contains(i) -> expression(i);
+            case Instruction i -> reference(variable(i));
+            default -> throw new IllegalStateException("Unknown value " + v);
+        };
+    }
+
+    private ExpressionNode expression(Instruction i) {
+        ExpressionNode e = switch (i) {
+            case MathInst m -> {
+                MathOpNode n = new MathOpNode();
+                n.op = m.op;
+                n.left = operand(m.left());
+                n.right = operand(m.right());
+                yield n;
+            }
+            case CompareInst c -> {
+                CompareNode n = new CompareNode();
+                n.op = c.op;
+                n.left = operand(c.left());
+                n.right = operand(c.right());
+                yield n;
+            }
+            case BooleanInst b -> {
+                BooleanOpNode n = new BooleanOpNode();
+                n.op = b.op;
+                n.left = operand(b.left());
+                n.right = operand(b.right());
+                yield n;
+            }
+            case NotInst n -> negate(operand(n.operand()));
+            case LoadMember l -> reference(l.name);
+            default -> throw new IllegalStateException("Can't write " + i + " as an expression");
+        };
+        return source(e, i);
+    }
+
+    private static ExpressionNode negate(ExpressionNode e) {
+        NotOpNode n = new NotOpNode();
+        n.left = e;
+        return n;
+    }
+
+    private ExpressionNode constant(Constant c) {
+        switch (c.value) {
+            case null -> {
+                // The default value of an object variable is whatever a fresh, never-assigned variable holds
+                String name = "$default_" + c.type;
+                declare(name, c.type);
+                return reference(name);
+            }
+            case Float n -> {
+                NumericLiteralNode node = new NumericLiteralNode();
+                node.value = n;
+                return node;
+            }
+            case String s -> {
+                StringLiteralNode node = new StringLiteralNode();
+                node.value = s;
+                return node;
+            }
+            case Boolean b -> {
+                return new BooleanLiteralNode(b);
+            }
+            case Character ch -> {
+                CharLiteralNode node = new CharLiteralNode();
+                node.value = ch;
+                return node;
+            }
+            default -> throw new IllegalStateException("Unknown constant " + c.value);
+        }
+    }
+
+    private String variable(Instruction i) {
+        String name = "$" + i.id;
+        declare(name, i.type);
+        return name;
+    }
+
+    private void declare(String name, String type) {
+        if (!declared.add(name))
+            return;
+        VariableDeclarationNode vd = new VariableDeclarationNode();
+        vd.name = name;
+        vd.type = type;
+        result.locals.add(vd);
+    }
+
+    private String typeOf(String name) {
+        for (Parameter p : f.parameters)
+            if (p.name.equals(name))
+                return p.type;
+        for (VariableDeclarationNode vd : result.locals)
+            if (vd.name.equals(name))
+                return vd.type;
+        throw new IllegalStateException("Undeclared temporary " + name);
+    }
+
+    private static boolean mentions(ExpressionNode e, String name) {
+        return switch (e) {
+            case VariableReferenceNode v -> v.name.equals(name);
+            case MathOpNode m -> mentions(m.left, name) || mentions(m.right, name);
+            case CompareNode c -> mentions(c.left, name) || mentions(c.right, name);
+            case BooleanOpNode b -> mentions(b.left, name) || mentions(b.right, name);
+            case NotOpNode n -> mentions(n.left, name);
+            default -> false;
+        };
+    }
+
+    private static VariableReferenceNode reference(String name) {
+        VariableReferenceNode r = new VariableReferenceNode();
+        r.name = name;
+        return r;
+    }
+
+    private static AssignmentNode assign(String target, ExpressionNode value) {
+        AssignmentNode a = new AssignmentNode();
+        a.target = reference(target);
+        a.expression = value;
+        return a;
+    }
+
+    private <T extends Node> T source(T node, Instruction i) {
+        if (i.source != null)
+            result.sources.put(node, i.source);
+        return node;
+    }
+}
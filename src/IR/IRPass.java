@@ -0,0 +1,13 @@
+package IR;
+
+/**
+ * One transformation of an IRFunction, run by the PassManager.
+ */
+public interface IRPass {
+    String name();
+
+    /**
+     * @return true if the function was changed
+     */
+    boolean run(IRFunction f);
+}
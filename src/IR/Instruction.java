@@ -0,0 +1,71 @@
+package IR;
+
+import AST.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One operation in a basic block. Its result (if it has one) is the instruction itself, used as a Value.
+ * Operands are kept in one list so that passes can rewrite uses without knowing every instruction type.
+ */
+public abstract class Instruction extends Value {
+    public Block block;
+    public final List<Value> operands = new ArrayList<>();
+    /** The AST node this instruction was built from, so that type feedback can still be found (may be null) */
+    public Node source;
+
+    protected Instruction(String type, Value... operands) {
+        super(type);
+        this.operands.addAll(List.of(operands));
+    }
+
+    /**
+     * @return the name of the operation in the dump format
+     */
+    public abstract String opcode();
+
+    /**
+     * @return true if this instruction does something besides computing its result (calls, stores, control flow), so
+     * it can't be removed just because nothing uses the result
+     */
+    public boolean hasSideEffects() {
+        return false;
+    }
+
+    /**
+     * @return false for instructions (stores, terminators) that don't produce a value
+     */
+    public boolean hasResult() {
+        return true;
+    }
+
+    /**
+     * Replace every use of "old" in this instruction's operands with "replacement".
+     */
+    public void replaceOperand(Value old, Value replacement) {
+        for (int i = 0; i < operands.size(); i++)
+            if (operands.get(i) == old)
+                operands.set(i, replacement);
+    }
+
+    /**
+     * @return the part of the dump after the opcode (the operands, by default)
+     */
+    protected String describeOperands() {
+        StringBuilder sb = new StringBuilder();
+        for (Value v : operands) {
+            if (!sb.isEmpty())
+                sb.append(", ");
+            sb.append(v.reference());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        String described = describeOperands();
+        String body = described.isEmpty() ? opcode() : opcode() + " " + described;
+        return hasResult() ? reference() + " = " + body + " : " + type : body;
+    }
+}
@@ -0,0 +1,32 @@
+package IR;
+
+import java.util.List;
+
+public class Jump extends Terminator {
+    public Block target;
+
+    public Jump(Block target) {
+        this.target = target;
+    }
+
+    @Override
+    public List<Block> successors() {
+        return List.of(target);
+    }
+
+    @Override
+    public void replaceSuccessor(Block old, Block replacement) {
+        if (target == old)
+            target = replacement;
+    }
+
+    @Override
+    public String opcode() {
+        return "jump";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return target.name();
+    }
+}
@@ -0,0 +1,24 @@
+package IR;
+
+/**
+ * Read a member variable of the object the function is running on. Members aren't in SSA form - any call or store
+ * may change them - so every read is its own instruction.
+ */
+public class LoadMember extends Instruction {
+    public final String name;
+
+    public LoadMember(String type, String name) {
+        super(type);
+        this.name = name;
+    }
+
+    @Override
+    public String opcode() {
+        return "load";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return name;
+    }
+}
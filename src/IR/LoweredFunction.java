@@ -0,0 +1,25 @@
+package IR;
+
+import AST.Node;
+import AST.StatementNode;
+import AST.VariableDeclarationNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An IRFunction turned back into something the interpreter can run: a statement list plus the local variables it
+ * needs (the temporaries that hold SSA values). Parameters and return variables keep their names.
+ */
+public class LoweredFunction {
+    public final List<VariableDeclarationNode> locals = new ArrayList<>();
+    public final List<StatementNode> statements = new ArrayList<>();
+    /** lowered node -> the AST node its instruction was built from, so type feedback can still be found */
+    public final IdentityHashMap<Node, Node> sources = new IdentityHashMap<>();
+
+    @Override
+    public String toString() {
+        return Node.variableDeclarationListToString(locals) + "\n" + Node.statementListToString(statements);
+    }
+}
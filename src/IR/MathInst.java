@@ -0,0 +1,28 @@
+package IR;
+
+import AST.MathOpNode;
+
+/**
+ * left op right, on two numbers (or two strings for add).
+ */
+public class MathInst extends Instruction {
+    public MathOpNode.MathOperations op;
+
+    public MathInst(MathOpNode.MathOperations op, String type, Value left, Value right) {
+        super(type, left, right);
+        this.op = op;
+    }
+
+    public Value left() {
+        return operands.get(0);
+    }
+
+    public Value right() {
+        return operands.get(1);
+    }
+
+    @Override
+    public String opcode() {
+        return op.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package IR;
+
+import java.util.List;
+
+/**
+ * Create an object and run its constructor; the operands are the constructor's parameters.
+ */
+public class NewInst extends Instruction {
+    public NewInst(String className, List<Value> parameters) {
+        super(className, parameters.toArray(new Value[0]));
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public String opcode() {
+        return "new";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return type + "(" + super.describeOperands() + ")";
+    }
+}
@@ -0,0 +1,16 @@
+package IR;
+
+public class NotInst extends Instruction {
+    public NotInst(Value operand) {
+        super("boolean", operand);
+    }
+
+    public Value operand() {
+        return operands.get(0);
+    }
+
+    @Override
+    public String opcode() {
+        return "not";
+    }
+}
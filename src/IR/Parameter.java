@@ -0,0 +1,20 @@
+package IR;
+
+/**
+ * The value a parameter had when the function was entered.
+ */
+public class Parameter extends Value {
+    public final String name;
+    public final int index;
+
+    public Parameter(String type, String name, int index) {
+        super(type);
+        this.name = name;
+        this.index = index;
+    }
+
+    @Override
+    public String reference() {
+        return "%" + name;
+    }
+}
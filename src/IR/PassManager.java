@@ -0,0 +1,94 @@
+package IR;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a list of IR passes over a function, in order. The list is repeated until no pass changes anything (or
+ * maxIterations is reached). With verification on (the default) the function is verified before the first pass and
+ * after every pass that changed it; with a dump stream set, the function is dumped after every such pass.
+ */
+public class PassManager {
+    private final List<IRPass> passes = new ArrayList<>();
+    private final Map<String, int[]> statistics = new LinkedHashMap<>();  // runs, changes
+    private boolean verify = true;
+    private int maxIterations = 4;
+    private PrintStream dump;
+
+    public PassManager add(IRPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<IRPass> getPasses() {
+        return passes;
+    }
+
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param dump - where to write the function after each pass that changes it (null for nowhere)
+     */
+    public void setDump(PrintStream dump) {
+        this.dump = dump;
+    }
+
+    /**
+     * @return true if any pass changed the function
+     */
+    public boolean run(IRFunction f) {
+        if (verify)
+            Verifier.verify(f);
+        boolean changedAny = false;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            boolean changed = false;
+            for (IRPass pass : passes) {
+                int[] stats = statistics.computeIfAbsent(pass.name(), k -> new int[2]);
+                stats[0]++;
+                if (!pass.run(f))
+                    continue;
+                stats[1]++;
+                changed = true;
+                if (dump != null)
+                    dump.print("; after " + pass.name() + "\n" + f.dump());
+                if (verify)
+                    Verifier.verify(f);
+            }
+            changedAny |= changed;
+            if (!changed)
+                break;
+        }
+        return changedAny;
+    }
+
+    /**
+     * @return how many times this pass has run
+     */
+    public int getRunCount(String pass) {
+        return statistics.getOrDefault(pass, new int[2])[0];
+    }
+
+    /**
+     * @return how many of those runs changed something
+     */
+    public int getChangeCount(String pass) {
+        return statistics.getOrDefault(pass, new int[2])[1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, int[]> e : statistics.entrySet())
+            sb.append(e.getKey()).append(": runs=").append(e.getValue()[0]).append(" changes=").append(e.getValue()[1]).append("\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks a value depending on which predecessor control came from. operands.get(i) is the value coming from
+ * blocks.get(i). Phis live in Block.phis, not in Block.instructions.
+ */
+public class Phi extends Instruction {
+    public final List<Block> blocks = new ArrayList<>();
+
+    public Phi(String type) {
+        super(type);
+    }
+
+    public void addIncoming(Block from, Value value) {
+        blocks.add(from);
+        operands.add(value);
+    }
+
+    /**
+     * @return the value coming from "from", or null if "from" isn't a predecessor
+     */
+    public Value incoming(Block from) {
+        int i = blocks.indexOf(from);
+        return i < 0 ? null : operands.get(i);
+    }
+
+    public void removeIncoming(Block from) {
+        int i = blocks.indexOf(from);
+        if (i >= 0) {
+            blocks.remove(i);
+            operands.remove(i);
+        }
+    }
+
+    @Override
+    public String opcode() {
+        return "phi";
+    }
+
+    @Override
+    protected String describeOperands() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < operands.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append("[").append(blocks.get(i).name()).append(": ").append(operands.get(i).reference()).append("]");
+        return sb.toString();
+    }
+}
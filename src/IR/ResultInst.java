@@ -0,0 +1,27 @@
+package IR;
+
+/**
+ * The index'th return value of a call.
+ */
+public class ResultInst extends Instruction {
+    public final int index;
+
+    public ResultInst(String type, CallInst call, int index) {
+        super(type, call);
+        this.index = index;
+    }
+
+    public CallInst call() {
+        return (CallInst) operands.getFirst();
+    }
+
+    @Override
+    public String opcode() {
+        return "result";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return operands.getFirst().reference() + ", " + index;
+    }
+}
@@ -0,0 +1,42 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leave the function. operands.get(i) is the final value of the variable names.get(i): first the return variables,
+ * then every parameter, since the caller's variables see what the function assigned to its parameters.
+ */
+public class Return extends Terminator {
+    public final List<String> names = new ArrayList<>();
+
+    public Return() {
+    }
+
+    public void add(String name, Value value) {
+        names.add(name);
+        operands.add(value);
+    }
+
+    @Override
+    public List<Block> successors() {
+        return List.of();
+    }
+
+    @Override
+    public void replaceSuccessor(Block old, Block replacement) {
+    }
+
+    @Override
+    public String opcode() {
+        return "return";
+    }
+
+    @Override
+    protected String describeOperands() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < operands.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append(names.get(i)).append(" = ").append(operands.get(i).reference());
+        return sb.toString();
+    }
+}
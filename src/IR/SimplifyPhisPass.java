@@ -0,0 +1,55 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes phis that don't choose between anything: every input is the same value (or the phi itself, around a loop).
+ * Uses of such a phi are replaced with that value. Removing one phi can make another trivial, so this repeats until
+ * nothing changes.
+ */
+public class SimplifyPhisPass implements IRPass {
+    @Override
+    public String name() {
+        return "simplify-phis";
+    }
+
+    @Override
+    public boolean run(IRFunction f) {
+        return simplify(f);
+    }
+
+    public static boolean simplify(IRFunction f) {
+        boolean changed = false;
+        boolean again = true;
+        while (again) {
+            again = false;
+            for (Block b : f.blocks)
+                for (Phi phi : new ArrayList<>(b.phis)) {
+                    Value same = trivialValue(phi);
+                    if (same == null)
+                        continue;
+                    b.phis.remove(phi);
+                    f.replaceAllUses(phi, same);
+                    again = changed = true;
+                }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the one value this phi always has, or null if it really is a choice
+     */
+    private static Value trivialValue(Phi phi) {
+        Value same = null;
+        List<Value> inputs = phi.operands;
+        for (Value v : inputs) {
+            if (v == phi || v == same)
+                continue;
+            if (same != null)
+                return null;
+            same = v;
+        }
+        return same;
+    }
+}
@@ -0,0 +1,37 @@
+package IR;
+
+/**
+ * Write a member variable of the object the function is running on.
+ */
+public class StoreMember extends Instruction {
+    public final String name;
+
+    public StoreMember(String name, Value value) {
+        super("void", value);
+        this.name = name;
+    }
+
+    public Value value() {
+        return operands.get(0);
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public boolean hasResult() {
+        return false;
+    }
+
+    @Override
+    public String opcode() {
+        return "store";
+    }
+
+    @Override
+    protected String describeOperands() {
+        return name + ", " + value().reference();
+    }
+}
@@ -0,0 +1,29 @@
+package IR;
+
+import java.util.List;
+
+/**
+ * The last instruction of every block: where control goes next.
+ */
+public abstract class Terminator extends Instruction {
+    protected Terminator(Value... operands) {
+        super("void", operands);
+    }
+
+    public abstract List<Block> successors();
+
+    /**
+     * Send control that went to "old" to "replacement" instead.
+     */
+    public abstract void replaceSuccessor(Block old, Block replacement);
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public boolean hasResult() {
+        return false;
+    }
+}
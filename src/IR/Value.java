@@ -0,0 +1,26 @@
+package IR;
+
+/**
+ * Anything an instruction can use as an operand: a constant, a parameter or the result of another instruction.
+ * Every value has a Tran type name ("number", "string", "boolean", "character" or a class/interface name).
+ */
+public abstract class Value {
+    public int id;
+    public String type;
+
+    protected Value(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return how this value is written when it is used as an operand in the dump format
+     */
+    public String reference() {
+        return "%" + id;
+    }
+
+    @Override
+    public String toString() {
+        return reference();
+    }
+}
@@ -0,0 +1,178 @@
+package IR;
+
+import java.util.*;
+
+/**
+ * Checks that an IRFunction is well formed: the control flow graph hangs together, phis match their block's
+ * predecessors, every value is defined before (dominates) every use, and operands have the types their instructions
+ * need. The PassManager runs it after every pass, so a broken pass is caught where it broke things.
+ */
+public class Verifier {
+    private final IRFunction f;
+    private final List<String> problems = new ArrayList<>();
+
+    private Verifier(IRFunction f) {
+        this.f = f;
+    }
+
+    /**
+     * @throws RuntimeException listing every problem, if there are any
+     */
+    public static void verify(IRFunction f) {
+        List<String> problems = check(f);
+        if (!problems.isEmpty())
+            throw new RuntimeException("IR verification failed for " + f.name + ":\n    " + String.join("\n    ", problems) + "\n" + f.dump());
+    }
+
+    /**
+     * @return a description of every problem found (empty if the function is well formed)
+     */
+    public static List<String> check(IRFunction f) {
+        Verifier v = new Verifier(f);
+        v.run();
+        return v.problems;
+    }
+
+    private void run() {
+        if (f.blocks.isEmpty()) {
+            problems.add("function has no blocks");
+            return;
+        }
+        if (!f.entry().predecessors.isEmpty())
+            problems.add(f.entry().name() + ": the entry block can't have predecessors");
+        checkGraph();
+        if (!problems.isEmpty())
+            return;
+        Dominators dom = new Dominators(f);
+        IdentityHashMap<Instruction, Integer> position = new IdentityHashMap<>();
+        for (Block b : f.blocks) {
+            List<Instruction> all = b.all();
+            for (int i = 0; i < all.size(); i++) {
+                Instruction in = all.get(i);
+                if (position.put(in, i) != null)
+                    problems.add(in + ": appears more than once");
+                if (in.block != b)
+                    problems.add(in + ": is in " + b.name() + " but thinks it is in " + (in.block == null ? "no block" : in.block.name()));
+            }
+        }
+        for (Block b : f.blocks) {
+            if (!dom.isReachable(b))
+                continue;
+            for (Instruction in : b.all()) {
+                checkOperands(in, dom, position);
+                checkTypes(in);
+            }
+        }
+    }
+
+    private void checkGraph() {
+        Set<Block> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        blocks.addAll(f.blocks);
+        int returns = 0;
+        for (Block b : f.blocks) {
+            if (b.terminator == null) {
+                problems.add(b.name() + ": has no terminator");
+                continue;
+            }
+            if (b.terminator instanceof Return r) {
+                returns++;
+                int expected = f.returns.size() + f.parameters.size();
+                if (r.names.size() != expected)
+                    problems.add(b.name() + ": return has " + r.names.size() + " values, expected " + expected);
+            }
+            for (Block s : b.successors()) {
+                if (!blocks.contains(s))
+                    problems.add(b.name() + ": jumps to " + s.name() + ", which isn't in the function");
+                else if (!s.predecessors.contains(b))
+                    problems.add(s.name() + ": is missing predecessor " + b.name());
+            }
+            for (Block p : b.predecessors)
+                if (!blocks.contains(p) || !p.successors().contains(b))
+                    problems.add(b.name() + ": lists " + p.name() + " as a predecessor, but it doesn't jump here");
+            for (Phi phi : b.phis) {
+                if (phi.blocks.size() != b.predecessors.size() || !new HashSet<>(phi.blocks).containsAll(b.predecessors))
+                    problems.add(phi + ": inputs don't match the predecessors of " + b.name());
+                if (!(phi.block == b))
+                    problems.add(phi + ": is in the phis of " + b.name() + " but not in that block");
+            }
+            for (Instruction i : b.instructions)
+                if (i instanceof Phi || i instanceof Terminator)
+                    problems.add(i + ": can't be in the middle of " + b.name());
+        }
+        if (returns != 1)
+            problems.add("function has " + returns + " return blocks, expected 1");
+    }
+
+    private void checkOperands(Instruction in, Dominators dom, IdentityHashMap<Instruction, Integer> position) {
+        for (int i = 0; i < in.operands.size(); i++) {
+            Value v = in.operands.get(i);
+            switch (v) {
+                case null -> problems.add(in + ": operand " + i + " is missing");
+                case Constant c -> { }
+                case Parameter p -> {
+                    if (!f.parameters.contains(p))
+                        problems.add(in + ": uses a parameter of another function");
+                }
+                case Instruction def -> {
+                    if (!position.containsKey(def) || def.block == null) {
+                        problems.add(in + ": uses " + def.reference() + ", which isn't in the function");
+                        continue;
+                    }
+                    if (!def.hasResult()) {
+                        problems.add(in + ": uses " + def.reference() + ", which has no result");
+                        continue;
+                    }
+                    // A phi's input only has to be available at the end of the block it comes from
+                    Block useBlock = in instanceof Phi phi ? phi.blocks.get(i) : in.block;
+                    boolean ok = useBlock == def.block
+                            ? in instanceof Phi || position.get(def) < position.get(in)
+                            : dom.dominates(def.block, useBlock);
+                    if (!ok)
+                        problems.add(in + ": uses " + def.reference() + " before it is defined");
+                }
+                default -> problems.add(in + ": unknown operand " + v);
+            }
+        }
+    }
+
+    private void checkTypes(Instruction in) {
+        if (in.operands.contains(null))
+            return;
+        switch (in) {
+            case MathInst m -> {
+                if (!m.left().type.equals(m.right().type) || !m.left().type.equals(m.type) || !(m.type.equals("number") || m.type.equals("string")))
+                    problems.add(in + ": operands don't fit");
+            }
+            case CompareInst c -> {
+                if (!c.left().type.equals(c.right().type))
+                    problems.add(in + ": compares a " + c.left().type + " with a " + c.right().type);
+            }
+            case BooleanInst b -> {
+                if (!b.left().type.equals("boolean") || !b.right().type.equals("boolean"))
+                    problems.add(in + ": operands must be boolean");
+            }
+            case NotInst n -> {
+                if (!n.operand().type.equals("boolean"))
+                    problems.add(in + ": operand must be boolean");
+            }
+            case Branch br -> {
+                if (!br.condition().type.equals("boolean"))
+                    problems.add(in + ": condition must be boolean");
+            }
+            case Phi phi -> {
+                for (Value v : phi.operands)
+                    if (!v.type.equals(phi.type) && (IRBuilder.isPrimitive(v.type) || IRBuilder.isPrimitive(phi.type)))
+                        problems.add(in + ": input " + v.reference() + " is a " + v.type);
+            }
+            case ResultInst r -> {
+                if (!(r.operands.getFirst() instanceof CallInst))
+                    problems.add(in + ": isn't the result of a call");
+            }
+            case ArgumentOutInst a -> {
+                if (!(a.operands.getFirst() instanceof CallInst) && !(a.operands.getFirst() instanceof NewInst))
+                    problems.add(in + ": isn't an argument of a call");
+            }
+            default -> { }
+        }
+    }
+}
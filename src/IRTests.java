@@ -0,0 +1,237 @@
+import AST.*;
+import IR.*;
+import Interpreter.ConsoleWrite;
+import Interpreter.Interpreter;
+import Interpreter.Tiering;
+import Optimizer.IROptimizationPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.List;
+
+public class IRTests {
+
+    @Test
+    public void straightLineMethod() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+            """);
+        IRFunction f = build(root, "square");
+        assertEquals("""
+            function Program.square(number %x) : number y
+            b0:
+                %1 = multiply %x, %x : number
+                return y = %1, x = %x
+            """, f.dump());
+        assertTrue(Verifier.check(f).isEmpty());
+    }
+
+    @Test
+    public void loopsGetPhis() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared sum(number n) : number total
+                    number i
+                    i = 0
+                    loop i < n
+                        total = total + i
+                        i = i + 1
+            """);
+        IRFunction f = build(root, "sum");
+        new PassManager().add(new SimplifyPhisPass()).add(new DeadInstructionPass()).run(f);
+        String dump = f.dump();
+        assertTrue(dump.contains("b1:    ; from b0 b2"), dump);
+        assertTrue(dump.contains("phi [b0: 0.0], [b2: %5] : number"), dump);
+        assertTrue(dump.contains("branch %4, b2, b3"), dump);
+        assertTrue(dump.contains("return total = %2, n = %n"), dump);
+        assertTrue(Verifier.check(f).isEmpty());
+    }
+
+    @Test
+    public void parametersAreWrittenBack() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared bump(number x)
+                    x = x + 1
+                shared start()
+                    number a
+                    a = 1
+                    Program.bump(a)
+                    console.write(a)
+            """);
+        assertTrue(build(root, "bump").dump().contains("return x = %1"));
+        String dump = build(root, "start").dump();
+        assertTrue(dump.contains("%1 = argout %0, 0 : number"), dump);
+        assertTrue(dump.contains("call console.write(%1)"), dump);
+    }
+
+    @Test
+    public void verifierFindsBrokenFunctions() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared sum(number n) : number total
+                    number i
+                    i = 0
+                    loop i < n
+                        total = total + i
+                        i = i + 1
+            """);
+        IRFunction f = build(root, "sum");
+        Block exit = f.blocks.getLast();
+        exit.terminator = null;
+        assertTrue(Verifier.check(f).contains(exit.name() + ": has no terminator"));
+
+        // A value used in a loop header phi disappears from the loop body
+        f = build(root, "sum");
+        Block body = f.blocks.stream().filter(b -> !b.instructions.isEmpty() && b.predecessors.size() == 1 && b.terminator instanceof Jump).findFirst().orElseThrow();
+        Instruction removed = body.instructions.removeLast();
+        removed.block = null;
+        IRFunction broken = f;
+        RuntimeException e = assertThrows(RuntimeException.class, () -> Verifier.verify(broken));
+        assertTrue(e.getMessage().contains("which isn't in the function"), e.getMessage());
+    }
+
+    @Test
+    public void passManagerKeepsStatistics() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared sum(number n) : number total
+                    number i
+                    number unused
+                    i = 0
+                    loop i < n
+                        unused = i * 2
+                        total = total + i
+                        i = i + 1
+            """);
+        IRFunction f = build(root, "sum");
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        PassManager pm = new PassManager().add(new SimplifyPhisPass()).add(new DeadInstructionPass());
+        pm.setDump(new PrintStream(dump));
+        assertTrue(pm.run(f));
+        assertEquals(1, pm.getChangeCount("dead-instructions"), pm.toString());
+        assertTrue(pm.getRunCount("simplify-phis") >= 2);
+        assertFalse(f.dump().contains("multiply"));
+        assertTrue(dump.toString().contains("; after dead-instructions"));
+    }
+
+    @Test
+    public void loweredMethodsBehaveTheSame() throws Exception {
+        String program = """
+            class Counter
+                number count
+                construct(number start)
+                    count = start
+                add(number n)
+                    count = count + n
+                get() : number c
+                    c = count
+            class Program
+                shared bump(number x)
+                    x = x + 1
+                shared divide(number a, number b) : number q, number r
+                    q = a / b
+                    r = a - q * b
+                shared describe(number n) : string s
+                    if n < 10
+                        s = "small"
+                    else
+                        s = "big"
+                shared start()
+                    number i
+                    number a
+                    number q
+                    number r
+                    string words
+                    Counter c
+                    c = new Counter(0)
+                    i = 0
+                    loop i < 20
+                        c.add(i)
+                        Program.bump(a)
+                        words = words + Program.describe(i * 3)
+                        i = i + 1
+                    q, r = Program.divide(17, 5)
+                    console.write(c.get(), a, q, r, words)
+            """;
+        TranNode plain = parse(program);
+        new Interpreter(plain).start();
+
+        TranNode optimized = parse(program);
+        Interpreter interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        tiering.getCompiler().setUseIR(true);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(optimized));
+        // Every method here can be expressed in the IR
+        IROptimizationPass ir = (IROptimizationPass) tiering.getCompiler().getPasses().getFirst();
+        assertEquals(tiering.getCompilationCount(), ir.getFunctionsLowered());
+        assertTrue(ir.getFunctionsLowered() > 0);
+    }
+
+    @Test
+    public void timesLoopSetsItsVariableBeforeEachTrip() throws Exception {
+        String program = """
+            class Program
+                shared sum(number n) : number total, number last
+                    number k
+                    k = 9
+                    k = loop n.times()
+                        total = total + k
+                    last = k
+                shared start()
+                    number t
+                    number l
+                    t, l = Program.sum(4)
+                    console.write(t, " ", l)
+            """;
+        TranNode plain = parse(program);
+        new Interpreter(plain).start();
+        assertEquals(List.of("6.0 3.0"), getConsole(plain));
+
+        TranNode optimized = parse(program);
+        Interpreter interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        tiering.getCompiler().setUseIR(true);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(optimized));
+        IROptimizationPass ir = (IROptimizationPass) tiering.getCompiler().getPasses().getFirst();
+        assertEquals(tiering.getCompilationCount(), ir.getFunctionsLowered());
+    }
+
+    private static IRFunction build(TranNode root, String method) {
+        for (ClassNode c : root.Classes)
+            for (MethodDeclarationNode m : c.methods)
+                if (m.name.equals(method))
+                    return new IRBuilder(root).build(c, m);
+        throw new RuntimeException("Unable to find method " + method);
+    }
+
+    private static TranNode parse(String program) throws Exception {
+        Lexer l = new Lexer(program);
+        LinkedList<Token> tokens = l.Lex();
+        TranNode root = new TranNode();
+        new Parser(root, tokens).Tran();
+        return root;
+    }
+
+    private static List<String> getConsole(TranNode tn) {
+        for (var c : tn.Classes)
+            if (c.name.equals("console")) {
+                for (var m : c.methods)
+                    if (m.name.equals("write"))
+                        return ((ConsoleWrite) m).console;
+            }
+        throw new RuntimeException("Unable to find console");
+    }
+}
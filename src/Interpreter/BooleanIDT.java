@@ -1,24 +1,58 @@
 package Interpreter;
 
 public class BooleanIDT implements InterpreterDataType {
-    public boolean Value;
+    public static final BooleanIDT TRUE = new BooleanIDT(true, true);
+    public static final BooleanIDT FALSE = new BooleanIDT(false, true);
+
+    private boolean value;
+    private final boolean shared;
 
     public BooleanIDT(boolean value) {
-        this.Value = value;
+        this(value, false);
+    }
+
+    private BooleanIDT(boolean value, boolean shared) {
+        this.value = value;
+        this.shared = shared;
+    }
+
+    /**
+     * @return TRUE or FALSE, which must never be assigned to (see InterpreterDataType.toVariable())
+     */
+    public static BooleanIDT of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public boolean getValue() {
+        return value;
+    }
+
+    /**
+     * Throws for TRUE and FALSE, which are shared by every expression.
+     */
+    public void setValue(boolean value) {
+        if (shared)
+            throw new IllegalStateException("Trying to assign to the constant " + this);
+        this.value = value;
     }
 
     @Override
     public void Assign(InterpreterDataType in) {
         if (in instanceof BooleanIDT inv) {
-            Value = inv.Value;
+            setValue(inv.value);
         }
         else {
             throw new RuntimeException("Trying to assign to a boolean IDT from a " + in.getClass());
         }
     }
 
+    @Override
+    public InterpreterDataType toVariable() {
+        return shared ? new BooleanIDT(value) : this;
+    }
+
     @Override
     public String toString() {
-        return Value?"true":"false";
+        return value?"true":"false";
     }
 }
@@ -1,22 +1,67 @@
 package Interpreter;
 
 public class CharIDT implements InterpreterDataType {
-    public char Value;
+    // The ASCII characters are shared, like the small numbers in NumberIDT
+    private static final CharIDT[] cache = new CharIDT[128];
+    static {
+        for (char c = 0; c < cache.length; c++)
+            cache[c] = new CharIDT(c, true);
+    }
+
+    private char value;
+    private final boolean shared;
 
     public CharIDT(char value) {
-        Value = value;
+        this(value, false);
+    }
+
+    private CharIDT(char value, boolean shared) {
+        this.value = value;
+        this.shared = shared;
+    }
+
+    /**
+     * @return a shared constant for value, which must never be assigned to (see InterpreterDataType.toVariable())
+     */
+    public static CharIDT constant(char value) {
+        return new CharIDT(value, true);
+    }
+
+    /**
+     * @return the shared value for an ASCII character, or else a new constant; either must never be assigned to
+     */
+    public static CharIDT valueOf(char value) {
+        return value < cache.length ? cache[value] : new CharIDT(value, true);
+    }
+
+    public char getValue() {
+        return value;
+    }
+
+    /**
+     * Throws for a constant() - a literal's value is shared by every evaluation of it.
+     */
+    public void setValue(char value) {
+        if (shared)
+            throw new IllegalStateException("Trying to assign to the constant " + this);
+        this.value = value;
     }
 
     @Override
     public void Assign(InterpreterDataType in) {
         if (in instanceof CharIDT inv) {
-            Value = inv.Value;
+            setValue(inv.value);
         } else {
             throw new RuntimeException("Trying to assign to a character IDT from a " + in.getClass());
         }
     }
 
+    @Override
+    public InterpreterDataType toVariable() {
+        return shared ? new CharIDT(value) : this;
+    }
+
     public String toString() {
-        return String.valueOf(Value);
+        return String.valueOf(value);
     }
 }
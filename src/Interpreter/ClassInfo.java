@@ -0,0 +1,151 @@
+package Interpreter;
+
+import AST.ClassNode;
+import AST.ConstructorNode;
+import AST.MemberNode;
+import AST.MethodDeclarationNode;
+
+import java.util.*;
+
+/**
+ * The linked form of a class (see ClassTable): its methods by name and by name and number of parameters, its
+ * constructors by number of parameters, and the interfaces it implements as a bitset of interface numbers. Built
+ * once, before the program starts, and never changed, so every lookup costs the same however many classes there are.
+ *
+ * It is also the layout of the class's objects: every member has a fixed slot in ObjectIDT.fields, so objects share
+ * one name-to-slot map instead of each carrying a map of their own. The link step (see VariableSlots) finds the slot
+ * of every variable in the class's methods that names a member, so the map is only used for names it couldn't
+ * settle. Alongside the layout is a template of what each slot starts out as, so "new" fills an object in one pass
+ * without looking at type names. Members of a class or interface type start out empty; ObjectIDT.getMember() makes
+ * their null reference the first time one is used.
+ */
+public final class ClassInfo {
+    public final ClassNode node;
+    private final Map<String, MethodDeclarationNode> methods = new HashMap<>();
+    private final Map<String, MethodDeclarationNode> shared = new HashMap<>();
+    // index = number of parameters; null where the class has no method of that name and arity
+    private final Map<String, MethodDeclarationNode[]> methodsByArity = new HashMap<>();
+    private final Map<String, MethodDeclarationNode[]> sharedByArity = new HashMap<>();
+    private final List<List<ConstructorNode>> constructors = new ArrayList<>();
+    private final BitSet interfaces = new BitSet();
+    private final Map<String, Integer> fieldSlots = new HashMap<>();
+    private final List<String> fieldNames = new ArrayList<>();
+    private final List<String> fieldTypeNames = new ArrayList<>();
+    // The template: each member's type, resolved once every class has its ClassInfo (see resolveFields())
+    private TypeDescriptor[] fieldTypes;
+
+    ClassInfo(ClassNode node, Map<String, Integer> interfaceNumbers) {
+        this.node = node;
+        for (MethodDeclarationNode m : node.methods) {
+            add(methods, methodsByArity, m);
+            if (m.isShared)
+                add(shared, sharedByArity, m);
+        }
+        for (ConstructorNode c : node.constructors) {
+            while (constructors.size() <= c.parameters.size())
+                constructors.add(new ArrayList<>());
+            constructors.get(c.parameters.size()).add(c);
+        }
+        for (String name : node.interfaces)
+            interfaces.set(interfaceNumbers.get(name));
+        for (MemberNode member : node.members) {
+            Integer slot = fieldSlots.putIfAbsent(member.declaration.name, fieldNames.size());
+            if (slot == null) {
+                fieldNames.add(member.declaration.name);
+                fieldTypeNames.add(member.declaration.type);
+            } else {
+                // declared twice: the last declaration decides the type, as it did when members were a map
+                fieldTypeNames.set(slot, member.declaration.type);
+            }
+        }
+    }
+
+    void resolveFields(ClassTable table) {
+        fieldTypes = new TypeDescriptor[fieldTypeNames.size()];
+        for (int slot = 0; slot < fieldTypes.length; slot++)
+            fieldTypes[slot] = table.type(fieldTypeNames.get(slot));
+    }
+
+    private static void add(Map<String, MethodDeclarationNode> byName, Map<String, MethodDeclarationNode[]> byArity, MethodDeclarationNode m) {
+        byName.putIfAbsent(m.name, m);
+        MethodDeclarationNode[] arities = byArity.get(m.name);
+        int arity = m.parameters.size();
+        if (arities == null || arities.length <= arity) {
+            arities = arities == null ? new MethodDeclarationNode[arity + 1] : Arrays.copyOf(arities, arity + 1);
+            byArity.put(m.name, arities);
+        }
+        if (arities[arity] == null)
+            arities[arity] = m;
+    }
+
+    private static MethodDeclarationNode find(Map<String, MethodDeclarationNode> byName, Map<String, MethodDeclarationNode[]> byArity, String name, int arity) {
+        MethodDeclarationNode[] arities = byArity.get(name);
+        if (arities != null && arity < arities.length && arities[arity] != null)
+            return arities[arity];
+        return byName.get(name);
+    }
+
+    /**
+     * @return the first method with this name that takes this many parameters, or else the first one with this name
+     * (which will then complain about the parameters), or null if there is no method with this name
+     */
+    public MethodDeclarationNode method(String name, int arity) {
+        return find(methods, methodsByArity, name, arity);
+    }
+
+    /**
+     * Like method(), but only shared methods count.
+     */
+    public MethodDeclarationNode sharedMethod(String name, int arity) {
+        return find(shared, sharedByArity, name, arity);
+    }
+
+    /**
+     * @return the constructors that take this many parameters, in the order they were declared
+     */
+    public List<ConstructorNode> constructors(int arity) {
+        return arity < constructors.size() ? constructors.get(arity) : List.of();
+    }
+
+    /**
+     * @param number - the interface's number in the ClassTable, or -1 for a name that isn't an interface
+     */
+    public boolean implementsInterface(int number) {
+        return number >= 0 && interfaces.get(number);
+    }
+
+    /**
+     * @return the slot the member lives in, or -1 if the class has no such member
+     */
+    public int field(String name) {
+        Integer slot = fieldSlots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    public int fieldCount() {
+        return fieldNames.size();
+    }
+
+    public String fieldName(int slot) {
+        return fieldNames.get(slot);
+    }
+
+    public TypeDescriptor fieldType(int slot) {
+        return fieldTypes[slot];
+    }
+
+    /**
+     * Give a new object's members the values they start out with, from the template.
+     */
+    void fillDefaults(InterpreterDataType[] fields) {
+        for (int slot = 0; slot < fieldTypes.length; slot++)
+            fields[slot] = fieldTypes[slot].isReference() ? null : fieldTypes[slot].newDefault();
+    }
+
+    /**
+     * @return true if the member holds a reference, and so starts out empty
+     */
+    boolean isReference(int slot) {
+        return fieldTypes[slot].isReference();
+    }
+}
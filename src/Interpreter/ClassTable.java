@@ -0,0 +1,92 @@
+package Interpreter;
+
+import AST.ClassNode;
+import AST.InterfaceNode;
+import AST.TranNode;
+
+import java.util.*;
+
+/**
+ * The link step: before the program starts, every class gets a ClassInfo and every interface a number, and both are
+ * indexed by name. The interpreter looks classes, methods, constructors and interfaces up here instead of searching
+ * the AST's lists. Interfaces a class names without declaring them (like "iterator") get a number too.
+ *
+ * Type names are resolved here as well: type() gives the one TypeDescriptor for a name, so the rest of the
+ * interpreter compares and checks types without comparing strings.
+ */
+public final class ClassTable {
+    private final Map<String, ClassInfo> byName = new HashMap<>();
+    private final Map<ClassNode, ClassInfo> byNode = new IdentityHashMap<>();
+    private final Map<String, Integer> interfaceNumbers = new HashMap<>();
+    private final Map<String, InterfaceNode> interfaces = new HashMap<>();
+    private final Map<String, TypeDescriptor> types = new HashMap<>();
+
+    private ClassTable() {
+        for (TypeDescriptor t : List.of(TypeDescriptor.NUMBER, TypeDescriptor.STRING, TypeDescriptor.BOOLEAN, TypeDescriptor.CHARACTER))
+            types.put(t.name, t);
+    }
+
+    public static ClassTable link(TranNode top) {
+        ClassTable table = new ClassTable();
+        for (InterfaceNode i : top.Interfaces) {
+            table.interfaces.putIfAbsent(i.name, i);
+            table.interfaceNumbers.putIfAbsent(i.name, table.interfaceNumbers.size());
+        }
+        for (ClassNode c : top.Classes)
+            for (String name : c.interfaces)
+                table.interfaceNumbers.putIfAbsent(name, table.interfaceNumbers.size());
+        for (ClassNode c : top.Classes) {
+            ClassInfo info = new ClassInfo(c, table.interfaceNumbers);
+            table.byNode.put(c, info);
+            table.byName.putIfAbsent(c.name, info);
+        }
+        for (ClassInfo info : table.byNode.values())
+            info.resolveFields(table);
+        return table;
+    }
+
+    /**
+     * @return the class with this name (the first one, if several share it), or null if there is none
+     */
+    public ClassInfo get(String name) {
+        return byName.get(name);
+    }
+
+    public ClassInfo of(ClassNode node) {
+        return byNode.get(node);
+    }
+
+    /**
+     * @return true if the program declares an interface with this name
+     */
+    public boolean isInterface(String name) {
+        return interfaces.containsKey(name);
+    }
+
+    /**
+     * @return the interface's number (see ClassInfo.implementsInterface()), or -1 if no class or interface uses the name
+     */
+    public int interfaceNumber(String name) {
+        Integer number = interfaceNumbers.get(name);
+        return number == null ? -1 : number;
+    }
+
+    /**
+     * @return the descriptor for a type name: a built-in type, a class, an interface, or (for a name that is none of
+     * those) an unknown type, which only complains when a variable of it is made
+     */
+    public TypeDescriptor type(String name) {
+        TypeDescriptor type = types.get(name);
+        if (type == null) {
+            ClassInfo cls = byName.get(name);
+            if (cls != null)
+                type = new TypeDescriptor(name, TypeDescriptor.Kind.CLASS, cls, -1);
+            else if (interfaceNumbers.containsKey(name))
+                type = new TypeDescriptor(name, TypeDescriptor.Kind.INTERFACE, null, interfaceNumbers.get(name));
+            else
+                type = new TypeDescriptor(name, TypeDescriptor.Kind.UNKNOWN, null, -1);
+            types.put(name, type);
+        }
+        return type;
+    }
+}
@@ -0,0 +1,62 @@
+package Interpreter;
+
+import java.util.HashMap;
+
+/**
+ * The locals of one running method body: a window onto the FrameStack, laid out by a FrameLayout. A slot that is
+ * empty (null) reads like a variable that doesn't exist, so the name falls through to the object's members.
+ * The FrameStack reuses a Frame for the next call at the same depth once this one is popped.
+ */
+final class Frame {
+    private final FrameStack stack;
+    FrameLayout layout;
+    int base;
+    // Where this frame is in the FrameStack's list of frames
+    int index;
+    // Names the layout didn't expect; only made if one turns up
+    private HashMap<String, InterpreterDataType> extra;
+
+    Frame(FrameStack stack) {
+        this.stack = stack;
+    }
+
+    void reset(FrameLayout layout, int base, int index) {
+        this.layout = layout;
+        this.base = base;
+        this.index = index;
+        extra = null;
+    }
+
+    InterpreterDataType get(String name) {
+        int slot = layout.slot(name);
+        if (slot >= 0)
+            return stack.slots[base + slot];
+        return extra == null ? null : extra.get(name);
+    }
+
+    void put(String name, InterpreterDataType value) {
+        int slot = layout.slot(name);
+        if (slot >= 0) {
+            stack.slots[base + slot] = value;
+            return;
+        }
+        if (extra == null)
+            extra = new HashMap<>();
+        extra.put(name, value);
+    }
+
+    /**
+     * @return true if a name the layout didn't expect was put here
+     */
+    boolean hasExtra() {
+        return extra != null;
+    }
+
+    InterpreterDataType get(int slot) {
+        return stack.slots[base + slot];
+    }
+
+    void set(int slot, InterpreterDataType value) {
+        stack.slots[base + slot] = value;
+    }
+}
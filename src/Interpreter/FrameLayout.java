@@ -0,0 +1,204 @@
+package Interpreter;
+
+import AST.*;
+import Optimizer.InlinedCall;
+import Optimizer.InlinedCallExpressionNode;
+import Optimizer.InlinedCallStatementNode;
+import Optimizer.ScalarAllocationNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Where each local variable of a method body lives in its frame. The parameters come first, in order, then the return
+ * values and locals, which start out with their default values on every call, then the names that only optimized code
+ * uses (the renamed parameters, return values and locals of inlined calls and of replaced allocations), which start
+ * out empty. A layout is worked out once per body and shared by every call of it.
+ *
+ * The layout is also the frame's template: the type names are resolved to TypeDescriptors once, when the layout is
+ * made, so starting a frame is one pass over the slots that makes each default value without switching on strings,
+ * and a call checks its arguments against the parameters' descriptors. The layouts of the
+ * program's own methods and constructors are made when the interpreter links the program, so a variable declared twice
+ * is reported before anything runs.
+ */
+final class FrameLayout {
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    // The declared type of each parameter, return value and local; null for the names only optimized code uses
+    private final List<String> typeNames = new ArrayList<>();
+    final int parameters;
+    private TypeDescriptor[] template;
+
+    private FrameLayout(List<VariableDeclarationNode> parameters) {
+        for (VariableDeclarationNode vd : parameters)
+            declare(vd.name, vd.type);
+        this.parameters = parameters.size();
+    }
+
+    /**
+     * The layout of a method, constructor or optimized copy. Throws if two of the declared variables share a name.
+     * @param parameters - the parameters, in order
+     * @param returns - the return values (none for a constructor)
+     * @param locals - the local variables
+     * @param body - the statements, searched for the names of inlined calls and replaced allocations
+     * @param classes - the linked classes, to look the declared types up in
+     */
+    static FrameLayout of(List<VariableDeclarationNode> parameters, List<VariableDeclarationNode> returns, List<VariableDeclarationNode> locals, List<StatementNode> body, ClassTable classes) {
+        FrameLayout layout = new FrameLayout(parameters);
+        for (VariableDeclarationNode vd : returns)
+            layout.declareOnce(vd);
+        for (VariableDeclarationNode vd : locals)
+            layout.declareOnce(vd);
+        layout.scan(body);
+        layout.makeTemplate(classes);
+        return layout;
+    }
+
+    /**
+     * The layout of an optimized copy of a loop. Unlike a method, it may declare the method's own variables again - the
+     * ones the running method already has are copied in, not reset.
+     */
+    static FrameLayout ofLoop(MethodDeclarationNode method, List<VariableDeclarationNode> locals, List<StatementNode> body, ClassTable classes) {
+        FrameLayout layout = new FrameLayout(method.parameters);
+        for (VariableDeclarationNode vd : method.returns)
+            layout.declare(vd.name, vd.type);
+        for (VariableDeclarationNode vd : locals)
+            layout.declare(vd.name, vd.type);
+        layout.scan(body);
+        layout.makeTemplate(classes);
+        return layout;
+    }
+
+    /**
+     * @return the slot that holds the variable, or -1 if the body has no such variable
+     */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    String name(int slot) {
+        return names.get(slot);
+    }
+
+    /**
+     * @return the slot's declared type, or null for a name only optimized code uses
+     */
+    TypeDescriptor type(int slot) {
+        return template[slot];
+    }
+
+    /**
+     * Fill a new frame: the parameters are already there, the declared variables get their default values.
+     */
+    void start(Frame frame) {
+        for (int slot = parameters; slot < template.length; slot++)
+            if (template[slot] != null)
+                frame.set(slot, template[slot].newDefault());
+    }
+
+    /**
+     * @return a new default value for the slot, or null if it starts out empty
+     */
+    InterpreterDataType defaultValue(int slot) {
+        return template[slot] == null ? null : template[slot].newDefault();
+    }
+
+    /**
+     * Resolve every slot's type once. An unknown type is only reported if a frame with it actually starts, as it always
+     * has been.
+     */
+    private void makeTemplate(ClassTable classes) {
+        template = new TypeDescriptor[typeNames.size()];
+        for (int slot = 0; slot < template.length; slot++)
+            if (typeNames.get(slot) != null)
+                template[slot] = classes.type(typeNames.get(slot));
+    }
+
+    private void declareOnce(VariableDeclarationNode vd) {
+        if (slots.containsKey(vd.name))
+            throw new RuntimeException(String.format("Variable '%s' is already defined", vd.name));
+        declare(vd.name, vd.type);
+    }
+
+    private void declare(String name, String type) {
+        if (slots.containsKey(name))
+            return;
+        slots.put(name, names.size());
+        names.add(name);
+        typeNames.add(type);
+    }
+
+    private void scan(List<StatementNode> body) {
+        for (StatementNode s : body) {
+            switch (s) {
+                case InlinedCallStatementNode ic -> {
+                    scanAll(ic.parameters);
+                    scan(ic.inlined);
+                }
+                case ScalarAllocationNode sa -> {
+                    scanAll(sa.parameters);
+                    for (VariableDeclarationNode vd : sa.fields)
+                        declare(vd.name, null);
+                    scan(sa.constructor);
+                }
+                case AssignmentNode a -> scan(a.expression);
+                case MethodCallStatementNode mc -> scanAll(mc.parameters);
+                case IfNode i -> {
+                    scan(i.condition);
+                    scan(i.statements);
+                    if (i.elseStatement.isPresent())
+                        scan(i.elseStatement.get().statements);
+                }
+                case LoopNode l -> {
+                    scan(l.expression);
+                    scan(l.statements);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private void scan(InlinedCall inlined) {
+        for (String name : inlined.parameters)
+            declare(name, null);
+        for (VariableDeclarationNode vd : inlined.fresh)
+            declare(vd.name, null);
+        scan(inlined.body);
+    }
+
+    private void scan(ExpressionNode e) {
+        switch (e) {
+            case InlinedCallExpressionNode ic -> {
+                scanAll(ic.parameters);
+                scan(ic.inlined);
+            }
+            case MethodCallExpressionNode mc -> scanAll(mc.parameters);
+            case NewNode n -> scanAll(n.parameters);
+            case BooleanOpNode b -> {
+                scan(b.left);
+                scan(b.right);
+            }
+            case CompareNode c -> {
+                scan(c.left);
+                scan(c.right);
+            }
+            case MathOpNode m -> {
+                scan(m.left);
+                scan(m.right);
+            }
+            case NotOpNode n -> scan(n.left);
+            default -> { }
+        }
+    }
+
+    private void scanAll(List<ExpressionNode> expressions) {
+        for (ExpressionNode e : expressions)
+            scan(e);
+    }
+}
@@ -0,0 +1,93 @@
+package Interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One growable array of slots that every running method body keeps its locals in, and that calls pass their
+ * arguments and return values through. A caller pushes the arguments on top; the callee's frame starts at them, since
+ * its first slots are its parameters. When the callee returns, its return values are moved down to where the
+ * arguments were, and the caller reads them from there and drops them. So the slots are reused by the next call and a
+ * call makes no map or list. The Frame objects are reused too - there is one per depth.
+ *
+ * Everything above the top is empty (null), so a frame always starts out with every slot empty.
+ */
+final class FrameStack {
+    private static final int INITIAL_SIZE = 256;
+    InterpreterDataType[] slots = new InterpreterDataType[INITIAL_SIZE];
+    private int top;
+    private Frame[] frames = new Frame[INITIAL_SIZE / 4];
+    private int depth;
+
+    /**
+     * @return how many slots are in use; the next value pushed goes here
+     */
+    int size() {
+        return top;
+    }
+
+    InterpreterDataType get(int index) {
+        return slots[index];
+    }
+
+    void pushValue(InterpreterDataType value) {
+        if (top == slots.length)
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        slots[top++] = value;
+    }
+
+    /**
+     * Push a frame whose first slots (the parameters) were already pushed, starting at base.
+     */
+    Frame enter(FrameLayout layout, int base) {
+        top = base + layout.size();
+        if (top > slots.length)
+            slots = Arrays.copyOf(slots, Math.max(top, slots.length * 2));
+        if (depth == frames.length)
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        Frame frame = frames[depth];
+        if (frame == null)
+            frame = frames[depth] = new Frame(this);
+        frame.reset(layout, base, depth++);
+        return frame;
+    }
+
+    /**
+     * Push a frame with nothing in it yet.
+     */
+    Frame push(FrameLayout layout) {
+        return enter(layout, top);
+    }
+
+    /**
+     * Pop a frame, leaving the given number of its slots (starting at from) on the stack where the frame started.
+     */
+    void leave(Frame frame, int from, int count) {
+        System.arraycopy(slots, from, slots, frame.base, count);
+        depth = frame.index;
+        drop(frame.base + count);
+    }
+
+    /**
+     * Pop a frame and everything above it (frames left behind by an exception).
+     */
+    void pop(Frame frame) {
+        depth = frame.index;
+        drop(frame.base);
+    }
+
+    /**
+     * Empty every slot from base up.
+     */
+    void drop(int base) {
+        Arrays.fill(slots, base, top, null);
+        top = base;
+    }
+
+    /**
+     * @return a copy of the values from base up, for the built-in methods, which take a list
+     */
+    List<InterpreterDataType> values(int base) {
+        return Arrays.asList(Arrays.copyOfRange(slots, base, top));
+    }
+}
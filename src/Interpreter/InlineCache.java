@@ -0,0 +1,57 @@
+package Interpreter;
+
+import AST.ClassNode;
+import AST.MethodDeclarationNode;
+
+/**
+ * What a call site has resolved to so far, by the class of the object it was called on (null for a shared method
+ * called by class name). The interpreter looks here before searching the classes, and adds what it found after a
+ * search. A site that has only ever seen one class is monomorphic; one that has seen up to POLYMORPHIC_LIMIT classes
+ * is polymorphic. After that the site is megamorphic: it keeps the classes it has but stops adding more, and methods
+ * for any other class come from the interpreter's per-class method tables instead.
+ */
+public class InlineCache {
+    public enum State { EMPTY, MONOMORPHIC, POLYMORPHIC, MEGAMORPHIC }
+
+    static final int POLYMORPHIC_LIMIT = 4;
+    private final ClassNode[] classes = new ClassNode[POLYMORPHIC_LIMIT];
+    private final MethodDeclarationNode[] methods = new MethodDeclarationNode[POLYMORPHIC_LIMIT];
+    private int size;
+    private boolean megamorphic;
+
+    /**
+     * @return the method this site runs for the receiver class, or null if the site hasn't seen the class
+     */
+    MethodDeclarationNode lookup(ClassNode receiverClass) {
+        for (int i = 0; i < size; i++)
+            if (classes[i] == receiverClass)
+                return methods[i];
+        return null;
+    }
+
+    void add(ClassNode receiverClass, MethodDeclarationNode method) {
+        if (megamorphic)
+            return;
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            return;
+        }
+        classes[size] = receiverClass;
+        methods[size] = method;
+        size++;
+    }
+
+    boolean isMegamorphic() {
+        return megamorphic;
+    }
+
+    public State getState() {
+        if (megamorphic)
+            return State.MEGAMORPHIC;
+        return switch (size) {
+            case 0 -> State.EMPTY;
+            case 1 -> State.MONOMORPHIC;
+            default -> State.POLYMORPHIC;
+        };
+    }
+}
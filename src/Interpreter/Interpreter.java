@@ -1,12 +1,74 @@
 package Interpreter;
 
 import AST.*;
+import Optimizer.BoundMethodCallExpressionNode;
+import Optimizer.BoundMethodCallStatementNode;
+import Optimizer.CallBinding;
+import Optimizer.CompiledLoop;
+import Optimizer.CompiledMethod;
+import Optimizer.InlinedCall;
+import Optimizer.InlinedCallExpressionNode;
+import Optimizer.InlinedCallStatementNode;
+import Optimizer.IntegerCompareNode;
+import Optimizer.IntegerMathOpNode;
+import Optimizer.ScalarAllocationNode;
+import Optimizer.SpecializedCompareNode;
+import Optimizer.SpecializedMathOpNode;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 public class Interpreter {
 
     private final TranNode top;
+    private final Tiering tiering;
+    private final TypeFeedback feedback = new TypeFeedback();
+    // The method whose body is running right now; used to charge loop back-edges to the right profile
+    private MethodDeclarationNode currentMethod;
+    // Is currentMethod running its optimized copy? Loops in optimized code don't need on-stack replacement
+    private boolean currentOptimized;
+    // If set, start() writes the runtime profile here when the program finishes
+    private Path profileOutput;
+    // Objects made by "new", and "new"s that scalar replacement turned into locals instead
+    private long objectsCreated;
+    private long allocationsAvoided;
+    // Call statements in tail position (see TailCalls), in the original methods and in every optimized copy run so far
+    private final Set<Node> tailCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<CompiledMethod> tailCallsFound = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean tailCallElimination = true;
+    // The call a method ended with, waiting for interpretMethodCall() to run it in the method's place
+    private MethodDeclarationNode tailMethod;
+    private Optional<ObjectIDT> tailObject;
+    private int tailArguments;
+    // The object the method findMethod() found runs on
+    private Optional<ObjectIDT> foundObject;
+    // Call site lookups that the site's InlineCache answered, that had to search the classes, and that a megamorphic
+    // site answered from the ClassInfo method tables
+    private long inlineCacheHits;
+    private long inlineCacheMisses;
+    private long megamorphicLookups;
+    // What this interpreter keeps about the program's nodes, kept here and not in the AST: each call site's inline
+    // cache, each iterator loop's getNext() by class, each literal's shared value, and the slot the link step found
+    // for a variable (see VariableSlots)
+    private final Map<Node, InlineCache> inlineCaches = new IdentityHashMap<>();
+    private final Map<LoopNode, InlineCache> getNextCaches = new IdentityHashMap<>();
+    private final Map<ExpressionNode, InterpreterDataType> literals = new IdentityHashMap<>();
+    private final Map<VariableReferenceNode, VariableSlots.Slot> variableSlots = new IdentityHashMap<>();
+    // The class each method belongs to, for resolving the variables of its optimized copies
+    private final Map<MethodDeclarationNode, ClassInfo> owners = new IdentityHashMap<>();
+    // Every class linked, with its method, constructor and interface tables
+    private final ClassTable classes;
+    private final int iteratorInterface;
+    private long tailCallsRun;
+    // The locals of every running method live on one stack of slots; each body's layout is worked out once
+    private final FrameStack frames = new FrameStack();
+    private final Map<Object, FrameLayout> layouts = new IdentityHashMap<>();
+    // Set when evaluateNumber() gives up on an expression that isn't number math after all (see gaveUp())
+    private boolean notANumber;
 
     /** Constructor - get the interpreter ready to run. Set members from parameters and "prepare" the class.
      *
@@ -29,6 +91,82 @@ public class Interpreter {
         number.name = "number";
 
         this.top = top;
+        this.classes = ClassTable.link(top);
+        this.iteratorInterface = classes.interfaceNumber("iterator");
+        this.tiering = new Tiering(top, feedback);
+        for (ClassNode c : top.Classes) {
+            ClassInfo info = classes.of(c);
+            for (MethodDeclarationNode m : c.methods) {
+                owners.put(m, info);
+                VariableSlots.resolve(info, layoutOf(m, null), m.statements, variableSlots);
+                TailCalls.find(m.statements, m.returns, tailCalls);
+            }
+            for (ConstructorNode k : c.constructors)
+                VariableSlots.resolve(info, layoutOf(k), k.statements, variableSlots);
+        }
+    }
+
+    /**
+     * @return the tiering controller, for tuning thresholds and reading the per-tier counters
+     */
+    public Tiering getTiering() {
+        return tiering;
+    }
+
+    /**
+     * @return how many objects "new" has created so far
+     */
+    public long getObjectsCreated() {
+        return objectsCreated;
+    }
+
+    /**
+     * @return how many times a "new" ran without creating an object, because the optimizer replaced it with locals
+     */
+    public long getAllocationsAvoided() {
+        return allocationsAvoided;
+    }
+
+    /**
+     * @param tailCallElimination - if false, calls in tail position run on top of their caller like any other call
+     */
+    public void setTailCallElimination(boolean tailCallElimination) {
+        this.tailCallElimination = tailCallElimination;
+    }
+
+    /**
+     * @return how many calls ran in place of their caller instead of on top of it
+     */
+    public long getTailCallsRun() {
+        return tailCallsRun;
+    }
+
+    /**
+     * @return how many method lookups a call site's inline cache answered
+     */
+    public long getInlineCacheHits() {
+        return inlineCacheHits;
+    }
+
+    /**
+     * @return how many method lookups had to search the classes
+     */
+    public long getInlineCacheMisses() {
+        return inlineCacheMisses;
+    }
+
+    /**
+     * @return how many method lookups at megamorphic call sites the per-class method tables answered
+     */
+    public long getMegamorphicLookups() {
+        return megamorphicLookups;
+    }
+
+    /**
+     * @return the inline cache of a call site, if the call has run
+     */
+    public Optional<InlineCache> getInlineCache(Node site) {
+        return Optional.ofNullable(inlineCaches.get(site));
     }
 
     /**
@@ -38,12 +176,27 @@ public class Interpreter {
      * Search the classes in Tran for a method that is "isShared", named "start", that is not private and has no parameters
      * Call "InterpretMethodCall" on that method, then return.
      * Throw an exception if no such method exists.
+     * If a profile output file was set, write the runtime profile to it once start() returns (or throws).
+     *
+     * The tree-walker recurses on the Java stack: every Tran call that isn't a tail call (see TailCalls) takes a few
+     * Java frames, so how deep calls can nest depends on the thread's stack size (-Xss, or the stack size of the thread
+     * that calls start()). Going deeper is reported as a RuntimeException.
      */
     public void start() throws RuntimeException {
         for (ClassNode c : top.Classes) {
             for (MethodDeclarationNode m : c.methods) {
                 if (m.name.equals("start") && m.isShared && !m.isPrivate && m.parameters.isEmpty()) {
-                    interpretMethodCall(Optional.empty(), m, new LinkedList<InterpreterDataType>());
+                    int args = frames.size();
+                    try {
+                        interpretMethodCall(Optional.empty(), m, args);
+                        frames.drop(args);
+                    } catch (StackOverflowError e) {
+                        throw new RuntimeException("Method calls nested too deeply for the Java stack; run with a bigger -Xss");
+                    } finally {
+                        tiering.stopCompiling();
+                        if (profileOutput != null)
+                            writeProfile(profileOutput);
+                    }
                     return;
                 }
             }
@@ -53,59 +206,316 @@ public class Interpreter {
 
     //              Running Methods
 
+    /*
+     * The calling convention: the caller pushes the argument values onto the frame stack (pushArguments()), and the
+     * callee's frame starts at them - its first slots are its parameters. When the callee returns, its return values
+     * are moved down to where the arguments started; the caller reads them from there and drops them. So the call
+     * functions below return how many values the call returned, and the values are at the frame stack's size from
+     * before the arguments were pushed. No list or map is made for a call.
+     */
+
     /**
      * Find the method (local to this class, shared (like Java's system.out.print), or a method on another class)
-     * Evaluate the parameters to have a list of values
+     * Evaluate the parameters onto the frame stack
      * Use interpretMethodCall() to actually run the method.
      *
-     * Call GetParameters() to get the parameter value list
+     * Call pushArguments() to get the parameter values
      * Find the method. This is tricky - there are several cases:
      * someLocalMethod() - has NO object name. Look in "object"
      * console.write() - the objectName is a CLASS and the method is shared
      * bestStudent.getGPA() - the objectName is a local or a member
      *
-     * Once you find the method, call InterpretMethodCall() on it. Return the list that it returns.
+     * Once you find the method, call InterpretMethodCall() on it.
      * Throw an exception if we can't find a match.
      * @param object - the object we are inside right now (might be empty)
      * @param locals - the current local variables
-     * @param mc - the method call
-     * @return - the return values
+     * @param objectName - the object or class the method is called on, if any
+     * @param methodName - the method called
+     * @param parameters - the argument expressions
+     * @param site - the node the call came from in the AST (for type feedback)
+     * @return - how many values the method returned
+     */
+    private int findMethodForMethodCallAndRunIt(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, Node site) throws RuntimeException {
+        int args = pushArguments(object, locals, parameters);
+        return findMethodAndRunIt(object, locals, objectName, methodName, args, site);
+    }
+
+    /**
+     * The lookup half of findMethodForMethodCallAndRunIt(), for callers that have already pushed the parameters.
+     */
+    private int findMethodAndRunIt(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, int args, Node site) throws RuntimeException {
+        MethodDeclarationNode m = findMethod(object, locals, objectName, methodName, frames.size() - args, site);
+        return interpretMethodCall(foundObject, m, args);
+    }
+
+    /**
+     * The lookup itself: which method a call runs, and on which object (left in foundObject).
+     * The object the search would look in first (the current object for a call without an object name, else the
+     * object in the local or member variable, else none for a shared method called by class name) is checked against
+     * the site's inline cache first. Only on a miss do we search the classes with searchForMethod(), and then remember
+     * what we found if it was in that first object's class. A megamorphic site uses the class's method tables.
+     * @param arity - how many parameters the call passes
+     * @return the method
+     */
+    private MethodDeclarationNode findMethod(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, int arity, Node site) throws RuntimeException {
+        InlineCache cache = inlineCache(site);
+        Optional<ObjectIDT> receiver;
+        if (objectName.isEmpty())
+            receiver = object.isPresent() ? object : null;
+        else if (locals.get(objectName.get()) instanceof ReferenceIDT ref && ref.refersTo.isPresent())
+            receiver = ref.refersTo;
+        else if (object.isPresent() && object.get().getMember(objectName.get()) instanceof ReferenceIDT ref && ref.refersTo.isPresent())
+            receiver = ref.refersTo;
+        else
+            receiver = Optional.empty();
+        if (receiver == null)
+            return searchForMethod(object, locals, objectName, methodName, arity, site);
+        // the object a shared method called by class name runs on is the caller's
+        Optional<ObjectIDT> runsOn = receiver.isPresent() ? receiver : object;
+        ClassNode receiverClass = receiver.isPresent() ? receiver.get().astNode : null;
+        MethodDeclarationNode m = cache.lookup(receiverClass);
+        if (m == null && cache.isMegamorphic() && receiverClass != null) {
+            m = receiver.get().info.method(methodName, arity);
+            if (m != null)
+                megamorphicLookups++;
+        } else if (m != null) {
+            inlineCacheHits++;
+        }
+        if (m != null) {
+            if (receiver.isPresent())
+                recordReceiver(site, receiver.get());
+            foundObject = runsOn;
+            return m;
+        }
+        inlineCacheMisses++;
+        m = searchForMethod(object, locals, objectName, methodName, arity, site);
+        if (foundObject == runsOn && (receiverClass == null || receiverClass.methods.contains(m)))
+            cache.add(receiverClass, m);
+        return m;
+    }
+
+    private InlineCache inlineCache(Node site) {
+        InlineCache cache = inlineCaches.get(site);
+        if (cache == null)
+            inlineCaches.put(site, cache = new InlineCache());
+        return cache;
+    }
+
+    /**
+     * The lookup slow path: look for the method a call runs, and on which object (left in foundObject), in the
+     * ClassInfo method tables of each place it could be in turn.
+     * @return the method
      */
-    private List<InterpreterDataType> findMethodForMethodCallAndRunIt(Optional<ObjectIDT> object, HashMap<String, InterpreterDataType> locals, MethodCallStatementNode mc) throws RuntimeException {
-        List<InterpreterDataType> values = getParameters(object, locals, mc);
+    private MethodDeclarationNode searchForMethod(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, int arity, Node site) throws RuntimeException {
+        MethodDeclarationNode m;
         // local method
-        if (mc.objectName.isEmpty() && object.isPresent()) {
-            for (MethodDeclarationNode m : object.get().astNode.methods)
-                if (m.name.equals(mc.methodName))
-                    return interpretMethodCall(object, m, values);
-            throw new RuntimeException(String.format("Local method '%s' not found", mc.methodName));
+        if (objectName.isEmpty() && object.isPresent()) {
+            recordReceiver(site, object.get());
+            m = object.get().info.method(methodName, arity);
+            if (m == null)
+                throw new RuntimeException(String.format("Local method '%s' not found", methodName));
+            foundObject = object;
+            return m;
         }
 //        MethodDeclarationNode toRun = null;
-        if (mc.objectName.isEmpty())
+        if (objectName.isEmpty())
             throw new RuntimeException("Expected object identifier in method call");
         // local variable
-        InterpreterDataType obj = locals.get(mc.objectName.get());
+        InterpreterDataType obj = locals.get(objectName.get());
         if (obj instanceof ReferenceIDT ref)
-            if (ref.refersTo.isPresent())
-                for (MethodDeclarationNode m : ref.refersTo.get().astNode.methods)
-                    if (m.name.equals(mc.methodName))
-                        return interpretMethodCall(ref.refersTo, m, values);
+            if (ref.refersTo.isPresent()) {
+                recordReceiver(site, ref.refersTo.get());
+                m = ref.refersTo.get().info.method(methodName, arity);
+                if (m != null) {
+                    foundObject = ref.refersTo;
+                    return m;
+                }
+            }
         // member variable
         if (object.isPresent()) {
-            InterpreterDataType memberMethod = object.get().members.get(mc.objectName.get());
+            InterpreterDataType memberMethod = object.get().getMember(objectName.get());
             if (memberMethod instanceof ReferenceIDT mm)
-                if (mm.refersTo.isPresent())
-                    for (MethodDeclarationNode m : mm.refersTo.get().astNode.methods)
-                        if (m.name.equals(mc.methodName))
-                            return interpretMethodCall(object, m, values);
+                if (mm.refersTo.isPresent()) {
+                    recordReceiver(site, mm.refersTo.get());
+                    m = mm.refersTo.get().info.method(methodName, arity);
+                    if (m != null) {
+                        foundObject = mm.refersTo;
+                        return m;
+                    }
+                }
         }
         // static method call
-        for (ClassNode c : top.Classes)
-            if (c.name.equals(mc.objectName.get()))
-                for (MethodDeclarationNode m : c.methods)
-                    if (m.name.equals(mc.methodName) && m.isShared)
-                        return interpretMethodCall(object, m, values);
-        throw new RuntimeException(String.format("Unable to find method '%s', was it declared?", mc.methodName));
+        ClassInfo c = classes.get(objectName.get());
+        m = c == null ? null : c.sharedMethod(methodName, arity);
+        if (m != null) {
+            foundObject = object;
+            return m;
+        }
+        throw new RuntimeException(String.format("Unable to find method '%s', was it declared?", methodName));
+    }
+
+    /**
+     * Run a call statement in tail position (see TailCalls). The method is found and the parameters pushed as for any
+     * other call, but instead of running the callee on top of the current method we leave it in tailMethod,
+     * tailObject and tailArguments; the blocks around the call end right after it, and interpretMethodCall() runs the
+     * callee in the current method's place, so a chain of tail calls (like a recursive loop) takes no Java stack.
+     * Built-ins, and callees whose return values don't have the same types as ours, are called the normal way.
+     * @param object - the object we are inside right now (might be empty)
+     * @param locals - the current local variables
+     * @param mc - the call (a BoundMethodCallStatementNode if the optimizer resolved it)
+     */
+    private void runTailCall(Optional<ObjectIDT> object, Frame locals, MethodCallStatementNode mc) {
+        int args = pushArguments(object, locals, mc.parameters);
+        MethodDeclarationNode m;
+        Optional<ObjectIDT> receiver = null;
+        if (mc instanceof BoundMethodCallStatementNode bound) {
+            receiver = boundReceiver(object, locals, mc.objectName, bound.binding);
+            if (receiver == null)
+                bound.binding.owner.invalidate();
+        }
+        if (receiver == null) {
+            m = findMethod(object, locals, mc.objectName, mc.methodName, mc.parameters.size(), mc);
+            receiver = foundObject;
+        } else {
+            m = ((BoundMethodCallStatementNode) mc).binding.target;
+        }
+        if (m instanceof BuiltInMethodDeclarationNode || !sameReturnTypes(m, currentMethod)) {
+            assignReturnValues(object, locals, mc, args, interpretMethodCall(receiver, m, args));
+            return;
+        }
+        tailObject = receiver;
+        tailMethod = m;
+        tailArguments = args;
+    }
+
+    private boolean sameReturnTypes(MethodDeclarationNode a, MethodDeclarationNode b) {
+        if (a.returns.size() != b.returns.size())
+            return false;
+        FrameLayout aLayout = layoutOf(a, null), bLayout = layoutOf(b, null);
+        for (int i = 0; i < a.returns.size(); i++)
+            if (aLayout.type(a.parameters.size() + i) != bLayout.type(b.parameters.size() + i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Run a call site that the optimizer already resolved. The binding is only valid if the receiver has the class the
+     * optimizer expected; if not, the compiled method is invalidated and we fall back to the normal lookup.
+     * @param object - the object we are inside right now (might be empty)
+     * @param locals - the current local variables
+     * @param objectName - the object or class the method is called on, if any (used for the fallback lookup)
+     * @param methodName - the method called (used for the fallback lookup)
+     * @param parameters - the argument expressions
+     * @param binding - what the optimizer resolved the call to
+     * @param site - the node the call came from in the AST
+     * @return - how many values the method returned
+     */
+    private int runBoundMethodCall(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, CallBinding binding, Node site) {
+        int args = pushArguments(object, locals, parameters);
+        Optional<ObjectIDT> receiver = boundReceiver(object, locals, objectName, binding);
+        if (receiver == null) {
+            binding.owner.invalidate();
+            return findMethodAndRunIt(object, locals, objectName, methodName, args, site);
+        }
+        return interpretMethodCall(receiver, binding.target, args);
+    }
+
+    /**
+     * @return the object a bound call runs on (empty for shared methods called from outside an object), or null if it
+     * isn't the class the binding expects
+     */
+    private Optional<ObjectIDT> boundReceiver(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, CallBinding binding) {
+        Optional<ObjectIDT> receiver = switch (binding.receiverKind) {
+            case SELF -> object;
+            case LOCAL -> locals.get(objectName.get()) instanceof ReferenceIDT ref ? ref.refersTo : Optional.empty();
+            case MEMBER -> object.isPresent() && object.get().getMember(objectName.get()) instanceof ReferenceIDT ref ? ref.refersTo : Optional.empty();
+            case STATIC -> object;
+            case NONE -> Optional.empty();
+        };
+        if (binding.receiverClass != null && (receiver.isEmpty() || receiver.get().astNode != binding.receiverClass))
+            return null;
+        return receiver;
+    }
+
+    /**
+     * Run a call whose callee the optimizer copied into the caller. The arguments go into the callee's (renamed)
+     * parameters in the caller's locals, its return values and locals start out fresh, and the copied body runs with
+     * the receiver as the current object. No new frame and no lookup.
+     * If the receiver isn't the class the optimizer expected, the compiled method is invalidated and the call is made
+     * the normal way with the arguments that were already evaluated.
+     * @param object - the object we are inside right now (might be empty)
+     * @param locals - the current local variables
+     * @param objectName - the object or class the method is called on, if any
+     * @param methodName - the method called (used for the fallback lookup)
+     * @param parameters - the argument expressions
+     * @param binding - what the optimizer resolved the call to
+     * @param inlined - the callee's renamed body
+     * @param site - the node the call came from in the AST
+     * @return how many values the method returned if the call had to fall back to a normal call (they are on the
+     * frame stack as for any call), otherwise -1 - the values are in the inlined return variables
+     */
+    private int runInlinedCall(Optional<ObjectIDT> object, Frame locals, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, CallBinding binding, InlinedCall inlined, Node site) {
+        for (int i = 0; i < inlined.parameters.size(); i++)
+            locals.put(inlined.parameters.get(i), evaluateVariable(locals, object, parameters.get(i)));
+        Optional<ObjectIDT> receiver = boundReceiver(object, locals, objectName, binding);
+        if (receiver == null) {
+            binding.owner.invalidate();
+            int args = frames.size();
+            for (String parameter : inlined.parameters)
+                frames.pushValue(locals.get(parameter));
+            return findMethodAndRunIt(object, locals, objectName, methodName, args, site);
+        }
+        for (VariableDeclarationNode vd : inlined.fresh)
+            locals.put(vd.name, classes.type(vd.type).newDefault());
+        interpretStatementBlock(receiver, inlined.body, locals);
+        return -1;
+    }
+
+    /**
+     * Run a "new" whose object the optimizer replaced with locals: give the locals that hold the members their default
+     * values, then run the constructor (renamed like an inlined call) on them. The arguments are evaluated first, as
+     * they would be for a real constructor call.
+     * @param object - the object we are inside right now (might be empty)
+     * @param locals - the current local variables
+     * @param sa - the replaced allocation
+     */
+    private void runScalarAllocation(Optional<ObjectIDT> object, Frame locals, ScalarAllocationNode sa) {
+        InlinedCall constructor = sa.constructor;
+        for (int i = 0; i < constructor.parameters.size(); i++)
+            locals.put(constructor.parameters.get(i), evaluateVariable(locals, object, sa.parameters.get(i)));
+        for (VariableDeclarationNode vd : sa.fields)
+            locals.put(vd.name, classes.type(vd.type).newDefault());
+        for (VariableDeclarationNode vd : constructor.fresh)
+            locals.put(vd.name, classes.type(vd.type).newDefault());
+        allocationsAvoided++;
+        interpretStatementBlock(Optional.empty(), constructor.body, locals);
+    }
+
+    /**
+     * Copy the values returned by a method call into the variables on the left side of the call statement, then drop
+     * them from the frame stack.
+     * @param results - where the returned values start on the frame stack
+     * @param count - how many values were returned
+     */
+    private void assignReturnValues(Optional<ObjectIDT> object, Frame locals, MethodCallStatementNode mc, int results, int count) {
+        if (count < mc.returnValues.size())
+            throw new RuntimeException(String.format("Method '%s' returns %d values, but %d were expected", mc.methodName, count, mc.returnValues.size()));
+        for (int i = 0; i < mc.returnValues.size(); i++)
+            findVariable(mc.returnValues.get(i), locals, object).Assign(frames.get(results + i));
+        frames.drop(results);
+    }
+
+    /**
+     * Take the first value returned by a method call that is used as an expression, and drop the rest.
+     * @param results - where the returned values start on the frame stack
+     * @param count - how many values were returned
+     */
+    private InterpreterDataType firstReturnValue(String methodName, int results, int count) {
+        if (count == 0)
+            throw new RuntimeException(String.format("Method '%s' doesn't return a value", methodName));
+        InterpreterDataType value = frames.get(results);
+        frames.drop(results);
+        return value;
     }
 
     /**
@@ -113,41 +523,88 @@ public class Interpreter {
      * This is split from findMethodForMethodCallAndRunIt() because there are a few cases where we don't need to do the finding:
      * in start() and dealing with loops with iterator objects, for example.
      *
-     * Check to see if "m" is a built-in. If so, call Execute() on it and return
-     * Make local variables, per "m"
+     * Check to see if "m" is a built-in. If so, call Execute() on it (with a list of the values) and push what it returns
+     * Ask the tiering controller whether there is an optimized copy of "m" to run instead of the original body
      * If the number of passed in values doesn't match m's "expectations", throw
-     * Add the parameters by name to locals.
+     * Push a frame for the locals (see FrameLayout), starting at the parameters; the other locals get their default values
      * Call InterpretStatementBlock
-     * Build the return list - find the names from "m", then get the values for those names and add them to the list.
+     * If the body ended with a tail call, replace the frame with the callee's parameters and go around again with the callee instead
+     * Pop the frame, leaving the return values where the parameters were
      * @param object - The object this method is being called on (might be empty for shared)
      * @param m - Which method is being called
-     * @param values - The values to be passed in
-     * @return the returned values from the method
-     */
-    private List<InterpreterDataType> interpretMethodCall(Optional<ObjectIDT> object, MethodDeclarationNode m, List<InterpreterDataType> values) {
-        if (m instanceof BuiltInMethodDeclarationNode md)
-            return md.Execute(values);
-        if (values.size() != m.parameters.size())
-            throw new RuntimeException(String.format("Method '%s' expected %d parameters, got %d", m.name, m.parameters.size(), values.size()));
-        HashMap<String, InterpreterDataType> locals = new HashMap<>();
-        for (int i = 0; i < values.size(); i++)
-            locals.put(m.parameters.get(i).name, values.get(i));
-        for (VariableDeclarationNode vd : m.returns) {
-            if (locals.containsKey(vd.name))
-                throw new RuntimeException(String.format("Variable '%s' is already defined", vd.name));
-            locals.put(vd.name, instantiate(vd.type));
-        }
-        for (VariableDeclarationNode vd : m.locals) {
-            if (locals.containsKey(vd.name))
-                throw new RuntimeException(String.format("Variable '%s' is already defined", vd.name));
-            locals.put(vd.name, instantiate(vd.type));
-        }
-
-        interpretStatementBlock(object, m.statements, locals);
-        LinkedList<InterpreterDataType> result = new LinkedList<>();
-        for (VariableDeclarationNode v : m.returns)
-            result.add(locals.get(v.name));
-        return result;
+     * @param args - where the values to be passed in start on the frame stack (they go up to its top)
+     * @return how many values the method returned; they start at args
+     */
+    private int interpretMethodCall(Optional<ObjectIDT> object, MethodDeclarationNode m, int args) {
+        if (m instanceof BuiltInMethodDeclarationNode md) {
+            List<InterpreterDataType> results = md.Execute(frames.values(args));
+            frames.drop(args);
+            for (InterpreterDataType result : results)
+                frames.pushValue(result);
+            return results.size();
+        }
+        return runMethod(object, m, args);
+    }
+
+    private int runMethod(Optional<ObjectIDT> object, MethodDeclarationNode m, int args) {
+        while (true) {
+            if (frames.size() - args != m.parameters.size())
+                throw new RuntimeException(String.format("Method '%s' expected %d parameters, got %d", m.name, m.parameters.size(), frames.size() - args));
+            CompiledMethod compiled = tiering.enter(m);
+            if (compiled != null && tailCallsFound.add(compiled))
+                TailCalls.find(compiled.statements, m.returns, tailCalls);
+            FrameLayout layout = layoutOf(m, compiled);
+            Frame locals = frames.enter(layout, args);
+            MethodDeclarationNode caller = currentMethod;
+            boolean callerOptimized = currentOptimized;
+            boolean returned = false;
+            try {
+                locals.layout.start(locals);
+                currentMethod = m;
+                currentOptimized = compiled != null;
+                interpretStatementBlock(object, compiled == null ? m.statements : compiled.statements, locals);
+                returned = true;
+            } finally {
+                currentMethod = caller;
+                currentOptimized = callerOptimized;
+                if (!returned)
+                    frames.pop(locals);
+            }
+            if (tailMethod == null) {
+                frames.leave(locals, args + layout.parameters, m.returns.size());
+                return m.returns.size();
+            }
+            frames.leave(locals, tailArguments, frames.size() - tailArguments);
+            object = tailObject;
+            m = tailMethod;
+            tailObject = null;
+            tailMethod = null;
+            tailCallsRun++;
+        }
+    }
+
+    /**
+     * @return the frame layout of a method body: made when the program was linked, or for an optimized copy, the
+     * first time the copy runs
+     */
+    private FrameLayout layoutOf(MethodDeclarationNode m, CompiledMethod compiled) {
+        // looked up before computeIfAbsent(), whose capturing lambda would be a new object on every call
+        FrameLayout layout = layouts.get(compiled == null ? m : compiled);
+        if (layout != null)
+            return layout;
+        if (compiled == null)
+            return layouts.computeIfAbsent(m, k -> FrameLayout.of(m.parameters, m.returns, m.locals, m.statements, classes));
+        layout = FrameLayout.of(m.parameters, m.returns, compiled.locals, compiled.statements, classes);
+        layouts.put(compiled, layout);
+        VariableSlots.resolve(owners.get(m), layout, compiled.statements, variableSlots);
+        return layout;
+    }
+
+    private FrameLayout layoutOf(ConstructorNode c) {
+        FrameLayout layout = layouts.get(c);
+        if (layout != null)
+            return layout;
+        return layouts.computeIfAbsent(c, k -> FrameLayout.of(c.parameters, List.of(), c.locals, c.statements, classes));
     }
 
     //              Running Constructors
@@ -155,55 +612,55 @@ public class Interpreter {
     /**
      * This is a special case of the code for methods. Just different enough to make it worthwhile to split it out.
      *
-     * Call GetParameters() to populate a list of IDT's
-     * Call GetClassByName() to find the class for the constructor
-     * If we didn't find the class, throw an exception
-     * Find a constructor that is a good match - use DoesConstructorMatch()
+     * Call pushArguments() to put the parameter values on the frame stack
+     * Find a constructor that is a good match among the class's constructors with that many parameters - use DoesConstructorMatch()
      * Call InterpretConstructorCall() on the good match
      * @param callerObj - the object that we are inside when we called the constructor
      * @param locals - the current local variables (used to fill parameters)
-     * @param mc  - the method call for this construction
+     * @param n - the "new" for this construction
      * @param newOne - the object that we just created that we are calling the constructor for
      */
-    private void findConstructorAndRunIt(Optional<ObjectIDT> callerObj, HashMap<String, InterpreterDataType> locals, MethodCallStatementNode mc, ObjectIDT newOne) {
-        List<InterpreterDataType> params = getParameters(callerObj, locals, mc);
-        Optional<ClassNode> cls = getClassByName(mc.methodName);
-        if (cls.isEmpty())
-            throw new RuntimeException(String.format("Unable to find class '%s'", newOne.astNode.name));
+    private void findConstructorAndRunIt(Optional<ObjectIDT> callerObj, Frame locals, NewNode n, ObjectIDT newOne) {
+        int args = pushArguments(callerObj, locals, n.parameters);
         ConstructorNode construct = null;
-        for (ConstructorNode c : cls.get().constructors)
-            if (doesConstructorMatch(c, mc, params)) {
+        for (ConstructorNode c : newOne.info.constructors(frames.size() - args))
+            if (doesConstructorMatch(c, n, args)) {
                 construct = c;
                 break;
             }
         if (construct == null)
             throw new RuntimeException(String.format("Unable to find suitable constructor for class '%s'", newOne.astNode.name));
-        interpretConstructorCall(newOne, construct, params);
+        interpretConstructorCall(newOne, construct, args);
     }
 
     /**
      * Similar to interpretMethodCall, but "just different enough" - for example, constructors don't return anything.
      *
-     * Creates local variables (as defined by the ConstructorNode), calls Instantiate() to do the creation
      * Checks to ensure that the right number of parameters were passed in, if not throw.
-     * Adds the parameters (with the names from the ConstructorNode) to the locals.
+     * Pushes a frame for the locals (as defined by the ConstructorNode), starting at the parameters, and calls
+     * fills the other locals in from the constructor's FrameLayout
      * Calls InterpretStatementBlock
+     * Pops the frame, parameters and all
      * @param object - the object that we allocated
      * @param c - which constructor is being called
-     * @param values - the parameter values being passed to the constructor
+     * @param args - where the parameter values being passed to the constructor start on the frame stack
      */
-    private void interpretConstructorCall(ObjectIDT object, ConstructorNode c, List<InterpreterDataType> values) {
-        if (values.size() != c.parameters.size())
-            throw new RuntimeException(String.format("Constructor expected %d parameters, got %d", c.parameters.size(), values.size()));
-        HashMap<String, InterpreterDataType> locals = new HashMap<>();
-        for (int i = 0; i < values.size(); i++)
-            locals.put(c.parameters.get(i).name, values.get(i));
-        for (VariableDeclarationNode vd : c.locals) {
-            if (locals.containsKey(vd.name))
-                throw new RuntimeException(String.format("Variable '%s' is already defined", vd.name));
-            locals.put(vd.name, instantiate(vd.type));
+    private void interpretConstructorCall(ObjectIDT object, ConstructorNode c, int args) {
+        if (frames.size() - args != c.parameters.size())
+            throw new RuntimeException(String.format("Constructor expected %d parameters, got %d", c.parameters.size(), frames.size() - args));
+        Frame locals = frames.enter(layoutOf(c), args);
+        MethodDeclarationNode caller = currentMethod;
+        boolean callerOptimized = currentOptimized;
+        try {
+            locals.layout.start(locals);
+            currentMethod = null;
+            currentOptimized = false;
+            interpretStatementBlock(Optional.of(object), c.statements, locals);
+        } finally {
+            currentMethod = caller;
+            currentOptimized = callerOptimized;
+            frames.pop(locals);
         }
-        interpretStatementBlock(Optional.of(object), c.statements, locals);
     }
 
     //              Running Instructions
@@ -216,6 +673,10 @@ public class Interpreter {
      * check the type:
      *      For AssignmentNode, FindVariable() to get the target. Evaluate() the expression. Call Assign() on the target with the result of Evaluate()
      *      For MethodCallStatementNode, call doMethodCall(). Loop over the returned values and copy the into our local variables
+     *          (a BoundMethodCallStatementNode was already resolved by the optimizer - use runBoundMethodCall() instead,
+     *          and an InlinedCallStatementNode has the callee's body right here - use runInlinedCall())
+     *          (a call in tail position - see TailCalls - uses runTailCall(), which leaves the callee for interpretMethodCall() to run)
+     *      For ScalarAllocationNode ("x = new ..." whose object the optimizer replaced with locals), use runScalarAllocation()
      *      For LoopNode - there are 2 kinds.
      *          Setup:
      *          If this is a Loop over an iterator (an Object node whose class has "iterator" as an interface)
@@ -224,345 +685,739 @@ public class Interpreter {
      *          While we are not done:
      *              if this is a boolean loop, Evaluate() to get true or false.
      *              if this is an iterator, call "getNext()" - it has 2 return values. The first is a boolean (was there another?), the second is a value
+     *              if this is a built-in iterable (a string), its NativeIterator gives the items without calling getNext()
+     *              if this is a counted loop (x.times(), number.times(...), number.range(...)), see runCountedLoop()
      *              If the loop has an assignment variable, populate it: for boolean loops, the true/false. For iterators, the "second value"
      *              If our answer from above is "true", InterpretStatementBlock() on the body of the loop.
+     *          Every loop runs through a LoopActivation, which may switch to an optimized copy of the loop part way through (OSR)
      *       For If - Evaluate() the condition. If true, InterpretStatementBlock() on the if's statements. If not AND there is an else, InterpretStatementBlock on the else body.
      * @param object - the object that this statement block belongs to (used to get member variables and any members without an object)
      * @param statements - the statements to run
      * @param locals - the local variables
      */
-    private void interpretStatementBlock(Optional<ObjectIDT> object, List<StatementNode> statements, HashMap<String, InterpreterDataType> locals) {
+    private void interpretStatementBlock(Optional<ObjectIDT> object, List<StatementNode> statements, Frame locals) {
         for (StatementNode statement : statements) {
             switch (statement) {
                 case AssignmentNode a -> {
-                    InterpreterDataType target = findVariable(a.target.name, locals, object);
+                    InterpreterDataType target = findVariable(a.target, locals, object);
+                    if (target instanceof NumberIDT number && a.expression instanceof MathOpNode math && isNumberMath(math)) {
+                        // the math goes straight into the variable, without a value for it or for any step of it
+                        float result = evaluateNumber(locals, object, math);
+                        if (!gaveUp()) {
+                            number.setValue(result);
+                            continue;
+                        }
+                        // some of it wasn't number math after all; the generic code does it again
+                    }
                     InterpreterDataType value = evaluate(locals, object, a.expression);
                     target.Assign(value);
                 }
-                case MethodCallStatementNode mc -> findMethodForMethodCallAndRunIt(object, locals, mc);
+                case InlinedCallStatementNode mc -> {
+                    int results = frames.size();
+                    int count = runInlinedCall(object, locals, mc.objectName, mc.methodName, mc.parameters, mc.binding, mc.inlined, mc);
+                    if (count >= 0) {
+                        assignReturnValues(object, locals, mc, results, count);
+                    } else {
+                        for (int i = 0; i < mc.returnValues.size(); i++)
+                            findVariable(mc.returnValues.get(i), locals, object).Assign(locals.get(mc.inlined.returns.get(i)));
+                    }
+                }
+                case ScalarAllocationNode sa -> runScalarAllocation(object, locals, sa);
+                case MethodCallStatementNode mc when tailCallElimination && tailCalls.contains(mc) -> runTailCall(object, locals, mc);
+                case BoundMethodCallStatementNode mc -> {
+                    int results = frames.size();
+                    assignReturnValues(object, locals, mc, results, runBoundMethodCall(object, locals, mc.objectName, mc.methodName, mc.parameters, mc.binding, mc));
+                }
+                case MethodCallStatementNode mc -> {
+                    int results = frames.size();
+                    assignReturnValues(object, locals, mc, results, findMethodForMethodCallAndRunIt(object, locals, mc.objectName, mc.methodName, mc.parameters, mc));
+                }
                 case IfNode i -> {
                     BooleanIDT condition = (BooleanIDT) evaluate(locals, object, i.condition);
-                    if (condition.Value)
+                    if (!currentOptimized)
+                        feedback.recordBranch(i, condition.getValue());
+                    if (condition.getValue())
                         interpretStatementBlock(object, i.statements, locals);
                     else if (i.elseStatement.isPresent())
                         interpretStatementBlock(object, i.elseStatement.get().statements, locals);
                 }
                 case LoopNode loop -> {
-                    if (loop.expression instanceof ReferenceIDT ref
-                            && ref.refersTo.isPresent()
-                            && ref.refersTo.get().astNode.interfaces.contains("iterator")
-                    ) {
-                        ObjectIDT iterable = ref.refersTo.get();
-                        MethodDeclarationNode getNext = null;
-                        for (MethodDeclarationNode m : iterable.astNode.methods)
-                            if (m.name.equals("getNext")) {
-                                getNext = m;
-                                break;
-                            }
-                        List<InterpreterDataType> next = interpretMethodCall(object, getNext, new LinkedList<InterpreterDataType>());
-                        boolean hasNext = ((BooleanIDT) next.get(0)).Value;
-                        InterpreterDataType nextItem = next.get(1);
-                        if (loop.assignment.isPresent())
-                            findVariable(loop.assignment.get().name, locals, object).Assign(nextItem);
-                        while (hasNext) {
-                            interpretStatementBlock(object, loop.statements, locals);
-                            next = interpretMethodCall(object, getNext, new LinkedList<InterpreterDataType>());
-                            hasNext = ((BooleanIDT) next.get(0)).Value;
-                            nextItem = next.get(1);
-                            if (loop.assignment.isPresent())
-                                findVariable(loop.assignment.get().name, locals, object).Assign(nextItem);
-                        }
-                    } else if (loop.expression instanceof MethodCallExpressionNode mc
-                            && mc.objectName.isPresent()
-                            && findVariable(mc.objectName.get(), locals, object) instanceof NumberIDT num
-                            && mc.methodName.equals("times")
-                    ) {
-                        for (int i = 0; i < num.Value; i++) {
-                            interpretStatementBlock(object, loop.statements, locals);
-                            if (loop.assignment.isPresent())
-                                findVariable(loop.assignment.get().name, locals, object).Assign(new NumberIDT(i + 1));
-                        }
+                    if (loop.expression instanceof MethodCallExpressionNode mc && isCountedLoop(mc, locals, object)) {
+                        runCountedLoop(object, locals, loop, mc);
                     } else {
-                        BooleanIDT exp = (BooleanIDT) evaluate(locals, object, loop.expression);
-                        if (loop.assignment.isPresent())
-                            findVariable(loop.assignment.get().name, locals, object).Assign(exp);
-                        while (exp.Value) {
-                            interpretStatementBlock(object, loop.statements, locals);
-                            exp = (BooleanIDT) evaluate(locals, object, loop.expression);
-                            if (loop.assignment.isPresent())
-                                findVariable(loop.assignment.get().name, locals, object).Assign(exp);
+                        switch (evaluate(locals, object, loop.expression)) {
+                            case BooleanIDT exp -> runConditionLoop(object, locals, loop, exp);
+                            case NativeIterable iterable -> runNativeLoop(object, locals, loop, iterable.iterate());
+                            case ReferenceIDT ref when ref.refersTo.isPresent() && ref.refersTo.get().info.implementsInterface(iteratorInterface) ->
+                                    runIteratorLoop(object, locals, loop, ref.refersTo.get());
+                            case ObjectIDT iterable when iterable.info.implementsInterface(iteratorInterface) ->
+                                    runIteratorLoop(object, locals, loop, iterable);
+                            default -> throw new RuntimeException("Invalid loop condition");
                         }
                     }
-                    // throw new RuntimeException("Invalid loop condition");
                 }
                 default -> throw new RuntimeException("Unknown statement");
             }
         }
     }
 
+    /**
+     * @return true for "x.times()" on a number variable, and for the built-in number.times(count) and
+     * number.range(start, end [, step]) - what "5.times()" and "(x * 2).times()" are parsed into
+     */
+    private boolean isCountedLoop(MethodCallExpressionNode mc, Frame locals, Optional<ObjectIDT> object) {
+        if (mc.objectName.isEmpty())
+            return false;
+        if (mc.objectName.get().equals("number"))
+            return (mc.methodName.equals("times") && mc.parameters.size() == 1)
+                    || (mc.methodName.equals("range") && (mc.parameters.size() == 2 || mc.parameters.size() == 3));
+        return mc.methodName.equals("times") && mc.parameters.isEmpty() && findVariable(mc.objectName.get(), locals, object) instanceof NumberIDT;
+    }
+
+    /**
+     * A counted loop, run with the counter in a Java long:
+     *  - x.times() goes round while the count is less than x (which is read again every time around), and
+     *    number.times(count) works the count out once. Both set the loop variable before each trip, to 0, 1, ...
+     *    count - 1, as the IR does.
+     *  - number.range(start, end, step) sets the loop variable to start, start + step, ... before each trip, for as long
+     *    as that doesn't go past end (step is 1 if left out, and may be negative). The bounds are worked out once.
+     * The loop variable is looked up once and the count written straight into it (see LoopActivation.setCounter()).
+     */
+    private void runCountedLoop(Optional<ObjectIDT> object, Frame locals, LoopNode loop, MethodCallExpressionNode mc) {
+        LoopActivation run = new LoopActivation(loop, locals);
+        if (mc.methodName.equals("range")) {
+            float start = countedBound(locals, object, mc, 0);
+            float end = countedBound(locals, object, mc, 1);
+            float step = mc.parameters.size() == 3 ? countedBound(locals, object, mc, 2) : 1;
+            if (step == 0 || Float.isNaN(step))
+                throw new RuntimeException("number.range() needs a step other than 0");
+            for (long trip = 0; ; trip++) {
+                float value = start + trip * step;
+                if (step > 0 ? !(value <= end) : !(value >= end))
+                    break;
+                if (loop.assignment.isPresent())
+                    run.setCounter(object, value);
+                run.body(object);
+                run.backEdge();
+            }
+        } else if (mc.objectName.get().equals("number")) {
+            float times = countedBound(locals, object, mc, 0);
+            for (long trip = 0; trip < times; trip++) {
+                if (loop.assignment.isPresent())
+                    run.setCounter(object, trip);
+                run.body(object);
+                run.backEdge();
+            }
+        } else {
+            NumberIDT times = (NumberIDT) findVariable(mc.objectName.get(), locals, object);
+            for (long trip = 0; trip < times.getValue(); trip++) {
+                if (loop.assignment.isPresent())
+                    run.setCounter(object, trip);
+                run.body(object);
+                run.backEdge();
+            }
+        }
+        run.finish();
+    }
+
+    private float countedBound(Frame locals, Optional<ObjectIDT> object, MethodCallExpressionNode mc, int parameter) {
+        ExpressionNode bound = mc.parameters.get(parameter);
+        if (isNumberMath(bound)) {
+            float result = evaluateNumber(locals, object, bound);
+            if (!gaveUp())
+                return result;
+        }
+        if (evaluate(locals, object, bound) instanceof NumberIDT n)
+            return n.getValue();
+        throw new RuntimeException(String.format("number.%s() needs numbers", mc.methodName));
+    }
+
+    /**
+     * A loop on a condition: check it before every trip, and set the loop variable (if there is one) to it.
+     */
+    private void runConditionLoop(Optional<ObjectIDT> object, Frame locals, LoopNode loop, BooleanIDT exp) {
+        if (loop.assignment.isPresent())
+            findVariable(loop.assignment.get(), locals, object).Assign(exp);
+        LoopActivation run = new LoopActivation(loop, locals);
+        while (exp.getValue()) {
+            run.body(object);
+            run.backEdge();
+            exp = (BooleanIDT) run.condition(object);
+            if (loop.assignment.isPresent())
+                findVariable(loop.assignment.get(), run.locals, object).Assign(exp);
+        }
+        run.finish();
+    }
+
+    /**
+     * A loop over an object that implements iterator: call its getNext() (which returns whether there was another
+     * item, and the item) before every trip, and set the loop variable (if there is one) to the item. getNext() is
+     * looked up once per loop, through a cache on the loop for the iterator's class.
+     */
+    private void runIteratorLoop(Optional<ObjectIDT> object, Frame locals, LoopNode loop, ObjectIDT iterable) {
+        InlineCache cache = getNextCaches.get(loop);
+        MethodDeclarationNode getNext = cache == null ? null : cache.lookup(iterable.astNode);
+        if (getNext == null) {
+            getNext = iterable.info.method("getNext", 0);
+            if (getNext == null || getNext.parameters.size() != 0 || getNext.returns.size() != 2)
+                throw new RuntimeException(String.format("Class '%s' has no getNext() that returns 2 values", iterable.astNode.name));
+            if (cache == null)
+                getNextCaches.put(loop, cache = new InlineCache());
+            cache.add(iterable.astNode, getNext);
+        }
+        Optional<ObjectIDT> receiver = Optional.of(iterable);
+        LoopActivation run = new LoopActivation(loop, locals);
+        while (true) {
+            int next = frames.size();
+            interpretMethodCall(receiver, getNext, next);
+            boolean hasNext = ((BooleanIDT) frames.get(next)).getValue();
+            if (hasNext && loop.assignment.isPresent())
+                findVariable(loop.assignment.get(), run.locals, object).Assign(frames.get(next + 1));
+            frames.drop(next);
+            if (!hasNext)
+                break;
+            run.body(object);
+            run.backEdge();
+        }
+        run.finish();
+    }
+
+    /**
+     * A loop over a built-in iterable (see NativeIterable): the items come straight from Java.
+     */
+    private void runNativeLoop(Optional<ObjectIDT> object, Frame locals, LoopNode loop, NativeIterator items) {
+        LoopActivation run = new LoopActivation(loop, locals);
+        while (items.hasNext()) {
+            InterpreterDataType item = items.next();
+            if (loop.assignment.isPresent())
+                findVariable(loop.assignment.get(), run.locals, object).Assign(item);
+            run.body(object);
+            run.backEdge();
+        }
+        run.finish();
+    }
+
     /**
      *  evaluate() processes everything that is an expression - math, variables, boolean expressions.
      *  There is a good bit of recursion in here, since math and comparisons have left and right sides that need to be evaluated.
      *
      * See the How To Write an Interpreter document for examples
      * For each possible ExpressionNode, do the work to resolve it:
-     * BooleanLiteralNode - create a new BooleanLiteralNode with the same value
-     *      - Same for all of the basic data types
-     * BooleanOpNode - Evaluate() left and right, then perform either and/or on the results.
+     * BooleanLiteralNode - BooleanIDT.TRUE or BooleanIDT.FALSE
+     *      - The other literals make their value once and share it (see InterpreterDataType.toVariable())
+     *      - Math and compare results are shared too where they can be: true and false, and small whole numbers
+     * BooleanOpNode - Evaluate() left. Only if that doesn't decide the and/or, Evaluate() right (short-circuit).
+     *      - While interpreting, record which way each side went (branch feedback)
+     * NotOpNode - Evaluate() the operand and return a new boolean with the opposite value
      * CompareNode - Evaluate() both sides. Do good comparison for each data type
      * MathOpNode - Evaluate() both sides. If they are both numbers, do the math using the built-in operators. Also handle String + String as concatenation (like Java)
-     * MethodCallExpression - call doMethodCall() and return the first value
+     *      - While interpreting, both record the operand types they saw (type feedback)
+     *      - The Specialized versions only exist in optimized code: they try the one case the feedback predicted and
+     *        fall back to the generic code (and invalidate the optimized code) if the operands don't fit
+     *      - The Integer versions of math and compare were proven to only see small whole numbers: evaluateLong() does them
+     * MethodCallExpression - call doMethodCall() and return the first value (BoundMethodCallExpressionNode - runBoundMethodCall(),
+     *      InlinedCallExpressionNode - runInlinedCall())
      * VariableReferenceNode - call findVariable()
      * @param locals the local variables
      * @param object - the current object we are running
      * @param expression - some expression to evaluate
      * @return a value
      */
-    private InterpreterDataType evaluate(HashMap<String, InterpreterDataType> locals, Optional<ObjectIDT> object, ExpressionNode expression) {
-        if (expression instanceof NumericLiteralNode nl)
-            return new NumberIDT(nl.value);
+    private InterpreterDataType evaluate(Frame locals, Optional<ObjectIDT> object, ExpressionNode expression) {
+        if (expression instanceof NumericLiteralNode nl) {
+            InterpreterDataType constant = literals.get(nl);
+            if (constant == null)
+                literals.put(nl, constant = NumberIDT.constant(nl.value));
+            return constant;
+        }
         if (expression instanceof BooleanLiteralNode bl)
-            return new BooleanIDT(bl.value);
-        if (expression instanceof StringLiteralNode sl)
-            return new StringIDT(sl.value);
+            return BooleanIDT.of(bl.value);
+        if (expression instanceof StringLiteralNode sl) {
+            InterpreterDataType constant = literals.get(sl);
+            if (constant == null)
+                literals.put(sl, constant = StringIDT.constant(sl.value));
+            return constant;
+        }
+        if (expression instanceof CharLiteralNode cl) {
+            InterpreterDataType constant = literals.get(cl);
+            if (constant == null)
+                literals.put(cl, constant = CharIDT.constant(cl.value));
+            return constant;
+        }
 
         if (expression instanceof BooleanOpNode bop) {
-            BooleanIDT left = (BooleanIDT)evaluate(locals, object, bop.left);
-            BooleanIDT right = (BooleanIDT)evaluate(locals, object, bop.right);
-            switch (bop.op) {
-                case and: return new BooleanIDT(left.Value && right.Value);
-                case or:  return new BooleanIDT(left.Value || right.Value);
+            boolean left = evaluateOperand(locals, object, bop.left);
+            // false && ... and true || ... are decided without looking at the right side
+            if (left == (bop.op == BooleanOpNode.BooleanOperations.or))
+                return BooleanIDT.of(left);
+            return BooleanIDT.of(evaluateOperand(locals, object, bop.right));
+        }
+        if (expression instanceof CompareNode c && !(c instanceof IntegerCompareNode) && (c.left instanceof MathOpNode || c.right instanceof MathOpNode)
+                && isNumberMath(c.left) && isNumberMath(c.right)) {
+            float left = evaluateNumber(locals, object, c.left);
+            float right = notANumber ? 0 : evaluateNumber(locals, object, c.right);
+            if (!gaveUp()) {
+                if (!(c instanceof SpecializedCompareNode) && !currentOptimized)
+                    feedback.recordNumberOperands(c, left, right);
+                return BooleanIDT.of(compareNumbers(c.op, left, right));
             }
         }
+        if (expression instanceof SpecializedCompareNode c) {
+            InterpreterDataType left = evaluate(locals, object, c.left);
+            InterpreterDataType right = evaluate(locals, object, c.right);
+            if (left instanceof NumberIDT l && right instanceof NumberIDT r)
+                return BooleanIDT.of(compareNumbers(c.op, l.getValue(), r.getValue()));
+            c.owner.invalidate();
+            feedback.recordOperands(c.original, left, right);
+            return compare(c.op, left, right);
+        }
+        if (expression instanceof IntegerCompareNode c)
+            return BooleanIDT.of(compareLongs(c.op, evaluateLong(locals, object, c.left), evaluateLong(locals, object, c.right)));
         if (expression instanceof CompareNode c) {
-            NumberIDT left = (NumberIDT)evaluate(locals, object, c.left);
-            NumberIDT right = (NumberIDT)evaluate(locals, object, c.right);
-            switch (c.op) {
-                case eq: return new BooleanIDT(left.Value == right.Value);
-                case ne: return new BooleanIDT(left.Value != right.Value);
-                case lt: return new BooleanIDT(left.Value < right.Value);
-                case gt: return new BooleanIDT(left.Value > right.Value);
-                case le: return new BooleanIDT(left.Value <= right.Value);
-                case ge: return new BooleanIDT(left.Value >= right.Value);
-            }
+            InterpreterDataType left = evaluate(locals, object, c.left);
+            InterpreterDataType right = evaluate(locals, object, c.right);
+            recordOperands(c, left, right);
+            return compare(c.op, left, right);
         }
-        if (expression instanceof MathOpNode mop) {
+        if (expression instanceof IntegerMathOpNode mop) {
+            long result = evaluateLong(locals, object, mop);
+            if (result != 0)
+                return NumberIDT.valueOf(result);
+            // A zero might have to be -0.0, which only float math gets right
+            return mathOp(mop.op, evaluate(locals, object, mop.left), evaluate(locals, object, mop.right));
+        }
+        if (expression instanceof SpecializedMathOpNode mop) {
             InterpreterDataType left = evaluate(locals, object, mop.left);
             InterpreterDataType right = evaluate(locals, object, mop.right);
-            if (left instanceof StringIDT l && right instanceof StringIDT r) {
-                if (mop.op == MathOpNode.MathOperations.add)
-                    return new StringIDT(l.Value + r.Value);
-                throw new RuntimeException("Can only perform operation '+' for string types");
+            switch (mop.specialization) {
+                case INTEGRAL:
+                    if (left instanceof NumberIDT l && right instanceof NumberIDT r && TypeFeedback.isIntegral(l.getValue()) && TypeFeedback.isIntegral(r.getValue()))
+                        return NumberIDT.valueOf(integralMathOp(mop.op, (long) l.getValue(), (long) r.getValue()));
+                    break;
+                case NUMBER:
+                    if (left instanceof NumberIDT l && right instanceof NumberIDT r)
+                        return NumberIDT.valueOf(numberMathOp(mop.op, l.getValue(), r.getValue()));
+                    break;
+                case STRING:
+                    if (left instanceof StringIDT l && right instanceof StringIDT r)
+                        return StringIDT.concat(l, r);
+                    break;
             }
-            if (left instanceof NumberIDT l && right instanceof NumberIDT r) {
-                switch (mop.op) {
-                    case add: return new NumberIDT(l.Value + r.Value);
-                    case subtract: return new NumberIDT(l.Value - r.Value);
-                    case multiply: return new NumberIDT(l.Value * r.Value);
-                    case divide:   return new NumberIDT(l.Value / r.Value);
-                }
-            }
-            throw new RuntimeException("Operation '" + mop.op + "' not supported");
+            mop.owner.invalidate();
+            feedback.recordOperands(mop.original, left, right);
+            return mathOp(mop.op, left, right);
         }
-        if (expression instanceof NotOpNode n) {
-            BooleanIDT b = (BooleanIDT) evaluate(locals, object, n.left);
-            b.Value = !b.Value;
-            return b;
+        if (expression instanceof MathOpNode mop) {
+            InterpreterDataType left = evaluate(locals, object, mop.left);
+            InterpreterDataType right = evaluate(locals, object, mop.right);
+            recordOperands(mop, left, right);
+            return mathOp(mop.op, left, right);
         }
+        if (expression instanceof NotOpNode n)
+            return BooleanIDT.of(!((BooleanIDT) evaluate(locals, object, n.left)).getValue());
         if (expression instanceof VariableReferenceNode vr)
-            return findVariable(vr.name, locals, object);
+            return findVariable(vr, locals, object);
+        if (expression instanceof InlinedCallExpressionNode mc) {
+            int results = frames.size();
+            int count = runInlinedCall(object, locals, mc.objectName, mc.methodName, mc.parameters, mc.binding, mc.inlined, mc);
+            return count >= 0 ? firstReturnValue(mc.methodName, results, count) : locals.get(mc.inlined.returns.getFirst());
+        }
+        if (expression instanceof BoundMethodCallExpressionNode mc) {
+            int results = frames.size();
+            return firstReturnValue(mc.methodName, results, runBoundMethodCall(object, locals, mc.objectName, mc.methodName, mc.parameters, mc.binding, mc));
+        }
         if (expression instanceof MethodCallExpressionNode mc) {
-            MethodCallStatementNode mcs = new MethodCallStatementNode();
-            mcs.objectName = mc.objectName;
-            mcs.methodName = mc.methodName;
-            mcs.parameters = mc.parameters;
-            return findMethodForMethodCallAndRunIt(object, locals, mcs).getFirst();
+            int results = frames.size();
+            return firstReturnValue(mc.methodName, results, findMethodForMethodCallAndRunIt(object, locals, mc.objectName, mc.methodName, mc.parameters, mc));
         }
         if (expression instanceof NewNode n) {
-            MethodCallStatementNode mcs = new MethodCallStatementNode();
-            mcs.parameters = n.parameters;
-            mcs.methodName = n.className;
-            mcs.objectName = Optional.empty();
-            Optional<ClassNode> cls = getClassByName(n.className);
-            if (cls.isEmpty())
+            ClassInfo cls = getClassByName(n.className);
+            if (cls == null)
                 throw new RuntimeException("Class not found");
-            ObjectIDT obj = new ObjectIDT(cls.get());
-            for (MemberNode member : cls.get().members)
-                obj.members.put(member.declaration.name, instantiate(member.declaration.type));
-            findConstructorAndRunIt(object, locals, mcs, obj);
+            ObjectIDT obj = new ObjectIDT(cls);
+            objectsCreated++;
+            cls.fillDefaults(obj.fields);
+            findConstructorAndRunIt(object, locals, n, obj);
             return obj;
         }
         throw new IllegalArgumentException();
     }
 
-    //              Utility Methods
+    /**
+     * Evaluate a number expression that the optimizer proved is always a whole number small enough to be exact in a
+     * float (see IntegerInferencePass). The math under an IntegerMathOpNode is done in longs, without making a number
+     * value for every step.
+     */
+    private long evaluateLong(Frame locals, Optional<ObjectIDT> object, ExpressionNode expression) {
+        if (expression instanceof IntegerMathOpNode mop) {
+            long l = evaluateLong(locals, object, mop.left);
+            long r = evaluateLong(locals, object, mop.right);
+            return switch (mop.op) {
+                case add -> l + r;
+                case subtract -> l - r;
+                case multiply -> l * r;
+                case modulo -> l % r;
+                case divide -> throw new IllegalStateException("Division is never whole-number math");
+            };
+        }
+        if (expression instanceof NumericLiteralNode n)
+            return (long) n.value;
+        return (long) ((NumberIDT) evaluate(locals, object, expression)).getValue();
+    }
 
     /**
-     * Used when trying to find a match to a method call. Given a method
-     * declaration, does it match this method call?
-     * <p>
-     * We double-check with the parameters, too, although in theory JUST
-     * checking the declaration to the call should be enough.
-     * <p>
-     * Match names, parameter counts (both declared count vs method call and
-     * declared count vs value list), return counts.
-     * <p>
-     * If all of those match, consider the types (use TypeMatchToIDT).
-     * <p>
-     * If everything is OK, return true, else return false.
-     * <p>
-     * Note - if m is a built-in and isVariadic is true, skip all of the
-     * parameter validation.
-     * @param m - the method declaration we are considering
-     * @param mc - the method call we are trying to match
-     * @param parameters - the parameter values for this method call
-     * @return does this method match the method call?
-     */
-    private boolean doesMatch(MethodDeclarationNode m, MethodCallStatementNode mc, List<InterpreterDataType> parameters) {
-        if (m instanceof BuiltInMethodDeclarationNode)
-            return true;
-        if (!m.name.equals(mc.methodName))
-            return false;
-        if (m.parameters.size() != mc.parameters.size())
-            return false;
-        if (m.parameters.size() != parameters.size())
-            return false;
-        if (m.returns.size() != mc.returnValues.size())
-            return false;
-        for (int i = 0; i < parameters.size(); i++) {
-            if (!typeMatchToIDT(m.parameters.get(i).type, parameters.get(i)))
-                return false;
+     * evaluateNumber() gives up by setting notANumber and returning this. It isn't a number anyone should use: the
+     * caller checks gaveUp() before looking at the result.
+     */
+    private float notANumber() {
+        notANumber = true;
+        return 0;
+    }
+
+    /**
+     * @return true if the last evaluateNumber() gave up; clears the flag for the next one
+     */
+    private boolean gaveUp() {
+        boolean gaveUp = notANumber;
+        notANumber = false;
+        return gaveUp;
+    }
+
+    /**
+     * Evaluate number math without making a value for any step of it: the literals, variables and math operators of
+     * the expression are worked out as floats. Anything else (a call, a string, a variable that doesn't hold a number,
+     * a specialized operator whose guess was wrong) makes it give up (see notANumber()) before that part is evaluated.
+     * Literals, variables and math have no side effects, so the caller can then run the generic evaluate() on the whole
+     * expression. The math is float math, which is what every version of
+     * MathOpNode computes for numbers (see integralMathOp()).
+     */
+    private float evaluateNumber(Frame locals, Optional<ObjectIDT> object, ExpressionNode expression) {
+        switch (expression) {
+            case NumericLiteralNode nl -> {
+                return nl.value;
+            }
+            case VariableReferenceNode vr -> {
+                if (findVariable(vr, locals, object) instanceof NumberIDT n)
+                    return n.getValue();
+                return notANumber();
+            }
+            case SpecializedMathOpNode mop when mop.specialization == SpecializedMathOpNode.Specialization.STRING -> {
+                return notANumber();
+            }
+            case MathOpNode mop -> {
+                float left = evaluateNumber(locals, object, mop.left);
+                if (notANumber)
+                    return 0;
+                float right = evaluateNumber(locals, object, mop.right);
+                if (notANumber)
+                    return 0;
+                if (mop instanceof SpecializedMathOpNode s) {
+                    // a failed guess has to reach the generic code, which deoptimizes
+                    if (s.specialization == SpecializedMathOpNode.Specialization.INTEGRAL && !(TypeFeedback.isIntegral(left) && TypeFeedback.isIntegral(right)))
+                        return notANumber();
+                } else if (!(mop instanceof IntegerMathOpNode) && !currentOptimized) {
+                    feedback.recordNumberOperands(mop, left, right);
+                }
+                return numberMathOp(mop.op, left, right);
+            }
+            default -> {
+                return notANumber();
+            }
         }
-        return true;
     }
 
     /**
-     * Very similar to DoesMatch() except simpler - there are no return values, the name will always match.
+     * @return true if the expression is only literals, variables and math, so evaluateNumber() can try it. Checked
+     * before trying, so that the usual mixes (a call on one side, string concatenation) don't have to give up part way.
+     */
+    private static boolean isNumberMath(ExpressionNode expression) {
+        return switch (expression) {
+            case NumericLiteralNode nl -> true;
+            case VariableReferenceNode vr -> true;
+            case SpecializedMathOpNode mop when mop.specialization == SpecializedMathOpNode.Specialization.STRING -> false;
+            case MathOpNode mop -> isNumberMath(mop.left) && isNumberMath(mop.right);
+            default -> false;
+        };
+    }
+
+    /**
+     * evaluate() for a value that is about to become a variable (see InterpreterDataType.toVariable()). Number math
+     * makes just the one new value.
+     */
+    private InterpreterDataType evaluateVariable(Frame locals, Optional<ObjectIDT> object, ExpressionNode expression) {
+        if (expression instanceof MathOpNode math && isNumberMath(math)) {
+            float result = evaluateNumber(locals, object, math);
+            if (!gaveUp())
+                return new NumberIDT(result);
+        }
+        return evaluate(locals, object, expression).toVariable();
+    }
+
+    //              Operators
+
+    /**
+     * The generic version of every math operation: number op number, or string + string.
+     * Also used by the optimizer to fold constant math, so folded results are exactly what running the code gives.
+     */
+    public static InterpreterDataType mathOp(MathOpNode.MathOperations op, InterpreterDataType left, InterpreterDataType right) {
+        if (left instanceof StringIDT l && right instanceof StringIDT r) {
+            if (op == MathOpNode.MathOperations.add)
+                return StringIDT.concat(l, r);
+            throw new RuntimeException("Can only perform operation '+' for string types");
+        }
+        if (left instanceof NumberIDT l && right instanceof NumberIDT r)
+            return NumberIDT.valueOf(numberMathOp(op, l.getValue(), r.getValue()));
+        throw new RuntimeException("Operation '" + op + "' not supported");
+    }
+
+    private static float numberMathOp(MathOpNode.MathOperations op, float l, float r) {
+        switch (op) {
+            case add:      return l + r;
+            case subtract: return l - r;
+            case multiply: return l * r;
+            case divide:   return l / r;
+            case modulo:   return l % r;
+        }
+        throw new AssertionError("Unreachable");
+    }
+
+    /**
+     * Math on two whole numbers. Both sides are exact in a float (see TypeFeedback.isIntegral()), so doing the
+     * operation exactly in a long and rounding the result to a float once gives the same answer as float math.
+     */
+    private static float integralMathOp(MathOpNode.MathOperations op, long l, long r) {
+        long result;
+        switch (op) {
+            case add:      result = l + r; break;
+            case subtract: result = l - r; break;
+            case multiply: result = l * r; break;
+            case modulo:   result = r == 0 ? 0 : l % r; break;
+            default:       return numberMathOp(op, l, r);
+        }
+        // A zero result might have to be -0.0 (or NaN for x % 0), which only float math gets right
+        return result == 0 ? numberMathOp(op, l, r) : result;
+    }
+
+    /**
+     * The generic version of every comparison. Numbers, strings and characters can be ordered; booleans can only be
+     * compared for equality.
+     */
+    public static BooleanIDT compare(CompareNode.CompareOperations op, InterpreterDataType left, InterpreterDataType right) {
+        if (left instanceof NumberIDT l && right instanceof NumberIDT r)
+            return BooleanIDT.of(compareNumbers(op, l.getValue(), r.getValue()));
+        int order;
+        if (left instanceof StringIDT l && right instanceof StringIDT r)
+            order = l.getValue().compareTo(r.getValue());
+        else if (left instanceof CharIDT l && right instanceof CharIDT r)
+            order = Character.compare(l.getValue(), r.getValue());
+        else if (left instanceof BooleanIDT l && right instanceof BooleanIDT r && (op == CompareNode.CompareOperations.eq || op == CompareNode.CompareOperations.ne))
+            order = l.getValue() == r.getValue() ? 0 : 1;
+        else
+            throw new RuntimeException("Unable to compare " + left.getClass().getSimpleName() + " with " + right.getClass().getSimpleName());
+        switch (op) {
+            case eq: return BooleanIDT.of(order == 0);
+            case ne: return BooleanIDT.of(order != 0);
+            case lt: return BooleanIDT.of(order < 0);
+            case gt: return BooleanIDT.of(order > 0);
+            case le: return BooleanIDT.of(order <= 0);
+            case ge: return BooleanIDT.of(order >= 0);
+        }
+        throw new AssertionError("Unreachable");
+    }
+
+    private static boolean compareLongs(CompareNode.CompareOperations op, long l, long r) {
+        return switch (op) {
+            case eq -> l == r;
+            case ne -> l != r;
+            case lt -> l < r;
+            case gt -> l > r;
+            case le -> l <= r;
+            case ge -> l >= r;
+        };
+    }
+
+    private static boolean compareNumbers(CompareNode.CompareOperations op, float l, float r) {
+        switch (op) {
+            case eq: return l == r;
+            case ne: return l != r;
+            case lt: return l < r;
+            case gt: return l > r;
+            case le: return l <= r;
+            case ge: return l >= r;
+        }
+        throw new AssertionError("Unreachable");
+    }
+
+    //              Profiling
+
+    /**
+     * @return the type feedback collected so far - which operand types each math/compare node saw and which
+     * receiver classes each call site saw
+     */
+    public TypeFeedback getTypeFeedback() {
+        return feedback;
+    }
+
+    /**
+     * Turns on profile recording: when the program finishes, start() writes the runtime profile to this file.
+     * @param file - where to write the profile, or null to stop writing one
+     */
+    public void setProfileOutput(Path file) {
+        profileOutput = file;
+    }
+
+    /**
+     * Write what this run has learned - type feedback, branch and loop counts, hot methods - in the ProfileFile format.
+     */
+    public void writeProfile(Path file) {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            writeProfile(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write profile to " + file, e);
+        }
+    }
+
+    public void writeProfile(Writer out) throws IOException {
+        new ProfileFile(top, feedback, tiering).write(out);
+    }
+
+    /**
+     * Load a profile written by an earlier run of this program, before calling start(). Its feedback is added to ours
+     * and every method it says was hot is compiled right away, so the run starts out warm.
+     * @return how many methods were compiled up front
+     */
+    public int loadProfile(Path file) {
+        try (Reader in = Files.newBufferedReader(file)) {
+            return loadProfile(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read profile from " + file, e);
+        }
+    }
+
+    public int loadProfile(Reader in) throws IOException {
+        ProfileFile profile = new ProfileFile(top, feedback, tiering);
+        profile.read(in);
+        return profile.getMethodsWarmedUp();
+    }
+
+    // Only the original AST is profiled; optimized copies already used the feedback
+    /**
+     * Evaluate one side of an and/or, and (while interpreting) count which way it went.
+     */
+    private boolean evaluateOperand(Frame locals, Optional<ObjectIDT> object, ExpressionNode operand) {
+        boolean value = ((BooleanIDT) evaluate(locals, object, operand)).getValue();
+        if (!currentOptimized)
+            feedback.recordBranch(operand, value);
+        return value;
+    }
+
+    private void recordOperands(Node site, InterpreterDataType left, InterpreterDataType right) {
+        if (!currentOptimized)
+            feedback.recordOperands(site, left, right);
+    }
+
+    private void recordReceiver(Node site, ObjectIDT receiver) {
+        if (!currentOptimized)
+            feedback.recordReceiver(site, receiver.astNode);
+    }
+
+    //              Utility Methods
+
+    /**
+     * Does a constructor match a "new"? The parameter counts have to match, and then the types of the values.
      * @param c - a particular constructor
-     * @param mc - the method call
-     * @param parameters - the parameter values
-     * @return does this constructor match the method call?
+     * @param n - the "new"
+     * @param args - where the parameter values start on the frame stack
+     * @return does this constructor match the "new"?
      */
-    private boolean doesConstructorMatch(ConstructorNode c, MethodCallStatementNode mc, List<InterpreterDataType> parameters) {
-        if (c.parameters.size() != mc.parameters.size())
+    private boolean doesConstructorMatch(ConstructorNode c, NewNode n, int args) {
+        if (c.parameters.size() != n.parameters.size())
             return false;
-        if (c.parameters.size() != parameters.size())
+        if (c.parameters.size() != frames.size() - args)
             return false;
-        for (int i = 0; i < parameters.size(); i++) {
-            if (!typeMatchToIDT(c.parameters.get(i).type, parameters.get(i)))
+        FrameLayout layout = layoutOf(c);
+        for (int i = 0; i < c.parameters.size(); i++) {
+            if (!typeMatchToIDT(layout.type(i), frames.get(args + i)))
                 return false;
         }
         return true;
     }
 
     /**
-     * Used when we call a method to get the list of values for the parameters.
+     * Used when we call a method to pass the values for the parameters.
      *
-     * for each parameter in the method call, call Evaluate() on the parameter to get an IDT and add it to a list
+     * for each parameter in the method call, call Evaluate() on the parameter to get an IDT and push it on the frame stack
      * @param object - the current object
      * @param locals - the local variables
-     * @param mc - a method call
-     * @return the list of method values
+     * @param parameters - the parameter expressions of a method call
+     * @return where the values start on the frame stack
      */
-    private List<InterpreterDataType> getParameters(Optional<ObjectIDT> object, HashMap<String,InterpreterDataType> locals, MethodCallStatementNode mc) {
-        LinkedList<InterpreterDataType> values = new LinkedList<>();
-        for (ExpressionNode exp : mc.parameters)
-            values.add(evaluate(locals, object, exp));
-        return values;
+    private int pushArguments(Optional<ObjectIDT> object, Frame locals, List<ExpressionNode> parameters) {
+        int args = frames.size();
+        for (ExpressionNode exp : parameters)
+            frames.pushValue(evaluateVariable(locals, object, exp));
+        return args;
     }
 
     /**
      * Used when we have an IDT and we want to see if it matches a type definition
      * Commonly, when someone is making a function call - do the parameter values match the method declaration?
      *
-     * If the IDT is a simple type (boolean, number, etc) - does the string type match the name of that IDT ("boolean", etc)
-     * If the IDT is an object, check to see if the name matches OR the class has an interface that matches
-     * If the IDT is a reference, check the inner (refered to) type
-     * @param type the name of a data type (parameter to a method)
+     * The type was resolved when the program was linked (see TypeDescriptor.accepts()): a simple type checks the kind
+     * of IDT, a class checks the object's ClassInfo, an interface checks the class's interface bitset, and a reference
+     * is checked by the object it refers to.
+     * @param type the type of a parameter of a method
      * @param idt the IDT someone is trying to pass to this method
      * @return is this OK?
      */
-    private boolean typeMatchToIDT(String type, InterpreterDataType idt) {
-        switch (idt) {
-            case BooleanIDT b: return type.equals("boolean");
-            case NumberIDT  n: return type.equals("number");
-            case StringIDT  s: return type.equals("string");
-            case CharIDT    c: return type.equals("character");
-            case ObjectIDT  o:
-                if (type.equals(o.astNode.name))
-                    return true;
-                for (String interfaceName : o.astNode.interfaces)
-                    if (type.equals(interfaceName))
-                        return true;
-                break;
-            case ReferenceIDT r:
-                if (r.refersTo.isPresent())
-                    return type.equals(r.refersTo.get().astNode.name);
-                break;
-            default:
-                throw new RuntimeException("Unable to resolve type " + type);
-        }
-        return false;
-//        switch (type) {
-//            case "number": return (idt instanceof NumberIDT);
-//            case "string": return (idt instanceof StringIDT);
-//            case "boolean": return (idt instanceof BooleanIDT);
-//            case "character": return (idt instanceof CharIDT);
-//        }
-//        if (idt instanceof ReferenceIDT ref && ref.refersTo.isPresent())
-//            return ref.refersTo.get().astNode.name.equals(type);
-//        throw new RuntimeException("Unable to resolve type " + type);
+    private boolean typeMatchToIDT(TypeDescriptor type, InterpreterDataType idt) {
+        return type.accepts(idt);
     }
 
     /**
-     * Find a method in an object that is the right match for a method call
-     * (same name, parameters match, etc. Uses doesMatch() to do most of the
-     * work)
+     * Find a class, given the name, in the class table made by the link step (see ClassTable).
      *
-     * Given a method call, we want to loop over the methods for that class,
-     * looking for a method that matches (use DoesMatch) or throw.
-     * @param object - an object that we want to find a method on
-     * @param mc - the method call
-     * @param parameters - the parameter value list
-     * @return a method or throws an exception
-     */
-    private MethodDeclarationNode getMethodFromObject(ObjectIDT object, MethodCallStatementNode mc, List<InterpreterDataType> parameters) {
-        for (MethodDeclarationNode m : object.astNode.methods)
-            if (doesMatch(m, mc, parameters))
-                return m;
-        throw new RuntimeException("Unable to resolve method call " + mc);
-    }
-
-    /**
-     * Find a class, given the name. Just loops over the TranNode's classes member, matching by name.
-     *
-     * Loop over each class in the top node, comparing names to find a match.
      * @param name Name of the class to find
-     * @return either a class node or empty if that class doesn't exist
+     * @return either the linked class or null if that class doesn't exist
      */
-    private Optional<ClassNode> getClassByName(String name) {
-        for (ClassNode c : top.Classes)
-            if (c.name.equals(name))
-                return Optional.of(c);
-        return Optional.empty();
+    private ClassInfo getClassByName(String name) {
+        return classes.get(name);
     }
 
     /**
      * Given an execution environment (the current object, the current local
      * variables), find a variable by name.
      *
-     * @param name  - the variable that we are looking for
+     * @param vr  - the variable that we are looking for
      * @param locals - the current method's local variables
      * @param object - the current object (so we can find members)
      * @return the IDT that we are looking for or throw an exception
      */
-    private InterpreterDataType findVariable(String name, HashMap<String,InterpreterDataType> locals, Optional<ObjectIDT> object) {
+    private InterpreterDataType findVariable(VariableReferenceNode vr, Frame locals, Optional<ObjectIDT> object) {
+        // the slot the link step found, in a frame with the layout it was found in
+        VariableSlots.Slot slot = variableSlots.get(vr);
+        if (slot != null && locals.layout == slot.layout()) {
+            if (slot.local() >= 0) {
+                InterpreterDataType variable = locals.get(slot.local());
+                if (variable != null)
+                    return variable;
+            } else if (object.isPresent() && object.get().info == slot.owner() && !locals.hasExtra()) {
+                return object.get().getMember(slot.member());
+            }
+        }
+        return findVariable(vr.name, locals, object);
+    }
+
+    /**
+     * Find a variable by name: a local, else a member of the current object.
+     */
+    private InterpreterDataType findVariable(String name, Frame locals, Optional<ObjectIDT> object) {
         InterpreterDataType variable;
         variable = locals.get(name);
         if (variable != null)
             return variable;
         if (object.isPresent()) {
-            variable = object.get().members.get(name);
+            variable = object.get().getMember(name);
             if (variable != null)
                 return variable;
         }
@@ -570,24 +1425,137 @@ public class Interpreter {
     }
 
     /**
-     * Given a string (the type name), make an IDT for it.
-     *
-     * @param type The name of the type (string, number, boolean, character). Defaults to ReferenceIDT if not one of those.
-     * @return an IDT with default values (0 for number, "" for string, false for boolean, ' ' for character)
-     */
-    private InterpreterDataType instantiate(String type) {
-        switch (type) {
-            case "number": return new NumberIDT(0);
-            case "string": return new StringIDT("");
-            case "boolean": return new BooleanIDT(false);
-            case "character": return new CharIDT(' ');
-        }
-        Optional<ClassNode> cls = getClassByName(type);
-        if (cls.isEmpty())
-            throw new RuntimeException("Unknown type '" + type + "'");
-        ObjectIDT object = new ObjectIDT(cls.get());
-        ReferenceIDT ref = new ReferenceIDT();
-        ref.refersTo = Optional.of(object);
-        return ref;
+     * One running loop. The loop starts out running the original AST; once it has gone around osrThreshold times in
+     * this activation we ask the tiering controller for an optimized copy of the loop (on-stack replacement) and switch
+     * to it at the next back-edge. The optimized copy runs on its own frame - the live locals are copied in, plus any
+     * temporaries the optimizer added - and the locals are copied back when the loop exits or the copy is invalidated.
+     */
+    private class LoopActivation {
+        private static final int POLL_INTERVAL = 64;
+        private final LoopNode original;
+        private final Frame frame;
+        private final MethodDeclarationNode method;
+        private final boolean profiled;
+        private boolean giveUp;
+        private long iterations;
+        private long trips;
+        private CompiledLoop osr;
+
+        LoopNode loop;
+        Frame locals;
+        // The loop variable of a counted loop, and the frame it was looked up in
+        private NumberIDT counter;
+        private Frame counterFrame;
+
+        LoopActivation(LoopNode loop, Frame frame) {
+            this.original = loop;
+            this.frame = frame;
+            this.method = currentMethod;
+            this.loop = loop;
+            this.locals = frame;
+            profiled = !currentOptimized;
+            giveUp = method == null || currentOptimized;
+        }
+
+        void body(Optional<ObjectIDT> object) {
+            if (osr == null) {
+                interpretStatementBlock(object, loop.statements, locals);
+                return;
+            }
+            boolean callerOptimized = currentOptimized;
+            currentOptimized = true;
+            try {
+                interpretStatementBlock(object, loop.statements, locals);
+            } finally {
+                currentOptimized = callerOptimized;
+            }
+        }
+
+        InterpreterDataType condition(Optional<ObjectIDT> object) {
+            if (osr == null)
+                return evaluate(locals, object, loop.expression);
+            boolean callerOptimized = currentOptimized;
+            currentOptimized = true;
+            try {
+                return evaluate(locals, object, loop.expression);
+            } finally {
+                currentOptimized = callerOptimized;
+            }
+        }
+
+        void backEdge() {
+            trips++;
+            tiering.backEdge(method);
+            if (osr != null) {
+                if (!osr.isValid()) {
+                    exit();
+                    giveUp = true;
+                }
+                return;
+            }
+            if (giveUp || ++iterations < tiering.getOsrThreshold() || (iterations - tiering.getOsrThreshold()) % POLL_INTERVAL != 0)
+                return;
+            CompiledLoop compiled = tiering.osr(method, original);
+            if (compiled == null) {
+                giveUp = tiering.isOsrRejected(original);
+                return;
+            }
+            FrameLayout layout = layouts.get(compiled);
+            if (layout == null) {
+                layout = FrameLayout.ofLoop(method, compiled.locals, compiled.statements, classes);
+                layouts.put(compiled, layout);
+                VariableSlots.resolve(owners.get(method), layout, compiled.statements, variableSlots);
+            }
+            Frame osrLocals = frames.push(layout);
+            for (int slot = 0; slot < layout.size(); slot++) {
+                InterpreterDataType value = frame.get(layout.name(slot));
+                if (value == null)
+                    value = layout.defaultValue(slot);
+                osrLocals.set(slot, value);
+            }
+            osr = compiled;
+            loop = compiled.loop();
+            locals = osrLocals;
+        }
+
+        void exit() {
+            if (osr == null)
+                return;
+            for (int slot = 0; slot < locals.layout.size(); slot++) {
+                InterpreterDataType value = locals.get(slot);
+                if (value != null && frame.layout.slot(locals.layout.name(slot)) >= 0)
+                    frame.put(locals.layout.name(slot), value);
+            }
+            frames.pop(locals);
+            osr = null;
+            loop = original;
+            locals = frame;
+        }
+
+        /**
+         * Set the loop variable of a counted loop. It is looked up the first time and again after switching to or from
+         * an optimized copy, which has a frame of its own; in between, the count goes straight into it.
+         */
+        void setCounter(Optional<ObjectIDT> object, float count) {
+            if (counter == null || counterFrame != locals) {
+                InterpreterDataType variable = findVariable(loop.assignment.get(), locals, object);
+                if (!(variable instanceof NumberIDT n)) {
+                    variable.Assign(new NumberIDT(count));
+                    return;
+                }
+                counter = n;
+                counterFrame = locals;
+            }
+            counter.setValue(count);
+        }
+
+        /**
+         * The loop is done: leave any optimized copy and record how many times it went around.
+         */
+        void finish() {
+            exit();
+            if (profiled)
+                feedback.recordLoop(original, 1, trips);
+        }
     }
 }
@@ -1,6 +1,17 @@
 package Interpreter;
 
+/**
+ * A variable, or a value an expression evaluated to. Variables are boxes that Assign() copies a value into; values may
+ * be shared constants (a literal's value, true and false, small whole numbers) that many expressions hand out and that
+ * must never change. A shared value is copied by toVariable() before it becomes a variable, such as a parameter.
+ */
 public interface InterpreterDataType {
     public void Assign(InterpreterDataType in);
-}
 
+    /**
+     * @return this, or a copy of it if it is a shared constant
+     */
+    default InterpreterDataType toVariable() {
+        return this;
+    }
+}
@@ -0,0 +1,61 @@
+package Interpreter;
+
+import AST.ClassNode;
+import AST.MethodDeclarationNode;
+import Optimizer.CompiledMethod;
+
+/**
+ * The runtime counters for one Tran method. Every method starts out in the interpreted tier; the tiering controller
+ * watches these counters and promotes the method once it is hot.
+ *
+ * The counters are only read and written on the interpreter's thread; the fields the compiler thread sets are volatile.
+ */
+public class MethodProfile {
+    public final ClassNode owner;
+    public final MethodDeclarationNode method;
+
+    long invocations;
+    long calls;
+    long backEdges;
+    int deoptimizations;
+    volatile boolean compiling;
+    volatile boolean notCompilable;
+    volatile CompiledMethod compiled;
+
+    MethodProfile(ClassNode owner, MethodDeclarationNode method) {
+        this.owner = owner;
+        this.method = method;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return how many times this method was called in any tier (unlike getInvocations(), this is never reset)
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getBackEdges() {
+        return backEdges;
+    }
+
+    public int getDeoptimizations() {
+        return deoptimizations;
+    }
+
+    /**
+     * @return the tier the next call of this method will run in
+     */
+    public Tiering.Tier getTier() {
+        CompiledMethod c = compiled;
+        return (c != null && c.isValid()) ? Tiering.Tier.OPTIMIZED : Tiering.Tier.INTERPRETED;
+    }
+
+    @Override
+    public String toString() {
+        return owner.name + "." + method.name + " [" + getTier() + "] invocations=" + invocations + " backEdges=" + backEdges + " deopts=" + deoptimizations;
+    }
+}
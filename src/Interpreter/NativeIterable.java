@@ -0,0 +1,9 @@
+package Interpreter;
+
+/**
+ * A built-in value that "loop" can walk, like an object that implements iterator but without running any Tran code.
+ * StringIDT is the only one.
+ */
+public interface NativeIterable {
+    NativeIterator iterate();
+}
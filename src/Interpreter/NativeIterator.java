@@ -0,0 +1,15 @@
+package Interpreter;
+
+/**
+ * Walks a built-in iterable (see NativeIterable) for a loop, in Java: no interpreted getNext(), no frame, no values
+ * pushed and popped for every item.
+ */
+public interface NativeIterator {
+    boolean hasNext();
+
+    /**
+     * @return the next item, which nothing else will change: a new value or a shared constant. The loop copies it into
+     * the loop variable with Assign().
+     */
+    InterpreterDataType next();
+}
@@ -1,22 +1,79 @@
 package Interpreter;
 
 public class NumberIDT implements InterpreterDataType {
-    public float Value;
+    // The whole numbers from MIN_CACHED to MAX_CACHED are shared, like Integer.valueOf()
+    private static final int MIN_CACHED = -128;
+    private static final int MAX_CACHED = 1023;
+    private static final NumberIDT[] cache = new NumberIDT[MAX_CACHED - MIN_CACHED + 1];
+    static {
+        for (int i = 0; i < cache.length; i++)
+            cache[i] = new NumberIDT(i + MIN_CACHED, true);
+    }
+
+    private float value;
+    private final boolean shared;
 
     public NumberIDT(float v) {
-        Value = v;
+        this(v, false);
+    }
+
+    private NumberIDT(float v, boolean shared) {
+        value = v;
+        this.shared = shared;
+    }
+
+    /**
+     * @return a shared constant for v, which must never be assigned to (see InterpreterDataType.toVariable())
+     */
+    public static NumberIDT constant(float v) {
+        NumberIDT cached = cached(v);
+        return cached != null ? cached : new NumberIDT(v, true);
+    }
+
+    /**
+     * @return the shared value for a small whole number, or a new value
+     */
+    public static NumberIDT valueOf(float v) {
+        NumberIDT cached = cached(v);
+        return cached != null ? cached : new NumberIDT(v);
+    }
+
+    private static NumberIDT cached(float v) {
+        int i = (int) v;
+        // -0.0 == 0, but it prints differently
+        if (i != v || i < MIN_CACHED || i > MAX_CACHED || (i == 0 && Float.floatToRawIntBits(v) != 0))
+            return null;
+        return cache[i - MIN_CACHED];
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    /**
+     * Every write to a number goes through here, so a shared value can't be changed by accident.
+     */
+    public void setValue(float v) {
+        if (shared)
+            throw new IllegalStateException("Trying to assign to the constant " + this);
+        value = v;
     }
 
     @Override
     public void Assign(InterpreterDataType in) {
         if (in instanceof NumberIDT inv) {
-            Value = inv.Value;
+            setValue(inv.value);
         } else {
             throw new RuntimeException("Trying to assign to a number IDT from a " + in.getClass());
         }
     }
 
+    @Override
+    public InterpreterDataType toVariable() {
+        return shared ? new NumberIDT(value) : this;
+    }
+
     public String toString() {
-        return String.valueOf(Value);
+        return String.valueOf(value);
     }
 }
@@ -2,14 +2,40 @@ package Interpreter;
 
 import AST.ClassNode;
 
-import java.util.HashMap;
+import java.util.Optional;
 
 public class ObjectIDT implements InterpreterDataType {
-    public final HashMap<String,InterpreterDataType> members = new HashMap<>();
     public final ClassNode astNode;
+    public final ClassInfo info;
+    // The members, each in the slot the class's layout gives it (see ClassInfo.field())
+    public final InterpreterDataType[] fields;
 
-    public ObjectIDT(ClassNode astNode) {
-        this.astNode = astNode;
+    public ObjectIDT(ClassInfo info) {
+        this.astNode = info.node;
+        this.info = info;
+        this.fields = new InterpreterDataType[info.fieldCount()];
+    }
+
+    /**
+     * @return the member's value, or null if the class has no such member (or it hasn't been given a value).
+     * A member that holds a reference starts out empty, and gets its null reference here the first time it's used.
+     */
+    public InterpreterDataType getMember(String name) {
+        int slot = info.field(name);
+        return slot < 0 ? null : getMember(slot);
+    }
+
+    /**
+     * Like getMember(String), for a slot of this object's class that the caller already looked up.
+     */
+    public InterpreterDataType getMember(int slot) {
+        InterpreterDataType value = fields[slot];
+        if (value == null && info.isReference(slot)) {
+            ReferenceIDT ref = new ReferenceIDT();
+            ref.refersTo = Optional.empty();
+            fields[slot] = value = ref;
+        }
+        return value;
     }
 
     @Override
@@ -20,8 +46,14 @@ public class ObjectIDT implements InterpreterDataType {
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
-        for (var m : members.entrySet())
-            out.append(m.getKey()).append(" : ").append(m.getValue().toString()).append("\n");
+        // every member, as it would read: a reference that was never given a value prints as a null reference, without
+        // getMember() filling the slot in just for printing
+        for (int slot = 0; slot < fields.length; slot++) {
+            InterpreterDataType value = fields[slot];
+            if (value == null && !info.isReference(slot))
+                continue;
+            out.append(info.fieldName(slot)).append(" : ").append(value == null ? "<<<NULL REFERENCE>>>" : value.toString()).append("\n");
+        }
         return out.toString();
     }
 }
@@ -0,0 +1,290 @@
+package Interpreter;
+
+import AST.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Saves the runtime profile of a run (type feedback, branch and loop counts, hot methods) to a small text file and
+ * loads it back into a later run of the same program, so that the optimizer can start from what the last run learned
+ * instead of waiting for the program to warm up again.
+ *
+ * Nodes don't have names, so a site is written as the method it is in plus its position in that method's body
+ * (counting every statement and expression, depth first). A line that no longer matches the program - the wrong kind
+ * of node, an unknown method or class - is skipped, so a stale profile only costs us the warm-up it was meant to save.
+ *
+ * The file looks like this:
+ * <pre>
+ * tran-profile 1
+ * operands Program.square(number)#2 integral integral
+ * receivers Program.start()#9 Square Circle
+ * megamorphic Program.start()#14
+ * branch Program.start()#5 120 3
+ * loop Program.start()#3 1 300000
+ * method Program.square(number) calls=300000 backEdges=0 deopts=0
+ * </pre>
+ */
+public class ProfileFile {
+    private static final String HEADER = "tran-profile 1";
+
+    private final TranNode top;
+    private final TypeFeedback feedback;
+    private final Tiering tiering;
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Map<String, MethodDeclarationNode> methods = new HashMap<>();
+    private final IdentityHashMap<Node, String> keys = new IdentityHashMap<>();
+    private final Map<String, ClassNode> classes = new HashMap<>();
+    private int methodsWarmedUp;
+    private int linesSkipped;
+
+    public ProfileFile(TranNode top, TypeFeedback feedback, Tiering tiering) {
+        this.top = top;
+        this.feedback = feedback;
+        this.tiering = tiering;
+        for (ClassNode c : top.Classes) {
+            classes.put(c.name, c);
+            for (MethodDeclarationNode m : c.methods) {
+                String key = c.name + "." + m.name + signature(m.parameters);
+                methods.put(key, m);
+                keys.put(m, key);
+                index(key, m.statements);
+            }
+            for (ConstructorNode cn : c.constructors)
+                index(c.name + ".construct" + signature(cn.parameters), cn.statements);
+        }
+    }
+
+    /**
+     * @return how many methods the last read() compiled up front
+     */
+    public int getMethodsWarmedUp() {
+        return methodsWarmedUp;
+    }
+
+    /**
+     * @return how many lines the last read() ignored because they didn't match the program
+     */
+    public int getLinesSkipped() {
+        return linesSkipped;
+    }
+
+    //              Writing
+
+    public void write(Writer out) throws IOException {
+        PrintWriter pw = new PrintWriter(out);
+        pw.println(HEADER);
+        Set<Node> sites = feedback.getSites();
+        for (ClassNode c : top.Classes) {
+            for (MethodDeclarationNode m : c.methods)
+                writeSites(pw, m.statements, sites);
+            for (ConstructorNode cn : c.constructors)
+                writeSites(pw, cn.statements, sites);
+        }
+        for (ClassNode c : top.Classes)
+            for (MethodDeclarationNode m : c.methods) {
+                MethodProfile p = tiering.getProfile(m).orElse(null);
+                if (p != null && (p.getCalls() > 0 || p.getBackEdges() > 0))
+                    pw.println("method " + keys.get(m) + " calls=" + p.getCalls() + " backEdges=" + p.getBackEdges() + " deopts=" + p.getDeoptimizations());
+            }
+        pw.flush();
+        if (pw.checkError())
+            throw new IOException("Unable to write profile");
+    }
+
+    private void writeSites(PrintWriter pw, List<StatementNode> statements, Set<Node> sites) {
+        List<Node> body = new ArrayList<>();
+        collect(statements, body);
+        for (Node n : body) {
+            if (!sites.contains(n))
+                continue;
+            String key = keys.get(n);
+            switch (n) {
+                case MathOpNode mop -> writeOperands(pw, key, n);
+                case CompareNode c -> writeOperands(pw, key, n);
+                case LoopNode l -> pw.println("loop " + key + " " + feedback.getLoopEntries(n) + " " + feedback.getLoopIterations(n));
+                default -> {
+                    if (feedback.isMegamorphic(n)) {
+                        pw.println("megamorphic " + key);
+                    } else if (!feedback.getReceiverClasses(n).isEmpty()) {
+                        StringBuilder sb = new StringBuilder("receivers ").append(key);
+                        for (ClassNode c : feedback.getReceiverClasses(n))
+                            sb.append(" ").append(c.name);
+                        pw.println(sb);
+                    }
+                }
+            }
+            if (feedback.getTakenCount(n) + feedback.getNotTakenCount(n) > 0)
+                pw.println("branch " + key + " " + feedback.getTakenCount(n) + " " + feedback.getNotTakenCount(n));
+        }
+    }
+
+    private void writeOperands(PrintWriter pw, String key, Node n) {
+        if (feedback.getLeftKinds(n) != 0)
+            pw.println("operands " + key + " " + TypeFeedback.describeKinds(feedback.getLeftKinds(n)) + " " + TypeFeedback.describeKinds(feedback.getRightKinds(n)));
+    }
+
+    //              Reading
+
+    /**
+     * Adds the feedback in the file to this run's feedback, then compiles every method the file says was hot.
+     */
+    public void read(Reader in) throws IOException {
+        BufferedReader br = new BufferedReader(in);
+        String header = br.readLine();
+        if (!HEADER.equals(header))
+            throw new IOException("Not a Tran profile: expected '" + HEADER + "', found '" + header + "'");
+        methodsWarmedUp = 0;
+        linesSkipped = 0;
+        // Methods are compiled after all of the feedback is in, since the compiler specializes on it
+        List<String[]> hot = new ArrayList<>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            String[] words = line.trim().split(" ");
+            try {
+                if (words[0].equals("method"))
+                    hot.add(words);
+                else if (!readSite(words))
+                    linesSkipped++;
+            } catch (RuntimeException e) {
+                linesSkipped++;
+            }
+        }
+        for (String[] words : hot) {
+            try {
+                if (!readMethod(words))
+                    linesSkipped++;
+            } catch (RuntimeException e) {
+                linesSkipped++;
+            }
+        }
+    }
+
+    private boolean readMethod(String[] words) {
+        MethodDeclarationNode m = methods.get(words[1]);
+        if (m == null)
+            return false;
+        long calls = Long.parseLong(value(words[2], "calls"));
+        long backEdges = Long.parseLong(value(words[3], "backEdges"));
+        int deopts = Integer.parseInt(value(words[4], "deopts"));
+        // A method that kept deoptimizing last time would just do it again
+        if (deopts < tiering.getMaxDeoptimizations() && tiering.warmUp(m, calls, backEdges))
+            methodsWarmedUp++;
+        return true;
+    }
+
+    private boolean readSite(String[] words) {
+        Node n = nodes.get(words[1]);
+        if (n == null)
+            return false;
+        switch (words[0]) {
+            case "operands" -> {
+                if (!(n instanceof MathOpNode) && !(n instanceof CompareNode))
+                    return false;
+                feedback.recordKinds(n, TypeFeedback.parseKinds(words[2]), TypeFeedback.parseKinds(words[3]));
+            }
+            case "receivers" -> {
+                if (!(n instanceof MethodCallStatementNode) && !(n instanceof MethodCallExpressionNode))
+                    return false;
+                for (int i = 2; i < words.length; i++) {
+                    ClassNode c = classes.get(words[i]);
+                    if (c == null)
+                        return false;
+                    feedback.recordReceiver(n, c);
+                }
+            }
+            case "megamorphic" -> {
+                if (!(n instanceof MethodCallStatementNode) && !(n instanceof MethodCallExpressionNode))
+                    return false;
+                feedback.recordMegamorphic(n);
+            }
+            case "branch" -> {
+                if (!(n instanceof IfNode) && !(n instanceof ExpressionNode))
+                    return false;
+                feedback.recordBranch(n, Long.parseLong(words[2]), Long.parseLong(words[3]));
+            }
+            case "loop" -> {
+                if (!(n instanceof LoopNode))
+                    return false;
+                feedback.recordLoop(n, Long.parseLong(words[2]), Long.parseLong(words[3]));
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String value(String word, String name) {
+        if (!word.startsWith(name + "="))
+            throw new IllegalArgumentException("Expected " + name + ", found '" + word + "'");
+        return word.substring(name.length() + 1);
+    }
+
+    //              Site names
+
+    private static String signature(List<VariableDeclarationNode> parameters) {
+        StringJoiner sj = new StringJoiner(",", "(", ")");
+        for (VariableDeclarationNode vd : parameters)
+            sj.add(vd.type);
+        return sj.toString();
+    }
+
+    private void index(String method, List<StatementNode> statements) {
+        List<Node> body = new ArrayList<>();
+        collect(statements, body);
+        for (int i = 0; i < body.size(); i++) {
+            String key = method + "#" + i;
+            nodes.put(key, body.get(i));
+            keys.put(body.get(i), key);
+        }
+    }
+
+    /**
+     * Puts every statement and expression under "statements" into "out", depth first, in source order.
+     */
+    private static void collect(List<StatementNode> statements, List<Node> out) {
+        for (StatementNode s : statements) {
+            out.add(s);
+            switch (s) {
+                case AssignmentNode a -> collect(a.expression, out);
+                case MethodCallStatementNode mc -> mc.parameters.forEach(p -> collect(p, out));
+                case IfNode i -> {
+                    collect(i.condition, out);
+                    collect(i.statements, out);
+                    if (i.elseStatement.isPresent())
+                        collect(i.elseStatement.get().statements, out);
+                }
+                case LoopNode l -> {
+                    collect(l.expression, out);
+                    collect(l.statements, out);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private static void collect(ExpressionNode e, List<Node> out) {
+        out.add(e);
+        switch (e) {
+            case BooleanOpNode b -> {
+                collect(b.left, out);
+                collect(b.right, out);
+            }
+            case CompareNode c -> {
+                collect(c.left, out);
+                collect(c.right, out);
+            }
+            case MathOpNode m -> {
+                collect(m.left, out);
+                collect(m.right, out);
+            }
+            case NotOpNode n -> collect(n.left, out);
+            case MethodCallExpressionNode mc -> mc.parameters.forEach(p -> collect(p, out));
+            case NewNode n -> n.parameters.forEach(p -> collect(p, out));
+            default -> { }
+        }
+    }
+}
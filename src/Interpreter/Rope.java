@@ -0,0 +1,63 @@
+package Interpreter;
+
+import java.util.ArrayDeque;
+
+/**
+ * A string made by concatenation that nobody has looked at yet: the two sides, each a String or another Rope. Making
+ * one costs the same however long the sides are, so a program that builds a long string a piece at a time copies each
+ * character once, when the whole string is first looked at (see StringIDT.getValue()), instead of once per "+".
+ *
+ * Ropes never change. Flattening keeps the result and lets go of the sides, so the characters are only copied once.
+ * The flat text is a Java String, which already keeps text that fits in Latin-1 as one byte per character.
+ */
+final class Rope {
+    private Object left, right;
+    final int length;
+    private String flat;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static Object concat(Object left, Object right) {
+        long length = (long) length(left) + length(right);
+        if (length > Integer.MAX_VALUE)
+            throw new RuntimeException("String too long: " + length + " characters");
+        return new Rope(left, right, (int) length);
+    }
+
+    static int length(Object text) {
+        return text instanceof Rope r ? r.length : ((String) text).length();
+    }
+
+    /**
+     * @return the characters, copied out of the sides the first time this is called. Ropes built by "s = s + piece"
+     * lean left and ones built by "s = piece + s" lean right, so the walk keeps its own stack instead of recursing.
+     */
+    @Override
+    public String toString() {
+        if (flat != null)
+            return flat;
+        char[] chars = new char[length];
+        int end = length;
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        // right to left, so that a rope that leans left never has more than a couple of parts waiting
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Rope r && r.flat == null) {
+                pending.push(r.left);
+                pending.push(r.right);
+                continue;
+            }
+            String s = part.toString();
+            end -= s.length();
+            s.getChars(0, s.length(), chars, end);
+        }
+        flat = new String(chars);
+        left = right = null;
+        return flat;
+    }
+}
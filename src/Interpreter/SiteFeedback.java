@@ -0,0 +1,36 @@
+package Interpreter;
+
+import AST.ClassNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything TypeFeedback knows about one node, kept in its map by node. Recording is a map lookup and a few plain
+ * writes - no lock. Only the interpreter's thread ever writes these; the compiler reads a copy (see
+ * TypeFeedback.snapshot()).
+ */
+final class SiteFeedback {
+    int leftKinds;
+    int rightKinds;
+    // The receiver classes in the order they were first seen; null until there is one
+    List<ClassNode> receivers;
+    boolean megamorphic;
+    long taken;
+    long notTaken;
+    long entries;
+    long iterations;
+
+    SiteFeedback copy() {
+        SiteFeedback copy = new SiteFeedback();
+        copy.leftKinds = leftKinds;
+        copy.rightKinds = rightKinds;
+        copy.receivers = receivers == null ? null : new ArrayList<>(receivers);
+        copy.megamorphic = megamorphic;
+        copy.taken = taken;
+        copy.notTaken = notTaken;
+        copy.entries = entries;
+        copy.iterations = iterations;
+        return copy;
+    }
+}
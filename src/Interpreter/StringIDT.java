@@ -1,23 +1,88 @@
 package Interpreter;
 
-public class StringIDT implements InterpreterDataType {
-    public String Value;
+public class StringIDT implements InterpreterDataType, NativeIterable {
+    // Strings this short are concatenated right away; a rope for them would cost more than copying them
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    // A String, or a Rope that nobody has looked at yet
+    private Object text;
+    private final boolean shared;
 
     public StringIDT(String s) {
-        Value = s;
+        this(s, false);
+    }
+
+    private StringIDT(Object text, boolean shared) {
+        this.text = text;
+        this.shared = shared;
+    }
+
+    /**
+     * @return a shared constant for s, which must never be assigned to (see InterpreterDataType.toVariable())
+     */
+    public static StringIDT constant(String s) {
+        return new StringIDT(s, true);
+    }
+
+    /**
+     * @return left + right. Long results are ropes (see Rope), so this costs the same however long the sides are.
+     */
+    public static StringIDT concat(StringIDT left, StringIDT right) {
+        if (Rope.length(left.text) + Rope.length(right.text) < MIN_ROPE_LENGTH)
+            return new StringIDT(left.getValue() + right.getValue());
+        return new StringIDT(Rope.concat(left.text, right.text), false);
+    }
+
+    /**
+     * @return the text, flattening it first if it is still a rope
+     */
+    public String getValue() {
+        if (text instanceof String s)
+            return s;
+        String s = text.toString();
+        text = s;
+        return s;
+    }
+
+    /**
+     * A loop over a string gets its characters, in order.
+     */
+    @Override
+    public NativeIterator iterate() {
+        String s = getValue();
+        return new NativeIterator() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < s.length();
+            }
+
+            @Override
+            public InterpreterDataType next() {
+                return CharIDT.valueOf(s.charAt(next++));
+            }
+        };
     }
 
     @Override
     public void Assign(InterpreterDataType in) {
+        if (shared)
+            throw new IllegalStateException("Trying to assign to the constant " + this);
         if (in instanceof StringIDT inv) {
-            Value = inv.Value;
+            text = inv.text;
         } else {
             throw new RuntimeException("Trying to assign to a string IDT from a " + in.getClass());
         }
     }
 
+    @Override
+    public InterpreterDataType toVariable() {
+        return shared ? new StringIDT(text, false) : this;
+    }
+
     @Override
     public String toString() {
-        return Value;
+        return getValue();
     }
 }
@@ -0,0 +1,55 @@
+package Interpreter;
+
+import AST.*;
+import Optimizer.InlinedCallStatementNode;
+
+import java.util.*;
+
+/**
+ * Finds the calls in tail position of a method body: a call statement that is the last thing the method does (the
+ * last statement of the body, or the last statement of either block of an if that is itself last) and whose results
+ * go straight into the method's return values, in the same order. Nothing runs after such a call, so the interpreter
+ * can drop the caller's locals and run the callee in the caller's place instead of on top of it.
+ *
+ * Loops are never looked into - after the last statement of a loop body comes the loop's next check.
+ */
+public class TailCalls {
+
+    /**
+     * @param body - the statements of a method (the original or an optimized copy)
+     * @param returns - the method's return values
+     * @param out - where to put the call statements in tail position
+     */
+    public static void find(List<StatementNode> body, List<VariableDeclarationNode> returns, Set<Node> out) {
+        if (body.isEmpty())
+            return;
+        switch (body.getLast()) {
+            case InlinedCallStatementNode ic -> { }
+            case MethodCallStatementNode mc when returnsStraight(mc, returns) -> out.add(mc);
+            case IfNode i -> {
+                find(i.statements, returns, out);
+                if (i.elseStatement.isPresent())
+                    find(i.elseStatement.get().statements, returns, out);
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * @return true if the method ends in at least one tail call
+     */
+    public static boolean hasTailCall(MethodDeclarationNode m) {
+        Set<Node> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        find(m.statements, m.returns, found);
+        return !found.isEmpty();
+    }
+
+    private static boolean returnsStraight(MethodCallStatementNode mc, List<VariableDeclarationNode> returns) {
+        if (mc.returnValues.size() != returns.size())
+            return false;
+        for (int i = 0; i < returns.size(); i++)
+            if (!mc.returnValues.get(i).name.equals(returns.get(i).name))
+                return false;
+        return true;
+    }
+}
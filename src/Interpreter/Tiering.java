@@ -0,0 +1,344 @@
+package Interpreter;
+
+import AST.ClassNode;
+import AST.LoopNode;
+import AST.MethodDeclarationNode;
+import AST.TranNode;
+import Optimizer.CompiledLoop;
+import Optimizer.CompiledMethod;
+import Optimizer.MethodCompiler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tiering controller. Every method starts in the plain tree-walker (INTERPRETED) and counts its invocations and loop
+ * back-edges. Once either counter crosses its threshold the method is handed to the MethodCompiler, which builds an
+ * optimized copy of the body (OPTIMIZED). If a speculative assumption in the optimized copy fails, the copy invalidates
+ * itself and the next call goes back to the interpreter; after too many deoptimizations we stop recompiling.
+ *
+ * A method that never returns (a start() that sits in one big loop) would never benefit from that, so a loop that goes
+ * around osrThreshold times in one activation gets an optimized copy of just the loop, which the interpreter switches
+ * to at a back-edge (on-stack replacement).
+ *
+ * A background compile shares nothing that the interpreter goes on changing: it reads the original AST's structure,
+ * which never changes after parsing (the fields the interpreter fills in as it runs - the literals' constants, the
+ * call sites' inline caches and feedback, the loops' getNext caches - are never copied or read by the optimizer), and
+ * a snapshot of the type feedback taken on the interpreter's thread when the compile was asked for. The counters in
+ * MethodProfile are only ever touched on the interpreter's thread; the compiled code comes back through a volatile
+ * field or a concurrent map.
+ */
+public class Tiering {
+    public enum Tier { INTERPRETED, OPTIMIZED }
+
+    private final MethodCompiler compiler;
+    private final TypeFeedback feedback;
+    private final IdentityHashMap<MethodDeclarationNode, MethodProfile> profiles = new IdentityHashMap<>();
+    private final long[] invocationsPerTier = new long[Tier.values().length];
+    private long compilations;
+    private long profileCompilations;
+    private long deoptimizations;
+    private final Map<LoopNode, CompiledLoop> osrCode = new ConcurrentHashMap<>();
+    private final Set<LoopNode> osrPending = ConcurrentHashMap.newKeySet();
+    private final Map<LoopNode, Integer> osrDeoptimizations = new IdentityHashMap<>();
+    private long osrCompilations;
+    private long osrEntries;
+
+    private int invocationThreshold = 1000;
+    private int backEdgeThreshold = 10000;
+    private int osrThreshold = 5000;
+    private int maxDeoptimizations = 3;
+    private boolean backgroundCompilation = true;
+    private ExecutorService compilerThread;
+
+    public Tiering(TranNode top, TypeFeedback feedback) {
+        compiler = new MethodCompiler(top, feedback);
+        this.feedback = feedback;
+        for (ClassNode c : top.Classes)
+            for (MethodDeclarationNode m : c.methods)
+                profiles.put(m, new MethodProfile(c, m));
+    }
+
+    /**
+     * Called on every method entry. Counts the invocation and, if needed, starts a compilation.
+     * @param m - the method being called
+     * @return the optimized copy to run, or null to run the original AST
+     */
+    CompiledMethod enter(MethodDeclarationNode m) {
+        MethodProfile p = profiles.get(m);
+        if (p == null)
+            return null;
+        p.calls++;
+        CompiledMethod c = p.compiled;
+        if (c != null && !c.isValid()) {
+            deoptimize(p);
+            c = null;
+        }
+        if (c != null) {
+            invocationsPerTier[Tier.OPTIMIZED.ordinal()]++;
+            return c;
+        }
+        invocationsPerTier[Tier.INTERPRETED.ordinal()]++;
+        if (++p.invocations >= invocationThreshold)
+            requestCompile(p);
+        return p.compiled;
+    }
+
+    /**
+     * Called at the end of every loop iteration in an interpreted method.
+     * @param m - the method that contains the loop (may be null for constructors)
+     */
+    void backEdge(MethodDeclarationNode m) {
+        MethodProfile p = m == null ? null : profiles.get(m);
+        if (p == null)
+            return;
+        if (++p.backEdges >= backEdgeThreshold)
+            requestCompile(p);
+    }
+
+    /**
+     * Called by a loop that has gone around osrThreshold times.
+     * @param m - the method the loop is in
+     * @param loop - the loop (in the original AST)
+     * @return an optimized copy of the loop to switch to, or null if there isn't one (yet)
+     */
+    CompiledLoop osr(MethodDeclarationNode m, LoopNode loop) {
+        MethodProfile p = profiles.get(m);
+        if (p == null)
+            return null;
+        CompiledLoop c = osrCode.get(loop);
+        if (c != null && c.isValid()) {
+            osrEntries++;
+            return c;
+        }
+        if (c != null) {
+            osrCode.remove(loop);
+            synchronized (osrDeoptimizations) {
+                osrDeoptimizations.merge(loop, 1, Integer::sum);
+            }
+            deoptimizations++;
+        }
+        if (isOsrRejected(loop) || !osrPending.add(loop))
+            return null;
+        osrCompilations++;
+        TypeFeedback seen = backgroundCompilation ? feedback.snapshot() : feedback;
+        Runnable compile = () -> {
+            try {
+                osrCode.put(loop, compiler.compileLoop(p.owner, m, loop, seen));
+            } catch (RuntimeException e) {
+                synchronized (osrDeoptimizations) {
+                    osrDeoptimizations.put(loop, maxDeoptimizations);
+                }
+            } finally {
+                osrPending.remove(loop);
+            }
+        };
+        if (!backgroundCompilation) {
+            compile.run();
+            return osr(m, loop);
+        }
+        compilerThread().submit(compile);
+        return null;
+    }
+
+    /**
+     * @return true if we've given up on on-stack replacement for this loop
+     */
+    boolean isOsrRejected(LoopNode loop) {
+        synchronized (osrDeoptimizations) {
+            return osrDeoptimizations.getOrDefault(loop, 0) >= maxDeoptimizations;
+        }
+    }
+
+    /**
+     * Called when loading a profile file: a method that was hot in an earlier run is compiled right away, on this
+     * thread, so it starts out in the optimized tier instead of having to warm up again.
+     * @param m - the method
+     * @param invocations - how many times it was called in the earlier run
+     * @param backEdges - how many loop back-edges it took in the earlier run
+     * @return true if the method is now compiled
+     */
+    boolean warmUp(MethodDeclarationNode m, long invocations, long backEdges) {
+        MethodProfile p = profiles.get(m);
+        if (p == null || (invocations < invocationThreshold && backEdges < backEdgeThreshold))
+            return false;
+        if (p.compiling || p.notCompilable || p.compiled != null)
+            return p.compiled != null;
+        p.compiling = true;
+        compilations++;
+        profileCompilations++;
+        install(p, feedback);
+        return p.compiled != null;
+    }
+
+    private void deoptimize(MethodProfile p) {
+        p.compiled = null;
+        p.deoptimizations++;
+        p.invocations = 0;
+        p.backEdges = 0;
+        deoptimizations++;
+        if (p.deoptimizations >= maxDeoptimizations)
+            p.notCompilable = true;
+    }
+
+    private void requestCompile(MethodProfile p) {
+        if (p.compiling || p.notCompilable || p.compiled != null)
+            return;
+        p.compiling = true;
+        compilations++;
+        if (!backgroundCompilation) {
+            install(p, feedback);
+            return;
+        }
+        TypeFeedback seen = feedback.snapshot();
+        compilerThread().submit(() -> install(p, seen));
+    }
+
+    /**
+     * The program is over: let the compiler thread finish what it was given and end, so an interpreter that has run
+     * doesn't keep a thread. A later compile starts a new one.
+     */
+    void stopCompiling() {
+        if (compilerThread != null) {
+            compilerThread.shutdown();
+            compilerThread = null;
+        }
+    }
+
+    private ExecutorService compilerThread() {
+        if (compilerThread == null)
+            compilerThread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "tran-compiler");
+                t.setDaemon(true);
+                return t;
+            });
+        return compilerThread;
+    }
+
+    private void install(MethodProfile p, TypeFeedback seen) {
+        try {
+            p.compiled = compiler.compile(p.owner, p.method, seen);
+        } catch (RuntimeException e) {
+            // Anything the compiler does not understand just stays interpreted
+            p.notCompilable = true;
+        } finally {
+            p.compiling = false;
+        }
+    }
+
+    //              Thresholds
+
+    public int getInvocationThreshold() {
+        return invocationThreshold;
+    }
+
+    public void setInvocationThreshold(int invocationThreshold) {
+        this.invocationThreshold = invocationThreshold;
+    }
+
+    public int getBackEdgeThreshold() {
+        return backEdgeThreshold;
+    }
+
+    public void setBackEdgeThreshold(int backEdgeThreshold) {
+        this.backEdgeThreshold = backEdgeThreshold;
+    }
+
+    public int getOsrThreshold() {
+        return osrThreshold;
+    }
+
+    public void setOsrThreshold(int osrThreshold) {
+        this.osrThreshold = osrThreshold;
+    }
+
+    public int getMaxDeoptimizations() {
+        return maxDeoptimizations;
+    }
+
+    public void setMaxDeoptimizations(int maxDeoptimizations) {
+        this.maxDeoptimizations = maxDeoptimizations;
+    }
+
+    public boolean isBackgroundCompilation() {
+        return backgroundCompilation;
+    }
+
+    /**
+     * @param backgroundCompilation - false compiles on the calling thread, which makes promotion deterministic (tests)
+     */
+    public void setBackgroundCompilation(boolean backgroundCompilation) {
+        this.backgroundCompilation = backgroundCompilation;
+    }
+
+    //              Statistics
+
+    public MethodCompiler getCompiler() {
+        return compiler;
+    }
+
+    public Optional<MethodProfile> getProfile(MethodDeclarationNode m) {
+        return Optional.ofNullable(profiles.get(m));
+    }
+
+    public Collection<MethodProfile> getProfiles() {
+        return Collections.unmodifiableCollection(profiles.values());
+    }
+
+    /**
+     * @return how many method calls ran in the given tier
+     */
+    public long getInvocationCount(Tier tier) {
+        return invocationsPerTier[tier.ordinal()];
+    }
+
+    /**
+     * @return how many methods are currently in the given tier
+     */
+    public int getMethodCount(Tier tier) {
+        int count = 0;
+        for (MethodProfile p : profiles.values())
+            if (p.getTier() == tier)
+                count++;
+        return count;
+    }
+
+    public long getCompilationCount() {
+        return compilations;
+    }
+
+    /**
+     * @return how many of the compilations were done up front because a loaded profile said the method was hot
+     */
+    public long getProfileCompilationCount() {
+        return profileCompilations;
+    }
+
+    public long getDeoptimizationCount() {
+        return deoptimizations;
+    }
+
+    public long getOsrCompilationCount() {
+        return osrCompilations;
+    }
+
+    /**
+     * @return how many times a running loop switched to its optimized copy
+     */
+    public long getOsrEntryCount() {
+        return osrEntries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("thresholds: invocations=").append(invocationThreshold).append(" backEdges=").append(backEdgeThreshold).append(" osr=").append(osrThreshold).append("\n");
+        for (Tier t : Tier.values())
+            sb.append(t).append(": methods=").append(getMethodCount(t)).append(" invocations=").append(getInvocationCount(t)).append("\n");
+        sb.append("compilations=").append(compilations).append(" (from profile=").append(profileCompilations).append(") deoptimizations=").append(deoptimizations).append("\n");
+        sb.append("osr compilations=").append(osrCompilations).append(" osr entries=").append(osrEntries).append("\n");
+        return sb.toString();
+    }
+}
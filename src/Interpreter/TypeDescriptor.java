@@ -0,0 +1,91 @@
+package Interpreter;
+
+import java.util.Optional;
+
+/**
+ * A type name resolved by the link step (see ClassTable.type()). There is one descriptor per name, so two declarations
+ * have the same type exactly when they have the same descriptor. Whether a value can go in a variable of this type is
+ * worked out here once: a class type checks the value's ClassInfo by identity, an interface type checks one bit of the
+ * class's interface bitset, and the built-in types check the kind of IDT.
+ */
+public final class TypeDescriptor {
+    public enum Kind { NUMBER, STRING, BOOLEAN, CHARACTER, CLASS, INTERFACE, UNKNOWN }
+
+    public static final TypeDescriptor NUMBER = new TypeDescriptor("number", Kind.NUMBER, null, -1);
+    public static final TypeDescriptor STRING = new TypeDescriptor("string", Kind.STRING, null, -1);
+    public static final TypeDescriptor BOOLEAN = new TypeDescriptor("boolean", Kind.BOOLEAN, null, -1);
+    public static final TypeDescriptor CHARACTER = new TypeDescriptor("character", Kind.CHARACTER, null, -1);
+
+    public final String name;
+    public final Kind kind;
+    // The class, for a class type
+    private final ClassInfo cls;
+    // The interface's number in the ClassTable, for an interface type
+    private final int interfaceNumber;
+
+    TypeDescriptor(String name, Kind kind, ClassInfo cls, int interfaceNumber) {
+        this.name = name;
+        this.kind = kind;
+        this.cls = cls;
+        this.interfaceNumber = interfaceNumber;
+    }
+
+    /**
+     * @return true for a class or interface type, whose variables hold a ReferenceIDT
+     */
+    public boolean isReference() {
+        return kind == Kind.CLASS || kind == Kind.INTERFACE;
+    }
+
+    /**
+     * Can this value be passed for a parameter of this type? An object (or a reference to one) fits its own class and
+     * the interfaces that class implements; a null reference fits nothing.
+     */
+    public boolean accepts(InterpreterDataType value) {
+        return switch (value) {
+            case NumberIDT n -> kind == Kind.NUMBER;
+            case StringIDT s -> kind == Kind.STRING;
+            case BooleanIDT b -> kind == Kind.BOOLEAN;
+            case CharIDT c -> kind == Kind.CHARACTER;
+            case ObjectIDT o -> accepts(o.info);
+            case ReferenceIDT r -> r.refersTo.isPresent() && accepts(r.refersTo.get().info);
+            default -> throw new RuntimeException("Unable to resolve type " + name);
+        };
+    }
+
+    private boolean accepts(ClassInfo info) {
+        return switch (kind) {
+            case CLASS -> info == cls;
+            case INTERFACE -> info.implementsInterface(interfaceNumber);
+            default -> false;
+        };
+    }
+
+    /**
+     * @return a new variable of this type with its default value (0, "", false, ' '). A variable of a class type starts
+     * out referring to a new object of that class with its members at their defaults; one of an interface type starts
+     * out as a null reference.
+     */
+    public InterpreterDataType newDefault() {
+        switch (kind) {
+            case NUMBER: return new NumberIDT(0);
+            case STRING: return new StringIDT("");
+            case BOOLEAN: return new BooleanIDT(false);
+            case CHARACTER: return new CharIDT(' ');
+            case UNKNOWN: throw new RuntimeException("Unknown type '" + name + "'");
+        }
+        ReferenceIDT ref = new ReferenceIDT();
+        ref.refersTo = Optional.empty();
+        if (kind == Kind.CLASS) {
+            ObjectIDT object = new ObjectIDT(cls);
+            cls.fillDefaults(object.fields);
+            ref.refersTo = Optional.of(object);
+        }
+        return ref;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,295 @@
+package Interpreter;
+
+import AST.*;
+
+import java.util.*;
+
+/**
+ * Type feedback collected while interpreting: which kinds of operands each math/compare node saw, and which receiver
+ * classes each call site saw. The optimizer uses this to install fast paths for the cases that actually happen.
+ * Kinds are recorded as bit sets, so a site that saw more than one bit on either side is polymorphic.
+ * We also count which way each condition went (the condition of an if, or either side of an and/or) and how many times
+ * each loop went around. The optimizer uses these to tell hot code from cold code, and they go in the profile file.
+ *
+ * Recording happens on the interpreter's thread only and takes no lock (see SiteFeedback). A compile on the background
+ * thread reads a snapshot() instead, taken when the compile was asked for.
+ */
+public class TypeFeedback {
+    public static final int INTEGRAL = 1;   // a number with no fractional part that a float holds exactly
+    public static final int FRACTIONAL = 2; // any other number
+    public static final int STRING = 4;
+    public static final int BOOLEAN = 8;
+    public static final int CHARACTER = 16;
+    public static final int OBJECT = 32;
+
+    /** A call site that saw more receiver classes than this is megamorphic; we stop recording classes for it. */
+    public static final int MAX_RECEIVERS = 4;
+
+    private final IdentityHashMap<Node, SiteFeedback> sites = new IdentityHashMap<>();
+
+    /**
+     * @return true if v is a whole number small enough (2^24) that every integer up to it is exact in a float
+     */
+    public static boolean isIntegral(float v) {
+        return v == (int) v && v <= 16777216f && v >= -16777216f;
+    }
+
+    public static int kindOf(InterpreterDataType idt) {
+        return switch (idt) {
+            case NumberIDT n -> isIntegral(n.getValue()) ? INTEGRAL : FRACTIONAL;
+            case StringIDT s -> STRING;
+            case BooleanIDT b -> BOOLEAN;
+            case CharIDT c -> CHARACTER;
+            default -> OBJECT;
+        };
+    }
+
+    void recordOperands(Node site, InterpreterDataType left, InterpreterDataType right) {
+        SiteFeedback f = site(site);
+        f.leftKinds |= kindOf(left);
+        f.rightKinds |= kindOf(right);
+    }
+
+    /**
+     * recordOperands() for a site whose operands were both numbers, without making values for them.
+     */
+    void recordNumberOperands(Node site, float left, float right) {
+        SiteFeedback f = site(site);
+        f.leftKinds |= isIntegral(left) ? INTEGRAL : FRACTIONAL;
+        f.rightKinds |= isIntegral(right) ? INTEGRAL : FRACTIONAL;
+    }
+
+    void recordReceiver(Node site, ClassNode receiver) {
+        SiteFeedback f = site(site);
+        if (f.megamorphic)
+            return;
+        if (f.receivers == null)
+            f.receivers = new ArrayList<>(2);
+        if (f.receivers.contains(receiver))
+            return;
+        if (f.receivers.size() == MAX_RECEIVERS) {
+            f.megamorphic = true;
+            return;
+        }
+        f.receivers.add(receiver);
+    }
+
+    void recordBranch(Node site, boolean taken) {
+        SiteFeedback f = site(site);
+        if (taken)
+            f.taken++;
+        else
+            f.notTaken++;
+    }
+
+    void recordBranch(Node site, long taken, long notTaken) {
+        SiteFeedback f = site(site);
+        f.taken += taken;
+        f.notTaken += notTaken;
+    }
+
+    void recordLoop(Node site, long entries, long iterations) {
+        SiteFeedback f = site(site);
+        f.entries += entries;
+        f.iterations += iterations;
+    }
+
+    /**
+     * Used when loading a profile: adds kinds that were seen in an earlier run.
+     */
+    void recordKinds(Node site, int left, int right) {
+        SiteFeedback f = site(site);
+        f.leftKinds |= left;
+        f.rightKinds |= right;
+    }
+
+    /**
+     * Used when loading a profile: marks a call site that was megamorphic in an earlier run.
+     */
+    void recordMegamorphic(Node site) {
+        SiteFeedback f = site(site);
+        f.receivers = null;
+        f.megamorphic = true;
+    }
+
+    /**
+     * The feedback for a node, made the first time it records anything.
+     */
+    private SiteFeedback site(Node node) {
+        SiteFeedback f = sites.get(node);
+        if (f == null)
+            sites.put(node, f = new SiteFeedback());
+        return f;
+    }
+
+    /**
+     * A copy of everything recorded so far, for the compiler to read on its own thread while the interpreter goes on
+     * recording into this one. The copy is made on the interpreter's thread and handed over with the compile request.
+     */
+    public TypeFeedback snapshot() {
+        TypeFeedback copy = new TypeFeedback();
+        for (Map.Entry<Node, SiteFeedback> e : sites.entrySet())
+            copy.sites.put(e.getKey(), e.getValue().copy());
+        return copy;
+    }
+
+    /**
+     * @return the kinds of left operand seen at this site (0 if the site never ran)
+     */
+    public int getLeftKinds(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.leftKinds;
+    }
+
+    /**
+     * @return the kinds of right operand seen at this site (0 if the site never ran)
+     */
+    public int getRightKinds(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.rightKinds;
+    }
+
+    /**
+     * @return the receiver classes seen at this call site, in the order they were first seen
+     */
+    public List<ClassNode> getReceiverClasses(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null || f.receivers == null ? List.of() : List.copyOf(f.receivers);
+    }
+
+    public boolean isMegamorphic(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f != null && f.megamorphic;
+    }
+
+    /**
+     * @return true if this site saw more than one operand kind on a side, or more than one receiver class
+     */
+    public boolean isPolymorphic(Node site) {
+        SiteFeedback f = sites.get(site);
+        if (f == null)
+            return false;
+        return f.megamorphic || Integer.bitCount(f.leftKinds) > 1 || Integer.bitCount(f.rightKinds) > 1
+                || (f.receivers != null && f.receivers.size() > 1);
+    }
+
+    /**
+     * @return how many times this condition was true
+     */
+    public long getTakenCount(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.taken;
+    }
+
+    /**
+     * @return how many times this condition was false
+     */
+    public long getNotTakenCount(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.notTaken;
+    }
+
+    /**
+     * @return the fraction of the time this condition was true, or NaN if it never ran
+     */
+    public double getTakenRatio(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? Double.NaN : (double) f.taken / (f.taken + f.notTaken);
+    }
+
+    /**
+     * @return how many times this loop was started
+     */
+    public long getLoopEntries(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.entries;
+    }
+
+    /**
+     * @return how many times this loop went around, over all of its runs
+     */
+    public long getLoopIterations(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null ? 0 : f.iterations;
+    }
+
+    /**
+     * @return the average number of times this loop goes around per run, or 0 if it never ran
+     */
+    public double getAverageTripCount(Node site) {
+        SiteFeedback f = sites.get(site);
+        return f == null || f.entries == 0 ? 0 : (double) f.iterations / f.entries;
+    }
+
+    /**
+     * @return every node we have any feedback for
+     */
+    public Set<Node> getSites() {
+        Set<Node> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        result.addAll(sites.keySet());
+        return result;
+    }
+
+    public List<Node> getPolymorphicSites() {
+        List<Node> result = new ArrayList<>();
+        for (Node site : sites.keySet())
+            if (isPolymorphic(site))
+                result.add(site);
+        return result;
+    }
+
+    public static String describeKinds(int kinds) {
+        StringJoiner sj = new StringJoiner("|");
+        if ((kinds & INTEGRAL) != 0) sj.add("integral");
+        if ((kinds & FRACTIONAL) != 0) sj.add("fractional");
+        if ((kinds & STRING) != 0) sj.add("string");
+        if ((kinds & BOOLEAN) != 0) sj.add("boolean");
+        if ((kinds & CHARACTER) != 0) sj.add("character");
+        if ((kinds & OBJECT) != 0) sj.add("object");
+        return sj.toString();
+    }
+
+    /**
+     * The reverse of describeKinds().
+     */
+    public static int parseKinds(String kinds) {
+        int result = 0;
+        for (String k : kinds.split("\\|"))
+            result |= switch (k) {
+                case "integral" -> INTEGRAL;
+                case "fractional" -> FRACTIONAL;
+                case "string" -> STRING;
+                case "boolean" -> BOOLEAN;
+                case "character" -> CHARACTER;
+                case "object" -> OBJECT;
+                default -> throw new IllegalArgumentException("Unknown kind '" + k + "'");
+            };
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Node, SiteFeedback> e : sites.entrySet())
+            if (e.getValue().leftKinds != 0 || e.getValue().rightKinds != 0)
+                sb.append(e.getKey()).append(" : ").append(describeKinds(e.getValue().leftKinds)).append(", ").append(describeKinds(e.getValue().rightKinds))
+                        .append(isPolymorphic(e.getKey()) ? " (polymorphic)" : "").append("\n");
+        for (Map.Entry<Node, SiteFeedback> e : sites.entrySet()) {
+            SiteFeedback f = e.getValue();
+            if (f.receivers == null && !f.megamorphic)
+                continue;
+            sb.append(e.getKey()).append(" :");
+            if (f.receivers != null)
+                for (ClassNode c : f.receivers)
+                    sb.append(" ").append(c.name);
+            sb.append(f.megamorphic ? " (megamorphic)" : isPolymorphic(e.getKey()) ? " (polymorphic)" : "").append("\n");
+        }
+        for (Map.Entry<Node, SiteFeedback> e : sites.entrySet())
+            if (e.getValue().taken + e.getValue().notTaken > 0)
+                sb.append(e.getKey()).append(" : taken=").append(e.getValue().taken).append(" not taken=").append(e.getValue().notTaken).append("\n");
+        for (Map.Entry<Node, SiteFeedback> e : sites.entrySet())
+            if (e.getValue().entries > 0)
+                sb.append(e.getKey()).append(" : entries=").append(e.getValue().entries).append(" iterations=").append(e.getValue().iterations).append("\n");
+        return sb.toString();
+    }
+}
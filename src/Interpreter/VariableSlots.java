@@ -0,0 +1,120 @@
+package Interpreter;
+
+import AST.*;
+import Optimizer.InlinedCallExpressionNode;
+import Optimizer.InlinedCallStatementNode;
+import Optimizer.ScalarAllocationNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Part of the link step: every variable in a method or constructor body is given the slot it lives in, so reading or
+ * writing it is an array access instead of a name lookup in the frame (and then in the class). A variable that is one
+ * of the body's own gets its slot in the body's FrameLayout; one that names a member of the class gets the member's
+ * slot in the class's objects. The slots go in a table the interpreter keeps by node.
+ *
+ * A slot only holds for a frame with the layout it was found in, so findVariable() checks the layout before using it.
+ * The optimizer's copies are resolved the same way when their layout is made; a node a copy shares with the original
+ * keeps the original's slot, and looks its name up in the copy.
+ */
+final class VariableSlots {
+    /**
+     * Where a variable lives when the frame has this layout: a local slot, or else (local is -1) the member slot of an
+     * object of the class owner
+     */
+    record Slot(FrameLayout layout, int local, ClassInfo owner, int member) { }
+
+    private final ClassInfo info;
+    private final FrameLayout layout;
+    private final Map<VariableReferenceNode, Slot> slots;
+
+    private VariableSlots(ClassInfo info, FrameLayout layout, Map<VariableReferenceNode, Slot> slots) {
+        this.info = info;
+        this.layout = layout;
+        this.slots = slots;
+    }
+
+    /**
+     * @param info - the class the body belongs to, or null if it isn't known
+     * @param layout - the layout of the frames the body runs in
+     */
+    static void resolve(ClassInfo info, FrameLayout layout, List<StatementNode> body, Map<VariableReferenceNode, Slot> slots) {
+        new VariableSlots(info, layout, slots).statements(body);
+    }
+
+    private void statements(List<StatementNode> body) {
+        for (StatementNode s : body) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    reference(a.target);
+                    expression(a.expression);
+                }
+                case InlinedCallStatementNode ic -> {
+                    ic.returnValues.forEach(this::reference);
+                    ic.parameters.forEach(this::expression);
+                    statements(ic.inlined.body);
+                }
+                case MethodCallStatementNode mc -> {
+                    mc.returnValues.forEach(this::reference);
+                    mc.parameters.forEach(this::expression);
+                }
+                case ScalarAllocationNode sa -> {
+                    sa.parameters.forEach(this::expression);
+                    statements(sa.constructor.body);
+                }
+                case IfNode i -> {
+                    expression(i.condition);
+                    statements(i.statements);
+                    if (i.elseStatement.isPresent())
+                        statements(i.elseStatement.get().statements);
+                }
+                case LoopNode l -> {
+                    l.assignment.ifPresent(this::reference);
+                    expression(l.expression);
+                    statements(l.statements);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private void expression(ExpressionNode e) {
+        switch (e) {
+            case VariableReferenceNode vr -> reference(vr);
+            case InlinedCallExpressionNode ic -> {
+                ic.parameters.forEach(this::expression);
+                statements(ic.inlined.body);
+            }
+            case MethodCallExpressionNode mc -> mc.parameters.forEach(this::expression);
+            case NewNode n -> n.parameters.forEach(this::expression);
+            case BooleanOpNode b -> {
+                expression(b.left);
+                expression(b.right);
+            }
+            case CompareNode c -> {
+                expression(c.left);
+                expression(c.right);
+            }
+            case MathOpNode m -> {
+                expression(m.left);
+                expression(m.right);
+            }
+            case NotOpNode n -> expression(n.left);
+            default -> { }
+        }
+    }
+
+    private void reference(VariableReferenceNode vr) {
+        if (slots.containsKey(vr))
+            return;
+        int local = layout.slot(vr.name);
+        if (local >= 0) {
+            slots.put(vr, new Slot(layout, local, null, -1));
+            return;
+        }
+        int member = info == null ? -1 : info.field(vr.name);
+        if (member >= 0)
+            slots.put(vr, new Slot(layout, -1, info, member));
+    }
+}
@@ -1,6 +1,10 @@
 import AST.*;
 import Interpreter.ConsoleWrite;
+import Interpreter.BooleanIDT;
+import Interpreter.CharIDT;
 import Interpreter.Interpreter;
+import Interpreter.NumberIDT;
+import Interpreter.StringIDT;
 
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Assertions;
@@ -209,7 +213,8 @@ public class InterpreterMyTests {
         assertEquals("2.0", c.get(2));
         assertEquals("3.0", c.get(3));
         assertEquals("4.0", c.get(4));
-        assertEquals("5.0", c.get(5));
+        // set before each trip, so it keeps the last trip's count
+        assertEquals("4.0", c.get(5));
     }
 
     @Test
@@ -231,6 +236,560 @@ public class InterpreterMyTests {
         assertEquals("lorem ipsum", c.getLast());
     }
 
+    @Test
+    public void booleanOperatorsShortCircuit() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared check(number x) : boolean b
+                    console.write("checked ", x)
+                    b = true
+                shared start()
+                    boolean flag
+                    flag = false
+                    if flag && Program.check(1)
+                        console.write("and")
+                    if true || Program.check(2)
+                        console.write("or")
+                    if flag || Program.check(3)
+                        console.write("or")
+                    if ! flag
+                        console.write(flag)
+            """);
+        assertEquals(List.of("or", "checked 3.0", "or", "false"), c);
+    }
+
+    @Test
+    public void deepTailRecursion() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared sum(number n, number acc) : number total
+                    if n == 0
+                        total = acc
+                    else
+                        total = Program.sum(n - 1, acc + 2)
+                shared isEven(number n) : boolean even
+                    if n == 0
+                        even = true
+                    else
+                        even = Program.isOdd(n - 1)
+                shared isOdd(number n) : boolean odd
+                    if n == 0
+                        odd = false
+                    else
+                        odd = Program.isEven(n - 1)
+                shared start()
+                    number total
+                    boolean even
+                    total = Program.sum(100000, 0)
+                    console.write(total)
+                    even = Program.isEven(100001)
+                    console.write(even)
+            """);
+        assertEquals(List.of("200000.0", "false"), c);
+    }
+
+    @Test
+    public void deepRecursion() throws Exception {
+        String program = """
+            class Program
+                shared depth(number n) : number total
+                    number below
+                    if n == 0
+                        total = 0
+                    else
+                        below = Program.depth(n - 1)
+                        total = below + 1
+                shared start()
+                    number total
+                    total = Program.depth(DEPTH)
+                    console.write(total)
+            """;
+        assertEquals(List.of("200.0"), run(program.replace("DEPTH", "200")));
+        // deeper than the Java stack goes: reported, not a StackOverflowError
+        RuntimeException e = assertThrows(RuntimeException.class, () -> run(program.replace("DEPTH", "1000000")));
+        assertTrue(e.getMessage().contains("nested too deeply"));
+    }
+
+    @Test
+    public void methodsOverloadedByParameterCount() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared area(number side) : number a
+                    a = side * side
+                shared area(number width, number height) : number a
+                    a = width * height
+                shared start()
+                    number a
+                    a = Program.area(3)
+                    console.write(a)
+                    a = Program.area(2, 5)
+                    console.write(a)
+            """);
+        assertEquals(List.of("9.0", "10.0"), c);
+    }
+
+    @Test
+    public void referenceMembersStartEmpty() throws Exception {
+        List<String> c = run("""
+            class Tree
+                Tree left
+                Tree right
+                number size
+                construct(number depth)
+                    number l
+                    number r
+                    size = 1
+                    if depth > 0
+                        left = new Tree(depth - 1)
+                        right = new Tree(depth - 1)
+                        l = left.getSize()
+                        r = right.getSize()
+                        size = size + l + r
+                getSize() : number s
+                    s = size
+                show()
+                    console.write(left)
+            class Program
+                shared start()
+                    Tree t
+                    number n
+                    t = new Tree(4)
+                    n = t.getSize()
+                    console.write(n)
+                    t = new Tree(0)
+                    t.show()
+            """);
+        assertEquals(List.of("31.0", "<<<NULL REFERENCE>>>"), c);
+    }
+
+    @Test
+    public void duplicateLocalReportedBeforeRunning() throws Exception {
+        Lexer l = new Lexer("""
+            class Program
+                unused() : number a
+                    number a
+                    a = 1
+                shared start()
+                    console.write(1)
+            """);
+        TranNode root = new TranNode();
+        new Parser(root, l.Lex()).Tran();
+        RuntimeException e = assertThrows(RuntimeException.class, () -> new Interpreter(root));
+        assertEquals("Variable 'a' is already defined", e.getMessage());
+    }
+
+    @Test
+    public void referencePassedForInterfaceParameter() throws Exception {
+        List<String> c = run("""
+            interface Shape
+                area() : number a
+            class Square implements Shape
+                number side
+                construct(number s)
+                    side = s
+                area() : number a
+                    a = side * side
+            class Frame
+                number area
+                construct(Shape s)
+                    area = s.area()
+                show()
+                    console.write(area)
+            class Program
+                shared start()
+                    Square q
+                    Frame f
+                    q = new Square(3)
+                    f = new Frame(q)
+                    f.show()
+            """);
+        assertEquals(List.of("9.0"), c);
+    }
+
+    @Test
+    public void sharedLiteralsAreCopiedIntoParameters() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared bump(number x, boolean b) : number y
+                    x = x + 1
+                    b = false
+                    y = x
+                shared start()
+                    number i
+                    number y
+                    i = 0
+                    loop i < 2
+                        y = Program.bump(5, true)
+                        console.write(y)
+                        console.write(true)
+                        i = i + 1
+            """);
+        assertEquals(List.of("6.0", "true", "6.0", "true"), c);
+    }
+
+    @Test
+    public void numberMathWithAStringFallsBack() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared start()
+                    string s
+                    number n
+                    s = "a"
+                    s = s + s
+                    n = 2
+                    n = n * 3 + n
+                    console.write(s)
+                    console.write(n)
+            """);
+        assertEquals(List.of("aa", "8.0"), c);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> run("""
+            class Program
+                shared start()
+                    string s
+                    number n
+                    n = n + s
+            """));
+        assertEquals("Operation 'add' not supported", e.getMessage());
+    }
+
+    @Test
+    public void longStringsBuiltEitherWay() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared start()
+                    string s
+                    string t
+                    number n
+                    n = 50
+                    loop n.times()
+                        s = s + "0123456789"
+                        t = "abcdefghij" + t
+                    console.write(s)
+                    console.write(t + s)
+                    if s == t
+                        console.write("same")
+            """);
+        String s = "0123456789".repeat(50), t = "abcdefghij".repeat(50);
+        assertEquals(List.of(s, t + s), c);
+    }
+
+    @Test
+    public void loopOverIteratorsAndStrings() throws Exception {
+        List<String> c = run("""
+            class Countdown implements iterator
+                number left
+                construct(number n)
+                    left = n
+                getNext() : boolean more, number value
+                    if left > 0
+                        more = true
+                    value = left
+                    left = left - 1
+            class Program
+                shared start()
+                    Countdown c
+                    number v
+                    string s
+                    character ch
+                    c = new Countdown(3)
+                    v = loop c
+                        console.write(v)
+                    s = "hi!"
+                    ch = loop s
+                        console.write(ch)
+            """);
+        assertEquals(List.of("3.0", "2.0", "1.0", "h", "i", "!"), c);
+    }
+
+    @Test
+    public void countedLoops() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared start()
+                    number n
+                    number i
+                    n = 2
+                    i = 7
+                    i = loop (n + 1).times()
+                        console.write(i)
+                    i = loop 2.times()
+                        console.write(i)
+                    i = loop number.range(10, 4, 0 - 3)
+                        console.write(i)
+                    loop number.range(1, n)
+                        console.write("x")
+            """);
+        assertEquals(List.of("0.0", "1.0", "2.0", "0.0", "1.0", "10.0", "7.0", "4.0", "x", "x"), c);
+    }
+
+    @Test
+    public void everyTimesLoopCountsTheSameWay() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared start()
+                    number x
+                    number i
+                    x = 3
+                    i = 9
+                    i = loop x.times()
+                        console.write(i)
+                    console.write(i)
+                    i = 9
+                    i = loop (x).times()
+                        console.write(i)
+                    console.write(i)
+                    i = 9
+                    i = loop 3.times()
+                        console.write(i)
+                    console.write(i)
+            """);
+        List<String> once = List.of("0.0", "1.0", "2.0", "2.0");
+        assertEquals(once, c.subList(0, 4));
+        assertEquals(once, c.subList(4, 8));
+        assertEquals(once, c.subList(8, 12));
+        assertEquals(12, c.size());
+    }
+
+    @Test
+    public void localHidesMemberWithTheSameName() throws Exception {
+        List<String> c = run("""
+            class Box
+                number value
+                construct()
+                    value = 5
+                hidden() : number r
+                    number value
+                    value = 1
+                    r = value
+                get() : number r
+                    r = value
+            class Program
+                shared start()
+                    Box b
+                    number x
+                    b = new Box()
+                    x = b.hidden()
+                    console.write(x)
+                    x = b.get()
+                    console.write(x)
+            """);
+        assertEquals(List.of("1.0", "5.0"), c);
+    }
+
+    @Test
+    public void printedObjectShowsUnsetReferences() throws Exception {
+        List<String> c = run("""
+            class Link
+                number value
+                Link next
+                construct()
+                    value = 0
+            class Program
+                shared start()
+                    Link l
+                    l = new Link()
+                    console.write(l)
+            """);
+        assertEquals(List.of("value : 0.0\nnext : <<<NULL REFERENCE>>>\n"), c);
+    }
+
+    @Test
+    public void sharedNumbersSurviveWrites() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared bump(number a)
+                    a = a + 1
+                shared start()
+                    number i
+                    number x
+                    Program.bump(5)
+                    i = loop 3.times()
+                        x = i
+                    i = 5
+                    i = i + 1
+                    console.write(5)
+                    console.write(3)
+                    console.write(i)
+            """);
+        assertEquals(List.of("5.0", "3.0", "6.0"), c);
+        assertEquals(5.0f, NumberIDT.valueOf(5).getValue());
+        assertEquals(3.0f, NumberIDT.valueOf(3).getValue());
+        assertThrows(IllegalStateException.class, () -> NumberIDT.constant(5).setValue(6));
+    }
+
+    @Test
+    public void noProgramWritesToASharedValue() throws Exception {
+        // The shared values keep their value private, and setValue()/Assign() are the only writers. So after a program
+        // that assigns to every kind of variable - locals, parameters given literals, members, loop variables - every
+        // shared value must still hold what it started with, and writing to one must still throw.
+        List<String> c = run("""
+            class Holder
+                number n
+                boolean b
+                character ch
+                string s
+                construct()
+                    n = 1
+                    b = true
+                    ch = 'a'
+                    s = "one"
+                change(number pn, boolean pb, character pch, string ps)
+                    n = 2
+                    b = false
+                    ch = 'b'
+                    s = "two"
+                    pn = pn + 100
+                    pb = false
+                    pch = 'c'
+                    ps = "three"
+            class Program
+                shared start()
+                    Holder h
+                    number i
+                    number x
+                    boolean flag
+                    character ch
+                    string s
+                    h = new Holder()
+                    h.change(7, true, 'q', "literal")
+                    flag = true
+                    flag = false
+                    ch = 'x'
+                    ch = 'y'
+                    s = "abc"
+                    ch = loop s
+                        x = x + 1
+                    s = s + "def"
+                    i = loop 5.times()
+                        x = x + i
+                    i = 0
+                    loop i < 10
+                        i = i + 1
+                    console.write(x, " ", i, " ", flag, " ", ch)
+            """);
+        assertEquals(List.of("13.0 10.0 false c"), c);
+        for (int i = -128; i <= 1023; i++)
+            assertEquals((float) i, NumberIDT.valueOf(i).getValue());
+        assertTrue(BooleanIDT.TRUE.getValue());
+        assertFalse(BooleanIDT.FALSE.getValue());
+        for (char ch = 0; ch < 128; ch++)
+            assertEquals(ch, CharIDT.valueOf(ch).getValue());
+
+        assertThrows(IllegalStateException.class, () -> NumberIDT.valueOf(5).setValue(6));
+        assertThrows(IllegalStateException.class, () -> NumberIDT.constant(5000).Assign(new NumberIDT(6)));
+        assertThrows(IllegalStateException.class, () -> BooleanIDT.TRUE.setValue(false));
+        assertThrows(IllegalStateException.class, () -> BooleanIDT.FALSE.Assign(new BooleanIDT(true)));
+        assertThrows(IllegalStateException.class, () -> CharIDT.valueOf('a').setValue('b'));
+        assertThrows(IllegalStateException.class, () -> CharIDT.constant('a').Assign(new CharIDT('b')));
+        assertThrows(IllegalStateException.class, () -> StringIDT.constant("one").Assign(new StringIDT("two")));
+        assertEquals("one", StringIDT.constant("one").getValue());
+    }
+
+    @Test
+    public void multipleReturnValues() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared divide(number a, number b) : number quotient, number remainder
+                    quotient = a / b
+                    remainder = 2
+                shared start()
+                    number q
+                    number r
+                    q, r = Program.divide(10, 4)
+                    console.write(q)
+                    console.write(r)
+            """);
+        assertEquals(2, c.size());
+        assertEquals("2.5", c.get(0));
+        assertEquals("2.0", c.get(1));
+    }
+
+    @Test
+    public void nestedCallsKeepTheirReturnValuesApart() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared divide(number a, number b) : number quotient, number remainder
+                    quotient = a / b
+                    remainder = a % b
+                shared twice(number n) : number t
+                    t = n * 2
+                shared start()
+                    number q
+                    number r
+                    q, r = Program.divide(Program.twice(7), Program.twice(2))
+                    console.write(q, " ", r)
+                    r, q = Program.divide(Program.twice(r), 4)
+                    console.write(q, " ", r)
+            """);
+        assertEquals(List.of("3.5 2.0", "0.0 1.0"), c);
+    }
+
+    @Test
+    public void recursionWithSeveralReturnValues() throws Exception {
+        List<String> c = run("""
+            class Program
+                shared fibs(number n) : number a, number b
+                    number x
+                    number y
+                    if n == 0
+                        a = 0
+                        b = 1
+                    else
+                        x, y = Program.fibs(n - 1)
+                        a = y
+                        b = x + y
+                shared start()
+                    number a
+                    number b
+                    a, b = Program.fibs(20)
+                    console.write(a, " ", b)
+            """);
+        assertEquals(List.of("6765.0 10946.0"), c);
+    }
+
+    @Test
+    public void argumentsStillPassVariablesByReference() throws Exception {
+        List<String> c = run("""
+            class Counter
+                number count
+                construct()
+                    count = 0
+                bump(number by) : number after
+                    count = count + by
+                    by = 0
+                    after = count
+            class Program
+                shared start()
+                    Counter k
+                    number step
+                    number after
+                    k = new Counter()
+                    step = 5
+                    after = k.bump(step)
+                    console.write(after, " ", step)
+                    after = k.bump(step + 2)
+                    console.write(after, " ", step)
+            """);
+        assertEquals(List.of("5.0 0.0", "7.0 0.0"), c);
+    }
+
+    @Test
+    public void unassignedObjectLocalPrintsItsDefaults() throws Exception {
+        List<String> c = run("""
+            class Box
+                number size
+                Box next
+                construct()
+                    size = 1
+            class Program
+                shared start()
+                    Box b
+                    console.write(b)
+                    console.write(b)
+            """);
+        assertEquals(List.of("size : 0.0\nnext : <<<NULL REFERENCE>>>\n", "size : 0.0\nnext : <<<NULL REFERENCE>>>\n"), c);
+    }
+
     private static List<String> getConsole(TranNode tn) {
         for (ClassNode c : tn.Classes)
             if (c.name.equals("console")) {
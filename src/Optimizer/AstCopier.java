@@ -0,0 +1,155 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Deep copies statements and expressions so that passes can rewrite a method without touching the original AST.
+ * Every copy is remembered in "originals" so that profiling data (which is keyed on the original nodes) can still be found.
+ */
+public class AstCopier {
+    private final IdentityHashMap<Node, Node> originals;
+
+    public AstCopier(IdentityHashMap<Node, Node> originals) {
+        this.originals = originals;
+    }
+
+    public List<StatementNode> copyStatements(List<StatementNode> statements) {
+        List<StatementNode> out = new ArrayList<>(statements.size());
+        for (StatementNode s : statements)
+            out.add(copyStatement(s));
+        return out;
+    }
+
+    public StatementNode copyStatement(StatementNode statement) {
+        StatementNode copy;
+        switch (statement) {
+            case AssignmentNode a -> {
+                AssignmentNode n = new AssignmentNode();
+                n.target = copyReference(a.target);
+                n.expression = copyExpression(a.expression);
+                copy = n;
+            }
+            case MethodCallStatementNode mc -> {
+                MethodCallStatementNode n = new MethodCallStatementNode();
+                n.objectName = mc.objectName;
+                n.methodName = mc.methodName;
+                for (VariableReferenceNode r : mc.returnValues)
+                    n.returnValues.add(copyReference(r));
+                n.parameters = copyExpressions(mc.parameters);
+                copy = n;
+            }
+            case IfNode i -> {
+                IfNode n = new IfNode();
+                n.condition = copyExpression(i.condition);
+                n.statements = copyStatements(i.statements);
+                if (i.elseStatement.isPresent()) {
+                    ElseNode e = new ElseNode();
+                    e.statements = copyStatements(i.elseStatement.get().statements);
+                    n.elseStatement = Optional.of(e);
+                } else
+                    n.elseStatement = Optional.empty();
+                copy = n;
+            }
+            case LoopNode l -> {
+                LoopNode n = new LoopNode();
+                n.assignment = l.assignment.map(this::copyReference);
+                n.expression = copyExpression(l.expression);
+                n.statements = copyStatements(l.statements);
+                copy = n;
+            }
+            default -> throw new IllegalArgumentException("Unable to copy " + statement.getClass().getSimpleName());
+        }
+        originals.put(copy, original(statement));
+        return copy;
+    }
+
+    public List<ExpressionNode> copyExpressions(List<ExpressionNode> expressions) {
+        List<ExpressionNode> out = new ArrayList<>(expressions.size());
+        for (ExpressionNode e : expressions)
+            out.add(copyExpression(e));
+        return out;
+    }
+
+    public ExpressionNode copyExpression(ExpressionNode expression) {
+        ExpressionNode copy;
+        switch (expression) {
+            case NumericLiteralNode nl -> {
+                NumericLiteralNode n = new NumericLiteralNode();
+                n.value = nl.value;
+                copy = n;
+            }
+            case StringLiteralNode sl -> {
+                StringLiteralNode n = new StringLiteralNode();
+                n.value = sl.value;
+                copy = n;
+            }
+            case CharLiteralNode cl -> {
+                CharLiteralNode n = new CharLiteralNode();
+                n.value = cl.value;
+                copy = n;
+            }
+            case BooleanLiteralNode bl -> copy = new BooleanLiteralNode(bl.value);
+            case VariableReferenceNode vr -> copy = copyReference(vr);
+            case BooleanOpNode bop -> {
+                BooleanOpNode n = new BooleanOpNode();
+                n.op = bop.op;
+                n.left = copyExpression(bop.left);
+                n.right = copyExpression(bop.right);
+                copy = n;
+            }
+            case CompareNode c -> {
+                CompareNode n = new CompareNode();
+                n.op = c.op;
+                n.left = copyExpression(c.left);
+                n.right = copyExpression(c.right);
+                copy = n;
+            }
+            case MathOpNode mop -> {
+                MathOpNode n = new MathOpNode();
+                n.op = mop.op;
+                n.left = copyExpression(mop.left);
+                n.right = copyExpression(mop.right);
+                copy = n;
+            }
+            case NotOpNode not -> {
+                NotOpNode n = new NotOpNode();
+                n.left = copyExpression(not.left);
+                copy = n;
+            }
+            case MethodCallExpressionNode mc -> {
+                MethodCallExpressionNode n = new MethodCallExpressionNode();
+                n.objectName = mc.objectName;
+                n.methodName = mc.methodName;
+                n.parameters = copyExpressions(mc.parameters);
+                copy = n;
+            }
+            case NewNode nn -> {
+                NewNode n = new NewNode();
+                n.className = nn.className;
+                n.parameters = copyExpressions(nn.parameters);
+                copy = n;
+            }
+            default -> throw new IllegalArgumentException("Unable to copy " + expression.getClass().getSimpleName());
+        }
+        originals.put(copy, original(expression));
+        return copy;
+    }
+
+    private VariableReferenceNode copyReference(VariableReferenceNode vr) {
+        VariableReferenceNode n = new VariableReferenceNode();
+        n.name = vr.name;
+        originals.put(n, original(vr));
+        return n;
+    }
+
+    // Copying a copy still maps back to the very first node
+    private Node original(Node n) {
+        Node o = originals.get(n);
+        return o == null ? n : o;
+    }
+}
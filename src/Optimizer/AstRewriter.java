@@ -0,0 +1,88 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for passes that rewrite a method body. The default implementation walks every statement and expression
+ * and leaves them alone; passes override rewriteStatement() and/or rewriteExpression() for the nodes they care about.
+ * A statement can be replaced by any number of statements (including none) by adding them to "out". The bodies of
+ * inlined calls and of scalar-replaced constructors are walked too.
+ */
+public abstract class AstRewriter {
+
+    public List<StatementNode> rewriteBlock(List<StatementNode> statements) {
+        List<StatementNode> out = new ArrayList<>(statements.size());
+        for (StatementNode s : statements)
+            rewriteStatement(s, out);
+        return out;
+    }
+
+    protected void rewriteStatement(StatementNode statement, List<StatementNode> out) {
+        rewriteChildren(statement);
+        out.add(statement);
+    }
+
+    protected void rewriteChildren(StatementNode statement) {
+        switch (statement) {
+            case AssignmentNode a -> a.expression = rewriteExpression(a.expression);
+            case InlinedCallStatementNode ic -> {
+                rewriteExpressions(ic.parameters);
+                ic.inlined.body = rewriteBlock(ic.inlined.body);
+            }
+            case MethodCallStatementNode mc -> rewriteExpressions(mc.parameters);
+            case ScalarAllocationNode sa -> {
+                rewriteExpressions(sa.parameters);
+                sa.constructor.body = rewriteBlock(sa.constructor.body);
+            }
+            case IfNode i -> {
+                i.condition = rewriteExpression(i.condition);
+                i.statements = rewriteBlock(i.statements);
+                if (i.elseStatement.isPresent())
+                    i.elseStatement.get().statements = rewriteBlock(i.elseStatement.get().statements);
+            }
+            case LoopNode l -> {
+                l.expression = rewriteExpression(l.expression);
+                l.statements = rewriteBlock(l.statements);
+            }
+            default -> { }
+        }
+    }
+
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        return expression;
+    }
+
+    protected void rewriteChildren(ExpressionNode expression) {
+        switch (expression) {
+            case BooleanOpNode bop -> {
+                bop.left = rewriteExpression(bop.left);
+                bop.right = rewriteExpression(bop.right);
+            }
+            case CompareNode c -> {
+                c.left = rewriteExpression(c.left);
+                c.right = rewriteExpression(c.right);
+            }
+            case MathOpNode mop -> {
+                mop.left = rewriteExpression(mop.left);
+                mop.right = rewriteExpression(mop.right);
+            }
+            case NotOpNode not -> not.left = rewriteExpression(not.left);
+            case InlinedCallExpressionNode ic -> {
+                rewriteExpressions(ic.parameters);
+                ic.inlined.body = rewriteBlock(ic.inlined.body);
+            }
+            case MethodCallExpressionNode mc -> rewriteExpressions(mc.parameters);
+            case NewNode n -> rewriteExpressions(n.parameters);
+            default -> { }
+        }
+    }
+
+    protected void rewriteExpressions(List<ExpressionNode> expressions) {
+        for (int i = 0; i < expressions.size(); i++)
+            expressions.set(i, rewriteExpression(expressions.get(i)));
+    }
+}
@@ -0,0 +1,17 @@
+package Optimizer;
+
+import AST.MethodCallExpressionNode;
+
+/**
+ * A method call expression whose target was resolved by the optimizer.
+ */
+public class BoundMethodCallExpressionNode extends MethodCallExpressionNode {
+    public CallBinding binding;
+
+    public BoundMethodCallExpressionNode(MethodCallExpressionNode mc, CallBinding binding) {
+        objectName = mc.objectName;
+        methodName = mc.methodName;
+        parameters = mc.parameters;
+        this.binding = binding;
+    }
+}
@@ -0,0 +1,18 @@
+package Optimizer;
+
+import AST.MethodCallStatementNode;
+
+/**
+ * A method call statement whose target was resolved by the optimizer.
+ */
+public class BoundMethodCallStatementNode extends MethodCallStatementNode {
+    public CallBinding binding;
+
+    public BoundMethodCallStatementNode(MethodCallStatementNode mc, CallBinding binding) {
+        objectName = mc.objectName;
+        methodName = mc.methodName;
+        returnValues = mc.returnValues;
+        parameters = mc.parameters;
+        this.binding = binding;
+    }
+}
@@ -0,0 +1,106 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.List;
+
+/**
+ * Puts the side of an and/or that usually decides it first. The right side of an and/or only runs when the left side
+ * didn't decide the result, and while interpreting we count how often each side was true. When both sides are safe
+ * (see PurityAnalysis) nobody can tell which one ran first, so we use the order that is cheaper on average:
+ * for "a && b" that is cost(a) + P(a) * cost(b) against cost(b) + P(b) * cost(a), where P is how often a side left
+ * the result open (was true for &&, false for ||) and the cost is its size in AST nodes, with calls that weren't
+ * inlined costing the size of the callee plus CALL_COST. Sides that ran fewer than MIN_SAMPLES times stay where they
+ * are, and so do sides whose order would only get a little cheaper.
+ *
+ * The bodies of inlined calls run on another object, so the pass doesn't look inside them.
+ */
+public class BranchLayoutPass extends AstRewriter implements OptimizationPass {
+    private static final long MIN_SAMPLES = 100;
+    private static final int CALL_COST = 10;
+    private static final double MIN_GAIN = 0.9;
+    private CompilationUnit unit;
+    private long reordered;
+
+    @Override
+    public String name() {
+        return "branch layout";
+    }
+
+    /**
+     * @return how many and/or nodes had their sides swapped, over every method compiled
+     */
+    public long getReordered() {
+        return reordered;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    @Override
+    protected void rewriteChildren(StatementNode statement) {
+        if (statement instanceof InlinedCallStatementNode ic)
+            rewriteExpressions(ic.parameters);
+        else
+            super.rewriteChildren(statement);
+    }
+
+    @Override
+    protected void rewriteChildren(ExpressionNode expression) {
+        if (expression instanceof InlinedCallExpressionNode ic)
+            rewriteExpressions(ic.parameters);
+        else
+            super.rewriteChildren(expression);
+    }
+
+    @Override
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        if (expression instanceof BooleanOpNode bop && cheaperSwapped(bop)) {
+            ExpressionNode left = bop.left;
+            bop.left = bop.right;
+            bop.right = left;
+            reordered++;
+        }
+        return expression;
+    }
+
+    private boolean cheaperSwapped(BooleanOpNode bop) {
+        Node left = unit.original(bop.left), right = unit.original(bop.right);
+        if (samples(left) < MIN_SAMPLES || samples(right) < MIN_SAMPLES)
+            return false;
+        if (!"boolean".equals(unit.purity.typeOf(bop.left, unit::declaredType)) || !"boolean".equals(unit.purity.typeOf(bop.right, unit::declaredType)))
+            return false;
+        boolean and = bop.op == BooleanOpNode.BooleanOperations.and;
+        double leftOpen = and ? unit.feedback.getTakenRatio(left) : 1 - unit.feedback.getTakenRatio(left);
+        double rightOpen = and ? unit.feedback.getTakenRatio(right) : 1 - unit.feedback.getTakenRatio(right);
+        int leftCost = cost(bop.left), rightCost = cost(bop.right);
+        return rightCost + rightOpen * leftCost < MIN_GAIN * (leftCost + leftOpen * rightCost);
+    }
+
+    private long samples(Node site) {
+        return unit.feedback.getTakenCount(site) + unit.feedback.getNotTakenCount(site);
+    }
+
+    private static int cost(ExpressionNode e) {
+        return switch (e) {
+            case InlinedCallExpressionNode ic -> NodeCounter.count(ic);
+            case BoundMethodCallExpressionNode mc -> CALL_COST + NodeCounter.count(mc.binding.target.statements) + costs(mc.parameters);
+            case MethodCallExpressionNode mc -> CALL_COST + costs(mc.parameters);
+            case BooleanOpNode b -> 1 + cost(b.left) + cost(b.right);
+            case CompareNode c -> 1 + cost(c.left) + cost(c.right);
+            case MathOpNode m -> 1 + cost(m.left) + cost(m.right);
+            case NotOpNode n -> 1 + cost(n.left);
+            default -> NodeCounter.count(e);
+        };
+    }
+
+    private static int costs(List<ExpressionNode> expressions) {
+        return expressions.stream().mapToInt(BranchLayoutPass::cost).sum();
+    }
+}
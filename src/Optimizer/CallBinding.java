@@ -0,0 +1,35 @@
+package Optimizer;
+
+import AST.ClassNode;
+import AST.MethodDeclarationNode;
+
+/**
+ * The result of resolving a call site at compile time. At run time the interpreter only has to check that the receiver
+ * really is an instance of receiverClass before calling target directly; if it isn't, the speculation failed and the
+ * call falls back to the normal lookup.
+ *
+ * NONE is for calls on an object that ScalarReplacementPass took apart: its members are the caller's locals, so the
+ * (inlined) call runs without an object and without a guard.
+ */
+public class CallBinding {
+    public enum ReceiverKind { SELF, LOCAL, MEMBER, STATIC, NONE }
+
+    public final ReceiverKind receiverKind;
+    /** The class the receiver is expected to be; null for shared calls and NONE, which need no guard */
+    public final ClassNode receiverClass;
+    public final MethodDeclarationNode target;
+    /** The compiled method this call site lives in; invalidated when the guard fails */
+    public final CompiledMethod owner;
+
+    public CallBinding(ReceiverKind receiverKind, ClassNode receiverClass, MethodDeclarationNode target, CompiledMethod owner) {
+        this.receiverKind = receiverKind;
+        this.receiverClass = receiverClass;
+        this.target = target;
+        this.owner = owner;
+    }
+
+    @Override
+    public String toString() {
+        return (receiverClass == null ? "shared" : receiverClass.name) + "." + target.name;
+    }
+}
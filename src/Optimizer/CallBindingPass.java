@@ -0,0 +1,138 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resolves method calls at compile time, following the same search order as the interpreter:
+ * a call with no object is a call on "this", then locals, then members, then shared methods on a class.
+ * Tran has no inheritance, so a variable whose declared type is a class can only ever hold that class - the binding
+ * is guarded by a cheap class check anyway, because the variable might hold a null reference.
+ */
+public class CallBindingPass extends AstRewriter implements OptimizationPass {
+    private CompilationUnit unit;
+    private long hierarchyBindings;
+
+    @Override
+    public String name() {
+        return "call binding";
+    }
+
+    /**
+     * @return how many calls through an interface were bound because only one class implements it
+     */
+    public long getHierarchyBindings() {
+        return hierarchyBindings;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    @Override
+    protected void rewriteStatement(StatementNode statement, List<StatementNode> out) {
+        rewriteChildren(statement);
+        if (statement instanceof MethodCallStatementNode mc && !(statement instanceof BoundMethodCallStatementNode)) {
+            CallBinding binding = bind(mc, mc.objectName, mc.methodName, mc.parameters.size());
+            if (binding != null) {
+                out.add(unit.replace(mc, new BoundMethodCallStatementNode(mc, binding)));
+                return;
+            }
+        }
+        out.add(statement);
+    }
+
+    @Override
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        if (expression instanceof MethodCallExpressionNode mc && !(expression instanceof BoundMethodCallExpressionNode)) {
+            CallBinding binding = bind(mc, mc.objectName, mc.methodName, mc.parameters.size());
+            if (binding != null)
+                return unit.replace(mc, new BoundMethodCallExpressionNode(mc, binding));
+        }
+        return expression;
+    }
+
+    /**
+     * @param site - the call node (for type feedback)
+     * @return a binding, or null if the call can't be resolved statically
+     */
+    protected CallBinding bind(Node site, Optional<String> objectName, String methodName, int arity) {
+        if (objectName.isEmpty()) {
+            // Inside a shared method "this" is whatever object the caller had, so we can't know the class
+            if (unit.method.isShared)
+                return null;
+            MethodDeclarationNode target = firstMethod(unit.owner, methodName, arity, false);
+            return target == null ? null : new CallBinding(CallBinding.ReceiverKind.SELF, unit.owner, target, unit.compiled);
+        }
+        String name = objectName.get();
+        if (unit.isLocal(name))
+            return bindVariable(site, CallBinding.ReceiverKind.LOCAL, unit.declaredType(name), methodName, arity);
+        for (MemberNode m : unit.owner.members)
+            if (m.declaration.name.equals(name))
+                return unit.method.isShared ? null : bindVariable(site, CallBinding.ReceiverKind.MEMBER, m.declaration.type, methodName, arity);
+        ClassNode cls = unit.findClass(name);
+        if (cls == null)
+            return null;
+        MethodDeclarationNode target = firstMethod(cls, methodName, arity, true);
+        return target == null ? null : new CallBinding(CallBinding.ReceiverKind.STATIC, null, target, unit.compiled);
+    }
+
+    /**
+     * A variable of a class type can only hold that class. A variable of an interface type could hold anything that
+     * implements it: if the whole program has only one class that does, that's the one. Otherwise we speculate on the
+     * receiver class the interpreter saw - as long as it only ever saw one.
+     */
+    protected CallBinding bindVariable(Node site, CallBinding.ReceiverKind kind, String type, String methodName, int arity) {
+        ClassNode cls = unit.findClass(type);
+        if (cls == null) {
+            cls = onlyImplementation(type);
+            if (cls != null)
+                hierarchyBindings++;
+        }
+        if (cls == null) {
+            List<ClassNode> seen = unit.feedback.getReceiverClasses(unit.original(site));
+            if (seen.size() != 1 || unit.feedback.isMegamorphic(unit.original(site)))
+                return null;
+            cls = seen.getFirst();
+        }
+        MethodDeclarationNode target = firstMethod(cls, methodName, arity, false);
+        return target == null ? null : new CallBinding(kind, cls, target, unit.compiled);
+    }
+
+    /**
+     * @return the one class in the program that implements the interface, or null if there are none or several
+     */
+    private ClassNode onlyImplementation(String interfaceName) {
+        ClassNode only = null;
+        for (ClassNode c : unit.top.Classes)
+            if (c.interfaces.contains(interfaceName)) {
+                if (only != null)
+                    return null;
+                only = c;
+            }
+        return only;
+    }
+
+    /**
+     * The method the interpreter would run (see ClassInfo.method()): the first one with the name that takes this many
+     * parameters, or else the first one with the name.
+     */
+    protected static MethodDeclarationNode firstMethod(ClassNode cls, String name, int arity, boolean sharedOnly) {
+        MethodDeclarationNode first = null;
+        for (MethodDeclarationNode m : cls.methods)
+            if (m.name.equals(name) && (!sharedOnly || m.isShared)) {
+                if (m.parameters.size() == arity)
+                    return m;
+                if (first == null)
+                    first = m;
+            }
+        return first;
+    }
+}
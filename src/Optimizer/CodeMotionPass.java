@@ -0,0 +1,499 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Moves work out of loops and removes repeated work within a block.
+ *
+ * Loop-invariant code motion: an expression inside a loop (its body or the condition of a boolean loop) is computed
+ * once before the loop when it is safe (see PurityAnalysis) and reads nothing the loop changes. It is written into a
+ * new local, and the expression in the loop becomes a read of that local. Since safe expressions can't fail, it doesn't
+ * matter that the loop might not run at all.
+ *
+ * Common subexpression elimination: when a safe expression appears more than once in one block with nothing in
+ * between that changes what it reads, it is computed into a new local before the first statement that uses it.
+ *
+ * "Changes what it reads" covers assignments, variables on the left of a call, variables passed to a method that isn't
+ * pure (Tran passes variables by reference) and, for members, any call that isn't pure.
+ * The bodies of inlined calls run on another object, so nothing is moved into or out of them.
+ */
+public class CodeMotionPass implements OptimizationPass {
+    private CompilationUnit unit;
+    private int nextTemp;
+    private long hoisted;
+    private long reused;
+
+    @Override
+    public String name() {
+        return "code motion";
+    }
+
+    /**
+     * @return how many expressions were moved out of loops, over every method compiled
+     */
+    public long getHoisted() {
+        return hoisted;
+    }
+
+    /**
+     * @return how many repeated expressions were replaced by a read of the value computed the first time
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        nextTemp = 0;
+        // An OSR copy is entered in the middle of its loop, so nothing can be put in front of that loop
+        List<StatementNode> body = optimizeBlock(unit.compiled.statements, unit.compiled instanceof CompiledLoop);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    private List<StatementNode> optimizeBlock(List<StatementNode> statements, boolean keepLoopsInPlace) {
+        List<StatementNode> out = new ArrayList<>(statements.size());
+        for (StatementNode s : statements) {
+            switch (s) {
+                case IfNode i -> {
+                    i.statements = optimizeBlock(i.statements, false);
+                    if (i.elseStatement.isPresent())
+                        i.elseStatement.get().statements = optimizeBlock(i.elseStatement.get().statements, false);
+                }
+                case LoopNode l -> {
+                    l.statements = optimizeBlock(l.statements, false);
+                    if (!keepLoopsInPlace)
+                        hoist(l, out);
+                }
+                default -> { }
+            }
+            out.add(s);
+        }
+        return eliminateCommon(out);
+    }
+
+    //              Loop invariants
+
+    private void hoist(LoopNode loop, List<StatementNode> before) {
+        Effects effects = new Effects();
+        effects.addStatements(loop.statements);
+        loop.assignment.ifPresent(v -> effects.written.add(v.name));
+        boolean countedLoop = isCountedLoop(loop);
+        if (countedLoop)
+            ((MethodCallExpressionNode) loop.expression).parameters.forEach(effects::addExpression);
+        else
+            effects.addExpression(loop.expression);
+        Map<String, String> temps = new HashMap<>();
+        Consumer<Occurrence> hoist = o -> {
+            String key = key(o.expression);
+            String temp = temps.get(key);
+            if (temp == null) {
+                temp = newTemp("$licm", o.type);
+                temps.put(key, temp);
+                before.add(assignment(temp, o.expression));
+            }
+            o.replace.accept(reference(temp));
+            hoisted++;
+        };
+        if (!countedLoop)
+            findInvariants(loop.expression, e -> loop.expression = e, effects, hoist);
+        findInvariants(loop.statements, effects, hoist);
+    }
+
+    private void findInvariants(List<StatementNode> statements, Effects effects, Consumer<Occurrence> found) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> findInvariants(a.expression, e -> a.expression = e, effects, found);
+                case MethodCallStatementNode mc -> findInvariants(mc.parameters, byReference(mc), effects, found);
+                case IfNode i -> {
+                    findInvariants(i.condition, e -> i.condition = e, effects, found);
+                    findInvariants(i.statements, effects, found);
+                    if (i.elseStatement.isPresent())
+                        findInvariants(i.elseStatement.get().statements, effects, found);
+                }
+                case LoopNode l -> {
+                    if (!isCountedLoop(l))
+                        findInvariants(l.expression, e -> l.expression = e, effects, found);
+                    findInvariants(l.statements, effects, found);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private void findInvariants(List<ExpressionNode> arguments, boolean byReference, Effects effects, Consumer<Occurrence> found) {
+        for (int i = 0; i < arguments.size(); i++) {
+            int index = i;
+            findInvariants(arguments.get(i), e -> arguments.set(index, e), byReference, effects, found);
+        }
+    }
+
+    private void findInvariants(ExpressionNode e, Consumer<ExpressionNode> replace, Effects effects, Consumer<Occurrence> found) {
+        findInvariants(e, replace, false, effects, found);
+    }
+
+    /**
+     * Report the biggest invariant expressions under (and including) e.
+     * @param byReference - e is an argument the callee might assign to, so it must stay an expression of its own
+     */
+    private void findInvariants(ExpressionNode e, Consumer<ExpressionNode> replace, boolean byReference, Effects effects, Consumer<Occurrence> found) {
+        if (!byReference && isCandidate(e)) {
+            String type = unit.purity.typeOf(e, unit::declaredType);
+            if (type != null && !effects.changes(reads(e))) {
+                found.accept(new Occurrence(e, type, replace));
+                return;
+            }
+        }
+        boolean arguments = byReference(e);
+        forEachChild(e, (child, set) -> findInvariants(child, set, arguments, effects, found));
+    }
+
+    //              Common subexpressions
+
+    /**
+     * One place an expression appears: which statement of the block it is in, and how to replace it.
+     */
+    private static class Occurrence {
+        final ExpressionNode expression;
+        final String type;
+        final Consumer<ExpressionNode> replace;
+        int statement;
+        final List<Occurrence> enclosing = new ArrayList<>();
+        boolean replaced;
+
+        Occurrence(ExpressionNode expression, String type, Consumer<ExpressionNode> replace) {
+            this.expression = expression;
+            this.type = type;
+            this.replace = replace;
+        }
+    }
+
+    private List<StatementNode> eliminateCommon(List<StatementNode> block) {
+        // The same expression, with nothing changing what it reads in between, is one group
+        Map<String, List<Occurrence>> groups = new LinkedHashMap<>();
+        Map<String, Integer> generation = new HashMap<>();
+        Set<String> live = new HashSet<>();
+        for (int index = 0; index < block.size(); index++) {
+            StatementNode s = block.get(index);
+            List<Root> roots = evaluatedBy(s);
+            Effects evaluation = new Effects();
+            roots.forEach(r -> evaluation.addExpression(r.expression));
+            if (!evaluation.duringEvaluation) {
+                List<Occurrence> found = new ArrayList<>();
+                for (Root r : roots)
+                    collect(r.expression, r.replace, r.byReference, found, new ArrayDeque<>());
+                for (Occurrence o : found) {
+                    o.statement = index;
+                    String key = key(o.expression);
+                    live.add(key);
+                    groups.computeIfAbsent(key + "#" + generation.getOrDefault(key, 0), k -> new ArrayList<>()).add(o);
+                }
+            }
+            Effects effects = new Effects();
+            effects.addStatement(s);
+            for (Iterator<String> it = live.iterator(); it.hasNext(); ) {
+                String key = it.next();
+                List<Occurrence> group = groups.get(key + "#" + generation.getOrDefault(key, 0));
+                if (effects.changes(reads(group.getFirst().expression))) {
+                    generation.merge(key, 1, Integer::sum);
+                    it.remove();
+                }
+            }
+        }
+        // Bigger expressions first, so that the parts of a repeated expression aren't pulled out on their own
+        List<List<Occurrence>> ordered = new ArrayList<>(groups.values());
+        ordered.sort(Comparator.comparingInt((List<Occurrence> g) -> NodeCounter.count(g.getFirst().expression)).reversed());
+        Map<Integer, List<StatementNode>> inserts = new HashMap<>();
+        for (List<Occurrence> group : ordered) {
+            List<Occurrence> usable = new ArrayList<>();
+            for (Occurrence o : group)
+                if (o.enclosing.stream().noneMatch(e -> e.replaced))
+                    usable.add(o);
+            if (usable.size() < 2)
+                continue;
+            Occurrence first = usable.getFirst();
+            String temp = newTemp("$cse", first.type);
+            inserts.computeIfAbsent(first.statement, k -> new ArrayList<>()).add(assignment(temp, first.expression));
+            for (Occurrence o : usable) {
+                o.replace.accept(reference(temp));
+                o.replaced = true;
+            }
+            reused += usable.size() - 1;
+        }
+        if (inserts.isEmpty())
+            return block;
+        List<StatementNode> out = new ArrayList<>();
+        for (int index = 0; index < block.size(); index++) {
+            out.addAll(inserts.getOrDefault(index, List.of()));
+            out.add(block.get(index));
+        }
+        return out;
+    }
+
+    /**
+     * @return the expressions a statement evaluates before it does anything else (the condition of a loop is
+     * evaluated again on every trip, so it isn't one of them)
+     */
+    private List<Root> evaluatedBy(StatementNode s) {
+        List<Root> out = new ArrayList<>();
+        switch (s) {
+            case AssignmentNode a -> out.add(new Root(a.expression, e -> a.expression = e, false));
+            case MethodCallStatementNode mc -> {
+                boolean byReference = byReference(mc);
+                for (int i = 0; i < mc.parameters.size(); i++) {
+                    int index = i;
+                    out.add(new Root(mc.parameters.get(i), e -> mc.parameters.set(index, e), byReference));
+                }
+            }
+            case IfNode i -> out.add(new Root(i.condition, e -> i.condition = e, false));
+            default -> { }
+        }
+        return out;
+    }
+
+    private record Root(ExpressionNode expression, Consumer<ExpressionNode> replace, boolean byReference) { }
+
+    private void collect(ExpressionNode e, Consumer<ExpressionNode> replace, boolean byReference, List<Occurrence> found, Deque<Occurrence> enclosing) {
+        Occurrence o = null;
+        if (!byReference && isCandidate(e)) {
+            String type = unit.purity.typeOf(e, unit::declaredType);
+            if (type != null) {
+                o = new Occurrence(e, type, replace);
+                o.enclosing.addAll(enclosing);
+                found.add(o);
+                enclosing.push(o);
+            }
+        }
+        boolean arguments = byReference(e);
+        forEachChild(e, (child, set) -> collect(child, set, arguments, found, enclosing));
+        if (o != null)
+            enclosing.pop();
+    }
+
+    //              Side effects
+
+    /**
+     * What running some statements or expressions can change.
+     */
+    private class Effects {
+        final Set<String> written = new HashSet<>();
+        /** a call that isn't pure, which could change any member */
+        boolean members;
+        /** something changes a variable while the statement's own expressions are still being evaluated */
+        boolean duringEvaluation;
+
+        boolean changes(Set<String> reads) {
+            for (String name : reads)
+                if (written.contains(name) || (members && !unit.isLocal(name)))
+                    return true;
+            return false;
+        }
+
+        void addStatements(List<StatementNode> statements) {
+            for (StatementNode s : statements)
+                addStatement(s);
+        }
+
+        void addStatement(StatementNode s) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    addExpression(a.expression);
+                    written.add(a.target.name);
+                }
+                case MethodCallStatementNode mc -> {
+                    mc.parameters.forEach(this::addExpression);
+                    addCall(mc, mc.objectName, mc.methodName, mc.parameters);
+                    mc.returnValues.forEach(r -> written.add(r.name));
+                }
+                case IfNode i -> {
+                    addExpression(i.condition);
+                    addStatements(i.statements);
+                    if (i.elseStatement.isPresent())
+                        addStatements(i.elseStatement.get().statements);
+                }
+                case LoopNode l -> {
+                    if (isCountedLoop(l))
+                        ((MethodCallExpressionNode) l.expression).parameters.forEach(this::addExpression);
+                    else
+                        addExpression(l.expression);
+                    l.assignment.ifPresent(v -> written.add(v.name));
+                    addStatements(l.statements);
+                }
+                case ScalarAllocationNode sa -> {
+                    sa.parameters.forEach(this::addExpression);
+                    addArguments(sa.parameters);
+                    sa.fields.forEach(f -> written.add(f.name));
+                    addStatements(sa.constructor.body);
+                }
+                default -> members = true;
+            }
+        }
+
+        void addExpression(ExpressionNode e) {
+            switch (e) {
+                case MethodCallExpressionNode mc -> {
+                    mc.parameters.forEach(this::addExpression);
+                    if (addCall(mc, mc.objectName, mc.methodName, mc.parameters))
+                        duringEvaluation = true;
+                }
+                case NewNode n -> {
+                    n.parameters.forEach(this::addExpression);
+                    addArguments(n.parameters);
+                    members = true;
+                    duringEvaluation = true;
+                }
+                default -> forEachChild(e, (child, set) -> addExpression(child));
+            }
+        }
+
+        /**
+         * @return true if the call can change something
+         */
+        private boolean addCall(Node call, Optional<String> objectName, String methodName, List<ExpressionNode> parameters) {
+            if (!unit.purity.hasSideEffects(call, objectName, methodName, parameters, unit::declaredType))
+                return false;
+            addArguments(parameters);
+            members = true;
+            // A call on a scalar-replaced object changes the caller's locals that hold its members
+            if (call instanceof InlinedCallStatementNode ic)
+                addStatements(ic.inlined.body);
+            else if (call instanceof InlinedCallExpressionNode ic)
+                addStatements(ic.inlined.body);
+            return true;
+        }
+
+        private void addArguments(List<ExpressionNode> parameters) {
+            for (ExpressionNode p : parameters)
+                if (p instanceof VariableReferenceNode vr)
+                    written.add(vr.name);
+        }
+    }
+
+    //              Expressions
+
+    /**
+     * Literals and variables are as cheap to read as a temporary, so only operators and calls are worth moving.
+     */
+    private static boolean isCandidate(ExpressionNode e) {
+        return e instanceof MathOpNode || e instanceof CompareNode || e instanceof BooleanOpNode || e instanceof NotOpNode || e instanceof MethodCallExpressionNode;
+    }
+
+    /**
+     * A variable passed to a method is passed by reference, so if the method might assign to its parameter, the
+     * argument can't be replaced by one of our temporaries.
+     * @return true if the call or constructor might assign to its parameters
+     */
+    private boolean byReference(Node call) {
+        return switch (call) {
+            case MethodCallStatementNode mc -> unit.purity.hasSideEffects(mc, mc.objectName, mc.methodName, mc.parameters, unit::declaredType);
+            case MethodCallExpressionNode mc -> unit.purity.hasSideEffects(mc, mc.objectName, mc.methodName, mc.parameters, unit::declaredType);
+            case NewNode n -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true for x.times(), number.times(count) and number.range(...): the loop's expression never runs as a whole,
+     * only its arguments do, once before the first trip
+     */
+    private static boolean isCountedLoop(LoopNode loop) {
+        return loop.expression instanceof MethodCallExpressionNode mc
+                && (mc.methodName.equals("times") || (mc.methodName.equals("range") && mc.objectName.equals(Optional.of("number"))));
+    }
+
+    /**
+     * Visit the direct children of an expression, with a way to replace each one. The arguments of an inlined call
+     * are its children, but its body isn't.
+     */
+    private static void forEachChild(ExpressionNode e, java.util.function.BiConsumer<ExpressionNode, Consumer<ExpressionNode>> visit) {
+        switch (e) {
+            case BooleanOpNode b -> {
+                visit.accept(b.left, x -> b.left = x);
+                visit.accept(b.right, x -> b.right = x);
+            }
+            case CompareNode c -> {
+                visit.accept(c.left, x -> c.left = x);
+                visit.accept(c.right, x -> c.right = x);
+            }
+            case MathOpNode m -> {
+                visit.accept(m.left, x -> m.left = x);
+                visit.accept(m.right, x -> m.right = x);
+            }
+            case NotOpNode n -> visit.accept(n.left, x -> n.left = x);
+            case MethodCallExpressionNode mc -> {
+                for (int i = 0; i < mc.parameters.size(); i++) {
+                    int index = i;
+                    visit.accept(mc.parameters.get(i), x -> mc.parameters.set(index, x));
+                }
+            }
+            case NewNode n -> {
+                for (int i = 0; i < n.parameters.size(); i++) {
+                    int index = i;
+                    visit.accept(n.parameters.get(i), x -> n.parameters.set(index, x));
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private static Set<String> reads(ExpressionNode e) {
+        Set<String> names = new HashSet<>();
+        reads(e, names);
+        return names;
+    }
+
+    private static void reads(ExpressionNode e, Set<String> names) {
+        if (e instanceof VariableReferenceNode vr)
+            names.add(vr.name);
+        forEachChild(e, (child, set) -> reads(child, names));
+    }
+
+    /**
+     * @return a string that is the same for two expressions exactly when they compute the same thing
+     */
+    private static String key(ExpressionNode e) {
+        return switch (e) {
+            case NumericLiteralNode n -> "n" + n.value;
+            case StringLiteralNode s -> "s\"" + s.value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+            case CharLiteralNode c -> "c'" + c.value + "'";
+            case BooleanLiteralNode b -> "b" + b.value;
+            case VariableReferenceNode vr -> "v" + vr.name;
+            case MathOpNode m -> "(" + m.op + " " + key(m.left) + " " + key(m.right) + ")";
+            case CompareNode c -> "(" + c.op + " " + key(c.left) + " " + key(c.right) + ")";
+            case BooleanOpNode b -> "(" + b.op + " " + key(b.left) + " " + key(b.right) + ")";
+            case NotOpNode n -> "(not " + key(n.left) + ")";
+            case MethodCallExpressionNode mc -> {
+                StringJoiner sj = new StringJoiner(" ", "(call " + mc.objectName.orElse("") + "." + mc.methodName + " ", ")");
+                mc.parameters.forEach(p -> sj.add(key(p)));
+                yield sj.toString();
+            }
+            default -> "?" + System.identityHashCode(e);
+        };
+    }
+
+    private String newTemp(String prefix, String type) {
+        String name = prefix + nextTemp++;
+        VariableDeclarationNode vd = new VariableDeclarationNode();
+        vd.name = name;
+        vd.type = type;
+        unit.compiled.locals.add(vd);
+        return name;
+    }
+
+    private static AssignmentNode assignment(String target, ExpressionNode value) {
+        AssignmentNode a = new AssignmentNode();
+        a.target = reference(target);
+        a.expression = value;
+        return a;
+    }
+
+    private static VariableReferenceNode reference(String name) {
+        VariableReferenceNode vr = new VariableReferenceNode();
+        vr.name = name;
+        return vr;
+    }
+}
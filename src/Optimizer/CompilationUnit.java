@@ -0,0 +1,108 @@
+package Optimizer;
+
+import AST.*;
+import Interpreter.TypeFeedback;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Everything an optimization pass needs to know about the method being compiled.
+ */
+public class CompilationUnit {
+    /** A block is cold if the if or loop it belongs to ran at least this many times without ever running it */
+    public static final long COLD_AFTER = 100;
+
+    public final TranNode top;
+    public final ClassNode owner;
+    public final MethodDeclarationNode method;
+    public final CompiledMethod compiled;
+    /** copied node -> the node in the original AST it came from */
+    public final IdentityHashMap<Node, Node> originals;
+    public final TypeFeedback feedback;
+    public final PurityAnalysis purity;
+
+    public CompilationUnit(TranNode top, ClassNode owner, MethodDeclarationNode method, CompiledMethod compiled, IdentityHashMap<Node, Node> originals, TypeFeedback feedback, PurityAnalysis purity) {
+        this.top = top;
+        this.owner = owner;
+        this.method = method;
+        this.compiled = compiled;
+        this.originals = originals;
+        this.feedback = feedback;
+        this.purity = purity;
+    }
+
+    /**
+     * @return the node in the original AST that this (copied) node came from
+     */
+    public Node original(Node n) {
+        return originals.getOrDefault(n, n);
+    }
+
+    /**
+     * @param thenBlock - true for the if's own statements, false for its else
+     * @return true if the interpreter ran this if often but never ran the given block of it
+     */
+    public boolean isCold(IfNode i, boolean thenBlock) {
+        Node site = original(i);
+        long taken = feedback.getTakenCount(site), notTaken = feedback.getNotTakenCount(site);
+        return taken + notTaken >= COLD_AFTER && (thenBlock ? taken : notTaken) == 0;
+    }
+
+    /**
+     * @return true if the interpreter started this loop often but never went around it
+     */
+    public boolean isCold(LoopNode l) {
+        Node site = original(l);
+        return feedback.getLoopEntries(site) >= COLD_AFTER && feedback.getLoopIterations(site) == 0;
+    }
+
+    /**
+     * Remember that "replacement" stands in for "old", so that feedback for "old" can still be found.
+     * @return replacement
+     */
+    public <T extends Node> T replace(Node old, T replacement) {
+        originals.put(replacement, original(old));
+        return replacement;
+    }
+
+    /**
+     * Find the declared type of a name, as seen from inside the method: parameters, returns and locals first, then members.
+     * @param name - a variable name
+     * @return the type name, or null if it isn't declared
+     */
+    public String declaredType(String name) {
+        for (VariableDeclarationNode vd : method.parameters)
+            if (vd.name.equals(name))
+                return vd.type;
+        for (VariableDeclarationNode vd : method.returns)
+            if (vd.name.equals(name))
+                return vd.type;
+        for (VariableDeclarationNode vd : compiled.locals)
+            if (vd.name.equals(name))
+                return vd.type;
+        for (MemberNode m : owner.members)
+            if (m.declaration.name.equals(name))
+                return m.declaration.type;
+        return null;
+    }
+
+    public boolean isLocal(String name) {
+        for (VariableDeclarationNode vd : method.parameters)
+            if (vd.name.equals(name))
+                return true;
+        for (VariableDeclarationNode vd : method.returns)
+            if (vd.name.equals(name))
+                return true;
+        for (VariableDeclarationNode vd : compiled.locals)
+            if (vd.name.equals(name))
+                return true;
+        return false;
+    }
+
+    public ClassNode findClass(String name) {
+        for (ClassNode c : top.Classes)
+            if (c.name.equals(name))
+                return c;
+        return null;
+    }
+}
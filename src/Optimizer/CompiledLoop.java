@@ -0,0 +1,25 @@
+package Optimizer;
+
+import AST.LoopNode;
+import AST.MethodDeclarationNode;
+import AST.StatementNode;
+import AST.VariableDeclarationNode;
+
+import java.util.List;
+
+/**
+ * An optimized copy of a single loop, entered part way through a method (on-stack replacement).
+ * The body is a single LoopNode; everything else about it works like a CompiledMethod.
+ */
+public class CompiledLoop extends CompiledMethod {
+    public final LoopNode source;
+
+    public CompiledLoop(MethodDeclarationNode method, LoopNode source, List<VariableDeclarationNode> locals, List<StatementNode> statements) {
+        super(method, locals, statements);
+        this.source = source;
+    }
+
+    public LoopNode loop() {
+        return (LoopNode) statements.getFirst();
+    }
+}
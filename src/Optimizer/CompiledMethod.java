@@ -0,0 +1,39 @@
+package Optimizer;
+
+import AST.MethodDeclarationNode;
+import AST.StatementNode;
+import AST.VariableDeclarationNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The optimized tier of a method: a private copy of the method body that the optimization passes are free to rewrite.
+ * The interpreter runs it exactly like the original body. Speculative nodes inside the copy call invalidate() when one
+ * of their assumptions turns out to be wrong, which sends the method back to the interpreted tier.
+ */
+public class CompiledMethod {
+    public final MethodDeclarationNode source;
+    public final List<VariableDeclarationNode> locals;
+    public final List<StatementNode> statements;
+    private volatile boolean valid = true;
+
+    public CompiledMethod(MethodDeclarationNode source, List<VariableDeclarationNode> locals, List<StatementNode> statements) {
+        this.source = source;
+        this.locals = new ArrayList<>(locals);
+        this.statements = new ArrayList<>(statements);
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    @Override
+    public String toString() {
+        return "compiled " + source.name + "\n" + AST.Node.statementListToString(statements);
+    }
+}
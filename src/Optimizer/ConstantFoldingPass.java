@@ -0,0 +1,267 @@
+package Optimizer;
+
+import AST.*;
+import Interpreter.*;
+
+import java.util.*;
+
+/**
+ * Folds operators whose operands are all literals into a single literal (and an and/or whose left side is a literal
+ * into the side that decides it), removes the branch of an if that can never run when its condition folds to a
+ * literal, and drops assignments to locals that nothing ever reads. Folding uses the interpreter's own operator code,
+ * so a folded value is exactly what running the code would have produced; an operator that would fail at runtime
+ * (like "a" - "b") is left alone so that it still fails in the same place.
+ */
+public class ConstantFoldingPass extends AstRewriter implements OptimizationPass {
+    private CompilationUnit unit;
+    private long nodesRemoved;
+    private long constantsFolded;
+    private long branchesRemoved;
+    private long assignmentsRemoved;
+
+    @Override
+    public String name() {
+        return "constant folding";
+    }
+
+    /**
+     * @return how many AST nodes this pass has removed, over every method it has compiled
+     */
+    public long getNodesRemoved() {
+        return nodesRemoved;
+    }
+
+    public long getConstantsFolded() {
+        return constantsFolded;
+    }
+
+    public long getBranchesRemoved() {
+        return branchesRemoved;
+    }
+
+    public long getAssignmentsRemoved() {
+        return assignmentsRemoved;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        // Removing one assignment can make the variables it read dead too
+        while (removeDeadAssignments(body))
+            ;
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    @Override
+    protected void rewriteStatement(StatementNode statement, List<StatementNode> out) {
+        rewriteChildren(statement);
+        if (statement instanceof IfNode i && i.condition instanceof BooleanLiteralNode condition) {
+            List<StatementNode> taken = condition.value ? i.statements : i.elseStatement.map(e -> e.statements).orElse(List.of());
+            List<StatementNode> skipped = condition.value ? i.elseStatement.map(e -> e.statements).orElse(List.of()) : i.statements;
+            // Tran has no block scope, so the statements of the branch that runs can just take the if's place
+            out.addAll(taken);
+            nodesRemoved += 2 + NodeCounter.count(skipped);
+            branchesRemoved++;
+            return;
+        }
+        out.add(statement);
+    }
+
+    @Override
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        // The specialized nodes carry guards that can deoptimize; folding their operands is fine, but not them
+        if (expression instanceof SpecializedMathOpNode || expression instanceof SpecializedCompareNode)
+            return expression;
+        if (expression instanceof BooleanOpNode bop && bop.left instanceof BooleanLiteralNode l) {
+            // false && x and true || x never look at x; true && x and false || x are just x, unless x is a variable
+            // (which would then be passed by reference instead of as a new value)
+            boolean decided = l.value == (bop.op == BooleanOpNode.BooleanOperations.or);
+            if (decided || !(bop.right instanceof VariableReferenceNode)) {
+                ExpressionNode result = decided ? bop.left : bop.right;
+                nodesRemoved += NodeCounter.count(expression) - NodeCounter.count(result);
+                constantsFolded++;
+                return result;
+            }
+        }
+        InterpreterDataType folded;
+        try {
+            folded = fold(expression);
+        } catch (RuntimeException e) {
+            return expression;
+        }
+        if (folded == null)
+            return expression;
+        nodesRemoved += NodeCounter.count(expression) - 1;
+        constantsFolded++;
+        return unit.replace(expression, literal(folded));
+    }
+
+    /**
+     * @return the value of the expression, or null if it isn't an operator with literal operands
+     * @throws RuntimeException if the operator would fail at runtime
+     */
+    private static InterpreterDataType fold(ExpressionNode expression) {
+        switch (expression) {
+            case MathOpNode mop -> {
+                InterpreterDataType left = value(mop.left), right = value(mop.right);
+                return left == null || right == null ? null : Interpreter.mathOp(mop.op, left, right);
+            }
+            case CompareNode c -> {
+                InterpreterDataType left = value(c.left), right = value(c.right);
+                return left == null || right == null ? null : Interpreter.compare(c.op, left, right);
+            }
+            case BooleanOpNode bop -> {
+                if (bop.left instanceof BooleanLiteralNode l && bop.right instanceof BooleanLiteralNode r)
+                    return new BooleanIDT(bop.op == BooleanOpNode.BooleanOperations.and ? l.value && r.value : l.value || r.value);
+                return null;
+            }
+            case NotOpNode n -> {
+                return n.left instanceof BooleanLiteralNode l ? new BooleanIDT(!l.value) : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static InterpreterDataType value(ExpressionNode literal) {
+        return switch (literal) {
+            case NumericLiteralNode n -> new NumberIDT(n.value);
+            case StringLiteralNode s -> new StringIDT(s.value);
+            case CharLiteralNode c -> new CharIDT(c.value);
+            case BooleanLiteralNode b -> new BooleanIDT(b.value);
+            default -> null;
+        };
+    }
+
+    private static ExpressionNode literal(InterpreterDataType value) {
+        switch (value) {
+            case NumberIDT n -> {
+                NumericLiteralNode literal = new NumericLiteralNode();
+                literal.value = n.getValue();
+                return literal;
+            }
+            case StringIDT s -> {
+                StringLiteralNode literal = new StringLiteralNode();
+                literal.value = s.getValue();
+                return literal;
+            }
+            case CharIDT c -> {
+                CharLiteralNode literal = new CharLiteralNode();
+                literal.value = c.getValue();
+                return literal;
+            }
+            case BooleanIDT b -> {
+                return new BooleanLiteralNode(b.getValue());
+            }
+            default -> throw new IllegalArgumentException("Not a literal value: " + value);
+        }
+    }
+
+    //              Dead assignments
+
+    /**
+     * Remove assignments to locals (not parameters or return values - the caller sees those) that are never read,
+     * as long as computing the value can't have a side effect.
+     * @return true if anything was removed
+     */
+    private boolean removeDeadAssignments(List<StatementNode> body) {
+        Set<String> read = new HashSet<>();
+        reads(body, read);
+        // An OSR copy is only the loop; the rest of the method still runs afterwards and may read what the loop wrote
+        if (unit.compiled instanceof CompiledLoop)
+            reads(unit.method.statements, read);
+        Set<String> dead = new HashSet<>();
+        for (VariableDeclarationNode vd : unit.compiled.locals)
+            if (!read.contains(vd.name))
+                dead.add(vd.name);
+        for (VariableDeclarationNode vd : unit.method.parameters)
+            dead.remove(vd.name);
+        for (VariableDeclarationNode vd : unit.method.returns)
+            dead.remove(vd.name);
+        return !dead.isEmpty() && removeAssignments(body, dead);
+    }
+
+    private boolean removeAssignments(List<StatementNode> statements, Set<String> dead) {
+        boolean removed = false;
+        for (Iterator<StatementNode> it = statements.iterator(); it.hasNext(); ) {
+            switch (it.next()) {
+                case AssignmentNode a -> {
+                    if (dead.contains(a.target.name) && isPure(a.expression)) {
+                        it.remove();
+                        nodesRemoved += 2 + NodeCounter.count(a.expression);
+                        assignmentsRemoved++;
+                        removed = true;
+                    }
+                }
+                case IfNode i -> {
+                    removed |= removeAssignments(i.statements, dead);
+                    if (i.elseStatement.isPresent())
+                        removed |= removeAssignments(i.elseStatement.get().statements, dead);
+                }
+                case LoopNode l -> removed |= removeAssignments(l.statements, dead);
+                default -> { }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if evaluating the expression can't change anything or fail. Operators only count when the
+     * operand types are known to fit, so dropping one can't hide a runtime error.
+     */
+    private boolean isPure(ExpressionNode e) {
+        return unit.purity.typeOf(e, unit::declaredType) != null;
+    }
+
+    private static void reads(List<StatementNode> statements, Set<String> read) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> reads(a.expression, read);
+                case MethodCallStatementNode mc -> {
+                    mc.objectName.ifPresent(read::add);
+                    mc.parameters.forEach(p -> reads(p, read));
+                }
+                case IfNode i -> {
+                    reads(i.condition, read);
+                    reads(i.statements, read);
+                    if (i.elseStatement.isPresent())
+                        reads(i.elseStatement.get().statements, read);
+                }
+                case LoopNode l -> {
+                    reads(l.expression, read);
+                    reads(l.statements, read);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private static void reads(ExpressionNode e, Set<String> read) {
+        switch (e) {
+            case VariableReferenceNode vr -> read.add(vr.name);
+            case BooleanOpNode b -> {
+                reads(b.left, read);
+                reads(b.right, read);
+            }
+            case CompareNode c -> {
+                reads(c.left, read);
+                reads(c.right, read);
+            }
+            case MathOpNode m -> {
+                reads(m.left, read);
+                reads(m.right, read);
+            }
+            case NotOpNode n -> reads(n.left, read);
+            case MethodCallExpressionNode mc -> {
+                mc.objectName.ifPresent(read::add);
+                mc.parameters.forEach(p -> reads(p, read));
+            }
+            case NewNode n -> n.parameters.forEach(p -> reads(p, read));
+            default -> { }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package Optimizer;
+
+import IR.*;
+
+/**
+ * Runs the method body through the SSA IR: build an IRFunction from the copied body, run the IR passes over it and
+ * lower the result back to statements, which replace the copy. Has to run before any pass that puts optimizer-only
+ * nodes into the body. A body the IR can't express is left alone.
+ */
+public class IROptimizationPass implements OptimizationPass {
+    private final PassManager passes = new PassManager();
+    private int functionsLowered;
+
+    public IROptimizationPass() {
+        passes.add(new SimplifyPhisPass());
+        passes.add(new DeadInstructionPass());
+    }
+
+    public PassManager getPassManager() {
+        return passes;
+    }
+
+    /**
+     * @return how many method bodies have been replaced by lowered IR
+     */
+    public int getFunctionsLowered() {
+        return functionsLowered;
+    }
+
+    @Override
+    public String name() {
+        return "ir";
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        // An OSR copy starts with live values in its locals, which the builder would treat as defaults
+        if (unit.compiled instanceof CompiledLoop)
+            return;
+        IRFunction f;
+        try {
+            f = new IRBuilder(unit.top).build(unit.owner, unit.method, unit.compiled.locals, unit.compiled.statements);
+        } catch (RuntimeException e) {
+            return;
+        }
+        passes.run(f);
+        LoweredFunction lowered = IRLowering.lower(f);
+        for (var e : lowered.sources.entrySet())
+            unit.replace(e.getValue(), e.getKey());
+        unit.compiled.locals.clear();
+        unit.compiled.locals.addAll(lowered.locals);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(lowered.statements);
+        functionsLowered++;
+    }
+}
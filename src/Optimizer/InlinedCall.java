@@ -0,0 +1,31 @@
+package Optimizer;
+
+import AST.StatementNode;
+import AST.VariableDeclarationNode;
+
+import java.util.List;
+
+/**
+ * The callee's side of an inlined call: a copy of its body with every parameter, return value and local renamed so
+ * that it can run on the caller's locals without clashing with them. Names in the body that aren't the callee's own
+ * variables (members, class names) are left alone; they resolve against the receiver, which runs as the current object.
+ */
+public class InlinedCall {
+    /** the renamed parameters, in order; the interpreter puts the argument values here */
+    public final List<String> parameters;
+    /** the renamed return values, in order */
+    public final List<String> returns;
+    /** the renamed return values and locals, which start out with their default values on every call */
+    public final List<VariableDeclarationNode> fresh;
+    public List<StatementNode> body;
+    /** the size of the callee's body, in AST nodes */
+    public final int size;
+
+    public InlinedCall(List<String> parameters, List<String> returns, List<VariableDeclarationNode> fresh, List<StatementNode> body, int size) {
+        this.parameters = parameters;
+        this.returns = returns;
+        this.fresh = fresh;
+        this.body = body;
+        this.size = size;
+    }
+}
@@ -0,0 +1,16 @@
+package Optimizer;
+
+import AST.MethodCallExpressionNode;
+
+/**
+ * A resolved method call expression whose callee's body has been copied into the caller. Its value is the callee's
+ * first return value.
+ */
+public class InlinedCallExpressionNode extends BoundMethodCallExpressionNode {
+    public final InlinedCall inlined;
+
+    public InlinedCallExpressionNode(MethodCallExpressionNode mc, CallBinding binding, InlinedCall inlined) {
+        super(mc, binding);
+        this.inlined = inlined;
+    }
+}
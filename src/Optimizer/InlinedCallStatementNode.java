@@ -0,0 +1,16 @@
+package Optimizer;
+
+import AST.MethodCallStatementNode;
+
+/**
+ * A resolved method call statement whose callee's body has been copied into the caller. If the receiver turns out not
+ * to be the class the optimizer expected, it runs as the bound call it came from.
+ */
+public class InlinedCallStatementNode extends BoundMethodCallStatementNode {
+    public final InlinedCall inlined;
+
+    public InlinedCallStatementNode(MethodCallStatementNode mc, CallBinding binding, InlinedCall inlined) {
+        super(mc, binding);
+        this.inlined = inlined;
+    }
+}
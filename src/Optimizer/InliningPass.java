@@ -0,0 +1,326 @@
+package Optimizer;
+
+import AST.*;
+import Interpreter.TailCalls;
+
+import java.util.*;
+
+/**
+ * Copies the bodies of small methods into the places they are called from. Only calls that CallBindingPass resolved
+ * are candidates, so every inlined call keeps the receiver class guard of its binding (and falls back to a normal call
+ * if the guard fails). The copied body runs on the caller's locals with the receiver as the current object, which
+ * saves the method lookup, the new locals map and the result list of a real call.
+ *
+ * A callee is inlined if its body is no bigger than the size budget (in AST nodes, see NodeCounter) and the caller
+ * hasn't used up its growth budget. Callees with loops aren't inlined (the loop profile belongs to the callee), nor are
+ * callees that use a name for a member or class that the caller uses for one of its own variables - inside the copy,
+ * the caller's variable would win. A tail call (see TailCalls) to a callee that ends in a tail call itself stays a
+ * call, so that mutually recursive methods keep running in constant stack. Blocks of ifs and loops that the profile
+ * says never run (see CompilationUnit.isCold()) are left alone, so the growth budget goes to the paths that are hot.
+ */
+public class InliningPass extends AstRewriter implements OptimizationPass {
+    private int sizeBudget = 24;
+    private int growthBudget = 200;
+    private final List<String> report = new ArrayList<>();
+    private long inlined;
+    private long coldBlocks;
+    private CompilationUnit unit;
+    private int growth;
+    private int nextId;
+    private final Set<Node> tailCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Override
+    public String name() {
+        return "inlining";
+    }
+
+    /**
+     * @param sizeBudget - the biggest callee body (in AST nodes) that will be inlined
+     */
+    public void setSizeBudget(int sizeBudget) {
+        this.sizeBudget = sizeBudget;
+    }
+
+    public int getSizeBudget() {
+        return sizeBudget;
+    }
+
+    /**
+     * @param growthBudget - how many AST nodes inlining may add to one method in total
+     */
+    public void setGrowthBudget(int growthBudget) {
+        this.growthBudget = growthBudget;
+    }
+
+    public long getInlinedCount() {
+        return inlined;
+    }
+
+    /**
+     * @return how many blocks were left alone because they never ran
+     */
+    public long getColdBlocksSkipped() {
+        return coldBlocks;
+    }
+
+    /**
+     * @return one line per call site considered: "caller: inlined Callee.method (n nodes)" or why it wasn't inlined
+     */
+    public List<String> getReport() {
+        return report;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        growth = 0;
+        nextId = 0;
+        tailCalls.clear();
+        TailCalls.find(unit.compiled.statements, unit.method.returns, tailCalls);
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    @Override
+    protected void rewriteStatement(StatementNode statement, List<StatementNode> out) {
+        rewriteChildren(statement);
+        if (statement instanceof BoundMethodCallStatementNode mc && !(statement instanceof InlinedCallStatementNode)) {
+            InlinedCall inlinedCall = inline(mc.binding, mc.parameters.size(), mc.returnValues.size(), tailCalls.contains(mc));
+            if (inlinedCall != null) {
+                out.add(unit.replace(mc, new InlinedCallStatementNode(mc, mc.binding, inlinedCall)));
+                return;
+            }
+        }
+        out.add(statement);
+    }
+
+    @Override
+    protected void rewriteChildren(StatementNode statement) {
+        switch (statement) {
+            case IfNode i -> {
+                i.condition = rewriteExpression(i.condition);
+                if (!skipCold(unit.isCold(i, true)))
+                    i.statements = rewriteBlock(i.statements);
+                if (i.elseStatement.isPresent() && !skipCold(unit.isCold(i, false)))
+                    i.elseStatement.get().statements = rewriteBlock(i.elseStatement.get().statements);
+            }
+            case LoopNode l when skipCold(unit.isCold(l)) -> l.expression = rewriteExpression(l.expression);
+            default -> super.rewriteChildren(statement);
+        }
+    }
+
+    private boolean skipCold(boolean cold) {
+        if (cold)
+            coldBlocks++;
+        return cold;
+    }
+
+    @Override
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        if (expression instanceof BoundMethodCallExpressionNode mc && !(expression instanceof InlinedCallExpressionNode)) {
+            InlinedCall inlinedCall = inline(mc.binding, mc.parameters.size(), 1, false);
+            if (inlinedCall != null)
+                return unit.replace(mc, new InlinedCallExpressionNode(mc, mc.binding, inlinedCall));
+        }
+        return expression;
+    }
+
+    /**
+     * @return the renamed copy of the callee, or null if it shouldn't be inlined here
+     */
+    private InlinedCall inline(CallBinding binding, int arguments, int results, boolean tail) {
+        MethodDeclarationNode target = binding.target;
+        String site = unit.owner.name + "." + unit.method.name + ": " + binding;
+        if (target instanceof BuiltInMethodDeclarationNode)
+            return null;
+        String problem = problem(target, arguments, results, tail);
+        if (problem != null) {
+            report.add(site + " not inlined, " + problem);
+            return null;
+        }
+        int size = NodeCounter.count(target.statements);
+        if (size > sizeBudget) {
+            report.add(site + " not inlined, " + size + " nodes is over the budget of " + sizeBudget);
+            return null;
+        }
+        if (growth + size > growthBudget) {
+            report.add(site + " not inlined, the caller has grown by " + growth + " nodes already");
+            return null;
+        }
+        growth += size;
+        inlined++;
+        report.add(site + " inlined (" + size + " nodes)");
+
+        String prefix = "$inline" + nextId++ + "_";
+        Map<String, String> names = new HashMap<>();
+        List<String> parameters = new ArrayList<>();
+        for (VariableDeclarationNode vd : target.parameters) {
+            names.put(vd.name, prefix + vd.name);
+            parameters.add(prefix + vd.name);
+        }
+        List<String> returns = new ArrayList<>();
+        List<VariableDeclarationNode> fresh = new ArrayList<>();
+        for (VariableDeclarationNode vd : target.returns) {
+            names.put(vd.name, prefix + vd.name);
+            returns.add(prefix + vd.name);
+            fresh.add(renamed(vd, prefix));
+        }
+        for (VariableDeclarationNode vd : target.locals) {
+            names.put(vd.name, prefix + vd.name);
+            fresh.add(renamed(vd, prefix));
+        }
+        List<StatementNode> body = new AstCopier(unit.originals).copyStatements(target.statements);
+        rename(body, names);
+        return new InlinedCall(parameters, returns, fresh, body, size);
+    }
+
+    /**
+     * @return why the target can't be inlined at this call site, or null if it can
+     */
+    private String problem(MethodDeclarationNode target, int arguments, int results, boolean tail) {
+        if (target == unit.method)
+            return "it is recursive";
+        // Inside the caller the callee's own tail call would no longer be last, and would take stack again
+        if (tail && TailCalls.hasTailCall(target))
+            return "it is a tail call that makes a tail call";
+        if (target.parameters.size() != arguments || target.returns.size() < results)
+            return "the call doesn't match the declaration";
+        if (target.returns.isEmpty() && results > 0)
+            return "it returns nothing";
+        Set<String> own = new HashSet<>();
+        for (VariableDeclarationNode vd : target.parameters)
+            own.add(vd.name);
+        for (VariableDeclarationNode vd : target.returns)
+            own.add(vd.name);
+        for (VariableDeclarationNode vd : target.locals)
+            own.add(vd.name);
+        Set<String> free = new HashSet<>();
+        if (!freeNames(target.statements, own, free))
+            return "it has a loop";
+        for (String name : free)
+            if (unit.isLocal(name))
+                return "'" + name + "' means something else in the caller";
+        return null;
+    }
+
+    private static VariableDeclarationNode renamed(VariableDeclarationNode vd, String prefix) {
+        VariableDeclarationNode copy = new VariableDeclarationNode();
+        copy.type = vd.type;
+        copy.name = prefix + vd.name;
+        return copy;
+    }
+
+    /**
+     * Collect every name the statements use that isn't one of the callee's own variables.
+     * @return false if the statements contain a loop
+     */
+    static boolean freeNames(List<StatementNode> statements, Set<String> own, Set<String> free) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    free(a.target.name, own, free);
+                    freeNames(a.expression, own, free);
+                }
+                case MethodCallStatementNode mc -> {
+                    mc.objectName.ifPresent(name -> free(name, own, free));
+                    mc.returnValues.forEach(r -> free(r.name, own, free));
+                    mc.parameters.forEach(p -> freeNames(p, own, free));
+                }
+                case IfNode i -> {
+                    freeNames(i.condition, own, free);
+                    if (!freeNames(i.statements, own, free))
+                        return false;
+                    if (i.elseStatement.isPresent() && !freeNames(i.elseStatement.get().statements, own, free))
+                        return false;
+                }
+                case LoopNode l -> {
+                    return false;
+                }
+                default -> { }
+            }
+        }
+        return true;
+    }
+
+    static void freeNames(ExpressionNode e, Set<String> own, Set<String> free) {
+        switch (e) {
+            case VariableReferenceNode vr -> free(vr.name, own, free);
+            case BooleanOpNode b -> {
+                freeNames(b.left, own, free);
+                freeNames(b.right, own, free);
+            }
+            case CompareNode c -> {
+                freeNames(c.left, own, free);
+                freeNames(c.right, own, free);
+            }
+            case MathOpNode m -> {
+                freeNames(m.left, own, free);
+                freeNames(m.right, own, free);
+            }
+            case NotOpNode n -> freeNames(n.left, own, free);
+            case MethodCallExpressionNode mc -> {
+                mc.objectName.ifPresent(name -> free(name, own, free));
+                mc.parameters.forEach(p -> freeNames(p, own, free));
+            }
+            case NewNode n -> n.parameters.forEach(p -> freeNames(p, own, free));
+            default -> { }
+        }
+    }
+
+    private static void free(String name, Set<String> own, Set<String> free) {
+        if (!own.contains(name))
+            free.add(name);
+    }
+
+    //              Renaming
+
+    static void rename(List<StatementNode> statements, Map<String, String> names) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    rename(a.target, names);
+                    rename(a.expression, names);
+                }
+                case MethodCallStatementNode mc -> {
+                    mc.objectName = mc.objectName.map(name -> names.getOrDefault(name, name));
+                    mc.returnValues.forEach(r -> rename(r, names));
+                    mc.parameters.forEach(p -> rename(p, names));
+                }
+                case IfNode i -> {
+                    rename(i.condition, names);
+                    rename(i.statements, names);
+                    if (i.elseStatement.isPresent())
+                        rename(i.elseStatement.get().statements, names);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    private static void rename(ExpressionNode e, Map<String, String> names) {
+        switch (e) {
+            case VariableReferenceNode vr -> vr.name = names.getOrDefault(vr.name, vr.name);
+            case BooleanOpNode b -> {
+                rename(b.left, names);
+                rename(b.right, names);
+            }
+            case CompareNode c -> {
+                rename(c.left, names);
+                rename(c.right, names);
+            }
+            case MathOpNode m -> {
+                rename(m.left, names);
+                rename(m.right, names);
+            }
+            case NotOpNode n -> rename(n.left, names);
+            case MethodCallExpressionNode mc -> {
+                mc.objectName = mc.objectName.map(name -> names.getOrDefault(name, name));
+                mc.parameters.forEach(p -> rename(p, names));
+            }
+            case NewNode n -> n.parameters.forEach(p -> rename(p, names));
+            default -> { }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package Optimizer;
+
+import AST.CompareNode;
+
+/**
+ * A comparison of two sides that IntegerInferencePass proved are always small whole numbers, so the interpreter can
+ * compare them as longs.
+ */
+public class IntegerCompareNode extends CompareNode {
+
+    public IntegerCompareNode(CompareNode c) {
+        left = c.left;
+        right = c.right;
+        op = c.op;
+    }
+}
@@ -0,0 +1,465 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.*;
+
+/**
+ * Proves which number locals and math expressions only ever hold whole numbers between -2^24 and 2^24, and rewrites
+ * the math and comparisons on them into IntegerMathOpNode and IntegerCompareNode, which the interpreter runs in long
+ * arithmetic. Every whole number in that range is exact in a float, and so is the result of +, -, * or % on two of
+ * them when the result is in the range too, so the long result is exactly the float one. The only difference a
+ * program could see is the sign of a zero (0 * -3 is -0.0 in a float), so the interpreter redoes a zero result in
+ * float math.
+ *
+ * This is an interval analysis over the method body. Locals start at 0 and parameters could be anything. An
+ * assignment gives the target the range of its value; a call that could assign a variable (its return values, or an
+ * argument passed by reference) forgets what we knew about it. Loops go round until nothing changes; a bound that is
+ * still growing after a few trips is widened to the end of the range, and the loop condition ("i < 1000") brings it
+ * back down inside the body. A value that might leave the range is unknown from then on.
+ *
+ * An OSR copy of a loop is entered part way through the method, so the analysis runs over the whole original method
+ * first to find what is true at the top of the loop.
+ */
+public class IntegerInferencePass implements OptimizationPass {
+    /** every whole number up to this size is exact in a float (see TypeFeedback.isIntegral()) */
+    private static final long LIMIT = 1 << 24;
+    /** how many trips round a loop before growing bounds are widened */
+    private static final int WIDEN_AFTER = 2;
+
+    /**
+     * A whole number from lo to hi. A variable that might hold anything else has no range at all.
+     */
+    private record Range(long lo, long hi) {
+        /**
+         * @return the range, or null if it goes outside the exact float range
+         */
+        static Range of(long lo, long hi) {
+            return lo < -LIMIT || hi > LIMIT ? null : new Range(lo, hi);
+        }
+
+        static Range join(Range a, Range b) {
+            return a == null || b == null ? null : new Range(Math.min(a.lo, b.lo), Math.max(a.hi, b.hi));
+        }
+    }
+
+    private CompilationUnit unit;
+    /** rewrite nodes on the final walk (false while looking at the original method for an OSR copy) */
+    private boolean modify;
+    /** the original loop of an OSR copy, and what is true at its top */
+    private LoopNode capture;
+    private Map<String, Range> captured;
+    private long mathOps;
+    private long compares;
+
+    @Override
+    public String name() {
+        return "integer inference";
+    }
+
+    /**
+     * @return how many math operations now run in long arithmetic, over every method compiled
+     */
+    public long getIntegerMathOps() {
+        return mathOps;
+    }
+
+    public long getIntegerCompares() {
+        return compares;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        Map<String, Range> entry = new HashMap<>();
+        if (unit.compiled instanceof CompiledLoop loop) {
+            capture = loop.source;
+            captured = null;
+            modify = false;
+            Map<String, Range> start = new HashMap<>();
+            for (VariableDeclarationNode vd : unit.method.returns)
+                set(start, vd.name, new Range(0, 0));
+            for (VariableDeclarationNode vd : unit.method.locals)
+                set(start, vd.name, new Range(0, 0));
+            walk(unit.method.statements, start, true);
+            if (captured != null)
+                entry = captured;
+            capture = null;
+        } else {
+            for (VariableDeclarationNode vd : unit.method.returns)
+                set(entry, vd.name, new Range(0, 0));
+            for (VariableDeclarationNode vd : unit.compiled.locals)
+                set(entry, vd.name, new Range(0, 0));
+        }
+        modify = true;
+        walk(unit.compiled.statements, entry, true);
+    }
+
+    //              Analysis
+
+    /**
+     * Work out what is true after the statements, given what is true before them.
+     * @param env - variable name -> range; changed in place
+     * @param last - this is the last time these statements are looked at, so rewrite them
+     */
+    private void walk(List<StatementNode> statements, Map<String, Range> env, boolean last) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    clobber(a.expression, env);
+                    Range value = range(a.expression, env);
+                    if (last)
+                        a.expression = rewrite(a.expression, env);
+                    set(env, a.target.name, value);
+                }
+                case MethodCallStatementNode mc -> {
+                    mc.parameters.forEach(p -> clobber(p, env));
+                    if (last)
+                        rewrite(mc.parameters, env);
+                    call(mc, mc.objectName, mc.methodName, mc.parameters, env);
+                    if (mc instanceof InlinedCallStatementNode ic)
+                        forget(ic.inlined.body, env);
+                    mc.returnValues.forEach(r -> env.remove(r.name));
+                }
+                case IfNode i -> {
+                    clobber(i.condition, env);
+                    if (last)
+                        i.condition = rewrite(i.condition, env);
+                    Map<String, Range> taken = new HashMap<>(env);
+                    refine(i.condition, taken);
+                    walk(i.statements, taken, last);
+                    Map<String, Range> other = new HashMap<>(env);
+                    if (i.elseStatement.isPresent())
+                        walk(i.elseStatement.get().statements, other, last);
+                    replace(env, join(taken, other));
+                }
+                case LoopNode l -> loop(l, env, last);
+                case ScalarAllocationNode sa -> {
+                    sa.parameters.forEach(p -> clobber(p, env));
+                    if (last)
+                        rewrite(sa.parameters, env);
+                    for (ExpressionNode p : sa.parameters)
+                        if (p instanceof VariableReferenceNode vr)
+                            env.remove(vr.name);
+                    sa.fields.forEach(f -> env.remove(f.name));
+                    forget(sa.constructor.body, env);
+                }
+                default -> env.clear();
+            }
+        }
+    }
+
+    private void loop(LoopNode l, Map<String, Range> env, boolean last) {
+        boolean times = l.expression instanceof MethodCallExpressionNode mc && mc.methodName.equals("times");
+        Map<String, Range> head = new HashMap<>(env);
+        for (int trip = 0; ; trip++) {
+            Map<String, Range> next = join(head, body(l, head, times, false));
+            if (next.equals(head))
+                break;
+            head = trip < WIDEN_AFTER ? next : widen(head, next);
+        }
+        // Widening may have overshot; one more trip from the fixed point is still true and usually tighter
+        Map<String, Range> narrowed = join(env, body(l, head, times, false));
+        if (narrowed.equals(join(narrowed, head)))
+            head = narrowed;
+        if (last) {
+            if (l == capture)
+                captured = new HashMap<>(head);
+            if (!times) {
+                Map<String, Range> test = new HashMap<>(head);
+                clobber(l.expression, test);
+                l.expression = rewrite(l.expression, test);
+            }
+            body(l, head, times, true);
+        }
+        replace(env, head);
+    }
+
+    /**
+     * @return what is true at the end of one trip round the loop, starting from "head"
+     */
+    private Map<String, Range> body(LoopNode l, Map<String, Range> head, boolean times, boolean last) {
+        Map<String, Range> env = new HashMap<>(head);
+        if (!times) {
+            clobber(l.expression, env);
+            refine(l.expression, env);
+        } else {
+            // number.times(count) works its count out first
+            for (ExpressionNode p : ((MethodCallExpressionNode) l.expression).parameters)
+                clobber(p, env);
+            // Every times() sets its variable before each trip, to 0, 1, ... count - 1. x.times() reads x again every
+            // time around, but x is always in its range at the head.
+            if (l.assignment.isPresent()) {
+                MethodCallExpressionNode mc = (MethodCallExpressionNode) l.expression;
+                Range trips = null;
+                if (mc.objectName.equals(Optional.of("number")) && mc.parameters.size() == 1)
+                    trips = range(mc.parameters.get(0), env);
+                else if (mc.objectName.isPresent() && mc.parameters.isEmpty())
+                    trips = head.get(mc.objectName.get());
+                set(env, l.assignment.get().name, trips == null ? null : Range.of(0, Math.max(0, trips.hi - 1)));
+            }
+        }
+        walk(l.statements, env, last);
+        if (!times && l.assignment.isPresent())
+            set(env, l.assignment.get().name, null);
+        return env;
+    }
+
+    /**
+     * A call that might assign to its parameters changes any variable passed to it.
+     */
+    private void call(Node call, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, Map<String, Range> env) {
+        if (!unit.purity.hasSideEffects(call, objectName, methodName, parameters, unit::declaredType))
+            return;
+        for (ExpressionNode p : parameters)
+            if (p instanceof VariableReferenceNode vr)
+                env.remove(vr.name);
+    }
+
+    /**
+     * Forget what we know about any variable that calls inside the expression might change. We don't know in which
+     * order the expression reads and changes them, so this is done before any of it is looked at.
+     */
+    private void clobber(ExpressionNode e, Map<String, Range> env) {
+        switch (e) {
+            case BooleanOpNode b -> {
+                clobber(b.left, env);
+                clobber(b.right, env);
+            }
+            case CompareNode c -> {
+                clobber(c.left, env);
+                clobber(c.right, env);
+            }
+            case MathOpNode m -> {
+                clobber(m.left, env);
+                clobber(m.right, env);
+            }
+            case NotOpNode n -> clobber(n.left, env);
+            case MethodCallExpressionNode mc -> {
+                mc.parameters.forEach(p -> clobber(p, env));
+                call(mc, mc.objectName, mc.methodName, mc.parameters, env);
+                if (mc instanceof InlinedCallExpressionNode ic)
+                    forget(ic.inlined.body, env);
+            }
+            case NewNode n -> {
+                n.parameters.forEach(p -> clobber(p, env));
+                for (ExpressionNode p : n.parameters)
+                    if (p instanceof VariableReferenceNode vr)
+                        env.remove(vr.name);
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Forget every variable the statements assign to. Used for copied bodies, which run on the caller's locals.
+     */
+    private static void forget(List<StatementNode> statements, Map<String, Range> env) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> env.remove(a.target.name);
+                case InlinedCallStatementNode ic -> {
+                    ic.returnValues.forEach(r -> env.remove(r.name));
+                    forget(ic.inlined.body, env);
+                }
+                case MethodCallStatementNode mc -> mc.returnValues.forEach(r -> env.remove(r.name));
+                case IfNode i -> {
+                    forget(i.statements, env);
+                    if (i.elseStatement.isPresent())
+                        forget(i.elseStatement.get().statements, env);
+                }
+                case LoopNode l -> {
+                    l.assignment.ifPresent(v -> env.remove(v.name));
+                    forget(l.statements, env);
+                }
+                default -> { }
+            }
+        }
+    }
+
+    /**
+     * Narrow the ranges of variables compared against a known range, for the code that runs when the condition is true.
+     */
+    private void refine(ExpressionNode condition, Map<String, Range> env) {
+        if (condition instanceof BooleanOpNode b && b.op == BooleanOpNode.BooleanOperations.and) {
+            refine(b.left, env);
+            refine(b.right, env);
+        } else if (condition instanceof CompareNode c) {
+            if (c.left instanceof VariableReferenceNode vr)
+                refine(vr.name, c.op, range(c.right, env), env);
+            if (c.right instanceof VariableReferenceNode vr)
+                refine(vr.name, flip(c.op), range(c.left, env), env);
+        }
+    }
+
+    private static void refine(String name, CompareNode.CompareOperations op, Range bound, Map<String, Range> env) {
+        Range current = env.get(name);
+        if (current == null || bound == null)
+            return;
+        long lo = current.lo, hi = current.hi;
+        switch (op) {
+            case lt -> hi = Math.min(hi, bound.hi - 1);
+            case le -> hi = Math.min(hi, bound.hi);
+            case gt -> lo = Math.max(lo, bound.lo + 1);
+            case ge -> lo = Math.max(lo, bound.lo);
+            case eq -> {
+                lo = Math.max(lo, bound.lo);
+                hi = Math.min(hi, bound.hi);
+            }
+            case ne -> { }
+        }
+        // An empty range means the branch can't run; keeping what we had is still true
+        if (lo <= hi)
+            env.put(name, new Range(lo, hi));
+    }
+
+    private static CompareNode.CompareOperations flip(CompareNode.CompareOperations op) {
+        return switch (op) {
+            case lt -> CompareNode.CompareOperations.gt;
+            case le -> CompareNode.CompareOperations.ge;
+            case gt -> CompareNode.CompareOperations.lt;
+            case ge -> CompareNode.CompareOperations.le;
+            default -> op;
+        };
+    }
+
+    /**
+     * @return the range of a number expression, or null if it might not be a whole number in the exact float range
+     */
+    private Range range(ExpressionNode e, Map<String, Range> env) {
+        switch (e) {
+            case NumericLiteralNode n -> {
+                long v = (long) n.value;
+                return v == n.value ? Range.of(v, v) : null;
+            }
+            case VariableReferenceNode vr -> {
+                return env.get(vr.name);
+            }
+            case MathOpNode m -> {
+                Range l = range(m.left, env), r = range(m.right, env);
+                if (l == null || r == null)
+                    return null;
+                return switch (m.op) {
+                    case add -> Range.of(l.lo + r.lo, l.hi + r.hi);
+                    case subtract -> Range.of(l.lo - r.hi, l.hi - r.lo);
+                    case multiply -> {
+                        long a = l.lo * r.lo, b = l.lo * r.hi, c = l.hi * r.lo, d = l.hi * r.hi;
+                        yield Range.of(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+                    }
+                    case modulo -> {
+                        // x % 0 is NaN in a float, so the divisor must not be able to be 0
+                        if (r.lo <= 0 && r.hi >= 0)
+                            yield null;
+                        long m1 = Math.max(Math.abs(r.lo), Math.abs(r.hi)) - 1;
+                        yield Range.of(l.lo >= 0 ? 0 : Math.max(l.lo, -m1), l.hi <= 0 ? 0 : Math.min(l.hi, m1));
+                    }
+                    case divide -> null;
+                };
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private void set(Map<String, Range> env, String name, Range range) {
+        if (range != null && unit.isLocal(name) && "number".equals(unit.declaredType(name)))
+            env.put(name, range);
+        else
+            env.remove(name);
+    }
+
+    private static Map<String, Range> join(Map<String, Range> a, Map<String, Range> b) {
+        Map<String, Range> out = new HashMap<>();
+        for (Map.Entry<String, Range> e : a.entrySet()) {
+            Range joined = Range.join(e.getValue(), b.get(e.getKey()));
+            if (joined != null)
+                out.put(e.getKey(), joined);
+        }
+        return out;
+    }
+
+    private static Map<String, Range> widen(Map<String, Range> old, Map<String, Range> next) {
+        Map<String, Range> out = new HashMap<>();
+        for (Map.Entry<String, Range> e : next.entrySet()) {
+            Range was = old.get(e.getKey()), now = e.getValue();
+            if (was == null)
+                continue;
+            out.put(e.getKey(), new Range(now.lo < was.lo ? -LIMIT : was.lo, now.hi > was.hi ? LIMIT : was.hi));
+        }
+        return out;
+    }
+
+    private static void replace(Map<String, Range> env, Map<String, Range> with) {
+        env.clear();
+        env.putAll(with);
+    }
+
+    //              Rewriting
+
+    private void rewrite(List<ExpressionNode> expressions, Map<String, Range> env) {
+        for (int i = 0; i < expressions.size(); i++)
+            expressions.set(i, rewrite(expressions.get(i), env));
+    }
+
+    /**
+     * Replace the biggest whole-number math trees and comparisons in the expression. Inlined bodies are left alone.
+     */
+    private ExpressionNode rewrite(ExpressionNode e, Map<String, Range> env) {
+        if (!modify)
+            return e;
+        switch (e) {
+            case IntegerMathOpNode m -> {
+                return m;
+            }
+            case MathOpNode m -> {
+                if (range(m, env) != null)
+                    return integer(m);
+                m.left = rewrite(m.left, env);
+                m.right = rewrite(m.right, env);
+                return m;
+            }
+            case CompareNode c -> {
+                boolean whole = range(c.left, env) != null && range(c.right, env) != null;
+                c.left = rewrite(c.left, env);
+                c.right = rewrite(c.right, env);
+                if (!whole || c instanceof IntegerCompareNode)
+                    return c;
+                compares++;
+                return unit.replace(c, new IntegerCompareNode(c));
+            }
+            case BooleanOpNode b -> {
+                b.left = rewrite(b.left, env);
+                b.right = rewrite(b.right, env);
+                return b;
+            }
+            case NotOpNode n -> {
+                n.left = rewrite(n.left, env);
+                return n;
+            }
+            case MethodCallExpressionNode mc -> {
+                rewrite(mc.parameters, env);
+                return mc;
+            }
+            case NewNode n -> {
+                rewrite(n.parameters, env);
+                return n;
+            }
+            default -> {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * @param m - a math tree whose range (and so the range of every part of it) is known
+     */
+    private ExpressionNode integer(MathOpNode m) {
+        if (m.left instanceof MathOpNode l && !(l instanceof IntegerMathOpNode))
+            m.left = integer(l);
+        if (m.right instanceof MathOpNode r && !(r instanceof IntegerMathOpNode))
+            m.right = integer(r);
+        mathOps++;
+        return unit.replace(m, new IntegerMathOpNode(m));
+    }
+}
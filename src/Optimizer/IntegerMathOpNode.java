@@ -0,0 +1,17 @@
+package Optimizer;
+
+import AST.MathOpNode;
+
+/**
+ * A math operation that IntegerInferencePass proved only ever sees whole numbers small enough to be exact in a float,
+ * with a result that is too. The interpreter does the whole expression tree under it in long arithmetic and only makes
+ * a number value for the result; there is nothing to guard, since the proof holds for every run.
+ */
+public class IntegerMathOpNode extends MathOpNode {
+
+    public IntegerMathOpNode(MathOpNode mop) {
+        left = mop.left;
+        right = mop.right;
+        op = mop.op;
+    }
+}
@@ -0,0 +1,97 @@
+package Optimizer;
+
+import AST.*;
+import Interpreter.TypeFeedback;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Builds the optimized tier of a method: copy the body, then run every pass over the copy in order.
+ * The original AST is never modified, so the interpreter can always fall back to it.
+ */
+public class MethodCompiler {
+    private final TranNode top;
+    private final TypeFeedback feedback;
+    private final PurityAnalysis purity;
+    private final List<OptimizationPass> passes = new ArrayList<>();
+
+    public MethodCompiler(TranNode top, TypeFeedback feedback) {
+        this.top = top;
+        this.feedback = feedback;
+        this.purity = new PurityAnalysis(top);
+        passes.add(new ConstantFoldingPass());
+        passes.add(new CallBindingPass());
+        passes.add(new InliningPass());
+        passes.add(new BranchLayoutPass());
+        passes.add(new ScalarReplacementPass());
+        passes.add(new CodeMotionPass());
+        passes.add(new TypeSpecializationPass());
+        passes.add(new IntegerInferencePass());
+    }
+
+    public List<OptimizationPass> getPasses() {
+        return passes;
+    }
+
+    /**
+     * @return the first pass of the given type, if there is one
+     */
+    public <T extends OptimizationPass> Optional<T> getPass(Class<T> type) {
+        for (OptimizationPass pass : passes)
+            if (type.isInstance(pass))
+                return Optional.of(type.cast(pass));
+        return Optional.empty();
+    }
+
+    /**
+     * @param useIR - if true, method bodies go through the SSA IR (IROptimizationPass) before the other passes
+     */
+    public void setUseIR(boolean useIR) {
+        passes.removeIf(p -> p instanceof IROptimizationPass);
+        if (useIR)
+            passes.addFirst(new IROptimizationPass());
+    }
+
+    public boolean isUsingIR() {
+        return !passes.isEmpty() && passes.getFirst() instanceof IROptimizationPass;
+    }
+
+    public CompiledMethod compile(ClassNode owner, MethodDeclarationNode m) {
+        return compile(owner, m, feedback);
+    }
+
+    /**
+     * @param feedback - what to optimize for: a snapshot of the live feedback, when compiling on another thread
+     */
+    public CompiledMethod compile(ClassNode owner, MethodDeclarationNode m, TypeFeedback feedback) {
+        IdentityHashMap<Node, Node> originals = new IdentityHashMap<>();
+        AstCopier copier = new AstCopier(originals);
+        CompiledMethod compiled = new CompiledMethod(m, m.locals, copier.copyStatements(m.statements));
+        CompilationUnit unit = new CompilationUnit(top, owner, m, compiled, originals, feedback, purity);
+        for (OptimizationPass pass : passes)
+            pass.run(unit);
+        return compiled;
+    }
+
+    /**
+     * Compile one loop of a method, for on-stack replacement. The passes see a method body that is just the loop.
+     */
+    public CompiledLoop compileLoop(ClassNode owner, MethodDeclarationNode m, LoopNode loop) {
+        return compileLoop(owner, m, loop, feedback);
+    }
+
+    public CompiledLoop compileLoop(ClassNode owner, MethodDeclarationNode m, LoopNode loop, TypeFeedback feedback) {
+        IdentityHashMap<Node, Node> originals = new IdentityHashMap<>();
+        AstCopier copier = new AstCopier(originals);
+        CompiledLoop compiled = new CompiledLoop(m, loop, m.locals, List.of(copier.copyStatement(loop)));
+        CompilationUnit unit = new CompilationUnit(top, owner, m, compiled, originals, feedback, purity);
+        for (OptimizationPass pass : passes)
+            pass.run(unit);
+        if (compiled.statements.size() != 1 || !(compiled.statements.getFirst() instanceof LoopNode))
+            throw new IllegalStateException("Loop was optimized away; nothing to enter");
+        return compiled;
+    }
+}
@@ -0,0 +1,50 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.List;
+
+/**
+ * Measures code size in AST nodes: every statement, expression and assignment target counts as one. Passes use it to
+ * report how much they removed and to decide what is small enough to inline.
+ */
+public class NodeCounter {
+
+    public static int count(List<StatementNode> statements) {
+        int n = 0;
+        for (StatementNode s : statements) {
+            n++;
+            switch (s) {
+                case InlinedCallStatementNode ic -> n += ic.returnValues.size() + ic.parameters.stream().mapToInt(NodeCounter::count).sum() + count(ic.inlined.body);
+                case AssignmentNode a -> n += 1 + count(a.expression);
+                case MethodCallStatementNode mc -> {
+                    n += mc.returnValues.size();
+                    for (ExpressionNode p : mc.parameters)
+                        n += count(p);
+                }
+                case IfNode i -> {
+                    n += count(i.condition) + count(i.statements);
+                    if (i.elseStatement.isPresent())
+                        n += count(i.elseStatement.get().statements);
+                }
+                case ScalarAllocationNode sa -> n += 1 + sa.parameters.stream().mapToInt(NodeCounter::count).sum() + count(sa.constructor.body);
+                case LoopNode l -> n += (l.assignment.isPresent() ? 1 : 0) + count(l.expression) + count(l.statements);
+                default -> { }
+            }
+        }
+        return n;
+    }
+
+    public static int count(ExpressionNode e) {
+        return 1 + switch (e) {
+            case BooleanOpNode b -> count(b.left) + count(b.right);
+            case CompareNode c -> count(c.left) + count(c.right);
+            case MathOpNode m -> count(m.left) + count(m.right);
+            case NotOpNode n -> count(n.left);
+            case InlinedCallExpressionNode ic -> ic.parameters.stream().mapToInt(NodeCounter::count).sum() + count(ic.inlined.body);
+            case MethodCallExpressionNode mc -> mc.parameters.stream().mapToInt(NodeCounter::count).sum();
+            case NewNode n -> n.parameters.stream().mapToInt(NodeCounter::count).sum();
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,9 @@
+package Optimizer;
+
+/**
+ * One step of the optimizing compiler. Passes rewrite unit.compiled in place.
+ */
+public interface OptimizationPass {
+    String name();
+    void run(CompilationUnit unit);
+}
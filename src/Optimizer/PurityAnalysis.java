@@ -0,0 +1,182 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Works out which methods of a program are pure and which expressions are safe to move or remove.
+ *
+ * A method is pure if calling it can't change anything the caller could see and always finishes without an error:
+ * it only reads its own parameters, return values and locals (never a member), only assigns to its return values and
+ * locals (Tran passes variables by reference, so assigning to a parameter changes the caller's variable), only calls
+ * other pure shared methods, creates no objects and has no loops (we can't tell whether a loop ends) and no recursion.
+ *
+ * An expression is safe if evaluating it has no side effect and can't fail: literals, declared variables, operators
+ * whose operand types are known to fit, and calls to pure methods with arguments of the declared parameter types.
+ * Safe expressions can be removed when their value isn't used, evaluated earlier than they would have been, or
+ * evaluated once instead of twice.
+ */
+public class PurityAnalysis {
+    private final TranNode top;
+    private final IdentityHashMap<MethodDeclarationNode, Boolean> pure = new IdentityHashMap<>();
+
+    public PurityAnalysis(TranNode top) {
+        this.top = top;
+    }
+
+    public boolean isPure(MethodDeclarationNode m) {
+        Boolean known = pure.get(m);
+        if (known != null)
+            return known;
+        // Anything that reaches itself again while we are still looking at it is recursive, so not pure
+        pure.put(m, false);
+        boolean result = !(m instanceof BuiltInMethodDeclarationNode) && checkBody(m);
+        pure.put(m, result);
+        return result;
+    }
+
+    private boolean checkBody(MethodDeclarationNode m) {
+        Map<String, String> own = new HashMap<>();
+        Set<String> writable = new HashSet<>();
+        for (VariableDeclarationNode vd : m.parameters)
+            own.put(vd.name, vd.type);
+        for (VariableDeclarationNode vd : m.returns) {
+            own.put(vd.name, vd.type);
+            writable.add(vd.name);
+        }
+        for (VariableDeclarationNode vd : m.locals) {
+            own.put(vd.name, vd.type);
+            writable.add(vd.name);
+        }
+        return checkStatements(m.statements, own, writable);
+    }
+
+    private boolean checkStatements(List<StatementNode> statements, Map<String, String> own, Set<String> writable) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case AssignmentNode a -> {
+                    if (!writable.contains(a.target.name) || !own.get(a.target.name).equals(typeOf(a.expression, own::get)))
+                        return false;
+                }
+                case MethodCallStatementNode mc -> {
+                    MethodDeclarationNode target = pureTarget(mc, mc.objectName, mc.methodName, mc.parameters, own::get);
+                    if (target == null || mc.returnValues.size() > target.returns.size())
+                        return false;
+                    for (int i = 0; i < mc.returnValues.size(); i++) {
+                        String name = mc.returnValues.get(i).name;
+                        if (!writable.contains(name) || !own.get(name).equals(target.returns.get(i).type))
+                            return false;
+                    }
+                }
+                case IfNode i -> {
+                    if (!"boolean".equals(typeOf(i.condition, own::get)) || !checkStatements(i.statements, own, writable))
+                        return false;
+                    if (i.elseStatement.isPresent() && !checkStatements(i.elseStatement.get().statements, own, writable))
+                        return false;
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param declaredType - the type of a variable name as seen where the expression is, or null if it isn't declared
+     * @return the type name of a safe expression, or null if it might have a side effect or fail
+     */
+    public String typeOf(ExpressionNode e, Function<String, String> declaredType) {
+        switch (e) {
+            case NumericLiteralNode n -> {
+                return "number";
+            }
+            case StringLiteralNode s -> {
+                return "string";
+            }
+            case CharLiteralNode c -> {
+                return "character";
+            }
+            case BooleanLiteralNode b -> {
+                return "boolean";
+            }
+            case VariableReferenceNode vr -> {
+                return declaredType.apply(vr.name);
+            }
+            case MathOpNode mop -> {
+                String left = typeOf(mop.left, declaredType), right = typeOf(mop.right, declaredType);
+                if (left == null || !left.equals(right))
+                    return null;
+                return left.equals("number") || (left.equals("string") && mop.op == MathOpNode.MathOperations.add) ? left : null;
+            }
+            case CompareNode c -> {
+                String left = typeOf(c.left, declaredType), right = typeOf(c.right, declaredType);
+                if (left == null || !left.equals(right))
+                    return null;
+                boolean ordered = left.equals("number") || left.equals("string") || left.equals("character");
+                boolean equality = c.op == CompareNode.CompareOperations.eq || c.op == CompareNode.CompareOperations.ne;
+                return ordered || (left.equals("boolean") && equality) ? "boolean" : null;
+            }
+            case BooleanOpNode bop -> {
+                return "boolean".equals(typeOf(bop.left, declaredType)) && "boolean".equals(typeOf(bop.right, declaredType)) ? "boolean" : null;
+            }
+            case NotOpNode n -> {
+                return "boolean".equals(typeOf(n.left, declaredType)) ? "boolean" : null;
+            }
+            case MethodCallExpressionNode mc -> {
+                MethodDeclarationNode target = pureTarget(mc, mc.objectName, mc.methodName, mc.parameters, declaredType);
+                return target == null || target.returns.isEmpty() ? null : target.returns.getFirst().type;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the pure method a call runs, if the call can't fail (no receiver to check, arguments of the right types)
+     */
+    public MethodDeclarationNode pureTarget(Node call, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, Function<String, String> declaredType) {
+        MethodDeclarationNode target = null;
+        if (call instanceof BoundMethodCallStatementNode b)
+            target = b.binding.receiverKind == CallBinding.ReceiverKind.STATIC || b.binding.receiverKind == CallBinding.ReceiverKind.SELF ? b.binding.target : null;
+        else if (call instanceof BoundMethodCallExpressionNode b)
+            target = b.binding.receiverKind == CallBinding.ReceiverKind.STATIC || b.binding.receiverKind == CallBinding.ReceiverKind.SELF ? b.binding.target : null;
+        else if (objectName.isPresent() && declaredType.apply(objectName.get()) == null)
+            target = sharedMethod(objectName.get(), methodName);
+        if (target == null || target.parameters.size() != parameters.size() || !isPure(target))
+            return null;
+        for (int i = 0; i < parameters.size(); i++)
+            if (!target.parameters.get(i).type.equals(typeOf(parameters.get(i), declaredType)))
+                return null;
+        return target;
+    }
+
+    /**
+     * @return true if the call might change a variable or member the caller can see. Built-in methods only
+     * produce output, so they don't count.
+     */
+    public boolean hasSideEffects(Node call, Optional<String> objectName, String methodName, List<ExpressionNode> parameters, Function<String, String> declaredType) {
+        if (call instanceof BoundMethodCallStatementNode b)
+            return !(b.binding.target instanceof BuiltInMethodDeclarationNode) && pureTarget(call, objectName, methodName, parameters, declaredType) == null;
+        if (call instanceof BoundMethodCallExpressionNode b)
+            return !(b.binding.target instanceof BuiltInMethodDeclarationNode) && pureTarget(call, objectName, methodName, parameters, declaredType) == null;
+        if (objectName.isPresent() && declaredType.apply(objectName.get()) == null) {
+            MethodDeclarationNode target = sharedMethod(objectName.get(), methodName);
+            if (target instanceof BuiltInMethodDeclarationNode)
+                return false;
+        }
+        return pureTarget(call, objectName, methodName, parameters, declaredType) == null;
+    }
+
+    private MethodDeclarationNode sharedMethod(String className, String methodName) {
+        for (ClassNode c : top.Classes)
+            if (c.name.equals(className))
+                for (MethodDeclarationNode m : c.methods)
+                    if (m.name.equals(methodName) && (m.isShared || m instanceof BuiltInMethodDeclarationNode))
+                        return m;
+        return null;
+    }
+}
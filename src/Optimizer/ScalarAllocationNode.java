@@ -0,0 +1,34 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.List;
+
+/**
+ * Stands in for "variable = new SomeClass(...)" when the object never escapes the method (see ScalarReplacementPass).
+ * Instead of allocating an object, the interpreter resets the locals that hold the object's members to their default
+ * values and runs a copy of the constructor on them.
+ */
+public class ScalarAllocationNode implements StatementNode {
+    /** the variable the object was assigned to */
+    public final String variable;
+    public final ClassNode type;
+    /** the locals that stand in for the members, in the order of the class's members */
+    public final List<VariableDeclarationNode> fields;
+    public final List<ExpressionNode> parameters;
+    /** the constructor that would have run, renamed like an inlined call (and with the members renamed to the fields) */
+    public final InlinedCall constructor;
+
+    public ScalarAllocationNode(String variable, ClassNode type, List<VariableDeclarationNode> fields, List<ExpressionNode> parameters, InlinedCall constructor) {
+        this.variable = variable;
+        this.type = type;
+        this.fields = fields;
+        this.parameters = parameters;
+        this.constructor = constructor;
+    }
+
+    @Override
+    public String toString() {
+        return variable + " = scalar " + type.name + "(" + Node.parameterListToString(parameters) + ")\n";
+    }
+}
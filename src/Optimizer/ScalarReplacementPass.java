@@ -0,0 +1,406 @@
+package Optimizer;
+
+import AST.*;
+
+import java.util.*;
+
+/**
+ * Escape analysis and scalar replacement. A local of a class type doesn't escape if it only ever gets objects from
+ * "new" of its own class, and the only other thing the method does with it is call methods on it that were inlined.
+ * Nothing else can then see the object, so it doesn't have to exist: each of its members becomes a local of the
+ * method, every "local = new SomeClass(...)" becomes a ScalarAllocationNode that resets those locals and runs the
+ * constructor on them, and the inlined calls run on the locals instead of an object.
+ *
+ * The object must be created before every call on it (so a call can never see the object the local started out with),
+ * and the constructor and the inlined bodies may only use the object's members, their own variables and shared
+ * methods - a call on the object itself would need the object.
+ */
+public class ScalarReplacementPass extends AstRewriter implements OptimizationPass {
+    private final List<String> report = new ArrayList<>();
+    private long replaced;
+    private CompilationUnit unit;
+    private int nextId;
+    private final IdentityHashMap<AssignmentNode, ScalarAllocationNode> allocations = new IdentityHashMap<>();
+
+    @Override
+    public String name() {
+        return "scalar replacement";
+    }
+
+    /**
+     * @return how many "new" sites were replaced, over every method compiled
+     */
+    public long getReplacedAllocations() {
+        return replaced;
+    }
+
+    /**
+     * @return one line per local that is created with "new": "caller: Class local replaced by n locals" or why not
+     */
+    public List<String> getReport() {
+        return report;
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        nextId = 0;
+        for (VariableDeclarationNode vd : new ArrayList<>(unit.compiled.locals)) {
+            ClassNode type = unit.findClass(vd.type);
+            if (type == null)
+                continue;
+            Uses uses = new Uses(vd.name, type);
+            uses.scan(unit.compiled.statements, false);
+            if (uses.allocations.isEmpty())
+                continue;
+            String site = unit.owner.name + "." + unit.method.name + ": " + type.name + " " + vd.name;
+            String problem = uses.problem != null ? uses.problem : problem(uses);
+            if (problem != null) {
+                report.add(site + " not replaced, " + problem);
+                continue;
+            }
+            replace(vd, uses);
+            report.add(site + " replaced by " + type.members.size() + " locals");
+        }
+    }
+
+    //              Escape analysis
+
+    /**
+     * Everything a method does with one local, or the first thing it does that lets the object escape.
+     */
+    private class Uses {
+        final String name;
+        final ClassNode type;
+        final List<AssignmentNode> allocations = new ArrayList<>();
+        /** the InlinedCallStatementNodes and InlinedCallExpressionNodes on the local */
+        final List<BoundMethodCallStatementNode> statementCalls = new ArrayList<>();
+        final List<BoundMethodCallExpressionNode> expressionCalls = new ArrayList<>();
+        String problem;
+
+        Uses(String name, ClassNode type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        void escape(String why) {
+            if (problem == null)
+                problem = why;
+        }
+
+        /**
+         * @param created - has the local definitely been given a new object before these statements run?
+         * @return whether it definitely has afterwards
+         */
+        boolean scan(List<StatementNode> statements, boolean created) {
+            for (StatementNode s : statements) {
+                switch (s) {
+                    case AssignmentNode a -> {
+                        if (a.target.name.equals(name)) {
+                            if (a.expression instanceof NewNode n && n.className.equals(type.name)) {
+                                boolean knownCreated = created;
+                                n.parameters.forEach(p -> scan(p, knownCreated));
+                                allocations.add(a);
+                                created = true;
+                            } else
+                                escape("it is assigned something other than a new " + type.name);
+                        } else
+                            scan(a.expression, created);
+                    }
+                    case InlinedCallStatementNode ic -> {
+                        boolean onLocal = ic.objectName.isPresent() && ic.objectName.get().equals(name);
+                        boolean knownCreated = created;
+                        ic.parameters.forEach(p -> scan(p, knownCreated));
+                        if (onLocal && call(ic.binding, created))
+                            statementCalls.add(ic);
+                        returnedInto(ic.returnValues);
+                    }
+                    case MethodCallStatementNode mc -> {
+                        boolean knownCreated = created;
+                        mc.parameters.forEach(p -> scan(p, knownCreated));
+                        if (mc.objectName.isPresent() && mc.objectName.get().equals(name))
+                            escape(mc.methodName + "() is called on it without being inlined");
+                        returnedInto(mc.returnValues);
+                    }
+                    case IfNode i -> {
+                        scan(i.condition, created);
+                        boolean taken = scan(i.statements, created);
+                        boolean other = i.elseStatement.isPresent() ? scan(i.elseStatement.get().statements, created) : created;
+                        created = taken && other;
+                    }
+                    case LoopNode l -> {
+                        if (l.assignment.isPresent() && l.assignment.get().name.equals(name))
+                            escape("a loop assigns to it");
+                        scan(l.expression, created);
+                        // The first trip round the loop only knows what was known before it
+                        scan(l.statements, created);
+                    }
+                    case ScalarAllocationNode sa -> {
+                        boolean knownCreated = created;
+                        sa.parameters.forEach(p -> scan(p, knownCreated));
+                    }
+                    default -> { }
+                }
+            }
+            return created;
+        }
+
+        void scan(ExpressionNode e, boolean created) {
+            switch (e) {
+                case VariableReferenceNode vr -> {
+                    if (vr.name.equals(name))
+                        escape("it is used as a value");
+                }
+                case BooleanOpNode b -> {
+                    scan(b.left, created);
+                    scan(b.right, created);
+                }
+                case CompareNode c -> {
+                    scan(c.left, created);
+                    scan(c.right, created);
+                }
+                case MathOpNode m -> {
+                    scan(m.left, created);
+                    scan(m.right, created);
+                }
+                case NotOpNode n -> scan(n.left, created);
+                case InlinedCallExpressionNode ic -> {
+                    ic.parameters.forEach(p -> scan(p, created));
+                    if (ic.objectName.isPresent() && ic.objectName.get().equals(name) && call(ic.binding, created))
+                        expressionCalls.add(ic);
+                }
+                case MethodCallExpressionNode mc -> {
+                    mc.parameters.forEach(p -> scan(p, created));
+                    if (mc.objectName.isPresent() && mc.objectName.get().equals(name))
+                        escape(mc.methodName + "() is called on it without being inlined");
+                }
+                case NewNode n -> n.parameters.forEach(p -> scan(p, created));
+                default -> { }
+            }
+        }
+
+        /**
+         * @return true if an inlined call on the local can run without the object
+         */
+        boolean call(CallBinding binding, boolean created) {
+            if (binding.receiverKind != CallBinding.ReceiverKind.LOCAL || binding.receiverClass != type)
+                escape(binding.target.name + "() might run on another class");
+            else if (!created)
+                escape(binding.target.name + "() might be called before it is created");
+            else
+                return true;
+            return false;
+        }
+
+        void returnedInto(List<VariableReferenceNode> returnValues) {
+            for (VariableReferenceNode r : returnValues)
+                if (r.name.equals(name))
+                    escape("a method call returns into it");
+        }
+    }
+
+    /**
+     * @return why the constructor or the inlined calls need the object, or null if they don't
+     */
+    private String problem(Uses uses) {
+        // An OSR copy is only the loop; the rest of the method must not see the local either
+        if (unit.compiled instanceof CompiledLoop loop && mentions(unit.method.statements, uses.name, loop.source))
+            return "it is used outside the loop";
+        Set<String> members = new HashSet<>();
+        for (MemberNode m : uses.type.members)
+            members.add(m.declaration.name);
+        for (AssignmentNode a : uses.allocations) {
+            ConstructorNode constructor = constructor(uses.type, ((NewNode) a.expression).parameters);
+            if (constructor == null)
+                return "the constructor it runs isn't known";
+            Set<String> own = new HashSet<>();
+            constructor.parameters.forEach(vd -> own.add(vd.name));
+            constructor.locals.forEach(vd -> own.add(vd.name));
+            String problem = selfContained(constructor.statements, own, members);
+            if (problem != null)
+                return "its constructor " + problem;
+        }
+        List<InlinedCall> calls = new ArrayList<>();
+        uses.statementCalls.forEach(c -> calls.add(((InlinedCallStatementNode) c).inlined));
+        uses.expressionCalls.forEach(c -> calls.add(((InlinedCallExpressionNode) c).inlined));
+        for (InlinedCall call : calls) {
+            Set<String> own = new HashSet<>(call.parameters);
+            call.fresh.forEach(vd -> own.add(vd.name));
+            String problem = selfContained(call.body, own, members);
+            if (problem != null)
+                return "an inlined call " + problem;
+        }
+        return null;
+    }
+
+    /**
+     * @return what in the statements needs the object itself, or null if nothing does
+     */
+    private String selfContained(List<StatementNode> statements, Set<String> own, Set<String> members) {
+        Set<String> free = new HashSet<>();
+        if (!InliningPass.freeNames(statements, own, free))
+            return "has a loop";
+        for (String name : free)
+            if (!members.contains(name) && unit.findClass(name) == null)
+                return "uses '" + name + "'";
+        if (callsOnSelf(statements))
+            return "calls a method on the object";
+        return null;
+    }
+
+    /**
+     * Pick the constructor the interpreter would run for these arguments, if that can be known now. The interpreter
+     * takes the first one whose parameter types match the argument values.
+     */
+    private ConstructorNode constructor(ClassNode type, List<ExpressionNode> arguments) {
+        for (ConstructorNode c : type.constructors) {
+            if (c.parameters.size() != arguments.size())
+                continue;
+            boolean matches = true;
+            for (int i = 0; i < arguments.size() && matches; i++) {
+                String argument = unit.purity.typeOf(arguments.get(i), unit::declaredType);
+                String parameter = c.parameters.get(i).type;
+                if (argument == null || (!argument.equals(parameter) && !(isBuiltIn(argument) && isBuiltIn(parameter))))
+                    return null;
+                matches = argument.equals(parameter);
+            }
+            if (matches)
+                return c;
+        }
+        return null;
+    }
+
+    private static boolean isBuiltIn(String type) {
+        return switch (type) {
+            case "number", "string", "boolean", "character" -> true;
+            default -> false;
+        };
+    }
+
+    //              Replacement
+
+    private void replace(VariableDeclarationNode local, Uses uses) {
+        String prefix = "$scalar" + nextId++ + "_";
+        Map<String, String> names = new HashMap<>();
+        List<VariableDeclarationNode> fields = new ArrayList<>();
+        for (MemberNode m : uses.type.members) {
+            VariableDeclarationNode field = new VariableDeclarationNode();
+            field.name = prefix + m.declaration.name;
+            field.type = m.declaration.type;
+            names.put(m.declaration.name, field.name);
+            fields.add(field);
+        }
+        unit.compiled.locals.remove(local);
+        unit.compiled.locals.addAll(fields);
+
+        int site = 0;
+        for (AssignmentNode a : uses.allocations) {
+            NewNode n = (NewNode) a.expression;
+            ConstructorNode constructor = constructor(uses.type, n.parameters);
+            String sitePrefix = prefix + "new" + site++ + "_";
+            Map<String, String> constructorNames = new HashMap<>(names);
+            List<String> parameters = new ArrayList<>();
+            for (VariableDeclarationNode vd : constructor.parameters) {
+                constructorNames.put(vd.name, sitePrefix + vd.name);
+                parameters.add(sitePrefix + vd.name);
+            }
+            List<VariableDeclarationNode> fresh = new ArrayList<>();
+            for (VariableDeclarationNode vd : constructor.locals) {
+                VariableDeclarationNode copy = new VariableDeclarationNode();
+                copy.name = sitePrefix + vd.name;
+                copy.type = vd.type;
+                constructorNames.put(vd.name, copy.name);
+                fresh.add(copy);
+            }
+            List<StatementNode> body = new AstCopier(unit.originals).copyStatements(constructor.statements);
+            InliningPass.rename(body, constructorNames);
+            InlinedCall inlined = new InlinedCall(parameters, List.of(), fresh, body, NodeCounter.count(constructor.statements));
+            allocations.put(a, unit.replace(a, new ScalarAllocationNode(local.name, uses.type, fields, n.parameters, inlined)));
+            replaced++;
+        }
+        for (BoundMethodCallStatementNode c : uses.statementCalls)
+            runWithoutObject(c.binding, ((InlinedCallStatementNode) c).inlined, names, b -> c.binding = b);
+        for (BoundMethodCallExpressionNode c : uses.expressionCalls)
+            runWithoutObject(c.binding, ((InlinedCallExpressionNode) c).inlined, names, b -> c.binding = b);
+
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+        allocations.clear();
+    }
+
+    private void runWithoutObject(CallBinding binding, InlinedCall inlined, Map<String, String> names, java.util.function.Consumer<CallBinding> rebind) {
+        InliningPass.rename(inlined.body, names);
+        rebind.accept(new CallBinding(CallBinding.ReceiverKind.NONE, null, binding.target, unit.compiled));
+    }
+
+    @Override
+    protected void rewriteStatement(StatementNode statement, List<StatementNode> out) {
+        rewriteChildren(statement);
+        ScalarAllocationNode replacement = statement instanceof AssignmentNode a ? allocations.get(a) : null;
+        out.add(replacement != null ? replacement : statement);
+    }
+
+    //              Helpers
+
+    private static boolean callsOnSelf(List<StatementNode> statements) {
+        for (StatementNode s : statements) {
+            boolean found = switch (s) {
+                case AssignmentNode a -> callsOnSelf(a.expression);
+                case MethodCallStatementNode mc -> mc.objectName.isEmpty() || mc.parameters.stream().anyMatch(ScalarReplacementPass::callsOnSelf);
+                case IfNode i -> callsOnSelf(i.condition) || callsOnSelf(i.statements)
+                        || (i.elseStatement.isPresent() && callsOnSelf(i.elseStatement.get().statements));
+                default -> false;
+            };
+            if (found)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean callsOnSelf(ExpressionNode e) {
+        return switch (e) {
+            case BooleanOpNode b -> callsOnSelf(b.left) || callsOnSelf(b.right);
+            case CompareNode c -> callsOnSelf(c.left) || callsOnSelf(c.right);
+            case MathOpNode m -> callsOnSelf(m.left) || callsOnSelf(m.right);
+            case NotOpNode n -> callsOnSelf(n.left);
+            case MethodCallExpressionNode mc -> mc.objectName.isEmpty() || mc.parameters.stream().anyMatch(ScalarReplacementPass::callsOnSelf);
+            case NewNode n -> n.parameters.stream().anyMatch(ScalarReplacementPass::callsOnSelf);
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true if any statement other than the skipped loop (or anything inside it) uses the name
+     */
+    private static boolean mentions(List<StatementNode> statements, String name, LoopNode skip) {
+        for (StatementNode s : statements) {
+            switch (s) {
+                case LoopNode l -> {
+                    if (l == skip)
+                        continue;
+                    if ((l.assignment.isPresent() && l.assignment.get().name.equals(name)) || mentions(l.expression, name) || mentions(l.statements, name, skip))
+                        return true;
+                }
+                case IfNode i -> {
+                    if (mentions(i.condition, name) || mentions(i.statements, name, skip)
+                            || (i.elseStatement.isPresent() && mentions(i.elseStatement.get().statements, name, skip)))
+                        return true;
+                }
+                default -> {
+                    Set<String> free = new HashSet<>();
+                    InliningPass.freeNames(List.of(s), Set.of(), free);
+                    if (free.contains(name))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean mentions(ExpressionNode e, String name) {
+        Set<String> free = new HashSet<>();
+        InliningPass.freeNames(e, Set.of(), free);
+        return free.contains(name);
+    }
+}
@@ -0,0 +1,22 @@
+package Optimizer;
+
+import AST.CompareNode;
+import AST.Node;
+
+/**
+ * A comparison that type feedback says only ever compares numbers. The interpreter checks both operands are numbers
+ * before taking the fast path; if not, it invalidates "owner", adds the operands to the feedback of "original" and
+ * does a generic comparison.
+ */
+public class SpecializedCompareNode extends CompareNode {
+    public CompiledMethod owner;
+    public Node original;
+
+    public SpecializedCompareNode(CompareNode c, CompiledMethod owner, Node original) {
+        left = c.left;
+        right = c.right;
+        op = c.op;
+        this.owner = owner;
+        this.original = original;
+    }
+}
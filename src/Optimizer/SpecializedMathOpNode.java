@@ -0,0 +1,26 @@
+package Optimizer;
+
+import AST.MathOpNode;
+import AST.Node;
+
+/**
+ * A math operation that type feedback says only ever sees one kind of operands. The interpreter checks that the
+ * operands really are that kind before taking the fast path; if not, it invalidates "owner", adds the operands to the
+ * feedback of "original" (so the next compile doesn't make the same guess) and does generic math.
+ */
+public class SpecializedMathOpNode extends MathOpNode {
+    public enum Specialization { INTEGRAL, NUMBER, STRING }
+
+    public Specialization specialization;
+    public CompiledMethod owner;
+    public Node original;
+
+    public SpecializedMathOpNode(MathOpNode mop, Specialization specialization, CompiledMethod owner, Node original) {
+        left = mop.left;
+        right = mop.right;
+        op = mop.op;
+        this.specialization = specialization;
+        this.owner = owner;
+        this.original = original;
+    }
+}
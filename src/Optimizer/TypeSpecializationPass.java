@@ -0,0 +1,53 @@
+package Optimizer;
+
+import AST.*;
+import Interpreter.TypeFeedback;
+
+import java.util.List;
+
+/**
+ * Replaces math and compare nodes with specialized versions, based on the operand kinds the interpreter saw.
+ * Nodes that never ran (no feedback) or saw a mix of kinds we have no fast path for are left generic.
+ */
+public class TypeSpecializationPass extends AstRewriter implements OptimizationPass {
+    private CompilationUnit unit;
+
+    @Override
+    public String name() {
+        return "type specialization";
+    }
+
+    @Override
+    public void run(CompilationUnit unit) {
+        this.unit = unit;
+        List<StatementNode> body = rewriteBlock(unit.compiled.statements);
+        unit.compiled.statements.clear();
+        unit.compiled.statements.addAll(body);
+    }
+
+    @Override
+    protected ExpressionNode rewriteExpression(ExpressionNode expression) {
+        rewriteChildren(expression);
+        if (expression instanceof MathOpNode mop && !(expression instanceof SpecializedMathOpNode)) {
+            int kinds = operandKinds(mop);
+            if (kinds == TypeFeedback.INTEGRAL)
+                return unit.replace(mop, new SpecializedMathOpNode(mop, SpecializedMathOpNode.Specialization.INTEGRAL, unit.compiled, unit.original(mop)));
+            if (kinds != 0 && (kinds & ~(TypeFeedback.INTEGRAL | TypeFeedback.FRACTIONAL)) == 0)
+                return unit.replace(mop, new SpecializedMathOpNode(mop, SpecializedMathOpNode.Specialization.NUMBER, unit.compiled, unit.original(mop)));
+            if (kinds == TypeFeedback.STRING && mop.op == MathOpNode.MathOperations.add)
+                return unit.replace(mop, new SpecializedMathOpNode(mop, SpecializedMathOpNode.Specialization.STRING, unit.compiled, unit.original(mop)));
+        }
+        if (expression instanceof CompareNode c && !(expression instanceof SpecializedCompareNode)) {
+            int kinds = operandKinds(c);
+            if (kinds != 0 && (kinds & ~(TypeFeedback.INTEGRAL | TypeFeedback.FRACTIONAL)) == 0)
+                return unit.replace(c, new SpecializedCompareNode(c, unit.compiled, unit.original(c)));
+        }
+        return expression;
+    }
+
+    // Both sides together; we only specialize when the two sides agree anyway
+    private int operandKinds(ExpressionNode copy) {
+        Node original = unit.original(copy);
+        return unit.feedback.getLeftKinds(original) | unit.feedback.getRightKinds(original);
+    }
+}
@@ -0,0 +1,729 @@
+import AST.*;
+import Interpreter.ConsoleWrite;
+import Interpreter.Interpreter;
+import Interpreter.Tiering;
+import Optimizer.BranchLayoutPass;
+import Optimizer.CallBindingPass;
+import Optimizer.CodeMotionPass;
+import Optimizer.CompiledMethod;
+import Optimizer.ConstantFoldingPass;
+import Optimizer.InlinedCallExpressionNode;
+import Optimizer.InlinedCallStatementNode;
+import Optimizer.InliningPass;
+import Optimizer.IntegerCompareNode;
+import Optimizer.IntegerInferencePass;
+import Optimizer.IntegerMathOpNode;
+import Optimizer.MethodCompiler;
+import Optimizer.ScalarAllocationNode;
+import Optimizer.ScalarReplacementPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class OptimizerTests {
+
+    @Test
+    public void constantsAreFolded() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared seconds(number days) : number s
+                    s = days * (60 * 60 * 24)
+                shared greeting() : string g
+                    g = "hello" + " " + "world"
+                shared check() : number b
+                    b = 1
+                    if ! 1 > 2 || 'a' == 'a'
+                        b = 2
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        assertEquals("s = days * 86400.0 \n\n", body(compiler.compile(owner(root, "seconds"), findMethod(root, "seconds"))));
+        assertEquals("g = \"hello world\"\n\n", body(compiler.compile(owner(root, "greeting"), findMethod(root, "greeting"))));
+        assertEquals("b = 1.0 \n\n", body(compiler.compile(owner(root, "check"), findMethod(root, "check"))));
+        ConstantFoldingPass folding = compiler.getPass(ConstantFoldingPass.class).orElseThrow();
+        assertEquals(8, folding.getConstantsFolded());
+        assertEquals(1, folding.getBranchesRemoved());
+        // 60 * 60 * 24 was 5 nodes and the string 5; the condition was 8 nodes, then the if went with its branch
+        assertEquals(4 + 4 + 7 + 5, folding.getNodesRemoved());
+    }
+
+    @Test
+    public void constantBranchesAndDeadAssignmentsAreRemoved() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared pick(number x) : number y
+                    number unused
+                    number alsoUnused
+                    alsoUnused = x * 2
+                    unused = alsoUnused + 1
+                    if 1 > 2
+                        y = 1
+                    else
+                        y = x
+                    if "a" < "b"
+                        y = y + 1
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "pick"), findMethod(root, "pick"));
+        assertEquals("y = x\n\ny = y + 1.0 \n\n", body(compiled));
+        ConstantFoldingPass folding = compiler.getPass(ConstantFoldingPass.class).orElseThrow();
+        assertEquals(2, folding.getBranchesRemoved());
+        assertEquals(2, folding.getAssignmentsRemoved());
+        // the two conditions (2 + 2), the two ifs with the branches that can't run (5 + 2) and the two assignments (5 + 5)
+        assertEquals(2 + 2 + 5 + 2 + 5 + 5, folding.getNodesRemoved());
+    }
+
+    @Test
+    public void sideEffectsAreKept() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared next() : number n
+                    n = 1
+                shared run(boolean flag) : boolean result
+                    number unused
+                    string bad
+                    unused = Program.next()
+                    bad = "a" - "b"
+                    result = flag
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "run"), findMethod(root, "run"));
+        String body = body(compiled);
+        assertTrue(body.contains("Program.next"), body);
+        assertTrue(body.contains("bad = \"a\" - \"b\""), body);
+        assertEquals(0, compiler.getPass(ConstantFoldingPass.class).orElseThrow().getNodesRemoved());
+    }
+
+    @Test
+    public void foldedMethodsBehaveTheSame() throws Exception {
+        String program = """
+            class Program
+                shared day(number d) : number s
+                    number wasted
+                    wasted = d * 2
+                    s = d * 60 * 60 * 24
+                    if 3 > 2 && "x" == "x"
+                        s = s + 0.5
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 10
+                        total = total + Program.day(i)
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode plain = parse(program);
+        Interpreter interpreter = new Interpreter(plain);
+        interpreter.getTiering().setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+
+        TranNode optimized = parse(program);
+        interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(optimized));
+        assertEquals("3888005.0", getConsole(optimized).getFirst());
+        assertTrue(tiering.getCompiler().getPass(ConstantFoldingPass.class).orElseThrow().getNodesRemoved() > 0);
+    }
+
+    @Test
+    public void smallMethodsAreInlined() throws Exception {
+        String program = """
+            class Counter
+                number count
+                construct()
+                    count = 0
+                add(number n)
+                    count = count + n
+                get() : number c
+                    c = count
+            class Program
+                shared bump(number x)
+                    x = x + 1
+                shared start()
+                    Counter c
+                    number i
+                    number total
+                    number bumped
+                    c = new Counter()
+                    i = 0
+                    loop i < 10
+                        c.add(i)
+                        total = total + c.get()
+                        Program.bump(bumped)
+                        i = i + 1
+                    console.write(total)
+                    console.write(bumped)
+            """;
+        TranNode root = parse(program);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        LoopNode loop = (LoopNode) compiler.compile(owner(root, "start"), findMethod(root, "start")).statements.get(2);
+        assertInstanceOf(InlinedCallStatementNode.class, loop.statements.get(0));
+        assertInstanceOf(InlinedCallExpressionNode.class, ((MathOpNode) ((AssignmentNode) loop.statements.get(1)).expression).right);
+        assertInstanceOf(InlinedCallStatementNode.class, loop.statements.get(2));
+        InliningPass inlining = compiler.getPass(InliningPass.class).orElseThrow();
+        assertEquals(3, inlining.getInlinedCount());
+        assertEquals(List.of(
+                "Program.start: Counter.add inlined (5 nodes)",
+                "Program.start: Counter.get inlined (3 nodes)",
+                "Program.start: shared.bump inlined (5 nodes)"), inlining.getReport());
+
+        // start() is compiled before it runs, so every call in the loop is inlined - and a parameter passed by
+        // reference still changes the caller's variable
+        TranNode optimized = parse(program);
+        Interpreter interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(List.of("165.0", "10.0"), getConsole(optimized));
+        assertEquals(1, tiering.getCompilationCount());
+        assertEquals(0, tiering.getDeoptimizationCount());
+    }
+
+    @Test
+    public void inliningHasABudget() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared big(number x) : number y
+                    y = x * x + x * x + x * x + x * x + x * x + x * x
+                shared small(number x) : number y
+                    y = x * 2
+                shared count(number x) : number y
+                    loop x.times()
+                        y = y + 1
+                shared start()
+                    number a
+                    a = Program.big(Program.small(Program.count(3)))
+                    console.write(a)
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        InliningPass inlining = compiler.getPass(InliningPass.class).orElseThrow();
+        compiler.compile(owner(root, "start"), findMethod(root, "start"));
+        assertEquals(List.of(
+                "Program.start: shared.count not inlined, it has a loop",
+                "Program.start: shared.small inlined (5 nodes)",
+                "Program.start: shared.big not inlined, 25 nodes is over the budget of 24"), inlining.getReport());
+        inlining.setSizeBudget(30);
+        inlining.getReport().clear();
+        compiler.compile(owner(root, "start"), findMethod(root, "start"));
+        assertEquals("Program.start: shared.big inlined (25 nodes)", inlining.getReport().getLast());
+    }
+
+    @Test
+    public void interfaceWithOneImplementationIsDevirtualized() throws Exception {
+        String program = """
+            interface Shape
+                area() : number a
+            class Square implements Shape
+                number side
+                construct(number s)
+                    side = s
+                area() : number a
+                    a = side * side
+            class Program
+                shared start()
+                    Shape s
+                    number total
+                    number i
+                    i = 1
+                    loop i < 5
+                        s = new Square(i)
+                        total = total + s.area()
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode root = parse(program);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals("30.0", getConsole(root).getFirst());
+        assertEquals(1, tiering.getCompiler().getPass(CallBindingPass.class).orElseThrow().getHierarchyBindings());
+        assertEquals(List.of("Program.start: Square.area inlined (5 nodes)"), tiering.getCompiler().getPass(InliningPass.class).orElseThrow().getReport());
+    }
+
+    @Test
+    public void inlinedCallFallsBackOnAnotherClass() throws Exception {
+        TranNode root = parse("""
+            interface Shape
+                area() : number a
+            class Square implements Shape
+                number side
+                construct(number s)
+                    side = s
+                area() : number a
+                    a = side * side
+            class Circle implements Shape
+                number radius
+                construct(number r)
+                    radius = r
+                area() : number a
+                    a = radius * radius * 3
+            class Program
+                shared measure(Shape s) : number a
+                    a = 1 + s.area()
+                shared start()
+                    number i
+                    number total
+                    Shape s
+                    i = 1
+                    loop i < 5
+                        s = new Square(i)
+                        total = total + Program.measure(s)
+                        i = i + 1
+                    s = new Circle(2)
+                    total = total + Program.measure(s)
+                    total = total + Program.measure(s)
+                    console.write(total)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(2);
+        interpreter.start();
+        // 1 + 4 + 9 + 16 + 4 more, then 12 + 1 twice
+        assertEquals("60.0", getConsole(root).getFirst());
+        assertEquals(1, tiering.getDeoptimizationCount());
+        assertEquals(List.of("Program.measure: Square.area inlined (5 nodes)"), tiering.getCompiler().getPass(InliningPass.class).orElseThrow().getReport());
+    }
+
+    @Test
+    public void loopInvariantsAreHoisted() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared area(number width, number height) : number total
+                    number i
+                    i = 0
+                    loop i < width * 2
+                        total = total + width * height + Program.square(height)
+                        i = i + 1
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "area"), findMethod(root, "area"));
+        assertEquals("i = 0.0 \n\n$licm0 = width * 2.0 \n\n$licm1 = width * height\n\n$licm2 = Program.square (height,)\n\n"
+                + "loop i < $licm0\ntotal = total + $licm1 + $licm2\n\ni = i + 1.0 \n\n\n", body(compiled));
+        assertEquals(3, compiler.getPass(CodeMotionPass.class).orElseThrow().getHoisted());
+    }
+
+    @Test
+    public void changedMembersAreNotHoisted() throws Exception {
+        TranNode root = parse("""
+            class Counter
+                number count
+                bump()
+                    count = count + 1
+                run(number limit) : number total
+                    number i
+                    i = 0
+                    loop i < limit
+                        total = total + count * 2 + limit * 2
+                        bump()
+                        i = i + 1
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "run"), findMethod(root, "run"));
+        // bump() changes count, so only limit * 2 can move
+        assertTrue(body(compiled).startsWith("i = 0.0 \n\n$licm0 = limit * 2.0 \n\nloop i < limit\ntotal = total + count * 2.0  + $licm0\n"), body(compiled));
+        assertEquals(1, compiler.getPass(CodeMotionPass.class).orElseThrow().getHoisted());
+    }
+
+    @Test
+    public void commonSubexpressionsAreReused() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared change(number x)
+                    x = x + 1
+                shared hypot(number a, number b) : number c
+                    number d
+                    d = a * a + b * b
+                    c = a * a + b * b + d
+                    Program.change(a * b)
+                    Program.change(a * b)
+                    a = a + 1
+                    c = c + a * a
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "hypot"), findMethod(root, "hypot"));
+        // change() assigns to its parameter, so its arguments stay as they are; a * a is different after a changes
+        assertEquals("$cse0 = a * a + b * b\n\nd = $cse0\n\nc = $cse0 + d\n\nProgram.change (a * b,)\nProgram.change (a * b,)\n"
+                + "a = a + 1.0 \n\nc = c + a * a\n\n", body(compiled));
+        assertEquals(1, compiler.getPass(CodeMotionPass.class).orElseThrow().getReused());
+    }
+
+    @Test
+    public void movedCodeBehavesTheSame() throws Exception {
+        String program = """
+            class Counter
+                number count
+                construct()
+                    count = 1
+                bump(number by)
+                    count = count + by
+                run(number limit) : number total
+                    number i
+                    number j
+                    i = 0
+                    loop i < limit
+                        j = 0
+                        loop j < limit * 2
+                            total = total + count * limit + i * limit
+                            j = j + 1
+                        bump(i * limit)
+                        total = total + i * limit
+                        i = i + 1
+            class Program
+                shared start()
+                    Counter c
+                    number total
+                    c = new Counter()
+                    total = c.run(6)
+                    console.write(total)
+            """;
+        TranNode plain = parse(program);
+        Interpreter interpreter = new Interpreter(plain);
+        interpreter.getTiering().setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+
+        TranNode optimized = parse(program);
+        interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(optimized));
+        CodeMotionPass motion = tiering.getCompiler().getPass(CodeMotionPass.class).orElseThrow();
+        assertEquals("10242.0", getConsole(optimized).getFirst());
+        assertTrue(motion.getHoisted() > 0);
+        assertTrue(motion.getReused() > 0);
+    }
+
+    @Test
+    public void objectsThatDontEscapeAreReplaced() throws Exception {
+        String program = """
+            class Point
+                number x
+                number y
+                construct(number a, number b)
+                    x = a
+                    y = b
+                move(number d)
+                    x = x + d
+                lengthSquared() : number l
+                    l = x * x + y * y
+            class Program
+                shared start()
+                    number i
+                    number total
+                    Point p
+                    i = 0
+                    loop i < 10
+                        p = new Point(i, i + 1)
+                        p.move(1)
+                        total = total + p.lengthSquared()
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode plain = parse(program);
+        Interpreter interpreter = new Interpreter(plain);
+        interpreter.getTiering().setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+        assertEquals(10, interpreter.getObjectsCreated());
+
+        TranNode optimized = parse(program);
+        interpreter = new Interpreter(optimized);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(optimized));
+        assertEquals("770.0", getConsole(optimized).getFirst());
+        assertEquals(0, interpreter.getObjectsCreated());
+        assertEquals(10, interpreter.getAllocationsAvoided());
+        ScalarReplacementPass scalar = tiering.getCompiler().getPass(ScalarReplacementPass.class).orElseThrow();
+        assertEquals(List.of("Program.start: Point p replaced by 2 locals"), scalar.getReport());
+
+        LoopNode loop = (LoopNode) tiering.getCompiler().compile(owner(optimized, "start"), findMethod(optimized, "start")).statements.get(1);
+        assertInstanceOf(ScalarAllocationNode.class, loop.statements.getFirst());
+    }
+
+    @Test
+    public void escapingObjectsAreKept() throws Exception {
+        TranNode root = parse("""
+            class Box
+                number value
+                construct(number v)
+                    value = v
+                get() : number v
+                    v = value
+            class Program
+                shared keep(Box b)
+                    console.write(b.get())
+                shared start()
+                    Box passed
+                    Box early
+                    Box copied
+                    Box other
+                    number n
+                    passed = new Box(1)
+                    Program.keep(passed)
+                    n = early.get()
+                    early = new Box(2)
+                    copied = new Box(3)
+                    other = copied
+                    Program.keep(other)
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        compiler.compile(owner(root, "start"), findMethod(root, "start"));
+        assertEquals(List.of(
+                "Program.start: Box passed not replaced, it is used as a value",
+                "Program.start: Box early not replaced, get() might be called before it is created",
+                "Program.start: Box copied not replaced, it is used as a value"), compiler.getPass(ScalarReplacementPass.class).orElseThrow().getReport());
+        assertEquals(0, compiler.getPass(ScalarReplacementPass.class).orElseThrow().getReplacedAllocations());
+    }
+
+    @Test
+    public void wholeNumbersUseLongMath() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared count(number n) : number total
+                    number i
+                    number j
+                    number half
+                    i = 0
+                    loop i < 1000
+                        j = i % 7 * 2
+                        total = total + j
+                        half = i / 2
+                        i = i + 1
+                    total = total + half
+                    loop n.times()
+                        total = total + 1
+            """);
+        MethodCompiler compiler = new Interpreter(root).getTiering().getCompiler();
+        CompiledMethod compiled = compiler.compile(owner(root, "count"), findMethod(root, "count"));
+        LoopNode loop = (LoopNode) compiled.statements.get(1);
+        assertInstanceOf(IntegerCompareNode.class, loop.expression);
+        assertInstanceOf(IntegerMathOpNode.class, ((AssignmentNode) loop.statements.get(0)).expression);
+        // total keeps growing, so it might leave the exact range; i / 2 isn't whole
+        assertFalse(((AssignmentNode) loop.statements.get(1)).expression instanceof IntegerMathOpNode);
+        assertFalse(((AssignmentNode) loop.statements.get(2)).expression instanceof IntegerMathOpNode);
+        assertInstanceOf(IntegerMathOpNode.class, ((AssignmentNode) loop.statements.get(3)).expression);
+        IntegerInferencePass inference = compiler.getPass(IntegerInferencePass.class).orElseThrow();
+        assertEquals(3, inference.getIntegerMathOps());
+        assertEquals(1, inference.getIntegerCompares());
+    }
+
+    @Test
+    public void longMathBehavesTheSame() throws Exception {
+        String program = """
+            class Program
+                shared start()
+                    number i
+                    number z
+                    number total
+                    i = 0
+                    loop i < 20
+                        z = i * (0 - 3)
+                        total = total + z
+                        if i == 0
+                            console.write(z)
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode plain = parse(program);
+        Interpreter interpreter = new Interpreter(plain);
+        interpreter.getTiering().setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+        assertEquals(List.of("-0.0", "-570.0"), getConsole(plain));
+
+        // compiled before start() runs, and compiled part way through the loop (OSR)
+        TranNode compiled = parse(program);
+        interpreter = new Interpreter(compiled);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(compiled));
+
+        TranNode osr = parse(program);
+        interpreter = new Interpreter(osr);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(Integer.MAX_VALUE);
+        tiering.setOsrThreshold(5);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(osr));
+        assertTrue(tiering.getCompiler().getPass(IntegerInferencePass.class).orElseThrow().getIntegerMathOps() > 0);
+    }
+
+    @Test
+    public void timesLoopsBehaveTheSame() throws Exception {
+        String program = """
+            class Program
+                shared start()
+                    number x
+                    number k
+                    number total
+                    x = 6
+                    k = loop x.times()
+                        total = total + k * 2
+                    console.write(total, " ", k)
+                    k = loop (x - 1).times()
+                        total = total + k * 3
+                    console.write(total, " ", k)
+                    k = loop 4.times()
+                        total = total - k * 1
+                    console.write(total, " ", k)
+            """;
+        TranNode plain = parse(program);
+        Interpreter interpreter = new Interpreter(plain);
+        interpreter.getTiering().setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+        assertEquals(List.of("30.0 5.0", "60.0 4.0", "54.0 3.0"), getConsole(plain));
+
+        TranNode compiled = parse(program);
+        interpreter = new Interpreter(compiled);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(compiled));
+        // k is a small whole number inside every one of the loops, so each k * n runs in long math
+        assertEquals(3, interpreter.getTiering().getCompiler().getPass(IntegerInferencePass.class).orElseThrow().getIntegerMathOps());
+
+        TranNode osr = parse(program);
+        interpreter = new Interpreter(osr);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(Integer.MAX_VALUE);
+        tiering.setOsrThreshold(2);
+        interpreter.start();
+        assertEquals(getConsole(plain), getConsole(osr));
+    }
+
+    @Test
+    public void branchProfileLaysOutConditions() throws Exception {
+        String program = """
+            class Program
+                shared weight(number x) : number w
+                    w = x * x * 3 + x * 7 - 11
+                shared pick(number i) : number n
+                    n = 0
+                    if 0 < Program.weight(i) && i % 10 == 0
+                        n = 1
+                    if i < 0
+                        n = Program.weight(i)
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 300
+                        total = total + Program.pick(i)
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode root = parse(program);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setInvocationThreshold(Integer.MAX_VALUE);
+        interpreter.start();
+        assertEquals("29.0", getConsole(root).getFirst());
+
+        CompiledMethod pick = tiering.getCompiler().compile(owner(root, "pick"), findMethod(root, "pick"));
+        // i % 10 == 0 is cheap and usually false, so it goes first
+        IfNode hot = (IfNode) pick.statements.get(1);
+        assertInstanceOf(CompareNode.class, ((BooleanOpNode) hot.condition).left);
+        assertInstanceOf(InlinedCallExpressionNode.class, ((CompareNode) ((BooleanOpNode) hot.condition).right).right);
+        assertEquals(1, tiering.getCompiler().getPass(BranchLayoutPass.class).orElseThrow().getReordered());
+        // i < 0 never happened, so its call isn't worth inlining
+        IfNode cold = (IfNode) pick.statements.get(2);
+        assertFalse(cold.statements.getFirst() instanceof InlinedCallStatementNode);
+        assertEquals(1, tiering.getCompiler().getPass(InliningPass.class).orElseThrow().getColdBlocksSkipped());
+
+        TranNode optimized = parse(program);
+        interpreter = new Interpreter(optimized);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(150);
+        interpreter.start();
+        assertEquals(getConsole(root), getConsole(optimized));
+    }
+
+    @Test
+    public void optimizedTailCallsStayTailCalls() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared isEven(number n) : boolean even
+                    if n == 0
+                        even = true
+                    else
+                        even = Program.isOdd(n - 1)
+                shared isOdd(number n) : boolean odd
+                    if n == 0
+                        odd = false
+                    else
+                        odd = Program.isEven(n - 1)
+                shared start()
+                    boolean even
+                    even = Program.isEven(50001)
+                    console.write(even)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(100);
+        interpreter.start();
+        assertEquals("false", getConsole(root).getFirst());
+        assertEquals(50001, interpreter.getTailCallsRun());
+        assertEquals(2, tiering.getCompilationCount());
+        List<String> report = tiering.getCompiler().getPass(InliningPass.class).orElseThrow().getReport();
+        assertFalse(report.isEmpty());
+        assertTrue(report.stream()
+                .allMatch(line -> line.endsWith("not inlined, it is a tail call that makes a tail call")));
+    }
+
+    private static String body(CompiledMethod compiled) {
+        return Node.statementListToString(compiled.statements);
+    }
+
+    private static ClassNode owner(TranNode root, String method) {
+        for (ClassNode c : root.Classes)
+            if (c.methods.contains(findMethod(root, method)))
+                return c;
+        throw new RuntimeException("Unable to find method " + method);
+    }
+
+    private static MethodDeclarationNode findMethod(TranNode root, String name) {
+        for (ClassNode c : root.Classes)
+            for (MethodDeclarationNode m : c.methods)
+                if (m.name.equals(name))
+                    return m;
+        throw new RuntimeException("Unable to find method " + name);
+    }
+
+    private static List<String> getConsole(TranNode tn) {
+        for (ClassNode c : tn.Classes)
+            if (c.name.equals("console")) {
+                for (MethodDeclarationNode m : c.methods)  {
+                    if (m.name.equals("write")) {
+                        return ((ConsoleWrite)m).console;
+                    }
+                }
+            }
+        throw new RuntimeException("Unable to find console");
+    }
+
+    private static TranNode parse(String program) throws Exception {
+        Lexer l = new Lexer(program);
+        LinkedList<Token> tokens = l.Lex();
+        TranNode root = new TranNode();
+        new Parser(root, tokens).Tran();
+        return root;
+    }
+}
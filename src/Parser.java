@@ -391,6 +391,20 @@ public class Parser {
         return node;
     }
 
+    // NumberMethod = "times" "(" ")" - called on a number that isn't in a variable, written as number.times(receiver)
+    private MethodCallExpressionNode parseNumberMethod(ExpressionNode receiver) throws SyntaxErrorException {
+        Optional<Token> o = tokenManager.matchAndRemove(Token.TokenTypes.WORD);
+        if (o.isEmpty() || !o.get().getValue().equals("times"))
+            throw new SyntaxErrorException("Expected times() after a number", tokenManager.getCurrentLine(), tokenManager.getCurrentColumnNumber());
+        requireLPAREN();
+        requireRPAREN();
+        MethodCallExpressionNode node = new MethodCallExpressionNode();
+        node.objectName = Optional.of("number");
+        node.methodName = "times";
+        node.parameters.add(receiver);
+        return node;
+    }
+
     // Assignment = VariableReference "=" Expression
     private AssignmentNode parseAssignment() throws SyntaxErrorException {
         AssignmentNode node = new AssignmentNode();
@@ -612,12 +626,16 @@ public class Parser {
     }
 
     // Factor = NumberLiteral | VariableReference | "true" | "false" | StringLiteral | CharacterLiteral | MethodCallExpression | "(" Expression ")" | "new" Identifier "(" [Expression {"," Expression }] ")"
+    //          | (NumberLiteral | "(" Expression ")") "." "times" "(" ")"
     private ExpressionNode parseFactor() throws SyntaxErrorException {
         Optional<Token> o;
         o = tokenManager.matchAndRemove(Token.TokenTypes.NUMBER);
         if (o.isPresent()) {
             NumericLiteralNode node = new NumericLiteralNode();
             node.value = Float.parseFloat(o.get().getValue());
+            // The lexer keeps the dot of "5.times()" as part of the number
+            if (o.get().getValue().endsWith(".") && tokenManager.matchPattern(Token.TokenTypes.WORD, Token.TokenTypes.LPAREN))
+                return parseNumberMethod(node);
             return node;
         }
         o = tokenManager.matchAndRemove(Token.TokenTypes.QUOTEDSTRING);
@@ -636,6 +654,8 @@ public class Parser {
         if (o.isPresent()) {
             ExpressionNode node = parseExpression();
             tokenManager.matchAndRemove(Token.TokenTypes.RPAREN);
+            if (tokenManager.matchAndRemove(Token.TokenTypes.DOT).isPresent())
+                return parseNumberMethod(node);
             return node;
         }
         o = tokenManager.matchAndRemove(Token.TokenTypes.NEW);
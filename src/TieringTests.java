@@ -0,0 +1,475 @@
+import AST.*;
+import Interpreter.ConsoleWrite;
+import Interpreter.InlineCache;
+import Interpreter.Interpreter;
+import Interpreter.MethodProfile;
+import Interpreter.ProfileFile;
+import Interpreter.Tiering;
+import Interpreter.TypeFeedback;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedList;
+import java.util.List;
+
+public class TieringTests {
+
+    @Test
+    public void hotMethodIsPromoted() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 10
+                        total = total + Program.square(i)
+                        i = i + 1
+                    console.write(total)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(3);
+        interpreter.start();
+        assertEquals("285.0", getConsole(root).getFirst());
+        MethodProfile square = tiering.getProfile(findMethod(root, "square")).orElseThrow();
+        assertEquals(Tiering.Tier.OPTIMIZED, square.getTier());
+        assertEquals(1, tiering.getCompilationCount());
+        // start() and the first 3 calls of square() are interpreted, the other 7 are optimized
+        assertEquals(4, tiering.getInvocationCount(Tiering.Tier.INTERPRETED));
+        assertEquals(7, tiering.getInvocationCount(Tiering.Tier.OPTIMIZED));
+    }
+
+    @Test
+    public void backEdgesPromoteLongLoops() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared start()
+                    number i
+                    i = 0
+                    loop i < 50
+                        i = i + 1
+                    console.write(i)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setBackEdgeThreshold(20);
+        interpreter.start();
+        assertEquals("50.0", getConsole(root).getFirst());
+        MethodProfile start = tiering.getProfile(findMethod(root, "start")).orElseThrow();
+        assertEquals(50, start.getBackEdges());
+        assertEquals(Tiering.Tier.OPTIMIZED, start.getTier());
+    }
+
+    @Test
+    public void optimizedCallsBehaveTheSame() throws Exception {
+        String program = """
+            class Counter
+                number count
+                construct()
+                    count = 0
+                add(number n) : number total
+                    count = count + n
+                    total = count
+            class Program
+                shared start()
+                    Counter c
+                    number i
+                    number last
+                    c = new Counter()
+                    i = 0
+                    loop i < 6
+                        last = c.add(i)
+                        i = i + 1
+                    console.write(last)
+            """;
+        TranNode root = parse(program);
+        Interpreter interpreter = new Interpreter(root);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(1);
+        interpreter.start();
+        assertEquals("15.0", getConsole(root).getFirst());
+        assertEquals(0, interpreter.getTiering().getDeoptimizationCount());
+    }
+
+    @Test
+    public void longLoopIsReplacedOnStack() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 100
+                        total = total + Program.square(i)
+                        i = i + 1
+                    console.write(total)
+                    console.write(i)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(Integer.MAX_VALUE);
+        tiering.setOsrThreshold(10);
+        interpreter.start();
+        List<String> c = getConsole(root);
+        assertEquals("328350.0", c.get(0));
+        assertEquals("100.0", c.get(1));
+        assertEquals(1, tiering.getOsrCompilationCount());
+        assertEquals(1, tiering.getOsrEntryCount());
+        // start() itself was never promoted - only its loop was
+        assertEquals(Tiering.Tier.INTERPRETED, tiering.getProfile(findMethod(root, "start")).orElseThrow().getTier());
+    }
+
+    @Test
+    public void typeFeedbackShowsPolymorphicSites() throws Exception {
+        TranNode root = parse("""
+            interface Shape
+                area() : number a
+            class Square implements Shape
+                number side
+                construct(number s)
+                    side = s
+                area() : number a
+                    a = side * side
+            class Circle implements Shape
+                number radius
+                construct(number r)
+                    radius = r
+                area() : number a
+                    a = radius * radius * 3.14
+            class Program
+                shared start()
+                    Shape s
+                    number total
+                    number i
+                    i = 0
+                    loop i < 2
+                        if i == 0
+                            s = new Square(2)
+                        else
+                            s = new Circle(1)
+                        total = total + s.area()
+                        i = i + 1
+                    console.write(total)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        interpreter.start();
+        assertEquals("7.1400003", getConsole(root).getFirst());
+        TypeFeedback feedback = interpreter.getTypeFeedback();
+        LoopNode loop = (LoopNode) findMethod(root, "start").statements.get(1);
+        MathOpNode add = (MathOpNode) ((AssignmentNode) loop.statements.get(1)).expression;
+        MethodCallExpressionNode call = (MethodCallExpressionNode) add.right;
+        assertEquals(2, feedback.getReceiverClasses(call).size());
+        assertEquals("Square", feedback.getReceiverClasses(call).get(0).name);
+        assertEquals("Circle", feedback.getReceiverClasses(call).get(1).name);
+        assertTrue(feedback.isPolymorphic(call));
+        // total + s.area() saw 0 + 4, then 4 + 3.14
+        assertEquals(TypeFeedback.INTEGRAL, feedback.getLeftKinds(add));
+        assertEquals(TypeFeedback.INTEGRAL | TypeFeedback.FRACTIONAL, feedback.getRightKinds(add));
+        assertTrue(feedback.isPolymorphic(add));
+        assertEquals(2, feedback.getPolymorphicSites().size());
+    }
+
+    @Test
+    public void failedSpeculationDeoptimizes() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared next(number x) : number y
+                    y = x + 1
+                shared start()
+                    number i
+                    number last
+                    i = 0
+                    loop i < 5
+                        last = Program.next(i)
+                        i = i + 1
+                    last = Program.next(0.5)
+                    console.write(last)
+                    last = Program.next(2)
+                    console.write(last)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setBackgroundCompilation(false);
+        tiering.setInvocationThreshold(2);
+        interpreter.start();
+        List<String> c = getConsole(root);
+        assertEquals("1.5", c.get(0));
+        assertEquals("3.0", c.get(1));
+        assertEquals(1, tiering.getDeoptimizationCount());
+        MethodProfile next = tiering.getProfile(findMethod(root, "next")).orElseThrow();
+        assertEquals(1, next.getDeoptimizations());
+        assertEquals(Tiering.Tier.INTERPRETED, next.getTier());
+        // the re-profiled add now knows it sees fractions too
+        MathOpNode add = (MathOpNode) ((AssignmentNode) findMethod(root, "next").statements.getFirst()).expression;
+        assertTrue(interpreter.getTypeFeedback().isPolymorphic(add));
+    }
+
+    @Test
+    public void genericOperators() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared start()
+                    string a
+                    a = "apple"
+                    console.write(17 % 5)
+                    if a < "banana"
+                        console.write("ordered")
+                    if 'x' == 'x'
+                        console.write("same")
+            """);
+        new Interpreter(root).start();
+        List<String> c = getConsole(root);
+        assertEquals("2.0", c.get(0));
+        assertEquals("ordered", c.get(1));
+        assertEquals("same", c.get(2));
+    }
+
+    @Test
+    public void profileWarmsUpTheNextRun() throws Exception {
+        String program = """
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 10
+                        if i > 6
+                            total = total + Program.square(i)
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode first = parse(program);
+        Interpreter interpreter = new Interpreter(first);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(3);
+        interpreter.start();
+        assertEquals("194.0", getConsole(first).getFirst());
+        StringWriter profile = new StringWriter();
+        interpreter.writeProfile(profile);
+        String[] lines = profile.toString().split("\n");
+        assertEquals("tran-profile 1", lines[0]);
+        List<String> written = List.of(lines);
+        assertTrue(written.contains("operands Program.square(number)#1 integral integral"));
+        assertTrue(written.contains("loop Program.start()#2 1 10"));
+        assertTrue(written.contains("branch Program.start()#6 3 7"));
+        assertTrue(written.contains("method Program.square(number) calls=3 backEdges=0 deopts=0"));
+
+        // A fresh run of the same program starts with square() already compiled
+        TranNode second = parse(program);
+        interpreter = new Interpreter(second);
+        Tiering tiering = interpreter.getTiering();
+        tiering.setInvocationThreshold(3);
+        assertEquals(1, interpreter.loadProfile(new StringReader(profile.toString())));
+        MethodProfile square = tiering.getProfile(findMethod(second, "square")).orElseThrow();
+        assertEquals(Tiering.Tier.OPTIMIZED, square.getTier());
+        interpreter.start();
+        assertEquals("194.0", getConsole(second).getFirst());
+        assertEquals(1, tiering.getProfileCompilationCount());
+        assertEquals(3, tiering.getInvocationCount(Tiering.Tier.OPTIMIZED));
+        assertEquals(0.3, interpreter.getTypeFeedback().getTakenRatio(((LoopNode) findMethod(second, "start").statements.get(1)).statements.get(0)), 0.001);
+    }
+
+    @Test
+    public void staleProfileLinesAreSkipped() throws Exception {
+        TranNode root = parse("""
+            class Program
+                shared start()
+                    console.write(1)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        String profile = """
+            tran-profile 1
+            operands Program.start()#0 integral integral
+            receivers Program.gone()#3 Program
+            loop Program.start()#99 1 10
+            method Program.start() calls=5000 backEdges=0
+            """;
+        ProfileFile file = new ProfileFile(root, interpreter.getTypeFeedback(), interpreter.getTiering());
+        file.read(new StringReader(profile));
+        assertEquals(0, file.getMethodsWarmedUp());
+        // a site of the wrong kind, a method that's gone, a node that's gone, and a method line missing its deopts
+        assertEquals(4, file.getLinesSkipped());
+        assertTrue(interpreter.getTypeFeedback().getSites().isEmpty());
+        interpreter.start();
+        assertEquals("1.0", getConsole(root).getFirst());
+        assertEquals(0, interpreter.getTiering().getCompilationCount());
+        assertThrows(IOException.class, () -> interpreter.loadProfile(new StringReader("not a profile\n")));
+    }
+
+    @Test
+    public void profileOfAnOlderVersionIsSkipped() throws Exception {
+        String older = """
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 10
+                        total = total + Program.square(i)
+                        i = i + 1
+                    console.write(total)
+            """;
+        TranNode first = parse(older);
+        Interpreter interpreter = new Interpreter(first);
+        interpreter.getTiering().setBackgroundCompilation(false);
+        interpreter.getTiering().setInvocationThreshold(3);
+        interpreter.start();
+        StringWriter profile = new StringWriter();
+        interpreter.writeProfile(profile);
+
+        // square() became cube(), so nothing in square() or about it still applies
+        TranNode second = parse(older.replace("square", "cube").replace("y = x * x", "y = x * x * x"));
+        interpreter = new Interpreter(second);
+        interpreter.getTiering().setInvocationThreshold(3);
+        ProfileFile file = new ProfileFile(second, interpreter.getTypeFeedback(), interpreter.getTiering());
+        file.read(new StringReader(profile.toString()));
+        assertEquals(0, file.getMethodsWarmedUp());
+        assertEquals(2, file.getLinesSkipped());
+        assertEquals(0, interpreter.getTiering().getProfileCompilationCount());
+        interpreter.start();
+        assertEquals("2025.0", getConsole(second).getFirst());
+    }
+
+    @Test
+    public void compilerThreadEndsWithTheProgram() throws Exception {
+        String program = """
+            class Program
+                shared square(number x) : number y
+                    y = x * x
+                shared start()
+                    number i
+                    number total
+                    i = 0
+                    loop i < 50
+                        total = total + Program.square(i)
+                        i = i + 1
+                    console.write(total)
+            """;
+        for (int run = 0; run < 5; run++) {
+            Interpreter interpreter = new Interpreter(parse(program));
+            interpreter.getTiering().setInvocationThreshold(3);
+            interpreter.start();
+        }
+        // each interpreter's compiler thread finishes what it was given and ends
+        for (Thread t : Thread.getAllStackTraces().keySet())
+            if (t.getName().equals("tran-compiler")) {
+                t.join(5000);
+                assertFalse(t.isAlive());
+            }
+    }
+
+    @Test
+    public void callSitesCacheTheirMethods() throws Exception {
+        TranNode root = parse("""
+            interface Shape
+                area() : number a
+            class A implements Shape
+                construct()
+                    a = 0
+                number a
+                area() : number a
+                    a = 1
+            class B implements Shape
+                construct()
+                    b = 0
+                number b
+                area() : number a
+                    a = 2
+            class C implements Shape
+                construct()
+                    c = 0
+                number c
+                area() : number a
+                    a = 3
+            class D implements Shape
+                construct()
+                    d = 0
+                number d
+                area() : number a
+                    a = 4
+            class E implements Shape
+                construct()
+                    e = 0
+                number e
+                area() : number a
+                    a = 5
+            class Program
+                shared measure(Shape s) : number a
+                    a = s.area()
+                shared start()
+                    number i
+                    number total
+                    Shape s
+                    i = 0
+                    loop i < 3
+                        s = new A()
+                        total = total + Program.measure(s)
+                        s = new B()
+                        total = total + Program.measure(s)
+                        s = new C()
+                        total = total + Program.measure(s)
+                        s = new D()
+                        total = total + Program.measure(s)
+                        s = new E()
+                        total = total + Program.measure(s)
+                        i = i + 1
+                    console.write(total)
+            """);
+        Interpreter interpreter = new Interpreter(root);
+        interpreter.start();
+        assertEquals("45.0", getConsole(root).getFirst());
+        // s.area() caches A to D, then E makes it megamorphic and has to come from the method tables after that;
+        // each Program.measure(s) and console.write() misses once
+        assertEquals(11, interpreter.getInlineCacheMisses());
+        assertEquals(18, interpreter.getInlineCacheHits());
+        assertEquals(2, interpreter.getMegamorphicLookups());
+        MethodCallStatementNode area = (MethodCallStatementNode) findMethod(root, "measure").statements.getFirst();
+        assertEquals(InlineCache.State.MEGAMORPHIC, interpreter.getInlineCache(area).orElseThrow().getState());
+        AssignmentNode first = (AssignmentNode) ((LoopNode) findMethod(root, "start").statements.get(1)).statements.get(1);
+        assertEquals(InlineCache.State.MONOMORPHIC, interpreter.getInlineCache(((MathOpNode) first.expression).right).orElseThrow().getState());
+    }
+
+    private static MethodDeclarationNode findMethod(TranNode root, String name) {
+        for (ClassNode c : root.Classes)
+            for (MethodDeclarationNode m : c.methods)
+                if (m.name.equals(name))
+                    return m;
+        throw new RuntimeException("Unable to find method " + name);
+    }
+
+    private static List<String> getConsole(TranNode tn) {
+        for (ClassNode c : tn.Classes)
+            if (c.name.equals("console")) {
+                for (MethodDeclarationNode m : c.methods)  {
+                    if (m.name.equals("write")) {
+                        return ((ConsoleWrite)m).console;
+                    }
+                }
+            }
+        throw new RuntimeException("Unable to find console");
+    }
+
+    private static TranNode parse(String program) throws Exception {
+        Lexer l = new Lexer(program);
+        LinkedList<Token> tokens = l.Lex();
+        TranNode root = new TranNode();
+        new Parser(root, tokens).Tran();
+        return root;
+    }
+}